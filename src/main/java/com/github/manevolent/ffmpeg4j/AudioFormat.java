@@ -1,14 +1,27 @@
 package com.github.manevolent.ffmpeg4j;
 
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacpp.BytePointer;
+
 public class AudioFormat {
     private final int sampleRate;
     private final int channels;
     private final long channel_layout;
+    private final int sampleFormat;
 
     public AudioFormat(int sampleRate, int channels, long channel_layout) {
+        this(sampleRate, channels, channel_layout, avutil.AV_SAMPLE_FMT_FLT);
+    }
+
+    /**
+     * Creates an audio format.
+     * @param sampleFormat FFmpeg sample format (i.e. AV_SAMPLE_FMT_FLT, AV_SAMPLE_FMT_S16).
+     */
+    public AudioFormat(int sampleRate, int channels, long channel_layout, int sampleFormat) {
         this.sampleRate = sampleRate;
         this.channels = channels;
         this.channel_layout = channel_layout;
+        this.sampleFormat = sampleFormat;
     }
 
     public int getSampleRate() {
@@ -19,15 +32,30 @@ public class AudioFormat {
         return channels;
     }
 
+    /**
+     * Gets the FFmpeg sample format (i.e. AV_SAMPLE_FMT_FLT) of samples in this format.
+     */
+    public int getSampleFormat() {
+        return sampleFormat;
+    }
+
     @Override
     public String toString() {
-        return Integer.toString(sampleRate) + "Hz, " + Integer.toString(channels) + "ch";
+        BytePointer sampleFormatName = avutil.av_get_sample_fmt_name(sampleFormat);
+        return Integer.toString(sampleRate) + "Hz, " + Integer.toString(channels) + "ch, " +
+                (sampleFormatName != null ? sampleFormatName.getString() : Integer.toString(sampleFormat));
+    }
+
+    @Override
+    public int hashCode() {
+        return (sampleRate * 31 + channels) * 31 + sampleFormat;
     }
 
     @Override
     public boolean equals(Object b) {
         return b != null && b instanceof AudioFormat && ((AudioFormat) b).channels == channels
-                && ((AudioFormat) b).sampleRate == sampleRate;
+                && ((AudioFormat) b).sampleRate == sampleRate
+                && ((AudioFormat) b).sampleFormat == sampleFormat;
     }
 
     public long getChannelLayout() {
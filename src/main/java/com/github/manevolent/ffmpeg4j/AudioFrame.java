@@ -1,10 +1,13 @@
 package com.github.manevolent.ffmpeg4j;
 
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
+
 public class AudioFrame extends MediaFrame {
     private final float[] samples;
     private final int length;
 
     private final AudioFormat format;
+    private final FrameBufferPool pool;
 
     public AudioFrame(double timestamp, double position, double time,
                          float[] samples, AudioFormat format) {
@@ -13,10 +16,19 @@ public class AudioFrame extends MediaFrame {
 
     public AudioFrame(double timestamp, double position, double time,
                       float[] samples, int length, AudioFormat format) {
+        this(timestamp, position, time, samples, length, format, null);
+    }
+
+    /**
+     * Creates a frame whose samples came from a pool, and are returned to it once the frame is released.
+     */
+    public AudioFrame(double timestamp, double position, double time,
+                      float[] samples, int length, AudioFormat format, FrameBufferPool pool) {
         super(position, time, timestamp);
         this.samples = samples;
         this.length = length;
         this.format = format;
+        this.pool = pool;
     }
 
     /**
@@ -33,4 +45,9 @@ public class AudioFrame extends MediaFrame {
     public int getLength() {
         return length;
     }
+
+    @Override
+    protected void deallocate() {
+        if (pool != null && samples != null) pool.recycle(samples);
+    }
 }
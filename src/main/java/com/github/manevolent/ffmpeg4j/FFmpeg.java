@@ -230,4 +230,47 @@ public final class FFmpeg {
     public static double timestampToSeconds(AVRational timebase, long timestamp) {
         return (double) timestamp * Rational.fromAVRational(timebase).toDouble();
     }
+
+    /**
+     * Gets the number of lines in a plane of an image.  Chroma planes of subsampled formats (i.e. YUV420P) have fewer
+     * lines than the image is high.
+     * @param pixelFormat FFmpeg pixel format.
+     * @param height image height, in pixels.
+     * @param plane plane index (0-indexed)
+     */
+    public static int getPlaneHeight(int pixelFormat, int height, int plane) {
+        AVPixFmtDescriptor descriptor = avutil.av_pix_fmt_desc_get(pixelFormat);
+
+        if (plane == 1 && (descriptor.flags() & avutil.AV_PIX_FMT_FLAG_PAL) == avutil.AV_PIX_FMT_FLAG_PAL)
+            return 1; // 256 entry palette (1024 bytes) on a single "line"
+
+        // Chroma planes are subsampled vertically (AV_CEIL_RSHIFT)
+        if (plane == 1 || plane == 2)
+            return -((-height) >> descriptor.log2_chroma_h());
+
+        return height;
+    }
+
+    /**
+     * Copies a frame's pixel data into a native buffer, and points the planes of an AVFrame at it, keeping the frame's
+     * line sizes (and so any padding it has).  The AVFrame's format and dimensions are not changed.
+     * @param videoFrame frame to copy.
+     * @param buffer native buffer, at least videoFrame.getData().length bytes long.
+     * @param frame frame whose data and linesize arrays are set.
+     */
+    public static void fillPlanes(VideoFrame videoFrame, BytePointer buffer, AVFrame frame) {
+        byte[] data = videoFrame.getData();
+        buffer.position(0).put(data, 0, data.length);
+
+        int planeCount = videoFrame.getPlaneCount();
+        for (int plane = 0; plane < AVFrame.AV_NUM_DATA_POINTERS; plane++) {
+            if (plane < planeCount) {
+                frame.data(plane, buffer.getPointer(videoFrame.getPlaneOffset(plane)));
+                frame.linesize(plane, videoFrame.getLineSize(plane));
+            } else {
+                frame.data(plane, null);
+                frame.linesize(plane, 0);
+            }
+        }
+    }
 }
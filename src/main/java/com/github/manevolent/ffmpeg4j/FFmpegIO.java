@@ -13,6 +13,7 @@ import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 // http://www.codeproject.com/Tips/489450/Creating-Custom-FFmpeg-IO-Context
@@ -51,6 +52,7 @@ public final class FFmpegIO implements AutoCloseable {
          */
         public boolean open = true;
         public Function<Long, Long> seek;
+        public Supplier<Long> size;
 
         public int num_ops = 0, total = 0;
 
@@ -104,6 +106,10 @@ public final class FFmpegIO implements AutoCloseable {
         public long seek(long position) {
             return seek.apply(position);
         }
+
+        public long size() {
+            return size == null ? -1L : size.get();
+        }
     }
 
     private static final Object ioLock = new Object();
@@ -226,26 +232,47 @@ public final class FFmpegIO implements AutoCloseable {
                 public long call(org.bytedeco.javacpp.Pointer pointer,
                                 long position,
                                 int whence) {
-                    switch (whence) {
+                    switch (whence & ~avformat.AVSEEK_FORCE) {
                         case 0:
                             break;
+                        case 2: // SEEK_END
+                            try {
+                                IntPointer ioStatePtr = new IntPointer(pointer);
+                                IOState state = IO_STATE_REGISTRY[ioStatePtr.get()];
+                                if (state == null || !state.open) throw new NullPointerException();
+
+                                long size = state.size();
+                                if (size < 0) return -1;
+                                position += size;
+                            } catch (Throwable e) {
+                                Logging.LOGGER.log(Level.WARNING, "problem in FFmpeg IO seek", e);
+                                return -1;
+                            }
+                            break;
                         case avformat.AVSEEK_SIZE:
                             /**
                              * Passing this as the "whence" parameter to a seek function causes it to
                              * return the filesize without seeking anywhere. Supporting this is optional.
                              * If it is not supported then the seek function will return <0.
                              */
-                            // Not supported
-                            return -1;
-                        case avformat.AVSEEK_FORCE:
+                            try {
+                                IntPointer ioStatePtr = new IntPointer(pointer);
+                                IOState state = IO_STATE_REGISTRY[ioStatePtr.get()];
+                                if (state == null || !state.open) throw new NullPointerException();
+
+                                return state.size();
+                            } catch (Throwable e) {
+                                Logging.LOGGER.log(Level.WARNING, "problem in FFmpeg IO seek", e);
+                                return -1;
+                            }
+                        default:
                             /**
-                              * Oring this flag as into the "whence" parameter to a seek function causes it to
-                              * seek by any means (like reopening and linear reading) or other normally unreasonable
-                              * means that can be extremely slow.
-                              * This may be ignored by the seek code.
+                              * AVSEEK_FORCE may be or'd into the "whence" parameter to a seek function to cause it
+                              * to seek by any means (like reopening and linear reading) or other normally
+                              * unreasonable means that can be extremely slow.  It is ignored above.
                               */
-                            // Ignore
-                            break;
+                            // SEEK_CUR is never passed down by avio_seek, and nothing else is supported.
+                            return -1;
                     }
 
                     try {
@@ -371,6 +398,77 @@ public final class FFmpegIO implements AutoCloseable {
         }
     }
 
+    public static FFmpegInput openInputChannel(final SeekableByteChannel channel) throws FFmpegException {
+        return openInputChannel(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a custom AVIOContext for reading based around the managed channel provided. Unlike openInputStream, this
+     * context will be seekable, which allows FFmpegSourceStream.seekToKeyframe() to be used.
+     * @param channel Channel instance to have FFmpeg read from.
+     * @param bufferSize buffer size of the input.
+     * @return FFmpegInput instance which points to the channel provided.
+     */
+    public static FFmpegInput openInputChannel(final SeekableByteChannel channel, final int bufferSize)
+            throws FFmpegException {
+        Objects.requireNonNull(channel, "Channel cannot be null");
+
+        synchronized (ioLock) {
+            // Lock an IOSTATE
+            int ioStateId = allocateIOStateId();
+
+            // Open the underlying AVIOContext.
+            Pointer internalBufferPointer = avutil.av_malloc(bufferSize);
+
+            final AVIOContext context = avformat.avio_alloc_context(
+                    new BytePointer(internalBufferPointer).capacity(bufferSize), bufferSize, // internal Buffer and its size
+                    0,
+                    null,
+                    read,
+                    null,
+                    seek
+            );
+
+            //Returns Allocated AVIOContext or NULL on failure.
+            if (context == null) throw new NullPointerException();
+
+            context.seekable(avformat.AVIO_SEEKABLE_NORMAL);
+
+            IntPointer intPointer = new IntPointer(avutil.av_malloc(4));
+            intPointer.put(ioStateId);
+
+            context.opaque(intPointer);
+            context.write_flag(0);
+
+            IOState state = new IOState(ioStateId, context,
+                    Channels.newInputStream(channel),
+                    null,
+                    internalBufferPointer,
+                    (pos) -> {
+                        try {
+                            channel.position(pos);
+                            return channel.position();
+                        } catch (IOException e) {
+                            return -1L;
+                        }
+                    }
+            );
+
+            state.size = () -> {
+                try {
+                    return channel.size();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+
+            setIOState(ioStateId, state);
+
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "opened input channel state id=" + ioStateId);
+            return new FFmpegInput(new FFmpegIO(context, state));
+        }
+    }
+
     public static FFmpegOutput openOutput(File file, int bufferSize) throws IOException, FFmpegException {
         return openOutputStream(Files.newOutputStream(file.toPath()), bufferSize);
     }
@@ -480,6 +578,14 @@ public final class FFmpegIO implements AutoCloseable {
                     }
             );
 
+            state.size = () -> {
+                try {
+                    return channel.size();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            };
+
             setIOState(ioStateId, state);
 
             Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "opened output state id=" + ioStateId);
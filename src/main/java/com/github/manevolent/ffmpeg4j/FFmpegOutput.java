@@ -19,6 +19,12 @@ import java.util.logging.Level;
  * Represents the native input functionality for FFmpeg, at the container level (mp4, flv, etc).
  */
 public class FFmpegOutput implements AutoCloseable, FFmpegFormatContext {
+    /**
+     * mp4 "movflags" for fragmented output: an empty moov up front, then a moof/mdat fragment starting at each
+     * keyframe, with offsets relative to the fragment, so the muxer never seeks back.
+     */
+    public static final String FRAGMENTED_MP4_FLAGS = "frag_keyframe+empty_moov+default_base_moof";
+
     private static final Object openLock = new Object();
     private final AVFormatContext formatContext;
     private final FFmpegIO io;
@@ -61,12 +67,62 @@ public class FFmpegOutput implements AutoCloseable, FFmpegFormatContext {
         return open(FFmpeg.getOutputFormatByName(formatName));
     }
 
+    /**
+     * Opens the output for the format, muxing packets through the given packet output.
+     * @param formatName Container or raw format name ("flv", "mp4", etc.)
+     * @param packetOutput How packets are handed to the muxer (see FFmpegTargetStream.FFmpegNativeOutput,
+     *                     FFmpegDirectOutput and FFmpegBatchedOutput).
+     * @throws RuntimeException
+     */
+    public FFmpegTargetStream open(String formatName, FFmpegTargetStream.FFmpegPacketOutput packetOutput)
+            throws FFmpegException {
+        return open(FFmpeg.getOutputFormatByName(formatName), packetOutput);
+    }
+
+    /**
+     * Opens the output as fragmented mp4, with a fragment starting at each keyframe.  Fragmented mp4 is written
+     * front to back and only holds one fragment in memory, so unlike plain mp4 it can be written to an OutputStream
+     * (see FFmpegIO.openOutputStream) and played while it is being written.
+     * @throws RuntimeException
+     */
+    public FFmpegTargetStream openFragmentedMp4() throws FFmpegException {
+        return openFragmentedMp4(0D);
+    }
+
+    /**
+     * Opens the output as fragmented mp4 (see openFragmentedMp4()).
+     * @param fragmentDuration minimum duration of a fragment, in seconds; a fragment ends at the first keyframe after
+     *                         this.  0 starts a fragment at every keyframe.
+     * @throws RuntimeException
+     */
+    public FFmpegTargetStream openFragmentedMp4(double fragmentDuration) throws FFmpegException {
+        if (fragmentDuration < 0D) throw new IllegalArgumentException("fragmentDuration < 0: " + fragmentDuration);
+
+        FFmpegTargetStream targetStream = open("mp4");
+        targetStream.setMuxerOption("movflags", FRAGMENTED_MP4_FLAGS);
+        if (fragmentDuration > 0D)
+            targetStream.setMuxerOption("min_frag_duration", Long.toString((long) (fragmentDuration * 1_000_000D)));
+
+        return targetStream;
+    }
+
     /**
      * Opens the output for the format.
      * @param outputFormat Input format context
      * @throws RuntimeException
      */
     public FFmpegTargetStream open(AVOutputFormat outputFormat) throws FFmpegException {
+        return open(outputFormat, new FFmpegTargetStream.FFmpegNativeOutput());
+    }
+
+    /**
+     * Opens the output for the format, muxing packets through the given packet output.
+     * @param outputFormat Input format context
+     * @param packetOutput How packets are handed to the muxer.
+     * @throws RuntimeException
+     */
+    public FFmpegTargetStream open(AVOutputFormat outputFormat, FFmpegTargetStream.FFmpegPacketOutput packetOutput)
+            throws FFmpegException {
         // Open the input format.
         FFmpegError.checkError(
                 "avformat_alloc_output_context2",
@@ -80,7 +136,7 @@ public class FFmpegOutput implements AutoCloseable, FFmpegFormatContext {
 
         opened = true;
 
-        return new FFmpegTargetStream(formatContext, io, new FFmpegTargetStream.FFmpegNativeOutput());
+        return new FFmpegTargetStream(formatContext, io, packetOutput);
     }
 
     /**
@@ -0,0 +1,238 @@
+package com.github.manevolent.ffmpeg4j;
+
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+import org.bytedeco.javacpp.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A video frame whose pixels stay in native memory, held by a reference to the buffers of an FFmpeg AVFrame (see
+ * av_frame_ref).  Planes are exposed as direct ByteBuffers, and the frame can be handed to an encoder or filter
+ * without its pixels ever being copied onto the Java heap.  Native planes are read with getNativePlane(), and have
+ * their own line sizes (getNativeLineSize()).  The rest of the VideoFrame API (getData(), getPlane(), getLineSize()
+ * and getPlaneOffset()) is still supported, and describes a packed copy of the frame, made the first time it is
+ * needed.
+ *
+ * Frames should be released with release() (or try-with-resources) as soon as they are no longer needed, so the
+ * decoder can re-use their buffers.  The native reference is dropped once the last retain() is matched by a release().
+ * If a frame is garbage collected without being released, its reference is dropped by JavaCPP's deallocator thread
+ * instead.
+ */
+public class FFmpegVideoFrame extends VideoFrame implements AutoCloseable {
+    private final FrameReference frame;
+    private final Object dataLock = new Object();
+
+    private byte[] data;
+
+    private FFmpegVideoFrame(double timestamp, double position, double time, FrameReference frame) {
+        super(timestamp, position, time, frame.format(), frame.width(), frame.height());
+
+        this.frame = frame;
+    }
+
+    /**
+     * Creates a frame holding a new reference to the buffers of an existing AVFrame.  The source frame is not
+     * modified, and keeps its own reference; if it isn't reference counted, its pixels are copied.
+     * @param timestamp encoding timestamp.
+     * @param position position of the frame in the stream, in seconds.
+     * @param time duration of the frame, in seconds.
+     * @param source frame to reference.
+     * @throws FFmpegException
+     */
+    public FFmpegVideoFrame(double timestamp, double position, double time, AVFrame source) throws FFmpegException {
+        this(timestamp, position, time, reference(source));
+    }
+
+    private static FrameReference reference(AVFrame source) throws FFmpegException {
+        FrameReference frame = new FrameReference();
+
+        try {
+            FFmpegError.checkError("av_frame_ref", avutil.av_frame_ref(frame, source));
+        } catch (FFmpegException ex) {
+            frame.deallocate();
+            throw ex;
+        }
+
+        return frame;
+    }
+
+    /**
+     * Allocates a new frame with its own, uninitialized, native buffers.
+     * @param timestamp encoding timestamp.
+     * @param position position of the frame in the stream, in seconds.
+     * @param time duration of the frame, in seconds.
+     * @param format FFmpeg pixel format.
+     * @param width width, in pixels.
+     * @param height height, in pixels.
+     * @return allocated frame.
+     * @throws FFmpegException
+     */
+    public static FFmpegVideoFrame allocate(double timestamp, double position, double time,
+                                            int format, int width, int height) throws FFmpegException {
+        FrameReference frame = new FrameReference();
+        frame.format(format);
+        frame.width(width);
+        frame.height(height);
+
+        try {
+            FFmpegError.checkError("av_frame_get_buffer", avutil.av_frame_get_buffer(frame, 0));
+        } catch (FFmpegException ex) {
+            frame.deallocate();
+            throw ex;
+        }
+
+        return new FFmpegVideoFrame(timestamp, position, time, frame);
+    }
+
+    /**
+     * Gets the native frame backing this video frame.  The AVFrame remains owned by this object, and must not be
+     * used after the frame is released.
+     * @return native frame.
+     */
+    public AVFrame getAVFrame() {
+        checkReleased();
+
+        return frame;
+    }
+
+    /**
+     * Gets the size, in bytes, of one line of a plane of the native frame, including any padding.  This describes
+     * getNativePlane(), not getData(), which is packed (see getLineSize()).
+     * @param plane plane index (0-indexed)
+     */
+    public int getNativeLineSize(int plane) {
+        checkReleased();
+
+        if (plane < 0 || plane >= getPlaneCount())
+            throw new IndexOutOfBoundsException("plane " + plane);
+
+        return frame.linesize(plane);
+    }
+
+    /**
+     * Gets a plane of the frame as a direct buffer over the native memory, without copying it.  The buffer is only
+     * valid until the frame is released.
+     * @param plane plane index (0-indexed)
+     * @return plane buffer, getNativeLineSize(plane) bytes per line.
+     */
+    public ByteBuffer getNativePlane(int plane) {
+        int lineSize = getNativeLineSize(plane);
+
+        BytePointer pointer = frame.data(plane);
+        return pointer.capacity((long) lineSize * getPlaneHeight(plane)).asByteBuffer();
+    }
+
+    /**
+     * Copies the frame into a packed byte array, the first time it is called.  The copy has no line padding, and is
+     * laid out as getLineSize() and getPlaneOffset() describe, like any other packed frame.  Prefer getNativePlane()
+     * or getAVFrame() where possible.
+     */
+    @Override
+    public byte[] getData() {
+        synchronized (dataLock) {
+            if (data == null) {
+                checkReleased();
+
+                int size = avutil.av_image_get_buffer_size(getFormat(), getWidth(), getHeight(), 1);
+                if (size < 0) throw new IllegalStateException("av_image_get_buffer_size: " + size);
+
+                BytePointer buffer = new BytePointer(size);
+                try {
+                    int ret = avutil.av_image_copy_to_buffer(
+                            buffer, size,
+                            frame.data(), frame.linesize(),
+                            getFormat(), getWidth(), getHeight(),
+                            1
+                    );
+
+                    if (ret < 0) throw new IllegalStateException("av_image_copy_to_buffer: " + ret);
+
+                    data = new byte[size];
+                    buffer.position(0).get(data, 0, size);
+                } finally {
+                    buffer.deallocate();
+                }
+            }
+
+            return data;
+        }
+    }
+
+    /**
+     * Creates a new frame sharing this frame's native buffers.  Both frames must be released independently.  Unlike
+     * retain(), which adds a reference to this same object, the new frame has its own AVFrame.
+     * @return new reference to this frame.
+     * @throws FFmpegException
+     */
+    public FFmpegVideoFrame ref() throws FFmpegException {
+        checkReleased();
+
+        return new FFmpegVideoFrame(getTimestamp(), getPosition(), getTime(), reference(frame));
+    }
+
+    @Override
+    public FFmpegVideoFrame retain() {
+        super.retain();
+        return this;
+    }
+
+    /**
+     * Finds if the frame's native buffers are still writable, that is, this frame holds the only reference to them.
+     */
+    public boolean isWritable() {
+        checkReleased();
+
+        return avutil.av_frame_is_writable(frame) != 0;
+    }
+
+    public boolean isReleased() {
+        return getReferenceCount() <= 0;
+    }
+
+    /**
+     * Drops this frame's reference to its native buffers.  The buffers themselves are freed once every frame
+     * referencing them has been released.
+     */
+    @Override
+    protected void deallocate() {
+        frame.deallocate();
+    }
+
+    /**
+     * Releases one reference to this frame.  Unlike release(), closing a frame that has already been released has
+     * no effect.
+     */
+    @Override
+    public void close() {
+        if (!isReleased()) release();
+    }
+
+    private void checkReleased() {
+        if (isReleased()) throw new IllegalStateException("frame already released");
+    }
+
+    /**
+     * An AVFrame that frees itself (av_frame_free) when deallocated, either explicitly or by the garbage collector.
+     */
+    private static final class FrameReference extends AVFrame {
+        private FrameReference() {
+            super(avutil.av_frame_alloc());
+
+            if (isNull()) throw new NullPointerException("av_frame_alloc");
+
+            deallocator(new FrameDeallocator(this));
+        }
+
+        private static final class FrameDeallocator extends AVFrame implements Deallocator {
+            private FrameDeallocator(AVFrame frame) {
+                super(frame);
+            }
+
+            @Override
+            public void deallocate() {
+                avutil.av_frame_free(this);
+            }
+        }
+    }
+}
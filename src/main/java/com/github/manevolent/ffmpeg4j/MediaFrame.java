@@ -1,10 +1,22 @@
 package com.github.manevolent.ffmpeg4j;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base class for decoded media.  Frames are reference counted: a new frame has a reference count of 1, retain()
+ * adds a reference and release() removes one.  When the last reference is released, the frame's buffers are handed
+ * back to where they came from (a FrameBufferPool, or native memory) and the frame must no longer be used.
+ *
+ * Releasing frames is optional for frames backed by ordinary arrays (they are garbage collected as usual), but is
+ * what allows buffers to be re-used.
+ */
 public abstract class MediaFrame {
     private final double timestamp;
     private final double position;
     private final double time;
 
+    private final AtomicInteger referenceCount = new AtomicInteger(1);
+
     protected MediaFrame(double position, double time, double timestamp) {
         this.position = position;
         this.timestamp = timestamp;
@@ -32,4 +44,50 @@ public abstract class MediaFrame {
     public double getTimestamp() {
         return timestamp;
     }
+
+    /**
+     * Gets the number of outstanding references to this frame.  0 means the frame has been released.
+     */
+    public int getReferenceCount() {
+        return referenceCount.get();
+    }
+
+    /**
+     * Adds a reference to this frame, which must later be released with release().
+     * @return this frame.
+     */
+    public MediaFrame retain() {
+        for (;;) {
+            int count = referenceCount.get();
+            if (count <= 0) throw new IllegalStateException("frame already released");
+            if (referenceCount.compareAndSet(count, count + 1)) return this;
+        }
+    }
+
+    /**
+     * Removes a reference to this frame.  Once the last reference is removed, the frame's buffers are recycled.
+     * @return true if this was the last reference and the frame was deallocated, false otherwise.
+     */
+    public boolean release() {
+        for (;;) {
+            int count = referenceCount.get();
+            if (count <= 0) throw new IllegalStateException("frame already released");
+
+            if (referenceCount.compareAndSet(count, count - 1)) {
+                if (count == 1) {
+                    deallocate();
+                    return true;
+                }
+
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Called once the last reference to this frame has been released.
+     */
+    protected void deallocate() {
+        // Nothing to free by default
+    }
 }
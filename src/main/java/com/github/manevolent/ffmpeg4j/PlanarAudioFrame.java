@@ -0,0 +1,84 @@
+package com.github.manevolent.ffmpeg4j;
+
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
+
+/**
+ * An audio frame holding float samples with one array per channel (AV_SAMPLE_FMT_FLTP), as produced by audio
+ * substreams and resample filters configured for that sample format.  Per-channel processing (gain, EQ, peak
+ * detection) can work on the planes directly, and target substreams consume them without interleaving.
+ *
+ * getSamples() still works, so these frames can be passed to anything that expects interleaved samples, but it
+ * interleaves the whole frame on first use; use getPlanes() to avoid that.
+ */
+public class PlanarAudioFrame extends AudioFrame {
+    private final float[][] planes;
+    private final int samplesPerChannel;
+    private final FrameBufferPool pool;
+    private float[] interleavedSamples;
+
+    public PlanarAudioFrame(double timestamp, double position, double time,
+                            float[][] planes, int samplesPerChannel, AudioFormat format) {
+        this(timestamp, position, time, planes, samplesPerChannel, format, null);
+    }
+
+    /**
+     * Creates a frame whose planes came from a pool, and are returned to it once the frame is released.
+     * @param planes one array of samples per channel, each at least samplesPerChannel long.
+     */
+    public PlanarAudioFrame(double timestamp, double position, double time,
+                            float[][] planes, int samplesPerChannel, AudioFormat format, FrameBufferPool pool) {
+        super(timestamp, position, time, null, samplesPerChannel * planes.length, format, null);
+        this.planes = planes;
+        this.samplesPerChannel = samplesPerChannel;
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the samples in this frame, one array per channel.  Arrays may be longer than getSamplesPerChannel().
+     */
+    public float[][] getPlanes() {
+        return planes;
+    }
+
+    /**
+     * Gets the samples of one channel in this frame.
+     */
+    public float[] getPlane(int channel) {
+        return planes[channel];
+    }
+
+    /**
+     * Gets the number of samples in each plane; getLength() is this times the channel count.
+     */
+    public int getSamplesPerChannel() {
+        return samplesPerChannel;
+    }
+
+    /**
+     * Gets the samples in this frame, in PCM interleaved format.  The frame is interleaved once, on the first call.
+     */
+    @Override
+    public synchronized float[] getSamples() {
+        if (interleavedSamples == null) {
+            int channels = planes.length;
+            float[] interleavedSamples = pool != null ? pool.allocateFloats(getLength()) : new float[getLength()];
+            for (int channel = 0; channel < channels; channel++) {
+                float[] plane = planes[channel];
+                for (int i = 0, j = channel; i < samplesPerChannel; i++, j += channels)
+                    interleavedSamples[j] = plane[i];
+            }
+            this.interleavedSamples = interleavedSamples;
+        }
+
+        return interleavedSamples;
+    }
+
+    @Override
+    protected synchronized void deallocate() {
+        if (pool != null) {
+            for (float[] plane : planes)
+                if (plane != null) pool.recycle(plane);
+            if (interleavedSamples != null) pool.recycle(interleavedSamples);
+        }
+    }
+}
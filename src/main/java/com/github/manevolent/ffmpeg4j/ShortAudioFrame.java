@@ -0,0 +1,65 @@
+package com.github.manevolent.ffmpeg4j;
+
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
+
+/**
+ * An audio frame holding signed 16-bit (AV_SAMPLE_FMT_S16) interleaved samples, as produced by audio substreams
+ * configured for that sample format.
+ *
+ * getSamples() still works, so these frames can be passed to anything that expects float samples (i.e. filters and
+ * target substreams), but it converts the whole frame on first use; use getShortSamples() to avoid that.
+ */
+public class ShortAudioFrame extends AudioFrame {
+    private static final float SCALE = 1F / 32768F;
+
+    private final short[] samples;
+    private final FrameBufferPool pool;
+    private float[] floatSamples;
+
+    public ShortAudioFrame(double timestamp, double position, double time,
+                           short[] samples, int length, AudioFormat format) {
+        this(timestamp, position, time, samples, length, format, null);
+    }
+
+    /**
+     * Creates a frame whose samples came from a pool, and are returned to it once the frame is released.
+     */
+    public ShortAudioFrame(double timestamp, double position, double time,
+                           short[] samples, int length, AudioFormat format, FrameBufferPool pool) {
+        super(timestamp, position, time, null, length, format, null);
+        this.samples = samples;
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the samples in this frame, in PCM interleaved format.
+     */
+    public short[] getShortSamples() {
+        return samples;
+    }
+
+    /**
+     * Gets the samples in this frame converted to floats between -1 and 1, in PCM interleaved format.  The conversion
+     * is done once, on the first call.
+     */
+    @Override
+    public synchronized float[] getSamples() {
+        if (floatSamples == null) {
+            int length = getLength();
+            float[] floatSamples = pool != null ? pool.allocateFloats(length) : new float[length];
+            for (int i = 0; i < length; i++)
+                floatSamples[i] = samples[i] * SCALE;
+            this.floatSamples = floatSamples;
+        }
+
+        return floatSamples;
+    }
+
+    @Override
+    protected synchronized void deallocate() {
+        if (pool != null) {
+            if (samples != null) pool.recycle(samples);
+            if (floatSamples != null) pool.recycle(floatSamples);
+        }
+    }
+}
@@ -1,13 +1,45 @@
 package com.github.manevolent.ffmpeg4j;
 
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A decoded video frame.  The pixel data is a single byte array holding every plane of the frame (one for packed
+ * formats like RGB24, three for planar formats like YUV420P), one after the other.  Each plane starts at
+ * getPlaneOffset(plane) and has getLineSize(plane) bytes per line, which may include padding after the visible
+ * pixels.  Frames created without an explicit layout are packed: no padding, planes laid out the way
+ * av_image_fill_arrays() lays them out with an alignment of 1.
+ */
 public class VideoFrame extends MediaFrame {
     //private static final int FIELDS = 3;
     private final int format;
     private final int width, height;
     private final byte[] data;
+    private final FrameBufferPool pool;
+
+    // Plane layout of data; computed on first use for packed frames
+    private int[] lineSizes, planeOffsets;
+
+    /**
+     * Creates a frame whose pixel data is provided by a subclass overriding getData().
+     */
+    protected VideoFrame(double timestamp, double position, double time,
+                         int format, int width, int height) {
+        this(timestamp, position, time, format, width, height, null);
+    }
 
     public VideoFrame(double timestamp, double position, double time,
                       int format, int width, int height, byte[] frameData) {
+        this(timestamp, position, time, format, width, height, frameData, null);
+    }
+
+    /**
+     * Creates a frame whose pixel data came from a pool, and is returned to it once the frame is released.
+     */
+    public VideoFrame(double timestamp, double position, double time,
+                      int format, int width, int height, byte[] frameData, FrameBufferPool pool) {
         super(position, time, timestamp);
 
         this.format = format;
@@ -15,6 +47,30 @@ public class VideoFrame extends MediaFrame {
         this.width = width;
         this.height = height;
         this.data = frameData;
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a frame with an explicit plane layout, i.e. one whose lines are padded for alignment.
+     * @param lineSizes bytes per line of each plane, including padding.
+     * @param planeOffsets offset of each plane in frameData.
+     * @param pool pool frameData came from, or null.
+     */
+    public VideoFrame(double timestamp, double position, double time,
+                      int format, int width, int height, byte[] frameData,
+                      int[] lineSizes, int[] planeOffsets, FrameBufferPool pool) {
+        this(timestamp, position, time, format, width, height, frameData, pool);
+
+        int planeCount = avutil.av_pix_fmt_count_planes(format);
+        if (lineSizes.length < planeCount || planeOffsets.length < planeCount)
+            throw new IllegalArgumentException("layout must describe " + planeCount + " planes");
+
+        for (int plane = 0; plane < planeCount; plane++)
+            if ((long) planeOffsets[plane] + (long) lineSizes[plane] * getPlaneHeight(plane) > frameData.length)
+                throw new IllegalArgumentException("plane " + plane + " exceeds frame data");
+
+        this.lineSizes = lineSizes.clone();
+        this.planeOffsets = planeOffsets.clone();
     }
 
     /**private int addr(int x, int y, int offs) {
@@ -63,10 +119,100 @@ public class VideoFrame extends MediaFrame {
         return rgb;
     }**/
 
+    /**
+     * Gets the pixel data for this frame, laid out as described by getLineSize() and getPlaneOffset().
+     * @return pixel data.
+     */
     public byte[] getData() {
         return data;
     }
 
+    /**
+     * Gets the number of planes in the frame (i.e. 1 for RGB24, 3 for YUV420P).
+     */
+    public int getPlaneCount() {
+        return avutil.av_pix_fmt_count_planes(getFormat());
+    }
+
+    /**
+     * Gets the size, in bytes, of one line of a plane, including any padding.
+     * @param plane plane index (0-indexed)
+     */
+    public int getLineSize(int plane) {
+        checkPlane(plane);
+        computeLayout();
+
+        return lineSizes[plane];
+    }
+
+    /**
+     * Gets the offset of a plane within the array returned by getData().
+     * @param plane plane index (0-indexed)
+     */
+    public int getPlaneOffset(int plane) {
+        checkPlane(plane);
+        computeLayout();
+
+        return planeOffsets[plane];
+    }
+
+    /**
+     * Gets the number of lines in a plane.  Chroma planes of subsampled formats (i.e. YUV420P) have fewer lines than
+     * the frame is high.
+     * @param plane plane index (0-indexed)
+     */
+    public int getPlaneHeight(int plane) {
+        return FFmpeg.getPlaneHeight(getFormat(), getHeight(), plane);
+    }
+
+    /**
+     * Gets a plane of the frame.  The buffer covers getPlaneHeight(plane) lines of getLineSize(plane) bytes each, and
+     * shares its contents with the frame.
+     * @param plane plane index (0-indexed)
+     * @return plane buffer.
+     */
+    public ByteBuffer getPlane(int plane) {
+        return ByteBuffer.wrap(getData(), getPlaneOffset(plane), getLineSize(plane) * getPlaneHeight(plane)).slice();
+    }
+
+    private void checkPlane(int plane) {
+        if (plane < 0 || plane >= getPlaneCount())
+            throw new IndexOutOfBoundsException("plane " + plane);
+    }
+
+    /**
+     * Computes the packed layout of a frame created without an explicit one.
+     */
+    private void computeLayout() {
+        if (lineSizes != null) return;
+
+        int[] packedLineSizes = new int[4];
+        int ret = avutil.av_image_fill_linesizes(packedLineSizes, getFormat(), getWidth());
+        if (ret < 0) throw new IllegalStateException("av_image_fill_linesizes: " + ret);
+
+        int planeCount = getPlaneCount();
+        int[] packedOffsets = new int[planeCount];
+        int offset = 0;
+
+        for (int plane = 0; plane < planeCount; plane++) {
+            if (plane == 1 && packedLineSizes[1] == 0) {
+                packedLineSizes[1] = 256 * 4; // palette
+                offset = (offset + 3) & ~3;
+            }
+
+            packedOffsets[plane] = offset;
+            offset += packedLineSizes[plane] * getPlaneHeight(plane);
+        }
+
+        planeOffsets = packedOffsets;
+        lineSizes = packedLineSizes;
+    }
+
+    @Override
+    protected void deallocate() {
+        if (pool != null && data != null) pool.recycle(data);
+    }
+
     public int getWidth() {
         return width;
     }
@@ -0,0 +1,298 @@
+package com.github.manevolent.ffmpeg4j.analysis;
+
+import com.github.manevolent.ffmpeg4j.FFmpeg;
+import com.github.manevolent.ffmpeg4j.FFmpegException;
+import com.github.manevolent.ffmpeg4j.Logging;
+import com.github.manevolent.ffmpeg4j.math.Rational;
+import com.github.manevolent.ffmpeg4j.stream.source.FFmpegSourceStream;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avformat.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Walks every packet in a container and collects statistics about it (bitrate over time, GOP structure, packet sizes,
+ * timestamp discontinuities) without decoding anything.  Packets are read with av_read_frame through
+ * FFmpegSourceStream.readRawPacket(), so the source stream's substreams are never registered and no decoders are
+ * opened; analysis runs as fast as the container can be demuxed.
+ *
+ * Bitrates are measured over the stream as it plays: where its timestamps jump (further than the gap threshold, or a
+ * bucket), the buckets carry on from before the jump, which is reported as a discontinuity instead.
+ *
+ * The source stream is consumed by the analyzer; it should not be read from afterwards.
+ */
+public class FFmpegPacketAnalyzer {
+    /**
+     * Default length of each bitrate bucket, in seconds.
+     */
+    public static final double DEFAULT_BUCKET_DURATION = 1D;
+
+    /**
+     * Default forward DTS jump, in seconds, above which a gap is reported.
+     */
+    public static final double DEFAULT_GAP_THRESHOLD = 1D;
+
+    // Packets past this many buckets (194 days, at the default bucket duration) are left out of the bitrates
+    private static final long MAXIMUM_BUCKETS = 1L << 24;
+
+    private final FFmpegSourceStream sourceStream;
+
+    private double bucketDuration = DEFAULT_BUCKET_DURATION;
+    private double gapThreshold = DEFAULT_GAP_THRESHOLD;
+
+    public FFmpegPacketAnalyzer(FFmpegSourceStream sourceStream) {
+        this.sourceStream = sourceStream;
+    }
+
+    public double getBucketDuration() {
+        return bucketDuration;
+    }
+
+    /**
+     * Sets the length of each bucket used to measure bitrate over time.
+     * @param bucketDuration bucket length, in seconds.
+     */
+    public void setBucketDuration(double bucketDuration) {
+        if (bucketDuration <= 0D) throw new IllegalArgumentException("bucketDuration must be positive");
+        this.bucketDuration = bucketDuration;
+    }
+
+    public double getGapThreshold() {
+        return gapThreshold;
+    }
+
+    /**
+     * Sets how far forward the DTS of a packet may jump past the end of the previous packet in the same stream before
+     * it is reported as a gap.
+     * @param gapThreshold threshold, in seconds.
+     */
+    public void setGapThreshold(double gapThreshold) {
+        if (gapThreshold < 0D) throw new IllegalArgumentException("gapThreshold must not be negative");
+        this.gapThreshold = gapThreshold;
+    }
+
+    /**
+     * Reads the rest of the container and produces a report for it.
+     * @return report covering every packet read.
+     * @throws FFmpegException
+     */
+    public MediaReport analyze() throws FFmpegException {
+        AVFormatContext formatContext = sourceStream.getFormatContext();
+        int stream_count = formatContext.nb_streams();
+
+        StreamAnalysis[] analyses = new StreamAnalysis[stream_count];
+        for (int stream_index = 0; stream_index < stream_count; stream_index++)
+            analyses[stream_index] = new StreamAnalysis(stream_index, formatContext.streams(stream_index));
+
+        AVPacket packet = avcodec.av_packet_alloc();
+        if (packet == null) throw new NullPointerException("av_packet_alloc");
+
+        try {
+            while (sourceStream.readRawPacket(packet)) {
+                try {
+                    int stream_index = packet.stream_index();
+                    if (stream_index >= 0 && stream_index < stream_count)
+                        analyses[stream_index].accept(packet);
+                } finally {
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+        } finally {
+            avcodec.av_packet_free(packet);
+        }
+
+        List<StreamReport> streamReports = new ArrayList<>(stream_count);
+        for (StreamAnalysis analysis : analyses)
+            streamReports.add(analysis.toReport());
+
+        double containerDuration = formatContext.duration() == avutil.AV_NOPTS_VALUE ? -1D :
+                (double) formatContext.duration() / (double) avutil.AV_TIME_BASE;
+
+        AVInputFormat inputFormat = formatContext.iformat();
+        String formatName = inputFormat == null || inputFormat.isNull() ? null : inputFormat.name().getString();
+
+        MediaReport report = new MediaReport(formatName, containerDuration, streamReports);
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "analyzed " + report.getPacketCount() + " packets in " +
+                stream_count + " streams");
+
+        return report;
+    }
+
+    /**
+     * Running statistics for one stream.
+     */
+    private class StreamAnalysis {
+        private final int index;
+        private final int codecType;
+        private final String codecName;
+        private final AVRational timeBase;
+
+        private long packetCount = 0, totalBytes = 0, keyframeCount = 0;
+
+        private double startTime = Double.MAX_VALUE, endTime = -Double.MAX_VALUE;
+
+        private double bucketOrigin = Double.NaN, lastBucketTime = Double.NaN;
+        private long[] bucketBytes = new long[64];
+        private int bucketCount = 0;
+
+        private int[] gopLengths = new int[16];
+        private int gopCount = 0;
+        private int currentGopLength = 0;
+
+        private double lastKeyframeTime = Double.NaN;
+        private double keyframeIntervalSum = 0D, maximumKeyframeInterval = 0D;
+        private long keyframeIntervalCount = 0;
+
+        private int minimumPacketSize = Integer.MAX_VALUE, maximumPacketSize = 0;
+        private final long[] packetSizeHistogram = new long[32];
+
+        private long lastDts = avutil.AV_NOPTS_VALUE, lastDuration = 0;
+        private final List<TimestampDiscontinuity> discontinuities = new ArrayList<>();
+
+        private StreamAnalysis(int index, AVStream stream) {
+            this.index = index;
+            this.codecType = stream.codecpar().codec_type();
+            this.codecName = avcodec.avcodec_get_name(stream.codecpar().codec_id()).getString();
+            this.timeBase = stream.time_base();
+        }
+
+        private void accept(AVPacket packet) {
+            long packetNumber = packetCount++;
+            int size = packet.size();
+            boolean keyframe = (packet.flags() & avcodec.AV_PKT_FLAG_KEY) == avcodec.AV_PKT_FLAG_KEY;
+
+            totalBytes += size;
+            minimumPacketSize = Math.min(minimumPacketSize, size);
+            maximumPacketSize = Math.max(maximumPacketSize, size);
+            packetSizeHistogram[size <= 1 ? 0 : 31 - Integer.numberOfLeadingZeros(size)]++;
+
+            long pts = packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+            double duration = FFmpeg.timestampToSeconds(timeBase, Math.max(0L, packet.duration()));
+
+            if (pts != avutil.AV_NOPTS_VALUE) {
+                double time = FFmpeg.timestampToSeconds(timeBase, pts);
+                startTime = Math.min(startTime, time);
+                endTime = Math.max(endTime, time + duration);
+
+                if (Double.isNaN(bucketOrigin))
+                    bucketOrigin = time;
+                else if (Math.abs(time - lastBucketTime) > Math.max(gapThreshold, bucketDuration))
+                    // A discontinuity (i.e. a timestamp wrap, or a broken pts): the buckets carry on from where the
+                    // stream was, instead of spanning the jump
+                    bucketOrigin += time - lastBucketTime;
+
+                lastBucketTime = time;
+                addToBucket((long) Math.floor((time - bucketOrigin) / bucketDuration), size);
+
+                if (keyframe) {
+                    if (!Double.isNaN(lastKeyframeTime)) {
+                        double interval = time - lastKeyframeTime;
+                        keyframeIntervalSum += interval;
+                        keyframeIntervalCount++;
+                        maximumKeyframeInterval = Math.max(maximumKeyframeInterval, interval);
+                    }
+
+                    lastKeyframeTime = time;
+                }
+            }
+
+            if (keyframe) {
+                keyframeCount++;
+
+                if (currentGopLength > 0) addGop(currentGopLength);
+                currentGopLength = 0;
+            }
+
+            currentGopLength++;
+
+            checkTimestamps(packetNumber, packet);
+        }
+
+        private void checkTimestamps(long packetNumber, AVPacket packet) {
+            long dts = packet.dts();
+
+            if (dts == avutil.AV_NOPTS_VALUE) {
+                double expected = lastDts == avutil.AV_NOPTS_VALUE ? Double.NaN :
+                        FFmpeg.timestampToSeconds(timeBase, lastDts + lastDuration);
+
+                discontinuities.add(new TimestampDiscontinuity(index, packetNumber,
+                        TimestampDiscontinuity.Type.MISSING, expected, Double.NaN));
+
+                return;
+            }
+
+            if (lastDts != avutil.AV_NOPTS_VALUE) {
+                long expectedDts = lastDts + lastDuration;
+                double expected = FFmpeg.timestampToSeconds(timeBase, expectedDts);
+                double actual = FFmpeg.timestampToSeconds(timeBase, dts);
+
+                if (dts <= lastDts)
+                    discontinuities.add(new TimestampDiscontinuity(index, packetNumber,
+                            TimestampDiscontinuity.Type.NON_MONOTONIC, expected, actual));
+                else if (actual - expected > gapThreshold)
+                    discontinuities.add(new TimestampDiscontinuity(index, packetNumber,
+                            TimestampDiscontinuity.Type.GAP, expected, actual));
+            }
+
+            lastDts = dts;
+            lastDuration = Math.max(0L, packet.duration());
+        }
+
+        private void addToBucket(long position, int size) {
+            if (position >= MAXIMUM_BUCKETS) return;
+            int bucket = (int) Math.max(0L, position);
+
+            if (bucket >= bucketBytes.length)
+                bucketBytes = Arrays.copyOf(bucketBytes,
+                        (int) Math.min(MAXIMUM_BUCKETS, Math.max(bucketBytes.length * 2L, bucket + 1L)));
+
+            bucketBytes[bucket] += size;
+            bucketCount = Math.max(bucketCount, bucket + 1);
+        }
+
+        private void addGop(int length) {
+            if (gopCount >= gopLengths.length)
+                gopLengths = Arrays.copyOf(gopLengths, gopLengths.length * 2);
+
+            gopLengths[gopCount++] = length;
+        }
+
+        private StreamReport toReport() {
+            // Close off the final GOP, which ends with the stream.
+            if (codecType == avutil.AVMEDIA_TYPE_VIDEO && currentGopLength > 0 && keyframeCount > 0)
+                addGop(currentGopLength);
+
+            double[] bitrates = new double[bucketCount];
+            for (int i = 0; i < bucketCount; i++)
+                bitrates[i] = (double) bucketBytes[i] * 8D / bucketDuration;
+
+            boolean empty = packetCount <= 0 || startTime > endTime;
+
+            return new StreamReport(
+                    index,
+                    codecType,
+                    codecName,
+                    Rational.fromAVRational(timeBase),
+                    packetCount,
+                    totalBytes,
+                    keyframeCount,
+                    empty ? 0D : startTime,
+                    empty ? 0D : endTime,
+                    bucketDuration,
+                    bitrates,
+                    codecType == avutil.AVMEDIA_TYPE_VIDEO ? Arrays.copyOf(gopLengths, gopCount) : new int[0],
+                    keyframeIntervalCount > 0 ? keyframeIntervalSum / (double) keyframeIntervalCount : 0D,
+                    maximumKeyframeInterval,
+                    packetCount > 0 ? minimumPacketSize : 0,
+                    maximumPacketSize,
+                    packetSizeHistogram.clone(),
+                    discontinuities
+            );
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.manevolent.ffmpeg4j.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Packet-level statistics for a whole container, as produced by FFmpegPacketAnalyzer.
+ */
+public class MediaReport {
+    private final String formatName;
+    private final double containerDuration;
+    private final List<StreamReport> streams;
+
+    public MediaReport(String formatName, double containerDuration, List<StreamReport> streams) {
+        this.formatName = formatName;
+        this.containerDuration = containerDuration;
+        this.streams = Collections.unmodifiableList(streams);
+    }
+
+    /**
+     * Gets the name of the demuxer that read the container ("mov,mp4,m4a,3gp,3g2,mj2", "ogg", etc.)
+     */
+    public String getFormatName() {
+        return formatName;
+    }
+
+    /**
+     * Gets the duration declared by the container header, or -1 if the container didn't declare one.
+     */
+    public double getContainerDuration() {
+        return containerDuration;
+    }
+
+    /**
+     * Gets the duration measured from the packets themselves: from the earliest packet start to the latest packet
+     * end, across all streams.
+     */
+    public double getDuration() {
+        double start = Double.MAX_VALUE, end = -Double.MAX_VALUE;
+
+        for (StreamReport stream : streams) {
+            if (stream.getPacketCount() <= 0) continue;
+            start = Math.min(start, stream.getStartTime());
+            end = Math.max(end, stream.getEndTime());
+        }
+
+        return end > start ? end - start : 0D;
+    }
+
+    public long getPacketCount() {
+        long count = 0;
+        for (StreamReport stream : streams) count += stream.getPacketCount();
+        return count;
+    }
+
+    public long getTotalBytes() {
+        long bytes = 0;
+        for (StreamReport stream : streams) bytes += stream.getTotalBytes();
+        return bytes;
+    }
+
+    /**
+     * Gets the average bitrate of all streams combined, in bits per second.
+     */
+    public double getAverageBitrate() {
+        double duration = getDuration();
+        if (duration <= 0D) return 0D;
+        return (double) getTotalBytes() * 8D / duration;
+    }
+
+    public List<StreamReport> getStreams() {
+        return streams;
+    }
+
+    /**
+     * Gets the report for a stream by its index in the container.
+     */
+    public StreamReport getStream(int index) {
+        for (StreamReport stream : streams)
+            if (stream.getIndex() == index) return stream;
+
+        throw new IllegalArgumentException("no stream with index " + index);
+    }
+
+    /**
+     * Gets the timestamp discontinuities found in all streams.
+     */
+    public List<TimestampDiscontinuity> getDiscontinuities() {
+        List<TimestampDiscontinuity> discontinuities = new ArrayList<>();
+        for (StreamReport stream : streams) discontinuities.addAll(stream.getDiscontinuities());
+        return discontinuities;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(formatName).append(": ").append(getDuration()).append("s, ")
+                .append(getPacketCount()).append(" packets, ")
+                .append(getTotalBytes()).append(" bytes, ")
+                .append((long) getAverageBitrate()).append(" bps");
+
+        for (StreamReport stream : streams)
+            builder.append(System.lineSeparator()).append("  ").append(stream);
+
+        return builder.toString();
+    }
+}
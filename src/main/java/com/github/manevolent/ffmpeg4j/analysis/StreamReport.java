@@ -0,0 +1,214 @@
+package com.github.manevolent.ffmpeg4j.analysis;
+
+import com.github.manevolent.ffmpeg4j.MediaType;
+import com.github.manevolent.ffmpeg4j.math.Rational;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Packet-level statistics for a single stream in a container, as produced by FFmpegPacketAnalyzer.  All timestamps
+ * and durations are in seconds, and all bitrates are in bits per second.
+ */
+public class StreamReport {
+    private final int index;
+    private final int codecType;
+    private final String codecName;
+    private final Rational timeBase;
+
+    private final long packetCount;
+    private final long totalBytes;
+    private final long keyframeCount;
+
+    private final double startTime, endTime;
+
+    private final double bucketDuration;
+    private final double[] bitrates;
+
+    private final int[] gopLengths;
+    private final double averageKeyframeInterval, maximumKeyframeInterval;
+
+    private final int minimumPacketSize, maximumPacketSize;
+    private final long[] packetSizeHistogram;
+
+    private final List<TimestampDiscontinuity> discontinuities;
+
+    public StreamReport(int index, int codecType, String codecName, Rational timeBase,
+                        long packetCount, long totalBytes, long keyframeCount,
+                        double startTime, double endTime,
+                        double bucketDuration, double[] bitrates,
+                        int[] gopLengths, double averageKeyframeInterval, double maximumKeyframeInterval,
+                        int minimumPacketSize, int maximumPacketSize, long[] packetSizeHistogram,
+                        List<TimestampDiscontinuity> discontinuities) {
+        this.index = index;
+        this.codecType = codecType;
+        this.codecName = codecName;
+        this.timeBase = timeBase;
+        this.packetCount = packetCount;
+        this.totalBytes = totalBytes;
+        this.keyframeCount = keyframeCount;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.bucketDuration = bucketDuration;
+        this.bitrates = bitrates;
+        this.gopLengths = gopLengths;
+        this.averageKeyframeInterval = averageKeyframeInterval;
+        this.maximumKeyframeInterval = maximumKeyframeInterval;
+        this.minimumPacketSize = minimumPacketSize;
+        this.maximumPacketSize = maximumPacketSize;
+        this.packetSizeHistogram = packetSizeHistogram;
+        this.discontinuities = Collections.unmodifiableList(discontinuities);
+    }
+
+    /**
+     * Gets the index of the stream in the container.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the FFmpeg media type of the stream (AVMEDIA_TYPE_VIDEO, AVMEDIA_TYPE_AUDIO, etc.)
+     */
+    public int getCodecType() {
+        return codecType;
+    }
+
+    /**
+     * Gets the media type of the stream, or null if the stream is neither audio nor video (subtitles, data, etc.)
+     */
+    public MediaType getMediaType() {
+        switch (codecType) {
+            case avutil.AVMEDIA_TYPE_AUDIO:
+                return MediaType.AUDIO;
+            case avutil.AVMEDIA_TYPE_VIDEO:
+                return MediaType.VIDEO;
+            default:
+                return null;
+        }
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public Rational getTimeBase() {
+        return timeBase;
+    }
+
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getKeyframeCount() {
+        return keyframeCount;
+    }
+
+    /**
+     * Gets the presentation time of the earliest packet in the stream.
+     */
+    public double getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Gets the presentation time at which the last packet in the stream ends.
+     */
+    public double getEndTime() {
+        return endTime;
+    }
+
+    public double getDuration() {
+        return Math.max(0D, endTime - startTime);
+    }
+
+    /**
+     * Gets the average bitrate of the stream over its whole duration.
+     */
+    public double getAverageBitrate() {
+        double duration = getDuration();
+        if (duration <= 0D) return 0D;
+        return (double) totalBytes * 8D / duration;
+    }
+
+    /**
+     * Gets the length of each bucket returned by getBitrates().
+     */
+    public double getBucketDuration() {
+        return bucketDuration;
+    }
+
+    /**
+     * Gets the bitrate of the stream over time.  Element i covers the period starting i * getBucketDuration()
+     * seconds after the first packet in the stream, not counting any jumps in its timestamps (see
+     * getDiscontinuities()).
+     */
+    public double[] getBitrates() {
+        return bitrates.clone();
+    }
+
+    public double getPeakBitrate() {
+        double peak = 0D;
+        for (double bitrate : bitrates) peak = Math.max(peak, bitrate);
+        return peak;
+    }
+
+    /**
+     * Gets the length of each group of pictures, in packets, in stream order.  Only video streams have GOPs; this is
+     * empty for other stream types.  The last GOP is included even though it may have been cut short by the end of
+     * the stream.
+     */
+    public int[] getGopLengths() {
+        return gopLengths.clone();
+    }
+
+    /**
+     * Gets the average time between two consecutive keyframes, or 0 if the stream had fewer than two keyframes.
+     */
+    public double getAverageKeyframeInterval() {
+        return averageKeyframeInterval;
+    }
+
+    /**
+     * Gets the longest time between two consecutive keyframes, or 0 if the stream had fewer than two keyframes.
+     */
+    public double getMaximumKeyframeInterval() {
+        return maximumKeyframeInterval;
+    }
+
+    public int getMinimumPacketSize() {
+        return minimumPacketSize;
+    }
+
+    public int getMaximumPacketSize() {
+        return maximumPacketSize;
+    }
+
+    public double getAveragePacketSize() {
+        if (packetCount <= 0) return 0D;
+        return (double) totalBytes / (double) packetCount;
+    }
+
+    /**
+     * Gets the packet size distribution.  Element i counts packets with sizes in [2^i, 2^(i+1)) bytes; element 0 also
+     * counts empty packets.
+     */
+    public long[] getPacketSizeHistogram() {
+        return packetSizeHistogram.clone();
+    }
+
+    public List<TimestampDiscontinuity> getDiscontinuities() {
+        return discontinuities;
+    }
+
+    @Override
+    public String toString() {
+        return "stream " + index + " (" + codecName + "): " + packetCount + " packets, " + totalBytes + " bytes, " +
+                keyframeCount + " keyframes, " + (long) getAverageBitrate() + " bps";
+    }
+}
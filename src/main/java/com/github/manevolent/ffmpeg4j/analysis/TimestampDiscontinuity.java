@@ -0,0 +1,81 @@
+package com.github.manevolent.ffmpeg4j.analysis;
+
+/**
+ * Describes a point in a stream where the decode timestamps (DTS) of two consecutive packets did not follow on from
+ * each other.
+ */
+public class TimestampDiscontinuity {
+    private final int streamIndex;
+    private final long packetNumber;
+    private final Type type;
+    private final double expectedTimestamp;
+    private final double timestamp;
+
+    public TimestampDiscontinuity(int streamIndex, long packetNumber, Type type,
+                                  double expectedTimestamp, double timestamp) {
+        this.streamIndex = streamIndex;
+        this.packetNumber = packetNumber;
+        this.type = type;
+        this.expectedTimestamp = expectedTimestamp;
+        this.timestamp = timestamp;
+    }
+
+    public int getStreamIndex() {
+        return streamIndex;
+    }
+
+    /**
+     * Gets the number of the packet at which the discontinuity was found, counted from 0 within its stream.
+     */
+    public long getPacketNumber() {
+        return packetNumber;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the timestamp the packet was expected to have (previous DTS plus previous duration), in seconds.
+     */
+    public double getExpectedTimestamp() {
+        return expectedTimestamp;
+    }
+
+    /**
+     * Gets the timestamp the packet actually had, in seconds.
+     */
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the size of the jump, in seconds.  Negative values mean the timestamps went backwards.
+     */
+    public double getDelta() {
+        return timestamp - expectedTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return type + " in stream " + streamIndex + " at packet " + packetNumber +
+                ": expected " + expectedTimestamp + "s, got " + timestamp + "s";
+    }
+
+    public enum Type {
+        /**
+         * The DTS did not increase (it was equal to, or before, the previous DTS in the same stream).
+         */
+        NON_MONOTONIC,
+
+        /**
+         * The DTS jumped forward further than the configured gap threshold.
+         */
+        GAP,
+
+        /**
+         * The packet had no DTS at all.
+         */
+        MISSING
+    }
+}
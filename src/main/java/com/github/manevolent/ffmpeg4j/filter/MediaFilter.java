@@ -6,8 +6,18 @@ import java.util.Collection;
 import java.util.Collections;
 
 public abstract class MediaFilter<T extends MediaFrame> implements AutoCloseable {
+    /**
+     * Filters a frame.  The caller keeps its reference to the source frame, and owns one reference to each frame
+     * returned (see MediaFrame.release()).  A filter that passes its source frame through, or returns the same frame
+     * more than once, must retain() it for each time it is returned.
+     * @param source frame to filter.
+     * @return filtered frames, possibly empty.
+     */
     public abstract Collection<T> apply(T source);
 
+    /**
+     * Emits any frames held back by the filter.  The caller owns one reference to each frame returned.
+     */
     public Collection<T> flush() {
         return Collections.emptyList();
     }
@@ -17,11 +17,17 @@ public abstract class MediaFilterChain<T extends MediaFrame> extends MediaFilter
     @Override
     public Collection<T> apply(T source) {
         Collection<T> frames = Collections.singleton(source);
+        boolean intermediate = false; // the caller keeps its own reference to the source frame
         for (MediaFilter<T> filter : filters) {
             Collection<T> newCollection = new LinkedList<>();
-            for (T frame : frames) newCollection.addAll(filter.apply(frame));
+            for (T frame : frames) {
+                newCollection.addAll(filter.apply(frame));
+                if (intermediate) frame.release();
+            }
             frames = newCollection;
+            intermediate = true;
         }
+        if (!intermediate) source.retain();
         return frames;
     }
 
@@ -30,7 +36,10 @@ public abstract class MediaFilterChain<T extends MediaFrame> extends MediaFilter
         Collection<T> frames = Collections.emptyList();
         for (MediaFilter<T> filter : filters) {
             Collection<T> newCollection = new LinkedList<>();
-            for (T frame : frames) newCollection.addAll(filter.apply(frame));
+            for (T frame : frames) {
+                newCollection.addAll(filter.apply(frame));
+                frame.release();
+            }
             newCollection.addAll(filter.flush());
             frames = newCollection;
         }
@@ -8,6 +8,7 @@ import java.util.Collections;
 public class AudioFilterNone extends AudioFilter {
     @Override
     public Collection<AudioFrame> apply(AudioFrame source) {
+        source.retain(); // passed through, so the caller gets a reference of its own
         return Collections.singletonList(source);
     }
 
@@ -1,34 +1,40 @@
 package com.github.manevolent.ffmpeg4j.filter.audio;
 
 import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
 import org.bytedeco.ffmpeg.global.*;
 import org.bytedeco.ffmpeg.swresample.*;
 import org.bytedeco.javacpp.*;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 import java.util.Collection;
 import java.util.Collections;
 
 public class FFmpegAudioResampleFilter extends AudioFilter {
-    private static final int SAMPLE_FORMAT = avutil.AV_SAMPLE_FMT_FLT;
     public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
     private volatile SwrContext swrContext;
 
     private final AudioFormat input, output;
 
-    private final BytePointer[] samples_in;
-    private final BytePointer[] samples_out;
+    // Float buffers, one per plane (one per channel if planar, otherwise a single interleaved one), grown on demand
+    // (see ensureInputCapacity/ensureOutputCapacity)
+    private final FloatPointer[] samples_in;
+    private final FloatPointer[] samples_out;
     private final PointerPointer samples_in_ptr;
     private final PointerPointer samples_out_ptr;
+    private int samples_in_capacity = 0, samples_out_capacity = 0; // samples per channel
 
-    private final int outputBytesPerSample, inputBytesPerSample;
-    private final int inputPlanes, outputPlanes;
+    // Timing of the last frame, for the resampler's tail when flushing
+    private double lastTimestamp, lastPosition, lastTime;
 
-    private ByteBuffer presampleOutputBuffer = ByteBuffer.allocate(0);
-    private byte[] recvBuffer;
+    private FrameBufferPool frameBufferPool = FrameBufferPool.NONE;
 
+    /**
+     * Creates a resample filter.  Either format may be AV_SAMPLE_FMT_FLTP (PlanarAudioFrames), in which case
+     * swresample reads or writes planar samples directly; an input format of AV_SAMPLE_FMT_FLTP needs PlanarAudioFrames
+     * to be applied to it.  Other input formats are read as interleaved floats (AudioFrame.getSamples()), and the
+     * output format must otherwise be AV_SAMPLE_FMT_FLT.
+     * @param bufferSize samples per channel to size the buffers for initially; they grow if frames are larger.
+     */
     public FFmpegAudioResampleFilter(AudioFormat input, AudioFormat output, int bufferSize) throws FFmpegException {
         this.input = input;
         this.output = output;
@@ -39,41 +45,25 @@ public class FFmpegAudioResampleFilter extends AudioFilter {
         if (output.getChannels() <= 0)
             throw new FFmpegException("invalid output channel count: " + output.getChannels());
 
-        try {
-            // Configure input parameters
-            int ffmpegInputFormat = SAMPLE_FORMAT;
-            int inputChannels = input.getChannels();
-            inputPlanes = avutil.av_sample_fmt_is_planar(ffmpegInputFormat) != 0 ? inputChannels : 1;
-            int inputSampleRate = (int)input.getSampleRate();
-            inputBytesPerSample = avutil.av_get_bytes_per_sample(ffmpegInputFormat);
-            int inputFrameSize = bufferSize * (input.getChannels() / inputPlanes) * inputBytesPerSample; // x4 for float datatype
-
-            // Configure output parameters
-            int ffmpegOutputFormat = SAMPLE_FORMAT;
-            int outputChannels = output.getChannels();
-            outputPlanes = avutil.av_sample_fmt_is_planar(ffmpegOutputFormat) != 0 ? outputChannels : 1;
-            int outputSampleRate = (int)output.getSampleRate();
-            outputBytesPerSample = avutil.av_get_bytes_per_sample(ffmpegOutputFormat);
-            int outputFrameSize = avutil.av_samples_get_buffer_size(
-                    (IntPointer) null,
-                    outputChannels,
-                    inputFrameSize, // Input frame size neccessary
-                    ffmpegOutputFormat,
-                    1
-            ) / outputPlanes;
+        if (!isFloatFormat(output.getSampleFormat()))
+            throw new FFmpegException("unsupported output sample format: " + output);
+
+        samples_in = new FloatPointer[isPlanar(input) ? input.getChannels() : 1];
+        samples_out = new FloatPointer[isPlanar(output) ? output.getChannels() : 1];
 
+        try {
             swrContext = swresample.swr_alloc_set_opts(
                     null,
 
                     // Output configuration
                     output.getChannelLayout(),
-                    ffmpegOutputFormat,
-                    outputSampleRate,
+                    output.getSampleFormat(),
+                    output.getSampleRate(),
 
                     // Input configuration
                     input.getChannelLayout(),
-                    ffmpegInputFormat,
-                    inputSampleRate,
+                    isPlanar(input) ? avutil.AV_SAMPLE_FMT_FLTP : avutil.AV_SAMPLE_FMT_FLT,
+                    input.getSampleRate(),
 
                     0, null
             );
@@ -84,27 +74,11 @@ public class FFmpegAudioResampleFilter extends AudioFilter {
 
             FFmpegError.checkError("swr_init", swresample.swr_init(swrContext));
 
-            // Create input buffers
-            samples_in = new BytePointer[inputPlanes];
-            for (int i = 0; i < inputPlanes; i++) {
-                samples_in[i] = new BytePointer(avutil.av_malloc(inputFrameSize)).capacity(inputFrameSize);
-            }
-
-            // Create output buffers
-            samples_out = new BytePointer[outputPlanes];
-            for (int i = 0; i < outputPlanes; i++) {
-                samples_out[i] = new BytePointer(avutil.av_malloc(outputFrameSize)).capacity(outputFrameSize);
-            }
-
-            // Initialize input and output sample buffers;
-            samples_in_ptr = new PointerPointer(inputPlanes);
-            samples_out_ptr = new PointerPointer(outputPlanes);
-
-            for (int i = 0; i < samples_out.length; i++)
-                samples_out_ptr.put(i, samples_out[i]);
+            samples_in_ptr = new PointerPointer(samples_in.length);
+            samples_out_ptr = new PointerPointer(samples_out.length);
 
-            for (int i = 0; i < samples_in.length; i++)
-                samples_in_ptr.put(i, samples_in[i]);
+            ensureInputCapacity(bufferSize);
+            ensureOutputCapacity(swresample.swr_get_out_samples(swrContext, bufferSize));
         } catch (Throwable e) {
             if (swrContext != null) {
                 swresample.swr_free(swrContext);
@@ -115,71 +89,149 @@ public class FFmpegAudioResampleFilter extends AudioFilter {
         }
     }
 
-    @Override
-    public Collection<AudioFrame> apply(AudioFrame source) {
-        int outputCount =
-                (int)Math.min(
-                        (samples_out[0].limit() - samples_out[0].position()) / (output.getChannels() * outputBytesPerSample),
-                        Integer.MAX_VALUE
-                );
-
-        int ffmpegNativeLength = source.getSamples().length * inputBytesPerSample;
-        if (presampleOutputBuffer.capacity() < ffmpegNativeLength) {
-            presampleOutputBuffer = ByteBuffer.allocate(ffmpegNativeLength);
-            presampleOutputBuffer.order(ByteOrder.nativeOrder());
+    private static boolean isFloatFormat(int sampleFormat) {
+        return sampleFormat == avutil.AV_SAMPLE_FMT_FLT || sampleFormat == avutil.AV_SAMPLE_FMT_FLTP;
+    }
+
+    private static boolean isPlanar(AudioFormat format) {
+        return format.getSampleFormat() == avutil.AV_SAMPLE_FMT_FLTP;
+    }
+
+    private static FloatPointer reallocate(FloatPointer buffer, long floats) {
+        if (buffer != null) avutil.av_free(buffer);
+
+        Pointer data = avutil.av_malloc(floats * Float.BYTES);
+        if (data == null) throw new OutOfMemoryError("av_malloc");
+
+        return new FloatPointer(data).capacity(floats);
+    }
+
+    private void ensureInputCapacity(int samples) {
+        if (samples <= samples_in_capacity) return;
+
+        long floats = (long) samples * (isPlanar(input) ? 1 : input.getChannels());
+        for (int plane = 0; plane < samples_in.length; plane++) {
+            samples_in[plane] = reallocate(samples_in[plane], floats);
+            samples_in_ptr.put(plane, samples_in[plane]);
         }
+        samples_in_capacity = samples;
+    }
+
+    private void ensureOutputCapacity(int samples) {
+        if (samples <= samples_out_capacity) return;
 
-        presampleOutputBuffer.position(0);
-        presampleOutputBuffer.asFloatBuffer().put(source.getSamples());
+        long floats = (long) samples * (isPlanar(output) ? 1 : output.getChannels());
+        for (int plane = 0; plane < samples_out.length; plane++) {
+            samples_out[plane] = reallocate(samples_out[plane], floats);
+            samples_out_ptr.put(plane, samples_out[plane]);
+        }
+        samples_out_capacity = samples;
+    }
 
-        samples_in[0].position(0).put(presampleOutputBuffer.array(), 0, ffmpegNativeLength);
+    /**
+     * Runs samples through the resampler.
+     * @param inputSamples samples per channel waiting in samples_in, or -1 to drain the resampler.
+     */
+    private Collection<AudioFrame> resample(int inputSamples, double timestamp, double position, double time)
+            throws FFmpegException {
+        // Upper bound on what this call can produce, including anything the resampler has buffered
+        int outputCount = FFmpegError.checkError("swr_get_out_samples",
+                swresample.swr_get_out_samples(swrContext, Math.max(0, inputSamples)));
+
+        if (outputCount <= 0) return Collections.emptyList();
+
+        ensureOutputCapacity(outputCount);
 
         // Returns number of samples output per channel, negative value on error
-        int ret = swresample.swr_convert(
+        int ret = FFmpegError.checkError("swr_convert", swresample.swr_convert(
                 swrContext,
                 samples_out_ptr, outputCount,
-                samples_in_ptr, source.getSamples().length / input.getChannels()
-        );
-
-        // Check return values
-        try {
-            FFmpegError.checkError("swr_convert", ret);
-        } catch (FFmpegException e) {
-            throw new RuntimeException(e);
-        }
+                inputSamples >= 0 ? samples_in_ptr : null, Math.max(0, inputSamples)
+        ));
 
         if (ret == 0) return Collections.emptyList();
 
-        // Read native sample buffer(s) into managed raw byte array
-        // WARNING: This only works if the output format is non-planar (doesn't end with "P")
+        if (inputSamples < 0)
+            time = (double) ret / output.getSampleRate();
 
-        int returnedSamples = ret * output.getChannels();
-        int len = returnedSamples * 4;
-        if (recvBuffer == null || recvBuffer.length < len)
-            recvBuffer = new byte[len];
+        FrameBufferPool pool = frameBufferPool;
 
-        samples_out[0].position(0).get(recvBuffer);
+        if (isPlanar(output)) {
+            float[][] planes = new float[output.getChannels()][];
+            for (int plane = 0; plane < planes.length; plane++) {
+                planes[plane] = pool.allocateFloats(ret);
+                samples_out[plane].position(0).get(planes[plane], 0, ret);
+            }
 
-        // Convert raw data to bytes.
-        // This is done by converting the raw samples to floats right out of ffmpeg to preserve the
-        // original quality post-resample.
+            return Collections.singletonList(new PlanarAudioFrame(
+                    timestamp,
+                    position,
+                    time,
+                    planes,
+                    ret,
+                    output,
+                    pool
+            ));
+        }
 
-        FloatBuffer buffer = ByteBuffer.wrap(recvBuffer).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        buffer.position(0).limit(returnedSamples);
+        int returnedSamples = ret * output.getChannels();
 
-        float[] newBuffer = new float[returnedSamples];
-        for (int i = 0; i < returnedSamples; i ++) newBuffer[i] = buffer.get();
+        float[] newBuffer = pool.allocateFloats(returnedSamples);
+        samples_out[0].position(0).get(newBuffer, 0, returnedSamples);
 
         // Return total re-sampled bytes to the higher-level audio system.
         return Collections.singletonList(new AudioFrame(
-                source.getTimestamp(),
-                source.getPosition(),
-                source.getTime(),
+                timestamp,
+                position,
+                time,
                 newBuffer,
-                output
+                returnedSamples,
+                output,
+                pool
         ));
     }
 
+    @Override
+    public Collection<AudioFrame> apply(AudioFrame source) {
+        int inputSamples = source.getLength() / input.getChannels();
+
+        try {
+            ensureInputCapacity(inputSamples);
+
+            if (isPlanar(input)) {
+                if (!(source instanceof PlanarAudioFrame))
+                    throw new IllegalArgumentException("planar input format needs a PlanarAudioFrame: " + source);
+
+                float[][] planes = ((PlanarAudioFrame) source).getPlanes();
+                for (int plane = 0; plane < samples_in.length; plane++)
+                    samples_in[plane].position(0).put(planes[plane], 0, inputSamples);
+            } else {
+                samples_in[0].position(0).put(source.getSamples(), 0, inputSamples * input.getChannels());
+            }
+
+            lastTimestamp = source.getTimestamp();
+            lastPosition = source.getPosition();
+            lastTime = source.getTime();
+
+            return resample(inputSamples, source.getTimestamp(), source.getPosition(), source.getTime());
+        } catch (FFmpegException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public FrameBufferPool getFrameBufferPool() {
+        return frameBufferPool;
+    }
+
+    /**
+     * Sets the pool that resampled frames allocate their samples from.
+     * @param frameBufferPool pool to use; FrameBufferPool.NONE (the default) always allocates new buffers.
+     */
+    public void setFrameBufferPool(FrameBufferPool frameBufferPool) {
+        if (frameBufferPool == null) throw new NullPointerException("frameBufferPool");
+        this.frameBufferPool = frameBufferPool;
+    }
+
     public AudioFormat getInputFormat() {
         return input;
     }
@@ -188,9 +240,25 @@ public class FFmpegAudioResampleFilter extends AudioFilter {
         return output;
     }
 
+    /**
+     * Drains the resampler, returning the samples it held back (its delay) as a final frame.
+     */
     @Override
     public Collection<AudioFrame> flush() {
-        return apply(new AudioFrame(0D, 0D, 0D, new float[0], null));
+        double position = lastPosition + lastTime;
+        double timestamp = lastTimestamp + lastTime;
+
+        try {
+            Collection<AudioFrame> frames = resample(-1, timestamp, position, 0D);
+            for (AudioFrame frame : frames) {
+                lastPosition = position;
+                lastTimestamp = timestamp;
+                lastTime = frame.getTime();
+            }
+            return frames;
+        } catch (FFmpegException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
@@ -199,19 +267,16 @@ public class FFmpegAudioResampleFilter extends AudioFilter {
 
         // see: https://ffmpeg.org/doxygen/2.1/doc_2examples_2resampling_audio_8c-example.html
         for (int i = 0; i < samples_in.length; i++) {
-            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_in[" + i + "])...");
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_in[" + i + "]...");
             avutil.av_free(samples_in[i]);
-            samples_in[i].deallocate();
             samples_in[i] = null;
         }
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_in_ptr...");
         samples_in_ptr.deallocate();
 
-        // see: https://ffmpeg.org/doxygen/2.1/doc_2examples_2resampling_audio_8c-example.html
         for (int i = 0; i < samples_out.length; i++) {
-            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_out[" + i + "])...");
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_out[" + i + "]...");
             avutil.av_free(samples_out[i]);
-            samples_out[i].deallocate();
             samples_out[i] = null;
         }
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_out_ptr...");
@@ -1,33 +1,42 @@
 package com.github.manevolent.ffmpeg4j.filter.video;
 
 import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
+import com.github.manevolent.ffmpeg4j.scale.FFmpegScaler;
+import com.github.manevolent.ffmpeg4j.scale.ScalerSettings;
 import org.bytedeco.ffmpeg.avutil.*;
 import org.bytedeco.ffmpeg.global.*;
-import org.bytedeco.ffmpeg.swscale.*;
 import org.bytedeco.javacpp.*;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class FFmpegVideoRescaleFilter extends VideoFilter {
     private final VideoFormat inputFormat, outputFormat;
 
     // FFmpeg native stuff (for video conversion)
-    private final BytePointer inputBuffer;
-    private final BytePointer outputBuffer;
+    private BytePointer inputBuffer;
+    private int inputBufferSize;
+    private BytePointer outputBuffer;
     private final AVFrame inputFrame;
     private final AVFrame outputFrame;
-    private final SwsContext sws;
+    private FFmpegScaler scaler;
+    private volatile ScalerSettings scalerSettings;
+    private volatile int scalerThreads = 1;
 
     private final double outputFrameDuration;
     private final double inputFrameDuration;
 
     private final int pixelFormat;
+    private final int outputFrameSizeBytes;
 
     private VideoFrame lastFrame;
     private long count = 0L;
 
+    private FrameBufferPool frameBufferPool = FrameBufferPool.NONE;
+
     public FFmpegVideoRescaleFilter(VideoFormat input, VideoFormat output, int pixelFormat) throws FFmpegException {
          /*
             http://stackoverflow.com/questions/29743648/which-flag-to-use-for-better-quality-with-sws-scale
@@ -38,12 +47,21 @@ public class FFmpegVideoRescaleFilter extends VideoFilter {
             conditions are usually not met. Are you also scaling the video? Otherwise I'd go for bicubic.
          */
 
-        this(input, output, pixelFormat, swscale.SWS_BILINEAR);
+        this(input, output, pixelFormat, ScalerSettings.DEFAULT);
     }
 
     public FFmpegVideoRescaleFilter(VideoFormat input, VideoFormat output, int pixelFormat, int scaleFilter)
             throws FFmpegException {
+        this(input, output, pixelFormat, ScalerSettings.fromFlags(scaleFilter));
+    }
+
+    public FFmpegVideoRescaleFilter(VideoFormat input, VideoFormat output, int pixelFormat,
+                                    ScalerSettings scalerSettings)
+            throws FFmpegException {
+        if (scalerSettings == null) throw new NullPointerException("scalerSettings");
+
         this.pixelFormat = pixelFormat;
+        this.scalerSettings = scalerSettings;
 
         this.inputFormat = input;
         this.outputFormat = output;
@@ -70,19 +88,16 @@ public class FFmpegVideoRescaleFilter extends VideoFilter {
             );
 
             inputBuffer = new BytePointer(avutil.av_malloc(numBytesInput));
+            inputBufferSize = numBytesInput;
             outputBuffer = new BytePointer(avutil.av_malloc(numBytesOutput));
 
-            sws = swscale.sws_getContext(
-                    input.getWidth(), input.getHeight(), pixelFormat, // source
-                    output.getWidth(), output.getHeight(), pixelFormat, // destination
-                    scaleFilter, // flags (see above)
-                    null, null, (DoublePointer) null // filters, params
-            );
-
             // Assign appropriate parts of buffer to image planes in pFrameRGB
             // Note that pFrameRGB is an AVFrame, but AVFrame is a superset
             // of AVPicture
-            this.inputFrame = new AVFrame();
+            // close() frees it with av_frame_free, so it must come from av_frame_alloc and not from JavaCPP (new
+            // AVFrame()), whose deallocator would free it a second time once it is garbage collected
+            this.inputFrame = avutil.av_frame_alloc();
+            if (inputFrame == null) throw new RuntimeException("failed to allocate input frame");
 
             // Assign appropriate parts of buffer to image planes in pFrameRGB
             // See: https://mail.gnome.org/archives/commits-list/2016-February/msg05531.html
@@ -101,16 +116,19 @@ public class FFmpegVideoRescaleFilter extends VideoFilter {
                 outputFrame.linesize(),
                 outputBuffer,
                 pixelFormat,
-                input.getWidth(),
-                input.getHeight(),
+                output.getWidth(),
+                output.getHeight(),
                 1
             ));
+
+            this.outputFrameSizeBytes = numBytesOutput;
         } else {
             inputBuffer = null;
+            inputBufferSize = 0;
             outputBuffer = null;
             inputFrame = null;
             outputFrame = null;
-            sws = null;
+            outputFrameSizeBytes = 0;
         }
     }
 
@@ -131,7 +149,7 @@ public class FFmpegVideoRescaleFilter extends VideoFilter {
                 return videoFrames; // drop the frame
             else if (lastFrame != null) { // 30FPS -> 60FPS
                 while (newOutputPositionInSeconds + outputFrameDuration < newInputPositionInSeconds) {
-                    videoFrames.add(lastFrame);
+                    videoFrames.add((VideoFrame) lastFrame.retain());
                     newOutputPositionInSeconds += outputFrameDuration;
                 }
             }
@@ -140,51 +158,154 @@ public class FFmpegVideoRescaleFilter extends VideoFilter {
         VideoFrame frame;
 
         if (inputFormat.getHeight() != outputFormat.getHeight() || inputFormat.getWidth() != outputFormat.getWidth()) {
-            inputFrame.data(0).put(source.getData());
-
-            int ret = swscale.sws_scale(
-                    sws, // the scaling context previously created with sws_getContext()
-                    inputFrame.data(), // 	the array containing the pointers to the planes of the source slice
-                    inputFrame.linesize(), // the array containing the strides for each plane of the source image
-                    0, // the position in the source image of the slice to process, that is the number (counted starting from zero) in the image of the first row of the slice
-                    source.getHeight(), // the height of the source slice, that is the number of rows in the slice
-                    outputFrame.data(), // the array containing the pointers to the planes of the destination image
-                    outputFrame.linesize() // the array containing the strides for each plane of the destination image
-            );
+            double timestamp = source.getTimestamp() - source.getPosition() + newOutputPositionInSeconds; // adjust for realworld ts
 
             try {
-                FFmpegError.checkError("sws_scale", ret);
+                if (source instanceof FFmpegVideoFrame)
+                    frame = scale((FFmpegVideoFrame) source, timestamp, newOutputPositionInSeconds);
+                else
+                    frame = scale(source, timestamp, newOutputPositionInSeconds);
             } catch (FFmpegException e) {
                 throw new RuntimeException(e);
             }
-
-            BytePointer data = outputFrame.data(0);
-            int l = outputFormat.getWidth();
-
-            // Allocate pixel data buffer:
-            byte[] pixelData = new byte[l * ret * 3];
-            data.position(0).get(pixelData, 0, l * ret * 3);
-
-            frame = new VideoFrame(
-                    source.getTimestamp() - source.getPosition() + newOutputPositionInSeconds, // adjust for realworld ts
-                    newOutputPositionInSeconds,
-                    outputFrameDuration,
-                    pixelFormat,
-                    l,
-                    ret,
-                    pixelData
-            );
         } else {
             frame = source;
+            frame.retain(); // passed through, so the caller gets a reference of its own
         }
 
-        lastFrame = frame;
+        setLastFrame(frame);
         videoFrames.add(frame);
         count += videoFrames.size();
 
         return videoFrames;
     }
 
+    private VideoFrame scale(VideoFrame source, double timestamp, double position) throws FFmpegException {
+        checkFormat(source);
+
+        if (source.getData().length > inputBufferSize) {
+            avutil.av_free(inputBuffer);
+            inputBuffer = new BytePointer(avutil.av_malloc(source.getData().length));
+            inputBufferSize = source.getData().length;
+        }
+
+        // Every plane is scaled, with the source frame's own line sizes
+        FFmpeg.fillPlanes(source, inputBuffer, inputFrame);
+
+        getScaler().scale(inputFrame, outputFrame);
+
+        // Allocate pixel data buffer (the output buffer is packed, so every plane is contiguous):
+        FrameBufferPool pool = frameBufferPool;
+        byte[] pixelData = pool.allocateBytes(outputFrameSizeBytes);
+        outputBuffer.position(0).get(pixelData, 0, outputFrameSizeBytes);
+
+        return new VideoFrame(
+                timestamp,
+                position,
+                outputFrameDuration,
+                pixelFormat,
+                outputFormat.getWidth(),
+                outputFormat.getHeight(),
+                pixelData,
+                pool
+        );
+    }
+
+    /**
+     * Scales a native frame straight into a new native frame, without touching the Java heap.
+     */
+    private VideoFrame scale(FFmpegVideoFrame source, double timestamp, double position) throws FFmpegException {
+        checkFormat(source);
+
+        FFmpegVideoFrame frame = FFmpegVideoFrame.allocate(
+                timestamp,
+                position,
+                outputFrameDuration,
+                pixelFormat,
+                outputFormat.getWidth(),
+                outputFormat.getHeight()
+        );
+
+        try {
+            getScaler().scale(source.getAVFrame(), frame.getAVFrame());
+        } catch (FFmpegException ex) {
+            frame.release();
+            throw ex;
+        }
+
+        return frame;
+    }
+
+    private FFmpegScaler getScaler() throws FFmpegException {
+        return scaler = FFmpegScaler.getCached(
+                scaler,
+                inputFormat.getWidth(), inputFormat.getHeight(), pixelFormat, // source
+                outputFormat.getWidth(), outputFormat.getHeight(), pixelFormat, // destination
+                scalerSettings, // (see above)
+                scalerThreads,
+                ForkJoinPool.commonPool()
+        );
+    }
+
+    public int getScalerThreads() {
+        return scalerThreads;
+    }
+
+    /**
+     * Sets how many threads rescale each frame (see FFmpegScaler).
+     * @param scalerThreads number of threads; 1 (the default) rescales frames on the calling thread.
+     */
+    public void setScalerThreads(int scalerThreads) {
+        if (scalerThreads <= 0) throw new IllegalArgumentException("scalerThreads must be positive");
+        this.scalerThreads = scalerThreads;
+    }
+
+    public ScalerSettings getScalerSettings() {
+        return scalerSettings;
+    }
+
+    /**
+     * Sets the algorithm and options used to rescale frames.
+     * @param scalerSettings scaler settings; ScalerSettings.DEFAULT is bilinear.
+     */
+    public void setScalerSettings(ScalerSettings scalerSettings) {
+        if (scalerSettings == null) throw new NullPointerException("scalerSettings");
+        this.scalerSettings = scalerSettings;
+    }
+
+    private void checkFormat(VideoFrame source) throws FFmpegException {
+        if (source.getFormat() != pixelFormat)
+            throw new FFmpegException("frame has mismatched pixel format: " +
+                    "expected " + source.getFormat() + " != " + pixelFormat);
+
+        if (source.getWidth() != inputFormat.getWidth() || source.getHeight() != inputFormat.getHeight())
+            throw new FFmpegException("frame has mismatched size: " +
+                    source.getWidth() + "x" + source.getHeight() + " != " +
+                    inputFormat.getWidth() + "x" + inputFormat.getHeight());
+    }
+
+    private void setLastFrame(VideoFrame frame) {
+        // Hold a reference of our own, as the caller may release the frame we return
+        frame.retain();
+
+        if (lastFrame != null) lastFrame.release();
+        lastFrame = frame;
+    }
+
+    public FrameBufferPool getFrameBufferPool() {
+        return frameBufferPool;
+    }
+
+    /**
+     * Sets the pool that rescaled frames allocate their pixel data from.  Only frames with heap (byte array) data use
+     * the pool; native frames are rescaled into new native frames.
+     * @param frameBufferPool pool to use; FrameBufferPool.NONE (the default) always allocates new buffers.
+     */
+    public void setFrameBufferPool(FrameBufferPool frameBufferPool) {
+        if (frameBufferPool == null) throw new NullPointerException("frameBufferPool");
+        this.frameBufferPool = frameBufferPool;
+    }
+
     public VideoFormat getInputFormat() {
         return inputFormat;
     }
@@ -197,14 +318,32 @@ public class FFmpegVideoRescaleFilter extends VideoFilter {
     public void close() {
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegVideoRescaleFilter.close() called");
 
-        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "sws_freeContext(sws)...");
-        swscale.sws_freeContext(sws);
+        if (lastFrame != null) lastFrame.release();
+        lastFrame = null;
+
+        if (scaler != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "scaler.close()...");
+            scaler.close();
+            scaler = null;
+        }
 
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_free(inputPicture)...");
         avutil.av_frame_free(inputFrame);
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(outputFrame)...");
         avutil.av_frame_free(outputFrame);
 
+        if (inputBuffer != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_free(inputBuffer)...");
+            avutil.av_free(inputBuffer);
+            inputBuffer = null;
+        }
+
+        if (outputBuffer != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_free(outputBuffer)...");
+            avutil.av_free(outputBuffer);
+            outputBuffer = null;
+        }
+
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegVideoRescaleFilter.close() completed");
     }
 }
@@ -8,6 +8,7 @@ import java.util.Collections;
 public class VideoFilterNone extends VideoFilter {
     @Override
     public Collection<VideoFrame> apply(VideoFrame source) {
+        source.retain(); // passed through, so the caller gets a reference of its own
         return Collections.singleton(source);
     }
 
@@ -0,0 +1,438 @@
+package com.github.manevolent.ffmpeg4j.output;
+
+import com.github.manevolent.ffmpeg4j.FFmpegError;
+import com.github.manevolent.ffmpeg4j.FFmpegException;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * How an encoder is dialed in: threading, preset and tune, rate control, GOP structure and lookahead.  Profiles are
+ * immutable; the with...() methods return modified copies.  Anything left unset keeps the codec's own default.
+ *
+ * Profiles are translated to AVOptions (i.e. "threads", "g", "bf", "crf") and checked against the codec before it is
+ * opened, so asking a codec for something it doesn't have (i.e. a preset on mpeg4) fails at registration instead of
+ * being ignored.  Raw options passed alongside a profile are still handed to avcodec_open2() as before.
+ */
+public final class EncoderProfile {
+    /**
+     * Leaves every setting to the codec.
+     */
+    public static final EncoderProfile DEFAULT = new EncoderProfile(
+            -1, null, -1,
+            null, null,
+            RateControl.DEFAULT, -1D, -1L, -1L, -1L,
+            -1, -1, -1
+    );
+
+    // Private options that mean "frames of lookahead" in the encoders that have one, tried in order
+    private static final String[] LOOKAHEAD_OPTIONS = {
+            "rc-lookahead", // libx264, nvenc
+            "lag-in-frames", // libvpx, libaom
+            "la_depth", // libsvtav1
+            "look_ahead_depth" // qsv
+    };
+
+    public enum ThreadType {
+        FRAME("frame"),
+        SLICE("slice"),
+        FRAME_AND_SLICE("frame+slice");
+
+        private final String value;
+
+        ThreadType(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Gets the value of the "thread_type" option for this type.
+         */
+        public String getValue() {
+            return value;
+        }
+    }
+
+    public enum RateControl {
+        /**
+         * Whatever the codec does without a bitrate or quality set.
+         */
+        DEFAULT,
+
+        /**
+         * Constant quality (the codec's "crf" option); the bitrate follows the content.
+         */
+        CRF,
+
+        /**
+         * Constant bitrate: the minimum, average and maximum bitrates are all the same.
+         */
+        CBR,
+
+        /**
+         * Variable bitrate around an average, optionally capped by a maximum.
+         */
+        VBR
+    }
+
+    private final int threads;
+    private final ThreadType threadType;
+    private final int slices;
+    private final String preset;
+    private final String tune;
+    private final RateControl rateControl;
+    private final double crf;
+    private final long bitRate;
+    private final long maxBitRate;
+    private final long bufferSize;
+    private final int gopSize;
+    private final int maxBFrames;
+    private final int lookahead;
+
+    private EncoderProfile(int threads, ThreadType threadType, int slices,
+                           String preset, String tune,
+                           RateControl rateControl, double crf, long bitRate, long maxBitRate, long bufferSize,
+                           int gopSize, int maxBFrames, int lookahead) {
+        if (rateControl == null) throw new NullPointerException("rateControl");
+
+        this.threads = threads;
+        this.threadType = threadType;
+        this.slices = slices;
+        this.preset = preset;
+        this.tune = tune;
+        this.rateControl = rateControl;
+        this.crf = crf;
+        this.bitRate = bitRate;
+        this.maxBitRate = maxBitRate;
+        this.bufferSize = bufferSize;
+        this.gopSize = gopSize;
+        this.maxBFrames = maxBFrames;
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Gets the number of encoder threads, 0 to let the codec decide, or -1 if unset.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Gets how encoder threads split up the work, or null if unset.
+     */
+    public ThreadType getThreadType() {
+        return threadType;
+    }
+
+    /**
+     * Gets the number of slices each frame is coded in, or -1 if unset.
+     */
+    public int getSlices() {
+        return slices;
+    }
+
+    public String getPreset() {
+        return preset;
+    }
+
+    public String getTune() {
+        return tune;
+    }
+
+    public RateControl getRateControl() {
+        return rateControl;
+    }
+
+    /**
+     * Gets the constant rate factor, used with RateControl.CRF.
+     */
+    public double getCrf() {
+        return crf;
+    }
+
+    /**
+     * Gets the target bitrate in bits per second, used with RateControl.CBR and VBR.
+     */
+    public long getBitRate() {
+        return bitRate;
+    }
+
+    /**
+     * Gets the maximum bitrate in bits per second, or -1 if unset.  With RateControl.CBR, this is the bitrate.
+     */
+    public long getMaxBitRate() {
+        return maxBitRate;
+    }
+
+    /**
+     * Gets the rate control buffer (VBV) size in bits, or -1 if unset.
+     */
+    public long getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the maximum distance between keyframes, in frames, or -1 if unset.
+     */
+    public int getGopSize() {
+        return gopSize;
+    }
+
+    /**
+     * Gets the maximum number of consecutive B-frames, or -1 if unset.
+     */
+    public int getMaxBFrames() {
+        return maxBFrames;
+    }
+
+    /**
+     * Gets the number of frames the rate control looks ahead, or -1 if unset.
+     */
+    public int getLookahead() {
+        return lookahead;
+    }
+
+    /**
+     * @param threads Number of encoder threads, or 0 to let the codec decide (usually one per core).
+     */
+    public EncoderProfile withThreads(int threads) {
+        if (threads < 0) throw new IllegalArgumentException("threads < 0: " + threads);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    public EncoderProfile withThreadType(ThreadType threadType) {
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    public EncoderProfile withSlices(int slices) {
+        if (slices <= 0) throw new IllegalArgumentException("slices <= 0: " + slices);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * @param preset Codec preset (i.e. "veryfast" for libx264), or null to leave it unset.
+     */
+    public EncoderProfile withPreset(String preset) {
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * @param tune Codec tuning (i.e. "zerolatency" for libx264), or null to leave it unset.
+     */
+    public EncoderProfile withTune(String tune) {
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * Encodes at constant quality.  Only codecs with a "crf" option (i.e. libx264, libx265, libvpx) support this.
+     */
+    public EncoderProfile withCrf(double crf) {
+        if (crf < 0) throw new IllegalArgumentException("crf < 0: " + crf);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                RateControl.CRF, crf, -1L, -1L, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * Encodes at a constant bitrate.  Unless a buffer size is set, the buffer holds one second.
+     */
+    public EncoderProfile withConstantBitRate(long bitRate) {
+        if (bitRate <= 0) throw new IllegalArgumentException("bitRate <= 0: " + bitRate);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                RateControl.CBR, -1D, bitRate, bitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * Encodes at a variable bitrate.
+     * @param bitRate average bitrate.
+     * @param maxBitRate maximum bitrate, or -1 to leave it uncapped.  Capping it requires a buffer size.
+     */
+    public EncoderProfile withVariableBitRate(long bitRate, long maxBitRate) {
+        if (bitRate <= 0) throw new IllegalArgumentException("bitRate <= 0: " + bitRate);
+        if (maxBitRate >= 0 && maxBitRate < bitRate)
+            throw new IllegalArgumentException("maxBitRate < bitRate: " + maxBitRate);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                RateControl.VBR, -1D, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    public EncoderProfile withBufferSize(long bufferSize) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize <= 0: " + bufferSize);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * @param gopSize Maximum distance between keyframes, in frames.  0 makes every frame a keyframe.
+     */
+    public EncoderProfile withGopSize(int gopSize) {
+        if (gopSize < 0) throw new IllegalArgumentException("gopSize < 0: " + gopSize);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * @param maxBFrames Maximum number of consecutive B-frames; 0 disables them, which also removes their delay.
+     */
+    public EncoderProfile withMaxBFrames(int maxBFrames) {
+        if (maxBFrames < 0) throw new IllegalArgumentException("maxBFrames < 0: " + maxBFrames);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * @param lookahead Frames of rate control lookahead.  Mapped to whichever of the codec's private options means
+     *                  that (i.e. "rc-lookahead" for libx264, "lag-in-frames" for libvpx).
+     */
+    public EncoderProfile withLookahead(int lookahead) {
+        if (lookahead < 0) throw new IllegalArgumentException("lookahead < 0: " + lookahead);
+        return new EncoderProfile(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    /**
+     * Translates this profile to AVOptions for the given codec context, in the order they should be set.
+     * @param codecContext codec context, allocated for its codec so its private options can be looked up.
+     * @return option names and values.
+     * @throws FFmpegException if the codec has no option for a setting (i.e. lookahead).
+     */
+    public Map<String, String> getOptions(AVCodecContext codecContext) throws FFmpegException {
+        Map<String, String> options = new LinkedHashMap<>();
+
+        if (threads >= 0) options.put("threads", threads == 0 ? "auto" : Integer.toString(threads));
+        if (threadType != null) options.put("thread_type", threadType.getValue());
+        if (slices > 0) options.put("slices", Integer.toString(slices));
+
+        // Presets go first: codecs like libx264 apply them over everything else at open anyway, but this keeps
+        // the order the same as the command line for codecs that apply options as they are set
+        if (preset != null) options.put("preset", preset);
+        if (tune != null) options.put("tune", tune);
+
+        switch (rateControl) {
+            case CRF:
+                options.put("crf", Double.toString(crf));
+                break;
+            case CBR:
+                options.put("b", Long.toString(bitRate));
+                options.put("minrate", Long.toString(bitRate));
+                options.put("maxrate", Long.toString(bitRate));
+                if (bufferSize < 0) options.put("bufsize", Long.toString(bitRate));
+                break;
+            case VBR:
+                options.put("b", Long.toString(bitRate));
+                if (maxBitRate >= 0) options.put("maxrate", Long.toString(maxBitRate));
+                break;
+        }
+
+        if (bufferSize > 0) options.put("bufsize", Long.toString(bufferSize));
+        if (gopSize >= 0) options.put("g", Integer.toString(gopSize));
+        if (maxBFrames >= 0) options.put("bf", Integer.toString(maxBFrames));
+
+        if (lookahead >= 0) {
+            String lookaheadOption = null;
+            for (String name : LOOKAHEAD_OPTIONS) {
+                if (findOption(codecContext, name) != null) {
+                    lookaheadOption = name;
+                    break;
+                }
+            }
+
+            if (lookaheadOption == null)
+                throw new FFmpegException("codec has no lookahead option: " + getCodecName(codecContext));
+
+            options.put(lookaheadOption, Integer.toString(lookahead));
+        }
+
+        return options;
+    }
+
+    /**
+     * Applies this profile to a codec context that is about to be opened.  Every option is looked up in the codec
+     * context and the codec's private options first, so nothing is set unless the whole profile is valid.
+     * @param codecContext codec context, allocated (but not opened) for its codec.
+     * @return the options that were set, in the order they were set.
+     * @throws FFmpegException if the codec doesn't have an option, or rejects a value.
+     */
+    public Map<String, String> apply(AVCodecContext codecContext) throws FFmpegException {
+        Map<String, String> options = getOptions(codecContext);
+
+        for (String name : options.keySet())
+            if (findOption(codecContext, name) == null)
+                throw new FFmpegException("codec has no option \"" + name + "\": " + getCodecName(codecContext));
+
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            FFmpegError.checkError(
+                    "av_opt_set/" + option.getKey() + "=" + option.getValue(),
+                    avutil.av_opt_set(codecContext, option.getKey(), option.getValue(), avutil.AV_OPT_SEARCH_CHILDREN)
+            );
+        }
+
+        return Collections.unmodifiableMap(options);
+    }
+
+    private static AVOption findOption(AVCodecContext codecContext, String name) {
+        return avutil.av_opt_find(
+                codecContext,
+                name,
+                null,
+                AVOption.AV_OPT_FLAG_ENCODING_PARAM,
+                avutil.AV_OPT_SEARCH_CHILDREN
+        );
+    }
+
+    private static String getCodecName(AVCodecContext codecContext) {
+        return codecContext.codec() != null ? codecContext.codec().name().getString() : "unknown";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EncoderProfile)) return false;
+
+        EncoderProfile other = (EncoderProfile) o;
+        return threads == other.threads &&
+                threadType == other.threadType &&
+                slices == other.slices &&
+                Objects.equals(preset, other.preset) &&
+                Objects.equals(tune, other.tune) &&
+                rateControl == other.rateControl &&
+                Double.compare(crf, other.crf) == 0 &&
+                bitRate == other.bitRate &&
+                maxBitRate == other.maxBitRate &&
+                bufferSize == other.bufferSize &&
+                gopSize == other.gopSize &&
+                maxBFrames == other.maxBFrames &&
+                lookahead == other.lookahead;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(threads, threadType, slices, preset, tune,
+                rateControl, crf, bitRate, maxBitRate, bufferSize, gopSize, maxBFrames, lookahead);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(rateControl.name().toLowerCase());
+        if (rateControl == RateControl.CRF) builder.append(" ").append(crf);
+        else if (rateControl != RateControl.DEFAULT) builder.append(" ").append(bitRate).append("bps");
+        if (maxBitRate >= 0 && rateControl == RateControl.VBR) builder.append(" max=").append(maxBitRate);
+        if (bufferSize > 0) builder.append(" bufsize=").append(bufferSize);
+        if (preset != null) builder.append(" preset=").append(preset);
+        if (tune != null) builder.append(" tune=").append(tune);
+        if (threads >= 0) builder.append(" threads=").append(threads == 0 ? "auto" : Integer.toString(threads));
+        if (threadType != null) builder.append(" thread_type=").append(threadType.getValue());
+        if (slices > 0) builder.append(" slices=").append(slices);
+        if (gopSize >= 0) builder.append(" g=").append(gopSize);
+        if (maxBFrames >= 0) builder.append(" bf=").append(maxBFrames);
+        if (lookahead >= 0) builder.append(" lookahead=").append(lookahead);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,253 @@
+package com.github.manevolent.ffmpeg4j.output;
+
+import com.github.manevolent.ffmpeg4j.Logging;
+import com.github.manevolent.ffmpeg4j.MediaFrame;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Encodes frames on a thread of its own, so that writing a frame only has to queue it.  A slow encoder then no longer
+ * holds up the thread that writes frames (i.e. the one decoding them) until its queue is full, and the other
+ * substreams of a target stream, each with a queue and thread of their own, keep encoding in the meantime.
+ *
+ * The queue holds a reference to each frame (see MediaFrame.retain()), which is released once the frame is encoded or
+ * dropped; frames must not be modified once they are queued.  Frames are encoded in the order they are queued.  Like
+ * a substream, a queue is written to by one thread at a time.
+ *
+ * If encoding fails, the queue stops encoding and discards the frames it is given, and submit() and flush() throw.
+ */
+public final class EncoderQueue<T extends MediaFrame> implements AutoCloseable {
+    /**
+     * What submit() does with a frame when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Waits for the encoder to make room.  Nothing is dropped, and a slow encoder slows down the writer.
+         */
+        BLOCK,
+
+        /**
+         * Drops the frame being submitted, so the writer never waits (i.e. a live source).
+         */
+        DROP_NEWEST,
+
+        /**
+         * Drops the oldest queued frame to make room, so the writer never waits and the encoder stays as close to
+         * the writer as it can.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * What a queue encodes with, on its own thread.
+     */
+    public interface Encoder<T> {
+        void encode(T frame) throws IOException;
+        void flush() throws IOException;
+    }
+
+    // Marks the end of the queue
+    private static final MediaFrame END = new MediaFrame(0D, 0D, 0D) { };
+
+    private final Encoder<T> encoder;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final BlockingQueue<MediaFrame> queue;
+    private final Thread thread;
+
+    // Frames submitted but not yet encoded or dropped
+    private final Object pendingLock = new Object();
+    private int pending = 0;
+
+    private volatile Throwable error;
+    // Frames are dropped by both the writing thread and the encoding thread
+    private final LongAdder encodedFrames = new LongAdder(), droppedFrames = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param name name of the encoder thread.
+     * @param capacity number of frames queued before the policy applies.
+     * @param policy what to do with a frame when the queue is full.
+     * @param encoder what encodes the frames.
+     */
+    public EncoderQueue(String name, int capacity, OverflowPolicy policy, Encoder<T> encoder) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0: " + capacity);
+        if (policy == null) throw new NullPointerException("policy");
+        if (encoder == null) throw new NullPointerException("encoder");
+
+        this.capacity = capacity;
+        this.policy = policy;
+        this.encoder = encoder;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the number of frames waiting to be encoded.
+     */
+    public int getQueuedFrames() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the number of frames encoded so far.
+     */
+    public long getEncodedFrames() {
+        return encodedFrames.sum();
+    }
+
+    /**
+     * Gets the number of frames dropped because the queue was full, or because encoding had failed.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * Gets what made encoding fail, or null if it hasn't.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Queues a frame to be encoded.  The caller keeps its own reference to the frame.
+     * @param frame frame to encode.
+     * @throws IOException if encoding has failed.
+     */
+    @SuppressWarnings("unchecked")
+    public void submit(T frame) throws IOException {
+        if (closed) throw new IllegalStateException("closed");
+        checkError();
+
+        frame.retain();
+        synchronized (pendingLock) {
+            pending++;
+        }
+
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queue.put(frame);
+                } catch (InterruptedException ex) {
+                    dropped(frame);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while queueing frame");
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(frame)) dropped(frame);
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(frame)) {
+                    MediaFrame oldest = queue.poll();
+                    if (oldest != null) dropped((T) oldest);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Waits for every queued frame to be encoded, then flushes the encoder (see MediaTargetSubstream.flush()) on the
+     * calling thread.
+     * @throws IOException if encoding has failed.
+     */
+    public void flush() throws IOException {
+        try {
+            drain();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while draining queue");
+        }
+
+        checkError();
+
+        // The encoder thread is idle until the next submit(), and the wait above orders its work before this
+        encoder.flush();
+    }
+
+    /**
+     * Waits for every queued frame to be encoded, and stops the encoder thread.  The encoder is not flushed.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "EncoderQueue.close() called");
+
+        if (closed) return;
+        closed = true;
+
+        // The queue is empty once drained, so there is room for END
+        drain();
+        queue.put(END);
+        thread.join();
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "EncoderQueue.close() completed");
+    }
+
+    private void drain() throws InterruptedException {
+        synchronized (pendingLock) {
+            while (pending > 0)
+                pendingLock.wait();
+        }
+    }
+
+    private void checkError() throws IOException {
+        Throwable error = this.error;
+        if (error != null) throw new IOException("encoding failed", error);
+    }
+
+    private void dropped(T frame) {
+        droppedFrames.increment();
+        done(frame);
+    }
+
+    private void done(MediaFrame frame) {
+        frame.release();
+
+        synchronized (pendingLock) {
+            if (--pending == 0) pendingLock.notifyAll();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run() {
+        try {
+            MediaFrame frame;
+            while ((frame = queue.take()) != END) {
+                try {
+                    if (error == null) {
+                        encoder.encode((T) frame);
+                        encodedFrames.increment();
+                    } else {
+                        droppedFrames.increment();
+                    }
+                } catch (Throwable ex) {
+                    Logging.LOGGER.log(Level.WARNING, "EncoderQueue: encoding failed on " + thread.getName(), ex);
+                    error = ex;
+                } finally {
+                    done(frame);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Only close() stops this thread, and it does so with END
+            Logging.LOGGER.log(Level.WARNING, "EncoderQueue: " + thread.getName() + " interrupted", ex);
+            if (error == null) error = ex;
+        }
+    }
+}
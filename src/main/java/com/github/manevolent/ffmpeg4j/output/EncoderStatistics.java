@@ -0,0 +1,281 @@
+package com.github.manevolent.ffmpeg4j.output;
+
+import com.github.manevolent.ffmpeg4j.MediaType;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures what an encoder (FFmpegEncoderContext) produces as it produces it: packets, bytes, keyframes, bitrate,
+ * how long frames take to come out as packets, and how fast the stream is encoded compared to real time.  The
+ * statistics are updated by the thread encoding the stream, and can be read from any thread while it runs.
+ *
+ * A getSpeed() below 1 (or a growing getQueuedFrames(), for a substream encoding asynchronously) means the encoder is
+ * falling behind a live source.
+ */
+public class EncoderStatistics {
+    // Send times of the frames the encoder is still holding on to, oldest first; packets come out in the same order
+    private static final int MAXIMUM_PENDING_FRAMES = 512;
+
+    // Stream time the instantaneous bitrate is measured over
+    private static final double BITRATE_WINDOW = 1D;
+
+    private final int streamIndex;
+    private final MediaType mediaType;
+
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder keyframes = new LongAdder();
+
+    private volatile int keyframeInterval = 0;
+    private volatile double duration = 0D;
+    private volatile double bitrate = 0D;
+    private volatile long latency = -1L, maximumLatency = -1L;
+    private final LongAdder totalLatency = new LongAdder(), latencySamples = new LongAdder();
+    private volatile long firstFrameTime = -1L, lastPacketTime = -1L;
+
+    private volatile EncoderQueue<?> encoderQueue;
+
+    // Only touched by the encoding thread
+    private final long[] pendingFrames = new long[MAXIMUM_PENDING_FRAMES];
+    private int pendingHead = 0, pendingCount = 0;
+    private long packetsSinceKeyframe = -1L;
+    private double windowStart = 0D;
+    private long windowBytes = 0L;
+
+    public EncoderStatistics(int streamIndex, MediaType mediaType) {
+        this.streamIndex = streamIndex;
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * Called once a frame has been sent to the encoder.
+     * @param time System.nanoTime() before the frame was sent.
+     */
+    void onFrameSent(long time) {
+        if (firstFrameTime < 0L) firstFrameTime = time;
+        frames.increment();
+
+        if (pendingCount == MAXIMUM_PENDING_FRAMES) {
+            // The encoder is holding on to more frames than can be tracked; forget the oldest
+            pendingHead = (pendingHead + 1) % MAXIMUM_PENDING_FRAMES;
+            pendingCount--;
+        }
+
+        pendingFrames[(pendingHead + pendingCount) % MAXIMUM_PENDING_FRAMES] = time;
+        pendingCount++;
+    }
+
+    /**
+     * Called once a packet has been received from the encoder.
+     * @param time System.nanoTime() after the packet was received.
+     */
+    void onPacketReceived(long time) {
+        lastPacketTime = time;
+
+        // Packets drained at the end of the stream may outnumber the frames (i.e. codec delay)
+        if (pendingCount == 0) return;
+
+        long latency = time - pendingFrames[pendingHead];
+        pendingHead = (pendingHead + 1) % MAXIMUM_PENDING_FRAMES;
+        pendingCount--;
+
+        this.latency = latency;
+        if (latency > maximumLatency) maximumLatency = latency;
+        totalLatency.add(latency);
+        latencySamples.increment();
+    }
+
+    /**
+     * Called as a packet is written to the target stream.
+     * @param timeBase time base of the packet's timestamps.
+     */
+    void onPacketWritten(AVPacket packet, AVRational timeBase) {
+        // Timed by its dts if it has no pts; not timed at all if it has neither
+        long time = packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+        double endTime = time == avutil.AV_NOPTS_VALUE ? Double.NaN :
+                (time + Math.max(packet.duration(), 0L)) * avutil.av_q2d(timeBase);
+
+        onPacketWritten(packet.size(), (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0, endTime);
+    }
+
+    /**
+     * Called as a packet is written to the target stream.
+     * @param size size of the packet, in bytes.
+     * @param keyframe true if the packet is a keyframe.
+     * @param endTime time the packet ends at in the stream, in seconds, or NaN if it isn't known.
+     */
+    void onPacketWritten(int size, boolean keyframe, double endTime) {
+        packets.increment();
+        bytes.add(size);
+
+        if (keyframe) {
+            keyframes.increment();
+            if (packetsSinceKeyframe >= 0L) keyframeInterval = (int) packetsSinceKeyframe;
+            packetsSinceKeyframe = 1L;
+        } else if (packetsSinceKeyframe >= 0L) {
+            packetsSinceKeyframe++;
+        }
+
+        windowBytes += size;
+        if (Double.isNaN(endTime)) return;
+
+        if (endTime - windowStart >= BITRATE_WINDOW) {
+            bitrate = (windowBytes * 8D) / (endTime - windowStart);
+            windowStart = endTime;
+            windowBytes = 0L;
+        }
+
+        if (endTime > duration) duration = endTime;
+    }
+
+    /**
+     * Set while the substream encodes asynchronously.
+     */
+    void setEncoderQueue(EncoderQueue<?> encoderQueue) {
+        this.encoderQueue = encoderQueue;
+    }
+
+    public int getStreamIndex() {
+        return streamIndex;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Gets the number of frames sent to the encoder.
+     */
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    /**
+     * Gets the number of packets written.
+     */
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    /**
+     * Gets the total size, in bytes, of the packets written.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Gets the number of keyframes written.
+     */
+    public long getKeyframes() {
+        return keyframes.sum();
+    }
+
+    /**
+     * Gets the number of packets between the last two keyframes, or 0 if there haven't been two yet.
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Gets the average number of packets per keyframe, or 0 if there hasn't been one yet.
+     */
+    public double getAverageKeyframeInterval() {
+        long keyframes = getKeyframes();
+        return keyframes == 0 ? 0D : (double) getPackets() / (double) keyframes;
+    }
+
+    /**
+     * Gets how much of the stream has been written, in seconds.
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * Gets the bitrate, in bits per second, of about the last second of the stream written, or 0 if less than that
+     * has been written.
+     */
+    public double getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * Gets the bitrate, in bits per second, of the whole stream written so far.
+     */
+    public double getAverageBitrate() {
+        double duration = this.duration;
+        return duration <= 0D ? 0D : (getBytes() * 8D) / duration;
+    }
+
+    /**
+     * Gets the time, in nanoseconds, between the last packet being received from the encoder and the frame it was
+     * made from being sent, or -1 if there hasn't been a packet yet.  Frames and packets are paired in order, so for
+     * an encoder that reorders frames (i.e. B-frames) this is how long frames wait, rather than the latency of a
+     * particular frame.
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * Gets the highest getLatency() seen, in nanoseconds, or -1.
+     */
+    public long getMaximumLatency() {
+        return maximumLatency;
+    }
+
+    /**
+     * Gets the average getLatency(), in nanoseconds, or -1.
+     */
+    public double getAverageLatency() {
+        long samples = latencySamples.sum();
+        return samples == 0 ? -1D : (double) totalLatency.sum() / (double) samples;
+    }
+
+    /**
+     * Gets how many seconds of the stream have been encoded per second, from the first frame sent to the last packet
+     * received, or 0 if nothing has been encoded yet.  Below 1, the encoder is slower than real time.
+     */
+    public double getSpeed() {
+        long first = firstFrameTime, last = lastPacketTime;
+        if (first < 0L || last <= first) return 0D;
+        return duration / ((last - first) / 1_000_000_000D);
+    }
+
+    /**
+     * Gets the number of frames waiting to be encoded (see EncoderQueue), or 0 if the substream encodes frames as
+     * they are written.
+     */
+    public int getQueuedFrames() {
+        EncoderQueue<?> encoderQueue = this.encoderQueue;
+        return encoderQueue == null ? 0 : encoderQueue.getQueuedFrames();
+    }
+
+    /**
+     * Gets the number of frames dropped before reaching the encoder (see EncoderQueue).
+     */
+    public long getDroppedFrames() {
+        EncoderQueue<?> encoderQueue = this.encoderQueue;
+        return encoderQueue == null ? 0L : encoderQueue.getDroppedFrames();
+    }
+
+    @Override
+    public String toString() {
+        return "stream=" + getStreamIndex() + " (" + getMediaType() + ")" +
+                " frames=" + getFrames() +
+                " packets=" + getPackets() + " (" + getBytes() + " bytes)" +
+                " keyframes=" + getKeyframes() +
+                " bitrate=" + Math.round(getBitrate()) + " (average " + Math.round(getAverageBitrate()) + ")" +
+                " latency=" + getLatency() +
+                " speed=" + getSpeed() +
+                " queued=" + getQueuedFrames() +
+                " dropped=" + getDroppedFrames();
+    }
+}
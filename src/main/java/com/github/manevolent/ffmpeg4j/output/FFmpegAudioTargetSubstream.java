@@ -11,112 +11,132 @@ import org.bytedeco.javacpp.*;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Map;
 
 public class FFmpegAudioTargetSubstream
         extends AudioTargetSubstream
         implements FFmpegEncoderContext
 {
-    private static final int SAMPLE_FORMAT = avutil.AV_SAMPLE_FMT_FLT;
+    // Samples are buffered per channel, and handed to the encoder (or swresample) as planar floats
+    private static final int SAMPLE_FORMAT = avutil.AV_SAMPLE_FMT_FLTP;
+
+    // Frame size to use for codecs that accept any frame size (frame_size is 0)
+    private static final int DEFAULT_FRAME_SIZE = 1024;
 
     private final FFmpegTargetStream targetStream;
     private final AVStream stream;
     private final AVCodecContext codecContext;
+    private final AVRational codecTimeBase, streamTimeBase;
+
+    // Reused for every frame and packet; the frame's buffers are only replaced if the encoder still holds them
     private final AVPacket packet;
+    private final AVFrame frame;
+    private PointerPointer frame_data;
+    private final FloatPointer[] frame_planes;
 
-    //swresample
+    //swresample, only needed if the encoder doesn't take planar floats
     private volatile SwrContext swrContext;
-    private final int outputBytesPerSample, inputBytesPerSample, inputPlanes, outputPlanes;
-    private ByteBuffer presampleOutputBuffer = ByteBuffer.allocate(0);
-    private final BytePointer[] samples_in;
-    private final BytePointer[] samples_out;
+    private final int channels, frameSize, sampleRate;
+    private final FloatPointer[] samples_in;
     private final PointerPointer samples_in_ptr;
-    private final PointerPointer samples_out_ptr;
 
+    // One buffer per channel, two frames long; sampleBufferPosition is in samples per channel
     private int sampleBufferPosition = 0;
-    private final float[] sampleBuffer;
+    private final float[][] sampleBuffer;
     private final AVRational nativeTimeBase;
+    private final Map<String, String> encoderOptions;
     private volatile long writtenSamples = 0L;
 
+    // Set if frames are encoded on a thread of their own (see setAsync)
+    private volatile EncoderQueue<AudioFrame> encoderQueue;
+
+    private final EncoderStatistics statistics;
+
     public FFmpegAudioTargetSubstream(FFmpegTargetStream targetStream, AVStream stream, AVCodecContext codecContext) throws FFmpegException {
-        this.packet = new AVPacket();
+        this(targetStream, stream, codecContext, Collections.emptyMap());
+    }
+
+    /**
+     * @param encoderOptions options the encoder consumed when it was opened, reported by getEncoderOptions().
+     */
+    public FFmpegAudioTargetSubstream(FFmpegTargetStream targetStream, AVStream stream, AVCodecContext codecContext,
+                                      Map<String, String> encoderOptions) throws FFmpegException {
         this.targetStream = targetStream;
         this.stream = stream;
         this.codecContext = codecContext;
+        this.encoderOptions = encoderOptions;
+        this.codecTimeBase = codecContext.time_base();
+        this.streamTimeBase = stream.time_base();
+        this.statistics = new EncoderStatistics(stream.index(), MediaType.AUDIO);
 
-        // Configure input parameters
-        int ffmpegInputFormat = SAMPLE_FORMAT;
-        int inputChannels = stream.codecpar().channels();
-        inputPlanes = avutil.av_sample_fmt_is_planar(ffmpegInputFormat) != 0 ? inputChannels : 1;
-        int inputSampleRate = stream.codecpar().sample_rate();
-        inputBytesPerSample = avutil.av_get_bytes_per_sample(ffmpegInputFormat);
-        int inputFrameSize = (16*1024) * inputPlanes * inputBytesPerSample;
+        channels = stream.codecpar().channels();
+        if (channels <= 0) throw new IllegalArgumentException("channels <= 0: " + channels);
+
+        frameSize = codecContext.frame_size() > 0 ? codecContext.frame_size() : DEFAULT_FRAME_SIZE;
+        sampleRate = stream.codecpar().sample_rate();
 
         // Configure output parameters
         int ffmpegOutputFormat = stream.codecpar().format();
-        int outputChannels = stream.codecpar().channels();
-        outputPlanes = avutil.av_sample_fmt_is_planar(ffmpegOutputFormat) != 0 ? outputChannels : 1;
-        int outputSampleRate = stream.codecpar().sample_rate();
-        outputBytesPerSample = avutil.av_get_bytes_per_sample(ffmpegOutputFormat);
-        int outputFrameSize = avutil.av_samples_get_buffer_size(
-                (IntPointer) null,
-                outputChannels,
-                inputFrameSize, // Input frame size neccessary
-                ffmpegOutputFormat,
-                1
-        ) / outputPlanes;
-
-        swrContext = swresample.swr_alloc_set_opts(
-                null,
-
-                // Output configuration
-                stream.codecpar().channel_layout(),
-                ffmpegOutputFormat,
-                stream.codecpar().sample_rate(),
-
-                // Input configuration
-                stream.codecpar().channel_layout(),
-                ffmpegInputFormat,
-                stream.codecpar().sample_rate(),
-
-                0, null
-        );
+        long channelLayout = stream.codecpar().channel_layout();
 
-        // Force resampler to always resample regardless of the sample rates.
-        // This forces the output to always be floats.
-        avutil.av_opt_set_int(swrContext, "swr_flags", 1, 0);
+        this.packet = avcodec.av_packet_alloc();
+        if (packet == null) throw new OutOfMemoryError("av_packet_alloc");
 
-        FFmpegError.checkError("swr_init", swresample.swr_init(swrContext));
+        this.frame = avutil.av_frame_alloc();
+        if (frame == null) throw new OutOfMemoryError("av_frame_alloc");
 
-        // Create input buffers
-        samples_in = new BytePointer[inputPlanes];
-        for (int i = 0; i < inputPlanes; i++) {
-            samples_in[i] = new BytePointer(avutil.av_malloc(inputFrameSize)).capacity(inputFrameSize);
-        }
+        frame.nb_samples(frameSize);
+        frame.format(ffmpegOutputFormat);
+        frame.channels(channels);
+        frame.channel_layout(channelLayout);
+        frame.sample_rate(sampleRate);
+        FFmpegError.checkError("av_frame_get_buffer", avutil.av_frame_get_buffer(frame, 0));
 
-        // Create output buffers
-        samples_out = new BytePointer[outputPlanes];
-        for (int i = 0; i < outputPlanes; i++) {
-            samples_out[i] = new BytePointer(avutil.av_malloc(outputFrameSize)).capacity(outputFrameSize);
-        }
+        frame_planes = new FloatPointer[channels];
+        updateFramePlanes();
+
+        if (ffmpegOutputFormat != SAMPLE_FORMAT) {
+            // Only the sample format is converted, so there is no resampler delay: every sample in is a sample out
+            swrContext = swresample.swr_alloc_set_opts(
+                    null,
+
+                    // Output configuration
+                    channelLayout,
+                    ffmpegOutputFormat,
+                    sampleRate,
+
+                    // Input configuration
+                    channelLayout,
+                    SAMPLE_FORMAT,
+                    sampleRate,
 
-        // Initialize input and output sample buffers;
-        samples_in_ptr = new PointerPointer(inputPlanes);
-        samples_out_ptr = new PointerPointer(outputPlanes);
+                    0, null
+            );
 
-        for (int i = 0; i < samples_out.length; i++)
-            samples_out_ptr.put(i, samples_out[i]);
+            if (swrContext == null) throw new OutOfMemoryError("swr_alloc_set_opts");
 
-        for (int i = 0; i < samples_in.length; i++)
-            samples_in_ptr.put(i, samples_in[i]);
+            FFmpegError.checkError("swr_init", swresample.swr_init(swrContext));
+
+            // Create input buffers, one plane per channel
+            samples_in = new FloatPointer[channels];
+            samples_in_ptr = new PointerPointer(channels);
+            for (int i = 0; i < channels; i++) {
+                samples_in[i] = new FloatPointer(avutil.av_malloc((long) frameSize * Float.BYTES)).capacity(frameSize);
+                samples_in_ptr.put(i, samples_in[i]);
+            }
+        } else {
+            // Samples are written straight into the frame
+            samples_in = frame_planes;
+            samples_in_ptr = null;
+        }
 
         this.nativeTimeBase = new AVRational();
         nativeTimeBase.num(1);
-        nativeTimeBase.den(outputSampleRate);
+        nativeTimeBase.den(sampleRate);
 
         // Smp buffer is 2 frames long, always
-        this.sampleBuffer = new float[(stream.codecpar().frame_size() * outputChannels) * 2];
+        this.sampleBuffer = new float[channels][frameSize * 2];
     }
 
     @Override
@@ -125,76 +145,78 @@ public class FFmpegAudioTargetSubstream
     }
 
     /**
-     * Writes a single (or partial) frame to the stream.  Cannot ingest more than one frame.
-     * @param samples Buffer of samples to write, can be any length >= len
+     * Refreshes the views of the frame's planes, after its buffers were allocated or replaced.
+     */
+    private void updateFramePlanes() {
+        frame_data = frame.extended_data();
+
+        if (avutil.av_sample_fmt_is_planar(frame.format()) != 0)
+            for (int i = 0; i < channels; i++)
+                frame_planes[i] = new FloatPointer(frame.extended_data(i)).capacity(frameSize);
+    }
+
+    /**
+     * Clips samples to -1F,1F in place.
+     */
+    private static void clip(float[] samples, int offset, int len) {
+        for (int i = offset; i < offset + len; i ++) {
+            float sample = samples[i];
+            samples[i] = sample > 1F ? 1F : (sample < -1F ? -1F : sample);
+        }
+    }
+
+    /**
+     * Writes a single (or partial) frame from the sample buffer to the stream.  Cannot ingest more than one frame.
+     * The samples written are clipped in place.
+     * @param offset Offset into the sample buffer, in samples per channel.
      * @param len Samples per channel (may need to be equal to frame_size).  Sending 0 will flush the stream. Cannot be
      *            > frame_size().  Can be 0.  Must be positive.
      * @throws FFmpegException
      */
-    private int writeFrame(float[] samples, int len)
+    private int writeFrame(int offset, int len)
             throws FFmpegException, EOFException {
         if (len < 0)
             throw new FFmpegException(new ArrayIndexOutOfBoundsException(len));
 
-        if (len > getCodecContext().frame_size())
-            throw new FFmpegException("invalid frame size: " + len + " > " + getCodecContext().frame_size());
-
-        int ffmpegNativeLength = len * getCodecContext().channels() * inputBytesPerSample;
-        if (presampleOutputBuffer.capacity() < ffmpegNativeLength) {
-            presampleOutputBuffer = ByteBuffer.allocate(ffmpegNativeLength);
-            presampleOutputBuffer.order(ByteOrder.nativeOrder());
-        }
+        if (len > frameSize)
+            throw new FFmpegException("invalid frame size: " + len + " > " + frameSize);
 
-        presampleOutputBuffer.position(0);
+        if (len == 0 && swrContext == null) return 0;
 
-        // Clip audio between -1F,1F
-        for (int i = 0; i < len; i ++)
-            samples[i] = Math.min(1F, Math.max(-1F, samples[i]));
-
-        // Obtain a 'samplesToRead' worth (chunk) of frames from the sample buffer
-        presampleOutputBuffer.asFloatBuffer().put(samples, 0, len * stream.codecpar().channels());
-
-        samples_in[0].position(0).put(presampleOutputBuffer.array(), 0, ffmpegNativeLength);
-
-        int outputCount =
-                (int) Math.min(
-                        (samples_out[0].limit() - samples_out[0].position()) /
-                                (stream.codecpar().channels() * outputBytesPerSample),
-                        Integer.MAX_VALUE
-                );
+        // The encoder may still reference the frame's buffers (i.e. if it has a lookahead); if so, get new ones
+        frame.nb_samples(frameSize);
+        if (avutil.av_frame_is_writable(frame) == 0) {
+            FFmpegError.checkError("av_frame_make_writable", avutil.av_frame_make_writable(frame));
+            updateFramePlanes();
+        }
 
-        //Returns number of samples output per channel, negative value on error
-        int ret = swresample.swr_convert(
-                swrContext,
-                samples_out_ptr, outputCount,
-                samples_in_ptr, len
-        );
+        // One bulk copy per channel, into the frame itself if the encoder takes planar floats
+        for (int channel = 0; channel < channels; channel++) {
+            clip(sampleBuffer[channel], offset, len);
+            samples_in[channel].position(0).put(sampleBuffer[channel], offset, len);
+        }
 
-        // Check return values
-        FFmpegError.checkError("swr_convert", ret);
+        int ret;
+        if (swrContext != null) {
+            //Returns number of samples output per channel, negative value on error
+            ret = FFmpegError.checkError("swr_convert", swresample.swr_convert(
+                    swrContext,
+                    frame_data, frameSize,
+                    samples_in_ptr, len
+            ));
+        } else {
+            ret = len;
+        }
 
         if (ret == 0) return 0;
 
-        AVFrame frame = avutil.av_frame_alloc();
-        if (frame == null) throw new NullPointerException("av_frame_alloc");
+        frame.nb_samples(ret);
+        frame.pts(avutil.av_rescale_q(writtenSamples, nativeTimeBase, codecTimeBase));
 
-        try {
-            frame.nb_samples(ret);
-            frame.format(stream.codecpar().format());
-            frame.channels(stream.codecpar().channels());
-            frame.channel_layout(stream.codecpar().channel_layout());
-            frame.pts(avutil.av_rescale_q(writtenSamples, nativeTimeBase, getCodecContext().time_base()));
-
-            for (int plane = 0; plane < outputPlanes; plane++)
-                frame.data(plane, samples_out[plane]);
-
-            encodeFrame(frame);
-        } finally {
-            avutil.av_frame_free(frame);
-        }
+        encodeFrame(frame, packet);
 
         writtenSamples += ret;
-        setPosition((double) writtenSamples / (double) stream.codecpar().sample_rate());
+        setPosition((double) writtenSamples / (double) sampleRate);
 
         return ret;
     }
@@ -205,45 +227,93 @@ public class FFmpegAudioTargetSubstream
      * typically.  In this case, we want to flush/drain down in chunks.
      * @param flush Overrides the chunking code -- this will flush down ANY variable frame size, it set to true by
      *              the flush() function when bookending the stream.  Unwise to do this elsewhere.
-     * @return
+     * @return samples written, per channel
      * @throws FFmpegException
      * @throws EOFException
      */
     private int drainInternalBuffer(boolean flush) throws FFmpegException, EOFException {
-        int totalFrameSize = stream.codecpar().frame_size() * stream.codecpar().channels();
-        int minimumFrameSize = flush ? 1 : totalFrameSize;
-        int written = 0, encoded = 0, toWrite;
+        int minimumFrameSize = flush ? 1 : frameSize;
+        int written = 0, toWrite;
 
-        int channels = stream.codecpar().channels();
-        if (channels <= 0) throw new IllegalArgumentException("channels <= 0: " + channels);
-
-        while (sampleBufferPosition >= minimumFrameSize) {
-            toWrite = flush ?
-                    Math.min(totalFrameSize, sampleBufferPosition) :
-                    totalFrameSize;
-
-            encoded += writeFrame(sampleBuffer, toWrite / channels);
+        while (sampleBufferPosition - written >= minimumFrameSize) {
+            toWrite = Math.min(frameSize, sampleBufferPosition - written);
+            writeFrame(written, toWrite);
+            written += toWrite;
+        }
 
-            System.arraycopy(
-                    sampleBuffer, toWrite,
-                    sampleBuffer, 0, sampleBufferPosition - toWrite
-            );
+        // Move what's left over to the start of the buffer
+        if (written > 0) {
+            for (int channel = 0; channel < channels; channel++)
+                System.arraycopy(
+                        sampleBuffer[channel], written,
+                        sampleBuffer[channel], 0, sampleBufferPosition - written
+                );
 
-            sampleBufferPosition -= toWrite;
-            written += toWrite;
+            sampleBufferPosition -= written;
         }
 
         return written;
     }
 
     /**
-     * Flushes all available internal samples from the buffer, effectively emptying any waiting data.
+     * Makes write() queue frames, up to queueSize of them, to be encoded on a thread of this substream's own (see
+     * EncoderQueue), so that audio keeps being encoded while another substream's encoder is busy.  Must be called
+     * before the first frame is written.
+     * @param queueSize number of frames queued before the policy applies.
+     * @param policy what to do with a frame when the queue is full.
+     */
+    public void setAsync(int queueSize, EncoderQueue.OverflowPolicy policy) {
+        if (encoderQueue != null) throw new IllegalStateException("already asynchronous");
+        if (writtenSamples > 0 || sampleBufferPosition > 0) throw new IllegalStateException("samples already written");
+
+        encoderQueue = new EncoderQueue<>(
+                "FFmpegAudioTargetSubstream-" + stream.index(),
+                queueSize,
+                policy,
+                new EncoderQueue.Encoder<AudioFrame>() {
+                    @Override
+                    public void encode(AudioFrame frame) throws IOException {
+                        writeNow(frame);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        flushNow();
+                    }
+                }
+        );
+
+        statistics.setEncoderQueue(encoderQueue);
+    }
+
+    public boolean isAsync() {
+        return encoderQueue != null;
+    }
+
+    /**
+     * Gets the queue frames are encoded from, or null if frames are encoded as they are written.
+     */
+    public EncoderQueue<AudioFrame> getEncoderQueue() {
+        return encoderQueue;
+    }
+
+    /**
+     * Flushes all available internal samples from the buffer, effectively emptying any waiting data, then drains the
+     * encoder.  This ends the stream: nothing can be written afterwards.  If frames are encoded asynchronously, the
+     * queued frames are encoded first.
      * @throws IOException
      */
     public void flush() throws IOException {
+        EncoderQueue<AudioFrame> encoderQueue = this.encoderQueue;
+        if (encoderQueue != null) encoderQueue.flush();
+        else flushNow();
+    }
+
+    private void flushNow() throws IOException {
         try {
             drainInternalBuffer(true);
-            writeFrame(new float[0], 0);
+            writeFrame(0, 0);
+            drainEncoder(packet);
         } catch (FFmpegException e) {
             throw new IOException(e);
         }
@@ -251,15 +321,25 @@ public class FFmpegAudioTargetSubstream
 
     /**
      * Frontend encoder.  This accepts any arbitrarily sized audio frame (0-n samples) and will automatically drain
-     * it down the stream correctly for you.
+     * it down the stream correctly for you.  Planar frames (PlanarAudioFrame) are copied plane by plane; interleaved
+     * frames are split into planes as they are buffered.
+     *
+     * If frames are encoded asynchronously (see setAsync), the frame is only queued, and must not be modified
+     * afterwards; the buffer is drained as frames are encoded, so writing null does nothing.
      * @param o Audio Frame object to encode into sub-frames and, subsequently, packets.
      * @throws IOException
      */
     @Override
     public void write(AudioFrame o) throws IOException {
-        int size = o.getLength();
+        EncoderQueue<AudioFrame> encoderQueue = this.encoderQueue;
+        if (encoderQueue == null) writeNow(o);
+        else if (o != null) encoderQueue.submit(o);
+    }
+
+    private void writeNow(AudioFrame o) throws IOException {
+        int size = o == null ? 0 : o.getLength() / channels;
 
-        if (o == null || size <= 0) {
+        if (size <= 0) {
             try {
                 drainInternalBuffer(false);
             } catch (FFmpegException e) {
@@ -268,15 +348,28 @@ public class FFmpegAudioTargetSubstream
             return;
         }
 
+        float[][] planes = o instanceof PlanarAudioFrame ? ((PlanarAudioFrame) o).getPlanes() : null;
+        float[] samples = planes == null ? o.getSamples() : null;
+
         int position = 0;
         int read;
 
         while (position < size) {
             // Fill sample buffer with remaining samples
-            read = Math.min(size - position, sampleBuffer.length - sampleBufferPosition);
+            read = Math.min(size - position, frameSize * 2 - sampleBufferPosition);
             if (read <= 0) throw new ArrayIndexOutOfBoundsException(read);
 
-            System.arraycopy(o.getSamples(), position, sampleBuffer, sampleBufferPosition, read);
+            if (planes != null) {
+                for (int channel = 0; channel < channels; channel++)
+                    System.arraycopy(planes[channel], position, sampleBuffer[channel], sampleBufferPosition, read);
+            } else {
+                for (int channel = 0; channel < channels; channel++) {
+                    float[] plane = sampleBuffer[channel];
+                    for (int i = 0, j = position * channels + channel; i < read; i++, j += channels)
+                        plane[sampleBufferPosition + i] = samples[j];
+                }
+            }
+
             sampleBufferPosition += read;
             position += read;
 
@@ -294,35 +387,37 @@ public class FFmpegAudioTargetSubstream
     public void close() throws Exception {
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegAudioTargetSubstream.close() called");
 
+        if (encoderQueue != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "encoderQueue.close()...");
+            encoderQueue.close();
+        }
+
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "avcodec_close(stream.codec())...");
         avcodec.avcodec_close(getCodecContext());
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_free(stream.codec())...");
         avutil.av_free(getCodecContext());
 
         // see: https://ffmpeg.org/doxygen/2.1/doc_2examples_2resampling_audio_8c-example.html
-        for (int i = 0; i < samples_in.length; i++) {
-            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_in[" + i + "])...");
-            avutil.av_free(samples_in[i]);
-            samples_in[i].deallocate();
-            samples_in[i] = null;
+        if (samples_in_ptr != null) {
+            for (int i = 0; i < samples_in.length; i++) {
+                Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_in[" + i + "])...");
+                avutil.av_free(samples_in[i]);
+                samples_in[i].deallocate();
+                samples_in[i] = null;
+            }
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_in_ptr...");
+            samples_in_ptr.deallocate();
         }
-        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_in_ptr...");
-        samples_in_ptr.deallocate();
 
-        // see: https://ffmpeg.org/doxygen/2.1/doc_2examples_2resampling_audio_8c-example.html
-        for (int i = 0; i < samples_out.length; i++) {
-            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_out[" + i + "])...");
-            avutil.av_free(samples_out[i]);
-            samples_out[i].deallocate();
-            samples_out[i] = null;
-        }
-        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_out_ptr...");
-        samples_out_ptr.deallocate();
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(frame)...");
+        avutil.av_frame_free(frame);
 
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "nativeTimeBase.deallocate()...");
         nativeTimeBase.deallocate();
-        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "swr_free(swrContext)...");
-        swresample.swr_free(swrContext);
+        if (swrContext != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "swr_free(swrContext)...");
+            swresample.swr_free(swrContext);
+        }
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_free_packet(packet)...");
         avcodec.av_packet_free(packet);
 
@@ -337,12 +432,25 @@ public class FFmpegAudioTargetSubstream
      */
     @Override
     public void writePacket(AVPacket packet) throws FFmpegException, EOFException {
-        packet.pts(writtenSamples);
-        avcodec.av_packet_rescale_ts(packet, getCodecContext().time_base(), stream.time_base());
+        // The encoder's own timestamps account for its delay, and for the packets drained at the end of the stream
+        avcodec.av_packet_rescale_ts(packet, codecTimeBase, streamTimeBase);
         packet.stream_index(stream.index());
+
+        statistics.onPacketWritten(packet, streamTimeBase);
+
         getTargetStream().writePacket(packet);
     }
 
+    @Override
+    public Map<String, String> getEncoderOptions() {
+        return encoderOptions;
+    }
+
+    @Override
+    public EncoderStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public AVCodecContext getCodecContext() {
         return codecContext;
@@ -350,7 +458,7 @@ public class FFmpegAudioTargetSubstream
 
     @Override
     public AVStream getStream() {
-        return getStream();
+        return stream;
     }
 
     @Override
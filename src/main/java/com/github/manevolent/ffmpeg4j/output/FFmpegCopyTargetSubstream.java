@@ -0,0 +1,91 @@
+package com.github.manevolent.ffmpeg4j.output;
+
+import com.github.manevolent.ffmpeg4j.FFmpegException;
+import com.github.manevolent.ffmpeg4j.MediaType;
+import com.github.manevolent.ffmpeg4j.stream.output.FFmpegTargetStream;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avformat.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.io.IOException;
+
+/**
+ * A substream that muxes already encoded packets as-is (stream copy), i.e. packets read with
+ * FFmpegSourceStream.readRawPacket().  Nothing is decoded or encoded; packets only have their timestamps rescaled
+ * from the time base they were read in to the stream's.
+ */
+public class FFmpegCopyTargetSubstream extends MediaTargetSubstream<AVPacket> {
+    private final FFmpegTargetStream targetStream;
+    private final AVStream stream;
+    private final AVRational sourceTimeBase;
+    private final MediaType mediaType;
+
+    private volatile long writtenPackets = 0L;
+
+    /**
+     * @param sourceTimeBase time base of the timestamps of packets passed to write().
+     */
+    public FFmpegCopyTargetSubstream(FFmpegTargetStream targetStream, AVStream stream, AVRational sourceTimeBase) {
+        this.targetStream = targetStream;
+        this.stream = stream;
+        this.sourceTimeBase = avutil.av_make_q(sourceTimeBase.num(), sourceTimeBase.den());
+
+        int codecType = stream.codecpar().codec_type();
+        if (codecType == avutil.AVMEDIA_TYPE_AUDIO) mediaType = MediaType.AUDIO;
+        else if (codecType == avutil.AVMEDIA_TYPE_VIDEO) mediaType = MediaType.VIDEO;
+        else throw new IllegalArgumentException("unsupported media type: " + codecType);
+    }
+
+    /**
+     * Writes an encoded packet.  Its timestamps are rescaled and its stream index replaced, so the packet is modified.
+     * @param packet packet with timestamps in the source time base.
+     */
+    @Override
+    public void write(AVPacket packet) throws IOException {
+        avcodec.av_packet_rescale_ts(packet, sourceTimeBase, stream.time_base());
+        packet.stream_index(stream.index());
+
+        try {
+            targetStream.writePacket(packet);
+        } catch (FFmpegException ex) {
+            throw new IOException(ex);
+        }
+
+        writtenPackets++;
+    }
+
+    /**
+     * Gets the number of packets written so far.
+     */
+    public long getWrittenPackets() {
+        return writtenPackets;
+    }
+
+    public AVRational getSourceTimeBase() {
+        return sourceTimeBase;
+    }
+
+    public AVStream getStream() {
+        return stream;
+    }
+
+    public FFmpegTargetStream getTargetStream() {
+        return targetStream;
+    }
+
+    @Override
+    public void flush() {
+        // Nothing is buffered
+    }
+
+    @Override
+    public MediaType getType() {
+        return mediaType;
+    }
+
+    @Override
+    public void close() {
+        // The stream belongs to the format context
+    }
+}
@@ -9,6 +9,7 @@ import org.bytedeco.ffmpeg.avutil.*;
 import org.bytedeco.ffmpeg.global.*;
 
 import java.io.EOFException;
+import java.util.Map;
 
 public interface FFmpegEncoderContext extends FFmpegStreamContext {
 
@@ -16,6 +17,18 @@ public interface FFmpegEncoderContext extends FFmpegStreamContext {
 
     FFmpegTargetStream getTargetStream();
 
+    /**
+     * Gets the options the encoder consumed when it was opened: those set by its EncoderProfile, then any raw options
+     * avcodec_open2() used.  Raw options the encoder ignored are not included.
+     */
+    Map<String, String> getEncoderOptions();
+
+    /**
+     * Gets the live statistics of what the encoder has produced, updated by encodeFrame(), processAvailablePackets()
+     * and writePacket().
+     */
+    EncoderStatistics getStatistics();
+
     /**
      * Processes encoded frames made available by encodeFrame() in their packetized state and flushes them on to
      * writePacket(), which is typically fulfilled by a superclass
@@ -24,27 +37,46 @@ public interface FFmpegEncoderContext extends FFmpegStreamContext {
      * @throws EOFException
      */
     default int processAvailablePackets() throws FFmpegException, EOFException {
+        AVPacket packet = avcodec.av_packet_alloc();
+        if (packet == null) throw new NullPointerException("av_packet_alloc()");
+
+        try {
+            return processAvailablePackets(packet);
+        } finally {
+            avcodec.av_packet_free(packet);
+        }
+    }
+
+    /**
+     * Processes encoded frames made available by encodeFrame(), receiving each into the given packet, so that a
+     * substream can reuse one packet for the whole stream.  The packet is unreferenced after each writePacket().
+     * @param packet Packet to receive into, allocated with av_packet_alloc().
+     * @return Number of packets written.
+     * @throws FFmpegException
+     * @throws EOFException
+     */
+    default int processAvailablePackets(AVPacket packet) throws FFmpegException, EOFException {
         int ret = 0;
 
         int packets_finished = 0;
 
         while (ret >= 0) {
-            AVPacket packet = avcodec.av_packet_alloc();
-            if (packet == null) throw new NullPointerException("av_packet_alloc()");
-
             try {
                 ret = avcodec.avcodec_receive_packet(getCodecContext(), packet);
                 if (ret == avutil.AVERROR_EAGAIN()) break; // output is not available right now - user must try to send new input
+                if (ret == avutil.AVERROR_EOF) break; // the encoder has been fully drained (see drainEncoder())
 
                 // Check for misc. errors:
                 FFmpegError.checkError("avcodec_receive_packet", ret);
 
+                getStatistics().onPacketReceived(System.nanoTime());
+
                 writePacket(packet);
 
                 // If we made it this far:
                 packets_finished++;
             } finally {
-                avcodec.av_packet_free(packet);
+                avcodec.av_packet_unref(packet);
             }
         }
 
@@ -59,17 +91,56 @@ public interface FFmpegEncoderContext extends FFmpegStreamContext {
      * @throws EOFException
      */
     default int encodeFrame(AVFrame frame) throws FFmpegException, EOFException {
+        AVPacket packet = avcodec.av_packet_alloc();
+        if (packet == null) throw new NullPointerException("av_packet_alloc()");
+
+        try {
+            return encodeFrame(frame, packet);
+        } finally {
+            avcodec.av_packet_free(packet);
+        }
+    }
+
+    /**
+     * Encodes a raw frame into a series of packets, receiving them into the given packet (see
+     * processAvailablePackets(AVPacket)).
+     * @param frame Frame to encode.
+     * @param packet Packet to receive into, allocated with av_packet_alloc().
+     * @return Number of packets made available.
+     * @throws FFmpegException
+     * @throws EOFException
+     */
+    default int encodeFrame(AVFrame frame, AVPacket packet) throws FFmpegException, EOFException {
         int ret = -11, packet_finished = 0;
+        long sendTime = System.nanoTime();
 
         while (ret == -11) {
             ret = avcodec.avcodec_send_frame(getCodecContext(), frame);
 
-            if (ret != -11)
+            if (ret != -11) {
                 FFmpegError.checkError("avcodec_send_frame", ret);
+                if (frame != null) getStatistics().onFrameSent(sendTime);
+            }
 
-            packet_finished += processAvailablePackets();
+            packet_finished += processAvailablePackets(packet);
         }
 
         return packet_finished;
     }
+
+    /**
+     * Drains the encoder, writing out every packet it still holds (i.e. its lookahead) at the end of the stream.
+     * Nothing can be encoded afterwards.
+     * @param packet Packet to receive into, allocated with av_packet_alloc().
+     * @return Number of packets written.
+     * @throws FFmpegException
+     * @throws EOFException
+     */
+    default int drainEncoder(AVPacket packet) throws FFmpegException, EOFException {
+        int ret = avcodec.avcodec_send_frame(getCodecContext(), (AVFrame) null);
+        if (ret != avutil.AVERROR_EOF) // already draining
+            FFmpegError.checkError("avcodec_send_frame", ret);
+
+        return processAvailablePackets(packet);
+    }
 }
@@ -1,10 +1,15 @@
 package com.github.manevolent.ffmpeg4j.output;
 
+import com.github.manevolent.ffmpeg4j.FFmpeg;
 import com.github.manevolent.ffmpeg4j.FFmpegError;
 import com.github.manevolent.ffmpeg4j.FFmpegException;
+import com.github.manevolent.ffmpeg4j.FFmpegVideoFrame;
 import com.github.manevolent.ffmpeg4j.Logging;
+import com.github.manevolent.ffmpeg4j.MediaType;
 import com.github.manevolent.ffmpeg4j.VideoFrame;
 import com.github.manevolent.ffmpeg4j.math.Rational;
+import com.github.manevolent.ffmpeg4j.scale.FFmpegScaler;
+import com.github.manevolent.ffmpeg4j.scale.ScalerSettings;
 import com.github.manevolent.ffmpeg4j.stream.output.FFmpegTargetStream;
 
 import org.bytedeco.ffmpeg.global.*;
@@ -12,10 +17,15 @@ import org.bytedeco.javacpp.*;
 import org.bytedeco.ffmpeg.avcodec.*;
 import org.bytedeco.ffmpeg.avformat.*;
 import org.bytedeco.ffmpeg.avutil.*;
-import org.bytedeco.ffmpeg.swscale.*;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class FFmpegVideoTargetSubstream
         extends VideoTargetSubstream
@@ -26,34 +36,63 @@ public class FFmpegVideoTargetSubstream
     private final Rational timeBase;
 
     // sws stuff
-    private final BytePointer inputBuffer;
-    private final BytePointer outputBuffer;
+    private BytePointer inputBuffer;
+    private int inputBufferSize;
     private final AVFrame inputFrame;
-    private final AVFrame outputFrame;
-    private final SwsContext sws;
+    private FFmpegScaler scaler;
+    private volatile int scalerThreads = 1;
+    private volatile ScalerSettings scalerSettings = ScalerSettings.DEFAULT;
+
+    // Reference counted frames in the encoder's pixel format and size, which frames are converted or copied into.
+    // Encoders may keep references to the frames they are sent (i.e. for B-frames or frame threading), so a frame is
+    // only reused once the encoder has let go of it; otherwise another one is allocated.
+    private final List<AVFrame> encoderFrames = new ArrayList<>();
+
+    // Holds a temporary reference to native frames while they are sent to the encoder
+    private final AVFrame sendFrame;
+    private final AVPacket packet;
 
     private final int pixelFormat; // input pixel format
 
     private final double frameRate;
+    private final Map<String, String> encoderOptions;
 
     private volatile long writtenFrames = 0L;
 
+    // Set if frames are encoded on a thread of their own (see setAsync)
+    private volatile EncoderQueue<VideoFrame> encoderQueue;
+
+    private final EncoderStatistics statistics;
+
     public FFmpegVideoTargetSubstream(FFmpegTargetStream targetStream, AVStream stream, AVCodecContext codecContext, double fps)
             throws FFmpegException {
+        this(targetStream, stream, codecContext, fps, Collections.emptyMap());
+    }
+
+    /**
+     * @param encoderOptions options the encoder consumed when it was opened, reported by getEncoderOptions().
+     */
+    public FFmpegVideoTargetSubstream(FFmpegTargetStream targetStream, AVStream stream, AVCodecContext codecContext, double fps,
+                                      Map<String, String> encoderOptions)
+            throws FFmpegException {
         this.targetStream = targetStream;
         this.stream = stream;
         this.codecContext = codecContext;
+        this.encoderOptions = encoderOptions;
 
         this.timeBase = Rational.fromAVRational(stream.time_base());
         this.frameRate = fps;
 
         this.pixelFormat = targetStream.getPixelFormat();
+        this.statistics = new EncoderStatistics(stream.index(), MediaType.VIDEO);
 
         // SWScale
-        outputFrame = avutil.av_frame_alloc();
-        if (outputFrame == null) throw new RuntimeException("failed to allocate output frame");
         inputFrame = avutil.av_frame_alloc();
         if (inputFrame == null) throw new RuntimeException("failed to allocate input frame");
+        sendFrame = avutil.av_frame_alloc();
+        if (sendFrame == null) throw new RuntimeException("failed to allocate send frame");
+        packet = avcodec.av_packet_alloc();
+        if (packet == null) throw new RuntimeException("failed to allocate packet");
 
         int numBytesInput = avutil.av_image_get_buffer_size(
                 pixelFormat,
@@ -61,117 +100,340 @@ public class FFmpegVideoTargetSubstream
                 stream.codecpar().height(),
                 1 // used by some other methods in ffmpeg
         );
-        inputBuffer = new BytePointer(avutil.av_malloc(numBytesInput));
+        allocateInputBuffer(numBytesInput);
+    }
 
-        int numBytesOutput = avutil.av_image_get_buffer_size(
-                stream.codecpar().format(),
-                stream.codecpar().width(),
-                stream.codecpar().height(),
-                1
-        );
-        outputBuffer = new BytePointer(avutil.av_malloc(numBytesOutput));
-
-         /*
-            http://stackoverflow.com/questions/29743648/which-flag-to-use-for-better-quality-with-sws-scale
-
-            The RGB24 to YUV420 conversation itself is lossy. The scaling algorithm is probably used in downscaling
-            the color information. I'd say the quality is: point << bilinear < bicubic < lanczos/sinc/spline I don't
-            really know the others. Under rare circumstances sinc is the ideal scaler and lossless, but those
-            conditions are usually not met. Are you also scaling the video? Otherwise I'd go for bicubic.
-         */
-
-        sws = swscale.sws_getContext(
-                stream.codecpar().width(), stream.codecpar().height(), pixelFormat, // source
-                stream.codecpar().width(), stream.codecpar().height(), stream.codecpar().format(), // destination
-                swscale.SWS_BILINEAR, // flags (see above)
-                null, null, (DoublePointer) null // filters, params
-        );
+    /**
+     * (Re)allocates the native buffer heap frames are copied into.  Frames with padded lines need more than a packed
+     * frame does.
+     */
+    private void allocateInputBuffer(int size) {
+        if (inputBuffer != null) avutil.av_free(inputBuffer);
 
-        // Assign appropriate parts of buffer to image planes in pFrameRGB
-        // See: https://mail.gnome.org/archives/commits-list/2016-February/msg05531.html
-        FFmpegError.checkError("av_image_fill_arrays", avutil.av_image_fill_arrays(
-                inputFrame.data(),
-                inputFrame.linesize(),
-                inputBuffer,
-                pixelFormat,
-                stream.codecpar().width(),
-                stream.codecpar().height(),
-                1
-        ));
-
-        FFmpegError.checkError("av_image_fill_arrays", avutil.av_image_fill_arrays(
-                outputFrame.data(),
-                outputFrame.linesize(),
-                outputBuffer,
-                stream.codecpar().format(),
-                stream.codecpar().width(),
-                stream.codecpar().height(),
-                1
-        ));
+        inputBuffer = new BytePointer(avutil.av_malloc(size));
+        if (inputBuffer.isNull()) throw new OutOfMemoryError("av_malloc");
+        inputBufferSize = size;
     }
 
-    @Override
-    public void write(VideoFrame o) throws IOException {
-        if (o.getFormat() != pixelFormat)
-            throw new IOException(
-                    new FFmpegException("frame has mismatched pixel format: " +
-                            "expected " + o.getFormat() + " != " + pixelFormat)
+    /**
+     * Gets a frame in the encoder's pixel format and size that the encoder holds no references to, so that it can be
+     * written to.
+     */
+    private AVFrame acquireEncoderFrame() throws FFmpegException {
+        for (AVFrame frame : encoderFrames)
+            if (avutil.av_frame_is_writable(frame) != 0)
+                return frame;
+
+        AVFrame frame = avutil.av_frame_alloc();
+        if (frame == null) throw new OutOfMemoryError("av_frame_alloc");
+
+        frame.format(stream.codecpar().format());
+        frame.width(stream.codecpar().width());
+        frame.height(stream.codecpar().height());
+
+        try {
+            FFmpegError.checkError("av_frame_get_buffer", avutil.av_frame_get_buffer(frame, 0));
+        } catch (FFmpegException ex) {
+            avutil.av_frame_free(frame);
+            throw ex;
+        }
+
+        encoderFrames.add(frame);
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "allocated encoder frame " + encoderFrames.size());
+
+        return frame;
+    }
+
+    /**
+     * Gets the number of frames allocated for the encoder so far; this grows to however many frames the encoder holds
+     * on to at once, plus one.
+     */
+    public int getEncoderFrameCount() {
+        return encoderFrames.size();
+    }
+
+    private boolean isEncoderFormat(int format, int width, int height) {
+        return format == stream.codecpar().format() &&
+                width == stream.codecpar().width() &&
+                height == stream.codecpar().height();
+    }
+
+    /**
+     * Copies an image into an encoder frame, converting it into the encoder's pixel format (and size) if needed, and
+     * encodes it.  The image itself is not referenced once this returns.
+     */
+    private void encodeImage(PointerPointer data, IntPointer lineSize, int format, int width, int height)
+            throws FFmpegException, EOFException {
+        AVFrame frame = acquireEncoderFrame();
+
+        if (isEncoderFormat(format, width, height)) {
+            avutil.av_image_copy(frame.data(), frame.linesize(), data, lineSize, format, width, height);
+        } else {
+            /*
+                http://stackoverflow.com/questions/29743648/which-flag-to-use-for-better-quality-with-sws-scale
+
+                The RGB24 to YUV420 conversation itself is lossy. The scaling algorithm is probably used in
+                downscaling the color information. I'd say the quality is: point << bilinear < bicubic <
+                lanczos/sinc/spline I don't really know the others. Under rare circumstances sinc is the ideal scaler
+                and lossless, but those conditions are usually not met. Are you also scaling the video? Otherwise I'd
+                go for bicubic.
+             */
+
+            scaler = FFmpegScaler.getCached(
+                    scaler,
+                    width, height, format, // source
+                    stream.codecpar().width(), stream.codecpar().height(), stream.codecpar().format(), // destination
+                    scalerSettings, // (see above)
+                    scalerThreads,
+                    ForkJoinPool.commonPool()
             );
 
-        inputFrame.data(0).put(o.getData());
-        //inputPicture.linesize(0, o.getWidth());
-
-        int ret = swscale.sws_scale(
-                sws, // the scaling context previously created with sws_getContext()
-                inputFrame.data(), // 	the array containing the pointers to the planes of the source slice
-                inputFrame.linesize(), // the array containing the strides for each plane of the source image
-                0, // the position in the source image of the slice to process, that is the number (counted starting from zero) in the image of the first row of the slice
-                stream.codecpar().height(), // the height of the source slice, that is the number of rows in the slice
-                outputFrame.data(), // the array containing the pointers to the planes of the destination image
-                outputFrame.linesize() // the array containing the strides for each plane of the destination image
-        );
+            scaler.scale(data, lineSize, frame.data(), frame.linesize());
+        }
+
+        encode(frame);
+    }
+
+    private void encode(AVFrame frame) throws FFmpegException, EOFException {
+        frame.pts(writtenFrames);
+        encodeFrame(frame, packet);
+
+        writtenFrames ++;
+        setPosition((double) writtenFrames / (double) frameRate);
+    }
+
+    /**
+     * Writes a frame held in native memory.  The frame is not modified, and remains owned by the caller.  Reference
+     * counted frames (i.e. decoded frames, or ones allocated with av_frame_get_buffer()) that are already in the
+     * encoder's pixel format and size are sent to the encoder by reference, without any copies; the encoder may hold
+     * on to that reference after this returns, so the caller must not write to the frame until av_frame_is_writable()
+     * says it can.  Other frames are copied, or converted straight from their native planes, into frames owned by
+     * the encoder.
+     * @param source frame to write; its format, width and height must be set.
+     * @throws IOException
+     * @throws IllegalStateException if frames are encoded asynchronously (see setAsync); write an FFmpegVideoFrame
+     *                               instead.
+     */
+    public void write(AVFrame source) throws IOException {
+        checkSync();
+        writeNative(source);
+    }
 
+    private void writeNative(AVFrame source) throws IOException {
         try {
-            FFmpegError.checkError("sws_scale", ret);
+            if (source.buf(0) != null && isEncoderFormat(source.format(), source.width(), source.height())) {
+                FFmpegError.checkError("av_frame_ref", avutil.av_frame_ref(sendFrame, source));
+
+                try {
+                    encode(sendFrame);
+                } finally {
+                    avutil.av_frame_unref(sendFrame);
+                }
+            } else {
+                encodeImage(source.data(), source.linesize(), source.format(), source.width(), source.height());
+            }
         } catch (FFmpegException e) {
-            throw new RuntimeException(e);
+            throw new IOException(e);
         }
+    }
 
-        //outputFrame.pts(avutil.av_rescale_q(writtenFrames, nativeTimeBase, stream.codec().time_base()));
-
-        //outputFrame.linesize(0, o.getWidth());
-        outputFrame.width(o.getWidth());
-        outputFrame.height(o.getHeight());
-        outputFrame.format(stream.codecpar().format());
+    /**
+     * Writes an image held in direct ByteBuffers (i.e. mapped from a capture device or a GPU readback), one per plane,
+     * each starting at its buffer's position.  The image is copied, or converted, straight from those buffers into a
+     * frame owned by the encoder, so the buffers can be reused as soon as this returns.
+     * @param format FFmpeg pixel format of the image.
+     * @param width width, in pixels.
+     * @param height height, in pixels.
+     * @param planes one direct buffer per plane (i.e. 1 for RGB24, 3 for YUV420P).
+     * @param lineSizes bytes per line of each plane, including any padding.
+     * @throws IOException
+     * @throws IllegalStateException if frames are encoded asynchronously (see setAsync).
+     */
+    public void write(int format, int width, int height, ByteBuffer[] planes, int[] lineSizes) throws IOException {
+        checkSync();
+
+        int planeCount = avutil.av_pix_fmt_count_planes(format);
+        if (planeCount <= 0)
+            throw new IllegalArgumentException("unknown pixel format: " + format);
+        if (planes.length < planeCount || lineSizes.length < planeCount)
+            throw new IllegalArgumentException("format has " + planeCount + " planes");
+
+        for (int plane = 0; plane < AVFrame.AV_NUM_DATA_POINTERS; plane++) {
+            if (plane < planeCount) {
+                ByteBuffer buffer = planes[plane];
+                if (!buffer.isDirect())
+                    throw new IllegalArgumentException("plane " + plane + " is not a direct buffer");
+                if (buffer.remaining() < (long) lineSizes[plane] * FFmpeg.getPlaneHeight(format, height, plane))
+                    throw new IllegalArgumentException("plane " + plane + " is too small");
+
+                inputFrame.data(plane, new BytePointer(buffer));
+                inputFrame.linesize(plane, lineSizes[plane]);
+            } else {
+                inputFrame.data(plane, null);
+                inputFrame.linesize(plane, 0);
+            }
+        }
 
         try {
-            outputFrame.pts(writtenFrames);
-            encodeFrame(outputFrame);
+            encodeImage(inputFrame.data(), inputFrame.linesize(), format, width, height);
+        } catch (FFmpegException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes a frame held on the heap.  Every plane of the frame is used, with its own line size.  Frames in the
+     * encoder's pixel format and size are copied into a frame owned by the encoder; others are converted into it.
+     * Frames held in native memory (FFmpegVideoFrame) are written with write(AVFrame).
+     *
+     * If frames are encoded asynchronously (see setAsync), the frame is only queued, and must not be modified
+     * afterwards.
+     */
+    @Override
+    public void write(VideoFrame o) throws IOException {
+        EncoderQueue<VideoFrame> encoderQueue = this.encoderQueue;
+        if (encoderQueue != null) encoderQueue.submit(o);
+        else writeNow(o);
+    }
 
-            writtenFrames ++;
-            setPosition((double) writtenFrames / (double) frameRate);
+    private void writeNow(VideoFrame o) throws IOException {
+        if (o instanceof FFmpegVideoFrame) {
+            writeNative(((FFmpegVideoFrame) o).getAVFrame());
+            return;
+        }
+
+        if (o.getData().length > inputBufferSize) allocateInputBuffer(o.getData().length);
+        FFmpeg.fillPlanes(o, inputBuffer, inputFrame);
+
+        try {
+            encodeImage(inputFrame.data(), inputFrame.linesize(), o.getFormat(), o.getWidth(), o.getHeight());
         } catch (FFmpegException e) {
             throw new IOException(e);
         }
     }
 
-    // I don't think we have anything to flush here
+    /**
+     * Makes write(VideoFrame) queue frames, up to queueSize of them, to be encoded on a thread of this substream's
+     * own (see EncoderQueue), so that a slow encoder doesn't hold up the thread decoding frames, or other substreams.
+     * Must be called before the first frame is written.
+     * @param queueSize number of frames queued before the policy applies.
+     * @param policy what to do with a frame when the queue is full.
+     */
+    public void setAsync(int queueSize, EncoderQueue.OverflowPolicy policy) {
+        if (encoderQueue != null) throw new IllegalStateException("already asynchronous");
+        if (writtenFrames > 0) throw new IllegalStateException("frames already written");
+
+        encoderQueue = new EncoderQueue<>(
+                "FFmpegVideoTargetSubstream-" + stream.index(),
+                queueSize,
+                policy,
+                new EncoderQueue.Encoder<VideoFrame>() {
+                    @Override
+                    public void encode(VideoFrame frame) throws IOException {
+                        writeNow(frame);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        flushNow();
+                    }
+                }
+        );
+
+        statistics.setEncoderQueue(encoderQueue);
+    }
+
+    public boolean isAsync() {
+        return encoderQueue != null;
+    }
+
+    /**
+     * Gets the queue frames are encoded from, or null if frames are encoded as they are written.
+     */
+    public EncoderQueue<VideoFrame> getEncoderQueue() {
+        return encoderQueue;
+    }
+
+    private void checkSync() {
+        if (encoderQueue != null) throw new IllegalStateException("frames are encoded asynchronously");
+    }
+
+    public int getScalerThreads() {
+        return scalerThreads;
+    }
+
+    /**
+     * Sets how many threads convert each frame that isn't already in the encoder's pixel format and size (see
+     * FFmpegScaler).
+     * @param scalerThreads number of threads; 1 (the default) converts frames on the writing thread.
+     */
+    public void setScalerThreads(int scalerThreads) {
+        if (scalerThreads <= 0) throw new IllegalArgumentException("scalerThreads must be positive");
+        this.scalerThreads = scalerThreads;
+    }
+
+    public ScalerSettings getScalerSettings() {
+        return scalerSettings;
+    }
+
+    /**
+     * Sets the algorithm and options used to convert frames to the encoder's pixel format and size.
+     * @param scalerSettings scaler settings; ScalerSettings.DEFAULT is bilinear.
+     */
+    public void setScalerSettings(ScalerSettings scalerSettings) {
+        if (scalerSettings == null) throw new NullPointerException("scalerSettings");
+        this.scalerSettings = scalerSettings;
+    }
+
+    /**
+     * Drains the encoder, writing out the frames it holds back (i.e. B-frames).  This ends the stream: nothing can be
+     * written afterwards.  If frames are encoded asynchronously, the queued frames are encoded first.
+     * @throws IOException
+     */
     @Override
     public void flush() throws IOException {
-        // Do nothing?
+        EncoderQueue<VideoFrame> encoderQueue = this.encoderQueue;
+        if (encoderQueue != null) encoderQueue.flush();
+        else flushNow();
+    }
+
+    private void flushNow() throws IOException {
+        try {
+            drainEncoder(packet);
+        } catch (FFmpegException e) {
+            throw new IOException(e);
+        }
     }
 
     @Override
     public void close() throws Exception {
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegVideoTargetSubstream.close() called");
 
-        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "sws_freeContext(sws)...");
-        swscale.sws_freeContext(sws);
+        if (encoderQueue != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "encoderQueue.close()...");
+            encoderQueue.close();
+        }
+
+        if (scaler != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "scaler.close()...");
+            scaler.close();
+        }
 
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(inputFrame)...");
         avutil.av_frame_free(inputFrame);
-        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(outputFrame)...");
-        avutil.av_frame_free(outputFrame);
+        for (AVFrame frame : encoderFrames) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(encoderFrame)...");
+            avutil.av_frame_free(frame);
+        }
+        encoderFrames.clear();
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(sendFrame)...");
+        avutil.av_frame_free(sendFrame);
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_packet_free(packet)...");
+        avcodec.av_packet_free(packet);
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_free(inputBuffer)...");
+        avutil.av_free(inputBuffer);
 
         Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "avcodec_close(codecContext))...");
         avcodec.avcodec_close(codecContext);
@@ -183,14 +445,29 @@ public class FFmpegVideoTargetSubstream
 
     @Override
     public void writePacket(AVPacket packet) throws FFmpegException, EOFException {
-        if (packet.pts() != avutil.AV_NOPTS_VALUE)
-            avcodec.av_packet_rescale_ts(packet, codecContext.time_base(), stream.time_base());
+        // One frame, in the codec's time base; fragmented mp4 needs it for the last packet of each fragment
+        if (packet.duration() <= 0) packet.duration(1);
+
+        // Timestamps the packet doesn't have are left unset, but the duration is always rescaled
+        avcodec.av_packet_rescale_ts(packet, codecContext.time_base(), stream.time_base());
 
         packet.stream_index(stream.index());
 
+        statistics.onPacketWritten(packet, stream.time_base());
+
         getTargetStream().writePacket(packet);
     }
 
+    @Override
+    public Map<String, String> getEncoderOptions() {
+        return encoderOptions;
+    }
+
+    @Override
+    public EncoderStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public AVCodecContext getCodecContext() {
         return codecContext;
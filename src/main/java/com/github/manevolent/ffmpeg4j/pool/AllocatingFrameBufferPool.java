@@ -0,0 +1,46 @@
+package com.github.manevolent.ffmpeg4j.pool;
+
+/**
+ * A pool that allocates a new array for every request, and leaves recycled arrays to the garbage collector.
+ */
+public class AllocatingFrameBufferPool implements FrameBufferPool {
+    private final FrameBufferPoolStatistics statistics = new FrameBufferPoolStatistics();
+
+    @Override
+    public byte[] allocateBytes(int length) {
+        statistics.onAllocated(length);
+        return new byte[length];
+    }
+
+    @Override
+    public float[] allocateFloats(int length) {
+        statistics.onAllocated((long) length * Float.BYTES);
+        return new float[length];
+    }
+
+    @Override
+    public short[] allocateShorts(int length) {
+        statistics.onAllocated((long) length * Short.BYTES);
+        return new short[length];
+    }
+
+    @Override
+    public void recycle(byte[] buffer) {
+        statistics.onDiscarded();
+    }
+
+    @Override
+    public void recycle(float[] buffer) {
+        statistics.onDiscarded();
+    }
+
+    @Override
+    public void recycle(short[] buffer) {
+        statistics.onDiscarded();
+    }
+
+    @Override
+    public FrameBufferPoolStatistics getStatistics() {
+        return statistics;
+    }
+}
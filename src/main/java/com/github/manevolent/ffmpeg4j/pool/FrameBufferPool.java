@@ -0,0 +1,57 @@
+package com.github.manevolent.ffmpeg4j.pool;
+
+/**
+ * Supplies the arrays that hold decoded and filtered frame data, and takes them back once the frames using them have
+ * been released (see MediaFrame.release()).  Arrays handed out by a pool always have exactly the requested length.
+ */
+public interface FrameBufferPool {
+    /**
+     * A pool that always allocates new arrays and never re-uses them.  This is the default everywhere a pool can be
+     * set.
+     */
+    FrameBufferPool NONE = new AllocatingFrameBufferPool();
+
+    /**
+     * Gets a byte array of exactly the given length.  Its contents are undefined.
+     * @param length array length.
+     * @return array.
+     */
+    byte[] allocateBytes(int length);
+
+    /**
+     * Gets a float array of exactly the given length.  Its contents are undefined.
+     * @param length array length.
+     * @return array.
+     */
+    float[] allocateFloats(int length);
+
+    /**
+     * Gets a short array of exactly the given length.  Its contents are undefined.
+     * @param length array length.
+     * @return array.
+     */
+    short[] allocateShorts(int length);
+
+    /**
+     * Returns a byte array to the pool.  The caller must not use the array afterwards.
+     * @param buffer array to recycle.
+     */
+    void recycle(byte[] buffer);
+
+    /**
+     * Returns a float array to the pool.  The caller must not use the array afterwards.
+     * @param buffer array to recycle.
+     */
+    void recycle(float[] buffer);
+
+    /**
+     * Returns a short array to the pool.  The caller must not use the array afterwards.
+     * @param buffer array to recycle.
+     */
+    void recycle(short[] buffer);
+
+    /**
+     * Gets the allocation statistics for this pool.
+     */
+    FrameBufferPoolStatistics getStatistics();
+}
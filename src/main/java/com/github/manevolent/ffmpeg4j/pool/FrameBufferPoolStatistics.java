@@ -0,0 +1,92 @@
+package com.github.manevolent.ffmpeg4j.pool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what a FrameBufferPool has done with its arrays.  In a steady state with every frame being released,
+ * getAllocated() should stop growing while getReused() keeps up with the frame rate.
+ */
+public class FrameBufferPoolStatistics {
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder recycled = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    void onAllocated(long bytes) {
+        allocated.increment();
+        allocatedBytes.add(bytes);
+    }
+
+    void onReused() {
+        reused.increment();
+    }
+
+    void onRecycled() {
+        recycled.increment();
+    }
+
+    void onDiscarded() {
+        discarded.increment();
+    }
+
+    /**
+     * Gets the number of arrays that had to be newly allocated.
+     */
+    public long getAllocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * Gets the total size, in bytes, of the arrays that had to be newly allocated.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Gets the number of requests that were satisfied with a recycled array.
+     */
+    public long getReused() {
+        return reused.sum();
+    }
+
+    /**
+     * Gets the number of arrays returned to the pool and kept for re-use.
+     */
+    public long getRecycled() {
+        return recycled.sum();
+    }
+
+    /**
+     * Gets the number of arrays returned to the pool, but dropped because the pool was full.
+     */
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * Gets the fraction (0-1) of requests that were satisfied with a recycled array.
+     */
+    public double getHitRatio() {
+        long reused = getReused();
+        long total = reused + getAllocated();
+        return total == 0 ? 0D : (double) reused / (double) total;
+    }
+
+    public void reset() {
+        allocated.reset();
+        allocatedBytes.reset();
+        reused.reset();
+        recycled.reset();
+        discarded.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "allocated=" + getAllocated() + " (" + getAllocatedBytes() + " bytes)" +
+                " reused=" + getReused() +
+                " recycled=" + getRecycled() +
+                " discarded=" + getDiscarded();
+    }
+}
@@ -0,0 +1,239 @@
+package com.github.manevolent.ffmpeg4j.pool;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * A pool that keeps released arrays for re-use.  Arrays are grouped into size classes by their exact length, since
+ * frames expose their arrays directly and callers rely on the array length.  Video frames of a given format, and audio
+ * frames from a given decoder, almost always have the same length, so in practice there are only a handful of
+ * classes.
+ *
+ * Each thread keeps a small cache per size class, so a thread that both releases and allocates (i.e. a transcoder
+ * loop) never contends with other threads.  Arrays that don't fit in the thread's cache go to a bounded, shared queue
+ * per size class; arrays that don't fit there either are left to the garbage collector.
+ */
+public class RecyclingFrameBufferPool implements FrameBufferPool {
+    /**
+     * Default number of arrays kept in the shared queue for each size class.
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /**
+     * Default number of arrays each thread keeps for itself, for each size class.
+     */
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 4;
+
+    private final FrameBufferPoolStatistics statistics = new FrameBufferPoolStatistics();
+
+    private final ArrayPool<byte[]> bytes;
+    private final ArrayPool<float[]> floats;
+    private final ArrayPool<short[]> shorts;
+
+    public RecyclingFrameBufferPool() {
+        this(DEFAULT_CAPACITY, DEFAULT_THREAD_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a new pool.
+     * @param capacity number of arrays kept in the shared queue for each size class.
+     * @param threadCacheSize number of arrays each thread keeps for itself, for each size class (0 to disable).
+     */
+    public RecyclingFrameBufferPool(int capacity, int threadCacheSize) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        if (threadCacheSize < 0) throw new IllegalArgumentException("threadCacheSize must not be negative");
+
+        this.bytes = new ArrayPool<>(capacity, threadCacheSize, byte[]::new, array -> array.length, 1);
+        this.floats = new ArrayPool<>(capacity, threadCacheSize, float[]::new, array -> array.length, Float.BYTES);
+        this.shorts = new ArrayPool<>(capacity, threadCacheSize, short[]::new, array -> array.length, Short.BYTES);
+    }
+
+    @Override
+    public byte[] allocateBytes(int length) {
+        return bytes.allocate(length);
+    }
+
+    @Override
+    public float[] allocateFloats(int length) {
+        return floats.allocate(length);
+    }
+
+    @Override
+    public short[] allocateShorts(int length) {
+        return shorts.allocate(length);
+    }
+
+    @Override
+    public void recycle(byte[] buffer) {
+        bytes.recycle(buffer);
+    }
+
+    @Override
+    public void recycle(float[] buffer) {
+        floats.recycle(buffer);
+    }
+
+    @Override
+    public void recycle(short[] buffer) {
+        shorts.recycle(buffer);
+    }
+
+    @Override
+    public FrameBufferPoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    private final class ArrayPool<T> {
+        private final int capacity, threadCacheSize;
+        private final IntFunction<T> allocator;
+        private final ToIntFunction<T> lengthFunction;
+        private final int elementSize;
+
+        // Copied on write: a new size class is rare, but every allocation and recycle looks one up
+        private volatile SizeClassMap<BlockingQueue<T>> sizeClasses = new SizeClassMap<>();
+        private final ThreadLocal<SizeClassMap<ArrayDeque<T>>> threadCaches = ThreadLocal.withInitial(SizeClassMap::new);
+
+        private ArrayPool(int capacity, int threadCacheSize,
+                          IntFunction<T> allocator, ToIntFunction<T> lengthFunction, int elementSize) {
+            this.capacity = capacity;
+            this.threadCacheSize = threadCacheSize;
+            this.allocator = allocator;
+            this.lengthFunction = lengthFunction;
+            this.elementSize = elementSize;
+        }
+
+        private T allocate(int length) {
+            T array = null;
+
+            if (threadCacheSize > 0) {
+                ArrayDeque<T> threadCache = threadCaches.get().get(length);
+                if (threadCache != null) array = threadCache.pollFirst();
+            }
+
+            if (array == null) {
+                BlockingQueue<T> sizeClass = sizeClasses.get(length);
+                if (sizeClass != null) array = sizeClass.poll();
+            }
+
+            if (array != null) {
+                statistics.onReused();
+                return array;
+            }
+
+            statistics.onAllocated((long) length * elementSize);
+            return allocator.apply(length);
+        }
+
+        private void recycle(T array) {
+            if (array == null) return;
+
+            int length = lengthFunction.applyAsInt(array);
+
+            if (threadCacheSize > 0) {
+                SizeClassMap<ArrayDeque<T>> caches = threadCaches.get();
+                ArrayDeque<T> threadCache = caches.get(length);
+                if (threadCache == null) caches.put(length, threadCache = new ArrayDeque<>());
+
+                if (threadCache.size() < threadCacheSize) {
+                    threadCache.addFirst(array);
+                    statistics.onRecycled();
+                    return;
+                }
+            }
+
+            if (getSizeClass(length).offer(array))
+                statistics.onRecycled();
+            else
+                statistics.onDiscarded();
+        }
+
+        private BlockingQueue<T> getSizeClass(int length) {
+            BlockingQueue<T> sizeClass = sizeClasses.get(length);
+            if (sizeClass != null) return sizeClass;
+
+            synchronized (this) {
+                sizeClass = sizeClasses.get(length);
+                if (sizeClass == null) {
+                    SizeClassMap<BlockingQueue<T>> copy = new SizeClassMap<>(sizeClasses);
+                    copy.put(length, sizeClass = new ArrayBlockingQueue<>(capacity));
+                    sizeClasses = copy;
+                }
+
+                return sizeClass;
+            }
+        }
+    }
+
+    /**
+     * A small open-addressed map from array length to size class, so that looking one up doesn't box the length.
+     * Not thread-safe.
+     */
+    private static final class SizeClassMap<V> {
+        private int[] lengths;
+        private Object[] values;
+        private int size;
+
+        private SizeClassMap() {
+            this.lengths = new int[8];
+            this.values = new Object[8];
+        }
+
+        private SizeClassMap(SizeClassMap<V> other) {
+            this.lengths = other.lengths.clone();
+            this.values = other.values.clone();
+            this.size = other.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(int length) {
+            int mask = lengths.length - 1;
+            for (int i = slot(length) & mask; values[i] != null; i = (i + 1) & mask)
+                if (lengths[i] == length) return (V) values[i];
+
+            return null;
+        }
+
+        private void put(int length, V value) {
+            // Kept at most half full, so probes stay short
+            if ((size + 1) * 2 > lengths.length) {
+                int[] oldLengths = lengths;
+                Object[] oldValues = values;
+
+                lengths = new int[oldLengths.length * 2];
+                values = new Object[oldValues.length * 2];
+                size = 0;
+
+                for (int i = 0; i < oldLengths.length; i++)
+                    if (oldValues[i] != null) insert(oldLengths[i], oldValues[i]);
+            }
+
+            insert(length, value);
+        }
+
+        private void insert(int length, Object value) {
+            int mask = lengths.length - 1;
+            int i = slot(length) & mask;
+            while (values[i] != null) {
+                if (lengths[i] == length) {
+                    values[i] = value;
+                    return;
+                }
+
+                i = (i + 1) & mask;
+            }
+
+            lengths[i] = length;
+            values[i] = value;
+            size++;
+        }
+
+        private static int slot(int length) {
+            // Lengths are often multiples of a large power of two, so spread them out before masking
+            int hash = length * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
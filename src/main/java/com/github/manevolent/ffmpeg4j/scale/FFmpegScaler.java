@@ -0,0 +1,400 @@
+package com.github.manevolent.ffmpeg4j.scale;
+
+import com.github.manevolent.ffmpeg4j.FFmpegError;
+import com.github.manevolent.ffmpeg4j.FFmpegException;
+import com.github.manevolent.ffmpeg4j.Logging;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+import org.bytedeco.ffmpeg.swscale.*;
+import org.bytedeco.javacpp.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts images between sizes and pixel formats with swscale, optionally spreading the work over several threads.
+ *
+ * With one thread, an image is converted with a single sws_scale call on the caller's thread.  With more, the
+ * destination image is split into horizontal bands, each with its own SwsContext, and the bands are converted in
+ * parallel on a ForkJoinPool.  Every context sees the whole source image (sws_send_slice) and produces only its own
+ * band (sws_receive_slice), so vertical scaling works across band boundaries and the output is identical to the
+ * single-threaded path.  Bands are aligned to the destination format's chroma subsampling.  Formats that swscale
+ * dithers into (fewer than 8 bits per component, i.e. RGB565 or RGB8) are always converted in one piece, as the
+ * dither pattern depends on where each slice starts.
+ *
+ * A scaler is not thread-safe; each stream or filter should have its own.
+ */
+public class FFmpegScaler implements AutoCloseable {
+    /**
+     * Frees nothing: the buffers wrapped for the banded path belong to the caller.
+     */
+    private static final Free_Pointer_BytePointer NO_FREE = new Free_Pointer_BytePointer() {
+        @Override
+        public void call(Pointer opaque, BytePointer data) {
+            // Do nothing
+        }
+    };
+
+    private final int sourceWidth, sourceHeight, sourceFormat;
+    private final int destinationWidth, destinationHeight, destinationFormat;
+    private final ScalerSettings settings;
+    private final int threads;
+    private final ForkJoinPool pool;
+
+    private final SwsContext[] contexts;
+    private final int bandHeight;
+
+    // Frames wrapping the caller's planes, for sws_frame_start()
+    private final AVFrame sourceFrame, destinationFrame;
+
+    private boolean closed = false;
+
+    /**
+     * Creates a single-threaded scaler.
+     * @param flags swscale flags (i.e. SWS_BILINEAR).
+     */
+    public FFmpegScaler(int sourceWidth, int sourceHeight, int sourceFormat,
+                        int destinationWidth, int destinationHeight, int destinationFormat,
+                        int flags) throws FFmpegException {
+        this(sourceWidth, sourceHeight, sourceFormat,
+                destinationWidth, destinationHeight, destinationFormat,
+                ScalerSettings.fromFlags(flags), 1, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a scaler.
+     * @param flags swscale flags (i.e. SWS_BILINEAR).
+     * @param threads number of bands to split each image into; 1 to convert on the caller's thread.
+     * @param pool pool the bands are converted on.
+     */
+    public FFmpegScaler(int sourceWidth, int sourceHeight, int sourceFormat,
+                        int destinationWidth, int destinationHeight, int destinationFormat,
+                        int flags, int threads, ForkJoinPool pool) throws FFmpegException {
+        this(sourceWidth, sourceHeight, sourceFormat,
+                destinationWidth, destinationHeight, destinationFormat,
+                ScalerSettings.fromFlags(flags), threads, pool);
+    }
+
+    /**
+     * Creates a scaler.
+     * @param settings scaling algorithm and options.
+     * @param threads number of bands to split each image into; 1 to convert on the caller's thread.
+     * @param pool pool the bands are converted on.
+     */
+    public FFmpegScaler(int sourceWidth, int sourceHeight, int sourceFormat,
+                        int destinationWidth, int destinationHeight, int destinationFormat,
+                        ScalerSettings settings, int threads, ForkJoinPool pool) throws FFmpegException {
+        if (settings == null) throw new NullPointerException("settings");
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive");
+        if (pool == null) throw new NullPointerException("pool");
+
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.sourceFormat = sourceFormat;
+        this.destinationWidth = destinationWidth;
+        this.destinationHeight = destinationHeight;
+        this.destinationFormat = destinationFormat;
+        this.settings = settings;
+        this.threads = threads;
+        this.pool = pool;
+
+        SwsContext first = createContext();
+
+        if (threads > 1 && !isDithered(destinationFormat)) {
+            int alignment = Math.max(1, swscale.sws_receive_slice_alignment(first));
+            int height = (destinationHeight + threads - 1) / threads;
+            this.bandHeight = ((height + alignment - 1) / alignment) * alignment;
+        } else {
+            this.bandHeight = destinationHeight;
+        }
+
+        this.contexts = new SwsContext[(destinationHeight + bandHeight - 1) / bandHeight];
+        this.contexts[0] = first;
+
+        try {
+            for (int band = 1; band < contexts.length; band++)
+                contexts[band] = createContext();
+        } catch (FFmpegException ex) {
+            freeContexts();
+            throw ex;
+        }
+
+        if (contexts.length > 1) {
+            sourceFrame = avutil.av_frame_alloc();
+            destinationFrame = avutil.av_frame_alloc();
+
+            if (sourceFrame == null || destinationFrame == null) {
+                freeContexts();
+                avutil.av_frame_free(sourceFrame);
+                avutil.av_frame_free(destinationFrame);
+                throw new OutOfMemoryError("av_frame_alloc");
+            }
+        } else {
+            sourceFrame = null;
+            destinationFrame = null;
+        }
+    }
+
+    /**
+     * Creates a context through the AVOptions API, as sws_getContext() has no way to set the dithering mode.
+     */
+    private SwsContext createContext() throws FFmpegException {
+        SwsContext context = swscale.sws_alloc_context();
+        if (context == null) throw new OutOfMemoryError("sws_alloc_context");
+
+        try {
+            setOption(context, "srcw", sourceWidth);
+            setOption(context, "srch", sourceHeight);
+            setOption(context, "src_format", sourceFormat);
+            setOption(context, "dstw", destinationWidth);
+            setOption(context, "dsth", destinationHeight);
+            setOption(context, "dst_format", destinationFormat);
+            setOption(context, "sws_flags", settings.getFlags());
+            setOption(context, "sws_dither", settings.getDither().getValue());
+
+            int ret = swscale.sws_init_context(context, null, null);
+            if (ret < 0)
+                throw new FFmpegException("failed to create scaling context from " +
+                        avutil.av_get_pix_fmt_name(sourceFormat).getString() + " to " +
+                        avutil.av_get_pix_fmt_name(destinationFormat).getString() + " (code=" + ret + ")");
+        } catch (FFmpegException ex) {
+            swscale.sws_freeContext(context);
+            throw ex;
+        }
+
+        return context;
+    }
+
+    /**
+     * Finds if swscale dithers when converting to the given format, in which case banded output would differ.
+     */
+    private static boolean isDithered(int format) {
+        AVPixFmtDescriptor descriptor = avutil.av_pix_fmt_desc_get(format);
+        if (descriptor == null) return false;
+
+        for (int component = 0; component < descriptor.nb_components(); component++)
+            if (descriptor.comp(component).depth() < 8) return true;
+
+        return false;
+    }
+
+    private static void setOption(SwsContext context, String name, long value) throws FFmpegException {
+        FFmpegError.checkError("av_opt_set_int/" + name, avutil.av_opt_set_int(context, name, value, 0));
+    }
+
+    /**
+     * Finds if this scaler performs exactly the given conversion.
+     */
+    public boolean matches(int sourceWidth, int sourceHeight, int sourceFormat,
+                           int destinationWidth, int destinationHeight, int destinationFormat,
+                           ScalerSettings settings, int threads) {
+        return this.sourceWidth == sourceWidth && this.sourceHeight == sourceHeight &&
+                this.sourceFormat == sourceFormat &&
+                this.destinationWidth == destinationWidth && this.destinationHeight == destinationHeight &&
+                this.destinationFormat == destinationFormat &&
+                this.settings.equals(settings) && this.threads == threads;
+    }
+
+    /**
+     * Returns a scaler for the given conversion, re-using an existing one if it already performs it (much like
+     * sws_getCachedContext).  An existing scaler that doesn't match is closed.
+     * @param scaler existing scaler, or null.
+     * @return scaler for the given conversion.
+     * @throws FFmpegException
+     */
+    public static FFmpegScaler getCached(FFmpegScaler scaler,
+                                         int sourceWidth, int sourceHeight, int sourceFormat,
+                                         int destinationWidth, int destinationHeight, int destinationFormat,
+                                         ScalerSettings settings, int threads, ForkJoinPool pool)
+            throws FFmpegException {
+        if (scaler != null) {
+            if (scaler.pool == pool && scaler.matches(sourceWidth, sourceHeight, sourceFormat,
+                    destinationWidth, destinationHeight, destinationFormat, settings, threads))
+                return scaler;
+
+            scaler.close();
+        }
+
+        return new FFmpegScaler(sourceWidth, sourceHeight, sourceFormat,
+                destinationWidth, destinationHeight, destinationFormat,
+                settings, threads, pool);
+    }
+
+    public ScalerSettings getSettings() {
+        return settings;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Gets the number of bands each image is split into.  This may be fewer than the number of threads requested if
+     * the image is small, and is always 1 for dithered destination formats.
+     */
+    public int getBandCount() {
+        return contexts.length;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Converts a whole image.
+     * @param sourceData source planes.
+     * @param sourceLineSize source line sizes.
+     * @param destinationData destination planes.
+     * @param destinationLineSize destination line sizes.
+     * @throws FFmpegException
+     */
+    public void scale(PointerPointer sourceData, IntPointer sourceLineSize,
+                      PointerPointer destinationData, IntPointer destinationLineSize) throws FFmpegException {
+        if (closed) throw new IllegalStateException("scaler closed");
+
+        if (contexts.length == 1) {
+            FFmpegError.checkError("sws_scale", swscale.sws_scale(
+                    contexts[0],
+                    sourceData, sourceLineSize,
+                    0, sourceHeight,
+                    destinationData, destinationLineSize
+            ));
+        } else {
+            scaleBands(sourceData, sourceLineSize, destinationData, destinationLineSize);
+        }
+    }
+
+    /**
+     * Converts a whole frame into another.  The destination frame's planes must already be allocated.
+     * @throws FFmpegException
+     */
+    public void scale(AVFrame source, AVFrame destination) throws FFmpegException {
+        scale(source.data(), source.linesize(), destination.data(), destination.linesize());
+    }
+
+    private void scaleBands(PointerPointer sourceData, IntPointer sourceLineSize,
+                            PointerPointer destinationData, IntPointer destinationLineSize) throws FFmpegException {
+        wrap(sourceFrame, sourceData, sourceLineSize, sourceWidth, sourceHeight, sourceFormat);
+        wrap(destinationFrame, destinationData, destinationLineSize,
+                destinationWidth, destinationHeight, destinationFormat);
+
+        try {
+            // Every band gets the whole source image; each context then only computes its own rows
+            for (SwsContext context : contexts) {
+                FFmpegError.checkError("sws_frame_start",
+                        swscale.sws_frame_start(context, destinationFrame, sourceFrame));
+                FFmpegError.checkError("sws_send_slice",
+                        swscale.sws_send_slice(context, 0, sourceHeight));
+            }
+
+            try {
+                pool.invoke(new BandTask(0, contexts.length));
+            } catch (BandException ex) {
+                throw ex.getCause();
+            }
+        } finally {
+            for (SwsContext context : contexts)
+                swscale.sws_frame_end(context);
+
+            avutil.av_frame_unref(sourceFrame);
+            avutil.av_frame_unref(destinationFrame);
+        }
+    }
+
+    /**
+     * Points a frame at the caller's planes.  sws_frame_start() needs reference counted frames, so the frame gets a
+     * buffer reference that never frees anything.
+     */
+    private static void wrap(AVFrame frame, PointerPointer data, IntPointer lineSize,
+                             int width, int height, int format) {
+        for (int plane = 0; plane < AVFrame.AV_NUM_DATA_POINTERS; plane++) {
+            frame.data(plane, (BytePointer) data.get(BytePointer.class, plane));
+            frame.linesize(plane, lineSize.get(plane));
+        }
+
+        frame.width(width);
+        frame.height(height);
+        frame.format(format);
+
+        AVBufferRef buffer = avutil.av_buffer_create(frame.data(0), 1, NO_FREE, null, 0);
+        if (buffer == null) throw new OutOfMemoryError("av_buffer_create");
+        frame.buf(0, buffer);
+    }
+
+    private void receiveBand(int band) throws FFmpegException {
+        int start = band * bandHeight;
+        int height = Math.min(bandHeight, destinationHeight - start);
+
+        FFmpegError.checkError("sws_receive_slice", swscale.sws_receive_slice(contexts[band], start, height));
+    }
+
+    private void freeContexts() {
+        for (int band = 0; band < contexts.length; band++) {
+            if (contexts[band] != null) {
+                swscale.sws_freeContext(contexts[band]);
+                contexts[band] = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegScaler.close() called");
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "sws_freeContext(contexts)...");
+        freeContexts();
+
+        if (sourceFrame != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(sourceFrame)...");
+            avutil.av_frame_free(sourceFrame);
+        }
+
+        if (destinationFrame != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(destinationFrame)...");
+            avutil.av_frame_free(destinationFrame);
+        }
+
+        closed = true;
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegScaler.close() completed");
+    }
+
+    /**
+     * Converts a range of bands, splitting it in half until each task has a single band.
+     */
+    private class BandTask extends RecursiveAction {
+        private final int from, to;
+
+        private BandTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    receiveBand(from);
+                } catch (FFmpegException ex) {
+                    throw new BandException(ex);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BandTask(from, middle), new BandTask(middle, to));
+            }
+        }
+    }
+
+    private static class BandException extends RuntimeException {
+        private BandException(FFmpegException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized FFmpegException getCause() {
+            return (FFmpegException) super.getCause();
+        }
+    }
+}
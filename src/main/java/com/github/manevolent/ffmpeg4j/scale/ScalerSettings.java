@@ -0,0 +1,191 @@
+package com.github.manevolent.ffmpeg4j.scale;
+
+import org.bytedeco.ffmpeg.global.*;
+
+import java.util.Objects;
+
+/**
+ * How swscale converts images: the scaling algorithm, plus the options that trade speed for accuracy.  Settings are
+ * immutable; the with...() methods return modified copies.
+ *
+ * Rough guide (see FFmpegScalerSettingsBenchmark for numbers on a given machine):
+ * <ul>
+ *     <li>Pixel format conversion at the same size (i.e. RGB24 frames to a YUV420P encoder): the algorithm only
+ *     affects how chroma is subsampled and costs about the same either way.</li>
+ *     <li>Downscaling: POINT and FAST_BILINEAR are several times faster but alias badly.  AREA costs about the same
+ *     as BILINEAR and is sharper, which makes it the better choice for thumbnails.</li>
+ *     <li>Best quality at any size: BICUBIC, SPLINE or LANCZOS, at two to three times the cost of BILINEAR.
+ *     Accurate rounding and full chroma interpolation make small differences either way.</li>
+ * </ul>
+ */
+public final class ScalerSettings {
+    /**
+     * What streams and filters use unless told otherwise: bilinear, no extra accuracy, automatic dithering.
+     */
+    public static final ScalerSettings DEFAULT =
+            new ScalerSettings(Algorithm.BILINEAR, false, false, Dither.AUTO);
+
+    public enum Algorithm {
+        FAST_BILINEAR(swscale.SWS_FAST_BILINEAR),
+        BILINEAR(swscale.SWS_BILINEAR),
+        BICUBIC(swscale.SWS_BICUBIC),
+        EXPERIMENTAL(swscale.SWS_X),
+        POINT(swscale.SWS_POINT),
+        AREA(swscale.SWS_AREA),
+        BICUBLIN(swscale.SWS_BICUBLIN),
+        GAUSS(swscale.SWS_GAUSS),
+        SINC(swscale.SWS_SINC),
+        LANCZOS(swscale.SWS_LANCZOS),
+        SPLINE(swscale.SWS_SPLINE);
+
+        private final int flag;
+
+        Algorithm(int flag) {
+            this.flag = flag;
+        }
+
+        public int getFlag() {
+            return flag;
+        }
+    }
+
+    /**
+     * Dithering used when reducing bit depth (i.e. to RGB8); see swscale's sws_dither option.  swscale only honours
+     * this with full chroma interpolation, and otherwise always uses an ordered dither.
+     */
+    public enum Dither {
+        NONE(0),
+        AUTO(1),
+        BAYER(2),
+        ERROR_DIFFUSION(3),
+        ARITHMETIC_ADD(4),
+        ARITHMETIC_XOR(5);
+
+        private final int value;
+
+        Dither(int value) {
+            this.value = value;
+        }
+
+        public int getValue() {
+            return value;
+        }
+    }
+
+    private final Algorithm algorithm;
+    private final boolean accurateRounding;
+    private final boolean fullChromaInterpolation;
+    private final Dither dither;
+
+    public ScalerSettings(Algorithm algorithm,
+                          boolean accurateRounding,
+                          boolean fullChromaInterpolation,
+                          Dither dither) {
+        if (algorithm == null) throw new NullPointerException("algorithm");
+        if (dither == null) throw new NullPointerException("dither");
+
+        this.algorithm = algorithm;
+        this.accurateRounding = accurateRounding;
+        this.fullChromaInterpolation = fullChromaInterpolation;
+        this.dither = dither;
+    }
+
+    /**
+     * Creates settings from swscale flags (i.e. SWS_BICUBIC | SWS_ACCURATE_RND).  Flags other than the algorithm,
+     * SWS_ACCURATE_RND and SWS_FULL_CHR_H_INT are ignored.
+     * @param flags swscale flags.
+     * @return settings.
+     */
+    public static ScalerSettings fromFlags(int flags) {
+        Algorithm algorithm = null;
+        for (Algorithm candidate : Algorithm.values()) {
+            if ((flags & candidate.getFlag()) == candidate.getFlag()) {
+                algorithm = candidate;
+                break;
+            }
+        }
+
+        if (algorithm == null) throw new IllegalArgumentException("no scaling algorithm in flags: " + flags);
+
+        return new ScalerSettings(
+                algorithm,
+                (flags & swscale.SWS_ACCURATE_RND) == swscale.SWS_ACCURATE_RND,
+                (flags & swscale.SWS_FULL_CHR_H_INT) == swscale.SWS_FULL_CHR_H_INT,
+                Dither.AUTO
+        );
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Finds if intermediate values are rounded accurately instead of truncated, at some cost in speed.
+     */
+    public boolean isAccurateRounding() {
+        return accurateRounding;
+    }
+
+    /**
+     * Finds if chroma is interpolated at full horizontal resolution on both input and output, instead of at the
+     * subsampled resolution.  Mostly affects conversions between RGB and subsampled YUV.
+     */
+    public boolean isFullChromaInterpolation() {
+        return fullChromaInterpolation;
+    }
+
+    public Dither getDither() {
+        return dither;
+    }
+
+    public ScalerSettings withAlgorithm(Algorithm algorithm) {
+        return new ScalerSettings(algorithm, accurateRounding, fullChromaInterpolation, dither);
+    }
+
+    public ScalerSettings withAccurateRounding(boolean accurateRounding) {
+        return new ScalerSettings(algorithm, accurateRounding, fullChromaInterpolation, dither);
+    }
+
+    public ScalerSettings withFullChromaInterpolation(boolean fullChromaInterpolation) {
+        return new ScalerSettings(algorithm, accurateRounding, fullChromaInterpolation, dither);
+    }
+
+    public ScalerSettings withDither(Dither dither) {
+        return new ScalerSettings(algorithm, accurateRounding, fullChromaInterpolation, dither);
+    }
+
+    /**
+     * Gets the swscale flags (sws_flags) for these settings.
+     */
+    public int getFlags() {
+        int flags = algorithm.getFlag();
+        if (accurateRounding) flags |= swscale.SWS_ACCURATE_RND;
+        if (fullChromaInterpolation) flags |= swscale.SWS_FULL_CHR_H_INT | swscale.SWS_FULL_CHR_H_INP;
+        return flags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ScalerSettings)) return false;
+
+        ScalerSettings other = (ScalerSettings) o;
+        return algorithm == other.algorithm &&
+                accurateRounding == other.accurateRounding &&
+                fullChromaInterpolation == other.fullChromaInterpolation &&
+                dither == other.dither;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(algorithm, accurateRounding, fullChromaInterpolation, dither);
+    }
+
+    @Override
+    public String toString() {
+        return algorithm.name().toLowerCase() +
+                (accurateRounding ? "+accurate_rnd" : "") +
+                (fullChromaInterpolation ? "+full_chroma_int" : "") +
+                " (dither=" + dither.name().toLowerCase() + ")";
+    }
+}
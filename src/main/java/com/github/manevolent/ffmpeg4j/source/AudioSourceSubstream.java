@@ -5,13 +5,121 @@ import com.github.manevolent.ffmpeg4j.AudioFrame;
 import com.github.manevolent.ffmpeg4j.MediaType;
 import com.github.manevolent.ffmpeg4j.stream.source.SourceStream;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
 public abstract class AudioSourceSubstream extends MediaSourceSubstream<AudioFrame> {
+    // Frame partially consumed by read(), and how far into its samples read() has got
+    private AudioFrame pending;
+    private int pendingOffset;
+
     public AudioSourceSubstream(SourceStream parent) {
         super(parent, MediaType.AUDIO);
     }
 
     public abstract AudioFormat getFormat();
 
+    /**
+     * Reads exactly len samples, in PCM interleaved format, decoding as many frames as it takes; i.e. 960 stereo
+     * samples per channel is len = 1920.  Samples left over from a frame are kept for the next call, so the frame size
+     * of the source doesn't matter, and nothing is allocated per call.
+     *
+     * Frames are released as soon as they are consumed; use a FrameBufferPool to recycle their buffers.  Don't mix
+     * this with next(), which skips any samples read() is holding on to.
+     * @param dst array to read samples into.
+     * @param off offset in dst to read the first sample into.
+     * @param len number of samples to read.
+     * @return number of samples read, which is len unless the end of the stream was reached; -1 if the end of the
+     * stream was reached before any samples were read.
+     * @throws IOException
+     */
+    public int read(float[] dst, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > dst.length - off) throw new IndexOutOfBoundsException();
+
+        int read = 0;
+        while (read < len) {
+            if (!nextPending()) break;
+
+            int count = Math.min(len - read, pending.getLength() - pendingOffset);
+            System.arraycopy(pending.getSamples(), pendingOffset, dst, off + read, count);
+            consumePending(count);
+            read += count;
+        }
+
+        return read == 0 && len > 0 ? -1 : read;
+    }
+
+    /**
+     * Reads samples, in PCM interleaved format, until dst is full.  See read(float[], int, int).
+     * @param dst buffer to read samples into, from its position to its limit.
+     * @return number of samples read, which is dst.remaining() unless the end of the stream was reached; -1 if the end
+     * of the stream was reached before any samples were read.
+     * @throws IOException
+     */
+    public int read(FloatBuffer dst) throws IOException {
+        int len = dst.remaining();
+
+        int read = 0;
+        while (read < len) {
+            if (!nextPending()) break;
+
+            int count = Math.min(len - read, pending.getLength() - pendingOffset);
+            dst.put(pending.getSamples(), pendingOffset, count);
+            consumePending(count);
+            read += count;
+        }
+
+        return read == 0 && len > 0 ? -1 : read;
+    }
+
+    /**
+     * Makes sure there's a frame with samples left to read.
+     * @return false if the end of the stream was reached.
+     */
+    private boolean nextPending() throws IOException {
+        while (pending == null) {
+            AudioFrame frame;
+            try {
+                frame = next();
+            } catch (EOFException ex) {
+                return false;
+            }
+
+            if (frame == null) return false;
+
+            if (frame.getLength() > 0) {
+                pending = frame;
+                pendingOffset = 0;
+            } else {
+                frame.release();
+            }
+        }
+
+        return true;
+    }
+
+    private void consumePending(int count) {
+        pendingOffset += count;
+        if (pendingOffset >= pending.getLength()) {
+            pending.release();
+            pending = null;
+        }
+    }
+
+    /**
+     * Flushes the source stream, emptying all buffered data, including samples held on to by read().
+     */
+    @Override
+    public void flush() {
+        super.flush();
+
+        if (pending != null) {
+            pending.release();
+            pending = null;
+        }
+    }
+
     @Override
     public String toString() {
         return getFormat().toString() + " " + (getBitRate() / 1000) + "Kbps";
@@ -2,6 +2,7 @@ package com.github.manevolent.ffmpeg4j.source;
 
 import com.github.manevolent.ffmpeg4j.*;
 import com.github.manevolent.ffmpeg4j.math.Rational;
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
 import com.github.manevolent.ffmpeg4j.stream.source.FFmpegSourceStream;
 import org.bytedeco.ffmpeg.avcodec.*;
 import org.bytedeco.ffmpeg.avformat.*;
@@ -12,15 +13,10 @@ import org.bytedeco.javacpp.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 public class FFmpegAudioSourceSubstream
     extends AudioSourceSubstream
     implements FFmpegDecoderContext {
-    private static final int OUTPUT_FORMAT = avutil.AV_SAMPLE_FMT_FLT;
-
     private final FFmpegSourceStream parentStream;
     private final AudioFormat audioFormat;
 
@@ -31,19 +27,38 @@ public class FFmpegAudioSourceSubstream
 
     private final int outputSampleRate;
     private final int outputChannels;
-    private final int outputBytesPerSample;
-    private final int audio_input_frame_size;
+    private final int outputSampleFormat;
 
+    // Output buffers, grown on demand to what swr_get_out_samples() asks for (see ensureOutputCapacity)
     private final BytePointer[] samples_out;
     private final PointerPointer samples_out_ptr;
+    private final FloatPointer[] samples_out_floats; // samples_out, viewed as floats
+    private ShortPointer samples_out_shorts; // samples_out[0], viewed as interleaved shorts
+    private int samples_out_capacity = 0; // samples per channel
+
+    // Where the last frame ended, for the resampler's tail at the end of the stream
+    private double lastPosition, lastTime;
 
     private boolean closed = false;
 
-    private volatile byte[] recvBuffer;
     private volatile long totalDecoded = 0L;
 
     public FFmpegAudioSourceSubstream(FFmpegSourceStream parentStream, AVStream stream, AVCodecContext codecContext)
             throws FFmpegException {
+        this(parentStream, stream, codecContext, null);
+    }
+
+    /**
+     * Creates an audio substream that converts decoded audio to the given format with its own resampler, so that no
+     * separate resampling pass (i.e. FFmpegAudioResampleFilter) is needed.
+     * @param outputFormat format to produce frames in.  A sample rate or channel layout of 0 keeps the stream's own;
+     *                     null keeps the stream's own rate and layout and produces floats.  Supported sample formats
+     *                     are AV_SAMPLE_FMT_FLT (AudioFrame), AV_SAMPLE_FMT_FLTP (PlanarAudioFrame) and
+     *                     AV_SAMPLE_FMT_S16 (ShortAudioFrame).
+     */
+    public FFmpegAudioSourceSubstream(FFmpegSourceStream parentStream, AVStream stream, AVCodecContext codecContext,
+                                      AudioFormat outputFormat)
+            throws FFmpegException {
         super(parentStream);
 
         this.stream = stream;
@@ -58,48 +73,66 @@ public class FFmpegAudioSourceSubstream
         if (channels <= 0)
             throw new IllegalArgumentException("channel count not discernible");
 
-        this.outputChannels = channels;
+        // Some containers (i.e. WAV without WAVEFORMATEXTENSIBLE) only give a channel count
+        long inputChannelLayout = stream.codecpar().channel_layout();
+        if (inputChannelLayout == 0L)
+            inputChannelLayout = avutil.av_get_default_channel_layout(channels);
+
+        long outputChannelLayout = inputChannelLayout;
+        int outputSampleRate = stream.codecpar().sample_rate();
+        int outputSampleFormat = avutil.AV_SAMPLE_FMT_FLT;
+
+        if (outputFormat != null) {
+            if (outputFormat.getChannelLayout() != 0L)
+                outputChannelLayout = outputFormat.getChannelLayout();
+            else if (outputFormat.getChannels() > 0 && outputFormat.getChannels() != channels)
+                outputChannelLayout = avutil.av_get_default_channel_layout(outputFormat.getChannels());
+
+            if (outputFormat.getSampleRate() > 0)
+                outputSampleRate = outputFormat.getSampleRate();
 
-        this.outputBytesPerSample = avutil.av_get_bytes_per_sample(OUTPUT_FORMAT);
-        this.outputSampleRate = stream.codecpar().sample_rate();
-        this.audio_input_frame_size =  256 * 1024 / outputChannels;
+            outputSampleFormat = outputFormat.getSampleFormat();
+        }
+
+        if (outputSampleFormat != avutil.AV_SAMPLE_FMT_FLT && outputSampleFormat != avutil.AV_SAMPLE_FMT_FLTP
+                && outputSampleFormat != avutil.AV_SAMPLE_FMT_S16)
+            throw new FFmpegException("unsupported output sample format: " + outputSampleFormat);
+
+        this.outputChannels = avutil.av_get_channel_layout_nb_channels(outputChannelLayout);
+        this.outputSampleRate = outputSampleRate;
+        this.outputSampleFormat = outputSampleFormat;
 
         swrContext = swresample.swr_alloc_set_opts(
                 null,
 
                 // Output configuration
-                stream.codecpar().channel_layout(),
-                OUTPUT_FORMAT,
-                stream.codecpar().sample_rate(),
+                outputChannelLayout,
+                outputSampleFormat,
+                outputSampleRate,
 
                 // Input configuration
-                stream.codecpar().channel_layout(),
+                inputChannelLayout,
                 stream.codecpar().format(),
                 stream.codecpar().sample_rate(),
 
                 0, null
         );
 
-        FFmpegError.checkError("av_opt_set_int", avutil.av_opt_set_int(swrContext, "swr_flags", 1, 0));
-        FFmpegError.checkError("swr_init", swresample.swr_init(swrContext));
+        if (swrContext == null) throw new OutOfMemoryError("swr_alloc_set_opts");
 
-        int data_size = avutil.av_samples_get_buffer_size(
-                (IntPointer) null,
-                outputChannels,
-                audio_input_frame_size,
-                OUTPUT_FORMAT,
-                1                           // 	buffer size alignment (0 = default, 1 = no alignment)
-        );
+        try {
+            FFmpegError.checkError("av_opt_set_int", avutil.av_opt_set_int(swrContext, "swr_flags", 1, 0));
+            FFmpegError.checkError("swr_init", swresample.swr_init(swrContext));
+        } catch (FFmpegException ex) {
+            swresample.swr_free(swrContext);
+            throw ex;
+        }
 
-        samples_out = new BytePointer[avutil.av_sample_fmt_is_planar(OUTPUT_FORMAT) == 1 ? outputChannels : 1];
-        for (int i = 0; i < samples_out.length; i++)
-            samples_out[i] = new BytePointer(avutil.av_malloc(data_size)).capacity(data_size);
+        samples_out = new BytePointer[avutil.av_sample_fmt_is_planar(outputSampleFormat) == 1 ? outputChannels : 1];
+        samples_out_floats = new FloatPointer[samples_out.length];
         samples_out_ptr = new PointerPointer(AVFrame.AV_NUM_DATA_POINTERS);
 
-        for (int i = 0; i < samples_out.length; i++)
-            samples_out_ptr.put(i, samples_out[i]);
-
-        this.audioFormat = new AudioFormat(outputSampleRate, outputChannels, stream.codecpar().channel_layout());
+        this.audioFormat = new AudioFormat(outputSampleRate, outputChannels, outputChannelLayout, outputSampleFormat);
     }
 
     @Override
@@ -127,53 +160,127 @@ public class FFmpegAudioSourceSubstream
         return stream;
     }
 
-    @Override
-    public void decode(AVFrame frame) throws FFmpegException {
-        int outputCount =
-                (int)Math.min(
-                        (samples_out[0].limit() - samples_out[0].position()) / (outputChannels * outputBytesPerSample),
-                        Integer.MAX_VALUE
-                );
+    /**
+     * Makes sure the output buffers can hold the given number of samples per channel, replacing them with larger ones
+     * if not.  Buffers only ever grow, so once the stream is under way this does nothing.
+     */
+    private void ensureOutputCapacity(int samples) throws FFmpegException {
+        if (samples <= samples_out_capacity) return;
+
+        int size = FFmpegError.checkError("av_samples_get_buffer_size", avutil.av_samples_get_buffer_size(
+                (IntPointer) null,
+                samples_out.length == 1 ? outputChannels : 1,
+                samples,
+                outputSampleFormat,
+                1                           // 	buffer size alignment (0 = default, 1 = no alignment)
+        ));
+
+        for (int i = 0; i < samples_out.length; i++) {
+            if (samples_out[i] != null) avutil.av_free(samples_out[i]);
+
+            Pointer data = avutil.av_malloc(size);
+            if (data == null) throw new OutOfMemoryError("av_malloc");
+
+            samples_out[i] = new BytePointer(data).capacity(size);
+            samples_out_ptr.put(i, samples_out[i]);
+            samples_out_floats[i] = new FloatPointer(samples_out[i]);
+        }
+
+        samples_out_shorts = new ShortPointer(samples_out[0]);
+        samples_out_capacity = samples;
+    }
+
+    /**
+     * Converts samples with the resampler, and queues whatever it produces as a frame.
+     * @param input input planes, or null to drain the resampler.
+     * @param inputSamples samples per channel in the input planes.
+     * @param position position of the first sample produced, in seconds.
+     * @return samples per channel produced.
+     */
+    private int resample(PointerPointer input, int inputSamples, double position)
+            throws FFmpegException {
+        // Upper bound on what this call can produce, including anything the resampler has buffered
+        int outputCount = FFmpegError.checkError("swr_get_out_samples",
+                swresample.swr_get_out_samples(swrContext, inputSamples));
+
+        if (outputCount <= 0)
+            return 0;
+
+        ensureOutputCapacity(outputCount);
 
         int ret = FFmpegError.checkError("swr_convert", swresample.swr_convert(
                 swrContext,
                 samples_out_ptr, outputCount,
-                frame.extended_data(), frame.nb_samples()
+                input, inputSamples
         ));
 
         if (ret == 0)
-            return; // Do nothing.
-
-        // Read unpacked sample buffers
-        int bytesResampled = ret * outputBytesPerSample * outputChannels;
-        if (recvBuffer == null || recvBuffer.length < bytesResampled)
-            recvBuffer = new byte[bytesResampled];
-
-        samples_out[0].position(0).get(recvBuffer);
+            return 0; // Do nothing.
 
-        FloatBuffer buffer = ByteBuffer
-                .wrap(recvBuffer)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
+        // What came out, which differs from what went in when the rate changes or the resampler holds samples back
+        double time = (double) ret / outputSampleRate;
 
-        float[] floats = new float[ret * outputChannels];
-        for (int i = 0; i < floats.length; i ++)
-            floats[i] = buffer.get();
-
-        // Add packet to queue
         totalDecoded += ret;
-        double time = FFmpeg.timestampToSeconds(stream.time_base(), frame.pkt_duration());
-        double position = FFmpeg.timestampToSeconds(stream.time_base(), frame.pkt_dts());
         setPosition(position);
+        lastPosition = position;
+        lastTime = time;
         double timestamp = parentStream.getCreatedTime() + position;
         parentStream.updatePacketTimestamp(timestamp);
-        put(new AudioFrame(
-                timestamp,
-                position,
-                time,
-                floats,
-                getFormat()
-        ));
+
+        // Copy the samples straight out of native memory in one bulk transfer per plane
+        FrameBufferPool pool = getFrameBufferPool();
+        int length = ret * outputChannels;
+
+        // Add packet to queue
+        if (outputSampleFormat == avutil.AV_SAMPLE_FMT_FLTP) {
+            float[][] planes = new float[outputChannels][];
+            for (int channel = 0; channel < outputChannels; channel++) {
+                planes[channel] = pool.allocateFloats(ret);
+                samples_out_floats[channel].position(0).get(planes[channel], 0, ret);
+            }
+            put(new PlanarAudioFrame(timestamp, position, time, planes, ret, getFormat(), pool));
+        } else if (outputSampleFormat == avutil.AV_SAMPLE_FMT_S16) {
+            short[] shorts = pool.allocateShorts(length);
+            samples_out_shorts.position(0).get(shorts, 0, length);
+            put(new ShortAudioFrame(timestamp, position, time, shorts, length, getFormat(), pool));
+        } else {
+            float[] floats = pool.allocateFloats(length);
+            samples_out_floats[0].position(0).get(floats, 0, length);
+            put(new AudioFrame(timestamp, position, time, floats, length, getFormat(), pool));
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void decode(AVFrame frame) throws FFmpegException {
+        // Output starts where the input does, less the samples the resampler is still holding back
+        long start = avutil.av_rescale_q(frame.pkt_dts(), stream.time_base(), avutil.av_make_q(1, outputSampleRate)) -
+                swresample.swr_get_delay(swrContext, outputSampleRate);
+
+        resample(frame.extended_data(), frame.nb_samples(), (double) start / outputSampleRate);
+    }
+
+    /**
+     * Drains the decoder, then the resampler, so that the samples the resampler holds back (its delay) end up in a
+     * final frame instead of being lost.
+     */
+    @Override
+    public int drainDecoder() throws FFmpegException {
+        int frames = FFmpegDecoderContext.super.drainDecoder();
+
+        int samples = resample(null, 0, lastPosition + lastTime);
+        if (samples > 0) frames++;
+
+        return frames;
+    }
+
+    @Override
+    public void resetDecoder() throws FFmpegException {
+        FFmpegDecoderContext.super.resetDecoder();
+
+        // Discard anything the resampler has buffered; swr_init() resets its internal state
+        FFmpegError.checkError("swr_init", swresample.swr_init(swrContext));
     }
 
     @Override
@@ -187,6 +294,7 @@ public class FFmpegAudioSourceSubstream
 
             // see: https://ffmpeg.org/doxygen/2.1/doc_2examples_2resampling_audio_8c-example.html
             for (int i = 0; i < samples_out.length; i++) {
+                if (samples_out[i] == null) continue;
                 Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "deallocating samples_out[" + i + "])...");
                 avutil.av_free(samples_out[i]);
                 samples_out[i].deallocate();
@@ -44,6 +44,8 @@ public interface FFmpegDecoderContext extends FFmpegStreamContext {
                 ret = avcodec.avcodec_receive_frame(getCodecContext(), frame);
                 if (ret == avutil.AVERROR_EAGAIN())
                     break; // output is not available right now - user must try to send new input
+                else if (ret == avutil.AVERROR_EOF)
+                    break; // the decoder has been fully drained (see drainDecoder())
 
                 // Check for misc. errors:
                 FFmpegError.checkError("avcodec_receive_frame", ret);
@@ -87,4 +89,26 @@ public interface FFmpegDecoderContext extends FFmpegStreamContext {
 
         return frames_finished;
     }
+
+    /**
+     * Drains the decoder at the end of the stream, decoding the frames it still holds (i.e. delayed or reordered
+     * frames).  Afterwards the decoder accepts no more packets until resetDecoder() is called.
+     * @return Number of raw frames decoded.
+     * @throws FFmpegException
+     */
+    default int drainDecoder() throws FFmpegException {
+        int ret = avcodec.avcodec_send_packet(getCodecContext(), (AVPacket) null);
+        if (ret != avutil.AVERROR_EOF)
+            FFmpegError.checkError("avcodec_send_packet", ret);
+
+        return processAvailableFrames();
+    }
+
+    /**
+     * Discards everything the decoder holds, i.e. after seeking.  This also makes a drained decoder usable again.
+     * @throws FFmpegException
+     */
+    default void resetDecoder() throws FFmpegException {
+        avcodec.avcodec_flush_buffers(getCodecContext());
+    }
 }
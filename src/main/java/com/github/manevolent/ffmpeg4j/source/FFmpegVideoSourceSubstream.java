@@ -2,15 +2,18 @@ package com.github.manevolent.ffmpeg4j.source;
 
 import com.github.manevolent.ffmpeg4j.*;
 import com.github.manevolent.ffmpeg4j.math.Rational;
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
+import com.github.manevolent.ffmpeg4j.scale.FFmpegScaler;
+import com.github.manevolent.ffmpeg4j.scale.ScalerSettings;
 import com.github.manevolent.ffmpeg4j.stream.source.FFmpegSourceStream;
 import org.bytedeco.ffmpeg.avcodec.*;
 import org.bytedeco.ffmpeg.avformat.*;
 import org.bytedeco.ffmpeg.avutil.*;
 import org.bytedeco.ffmpeg.global.*;
-import org.bytedeco.ffmpeg.swscale.*;
 import org.bytedeco.javacpp.*;
 
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 public class FFmpegVideoSourceSubstream
         extends VideoSourceSubstream
@@ -19,7 +22,14 @@ public class FFmpegVideoSourceSubstream
     private final AVCodecContext codecContext;
     private final BytePointer buffer;
     private final AVFrame pFrameOut;
-    private final SwsContext sws;
+    private FFmpegScaler scaler;
+    private volatile int scalerThreads = 1;
+    private volatile ScalerSettings scalerSettings = ScalerSettings.DEFAULT;
+
+    // Packed (align 1) layout of the output pixel format, used when decoded frames can be copied without sws_scale
+    private final int[] planeLineSizes = new int[4];
+    private final int[] planeHeights = new int[4];
+    private final int planeCount;
 
     // Managed stuff
     private final AVStream stream;
@@ -31,6 +41,8 @@ public class FFmpegVideoSourceSubstream
     private final int frameSizeBytes;
 
     private int pixelFormat;
+    private final int outputWidth, outputHeight;
+    private volatile boolean nativeFrames = false;
 
     private boolean closed = false;
 
@@ -38,9 +50,30 @@ public class FFmpegVideoSourceSubstream
                                       AVStream stream,
                                       AVCodecContext codecContext,
                                       int pixelFormat) throws FFmpegException {
+        this(parentStream, stream, codecContext, pixelFormat,
+                stream.codecpar().width(), stream.codecpar().height());
+    }
+
+    /**
+     * Creates a video substream that scales decoded frames to the given size as part of the same sws_scale call that
+     * converts them to the output pixel format, so that no separate rescaling pass is needed.
+     * @param outputWidth width of produced frames.
+     * @param outputHeight height of produced frames.
+     */
+    public FFmpegVideoSourceSubstream(FFmpegSourceStream parentStream,
+                                      AVStream stream,
+                                      AVCodecContext codecContext,
+                                      int pixelFormat,
+                                      int outputWidth,
+                                      int outputHeight) throws FFmpegException {
         super(parentStream);
 
+        if (outputWidth <= 0 || outputHeight <= 0)
+            throw new IllegalArgumentException("invalid output size: " + outputWidth + "x" + outputHeight);
+
         this.pixelFormat = pixelFormat;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
         this.stream = stream;
 
         this.parentStream = parentStream;
@@ -51,8 +84,8 @@ public class FFmpegVideoSourceSubstream
 
         this.frameSizeBytes = avutil.av_image_get_buffer_size(
                         pixelFormat,
-                        stream.codecpar().width(),
-                        stream.codecpar().height(),
+                        outputWidth,
+                        outputHeight,
                         1 // used by some other methods in ffmpeg
         );
 
@@ -67,12 +100,28 @@ public class FFmpegVideoSourceSubstream
             conditions are usually not met. Are you also scaling the video? Otherwise I'd go for bicubic.
          */
 
-        sws = swscale.sws_getContext(
-                stream.codecpar().width(), stream.codecpar().height(), stream.codecpar().format(), // source
-                stream.codecpar().width(), stream.codecpar().height(), pixelFormat, // destination
-                swscale.SWS_BILINEAR, // flags (see above)
-                null, null, (DoublePointer) null // filters, params
-        );
+        // The scaler is created on the first frame that actually needs conversion; see decode().
+        this.scaler = null;
+
+        FFmpegError.checkError("av_image_fill_linesizes", avutil.av_image_fill_linesizes(
+                planeLineSizes,
+                pixelFormat,
+                outputWidth
+        ));
+
+        AVPixFmtDescriptor descriptor = avutil.av_pix_fmt_desc_get(pixelFormat);
+        if ((descriptor.flags() & avutil.AV_PIX_FMT_FLAG_PAL) == avutil.AV_PIX_FMT_FLAG_PAL) {
+            this.planeCount = 0; // Paletted formats always go through sws_scale
+        } else {
+            this.planeCount = avutil.av_pix_fmt_count_planes(pixelFormat);
+        }
+
+        for (int plane = 0; plane < planeCount; plane++) {
+            // Chroma planes are subsampled vertically (AV_CEIL_RSHIFT)
+            planeHeights[plane] = (plane == 1 || plane == 2) ?
+                    -((-outputHeight) >> descriptor.log2_chroma_h()) :
+                    outputHeight;
+        }
 
         // Assign appropriate parts of buffer to image planes in pFrameRGB
         // See: https://mail.gnome.org/archives/commits-list/2016-February/msg05531.html
@@ -81,16 +130,16 @@ public class FFmpegVideoSourceSubstream
                 pFrameOut.linesize(),
                 buffer,
                 pixelFormat,
-                stream.codecpar().width(),
-                stream.codecpar().height(),
+                outputWidth,
+                outputHeight,
                 1
         ));
 
         Rational rational = Rational.fromAVRational(stream.r_frame_rate());
 
         this.videoFormat = new VideoFormat(
-                stream.codecpar().width(),
-                stream.codecpar().height(),
+                outputWidth,
+                outputHeight,
                 rational.toDouble()
         );
     }
@@ -120,42 +169,130 @@ public class FFmpegVideoSourceSubstream
         return stream;
     }
 
-    @Override
-    public void decode(AVFrame frame) throws FFmpegException {
-        int ret = swscale.sws_scale(
-                sws, // the scaling context previously created with sws_getContext()
-                frame.data(), // 	the array containing the pointers to the planes of the source slice
-                frame.linesize(), // the array containing the strides for each plane of the source image
-                0, // the position in the source image of the slice to process, that is the number (counted starting from zero) in the image of the first row of the slice
-                stream.codecpar().height(), // the height of the source slice, that is the number of rows in the slice
-                pFrameOut.data(), // the array containing the pointers to the planes of the destination image
-                pFrameOut.linesize() // the array containing the strides for each plane of the destination image
-        );
+    /**
+     * Finds if a decoded frame is already in the requested pixel format and size, in which case its planes can be
+     * copied out as-is instead of running them through sws_scale.
+     */
+    private boolean isPassthrough(AVFrame frame) {
+        if (planeCount <= 0 ||
+                frame.format() != pixelFormat ||
+                frame.width() != outputWidth ||
+                frame.height() != outputHeight)
+            return false;
+
+        for (int plane = 0; plane < planeCount; plane++)
+            if (frame.linesize(plane) < planeLineSizes[plane]) return false;
+
+        return true;
+    }
 
-        FFmpegError.checkError("sws_scale", ret);
+    /**
+     * Copies the planes of a decoded frame into a packed (align 1) pixel buffer, in the same layout as
+     * av_image_fill_arrays would produce.
+     */
+    private void copyPlanes(AVFrame frame, byte[] pixelData) {
+        int offset = 0;
+
+        for (int plane = 0; plane < planeCount; plane++) {
+            BytePointer data = frame.data(plane);
+            int lineSize = planeLineSizes[plane];
+            int frameLineSize = frame.linesize(plane);
+            int height = planeHeights[plane];
+
+            if (frameLineSize == lineSize) {
+                data.position(0).get(pixelData, offset, lineSize * height);
+                offset += lineSize * height;
+            } else {
+                // Decoders usually pad each line for alignment, so copy line by line
+                for (int y = 0; y < height; y++) {
+                    data.position((long) y * frameLineSize).get(pixelData, offset, lineSize);
+                    offset += lineSize;
+                }
+            }
+        }
+    }
 
-        BytePointer data = pFrameOut.data(0);
-        int l = pFrameOut.linesize(0);
+    /**
+     * Converts a decoded frame to the output pixel format and size.
+     */
+    private void scale(AVFrame frame, PointerPointer data, IntPointer lineSize) throws FFmpegException {
+        scaler = FFmpegScaler.getCached(
+                scaler,
+                frame.width(), frame.height(), frame.format(), // source
+                outputWidth, outputHeight, pixelFormat, // destination
+                scalerSettings,
+                scalerThreads,
+                ForkJoinPool.commonPool()
+        );
+
+        scaler.scale(frame.data(), frame.linesize(), data, lineSize);
+    }
 
+    private VideoFrame decodeToHeap(AVFrame frame, double timestamp, double position, double time)
+            throws FFmpegException {
         // Allocate pixel data buffer:
-        byte[] pixelData = new byte[frameSizeBytes];
-        data.position(0).get(pixelData, 0, l * frame.height());
+        FrameBufferPool pool = getFrameBufferPool();
+        byte[] pixelData = pool.allocateBytes(frameSizeBytes);
+
+        if (isPassthrough(frame)) {
+            copyPlanes(frame, pixelData);
+        } else {
+            scale(frame, pFrameOut.data(), pFrameOut.linesize());
 
+            // The buffer is packed (align 1), so every plane is contiguous:
+            buffer.position(0).get(pixelData, 0, frameSizeBytes);
+        }
+
+        return new VideoFrame(
+                timestamp,
+                position,
+                time,
+                pixelFormat,
+                outputWidth,
+                outputHeight,
+                pixelData,
+                pool
+        );
+    }
+
+    private VideoFrame decodeToNative(AVFrame frame, double timestamp, double position, double time)
+            throws FFmpegException {
+        if (isPassthrough(frame)) {
+            // Zero-copy: the new frame shares the decoder's buffers
+            return new FFmpegVideoFrame(timestamp, position, time, frame);
+        }
+
+        FFmpegVideoFrame videoFrame = FFmpegVideoFrame.allocate(
+                timestamp,
+                position,
+                time,
+                pixelFormat,
+                outputWidth,
+                outputHeight
+        );
+
+        try {
+            scale(frame, videoFrame.getAVFrame().data(), videoFrame.getAVFrame().linesize());
+        } catch (FFmpegException ex) {
+            videoFrame.release();
+            throw ex;
+        }
+
+        return videoFrame;
+    }
+
+    @Override
+    public void decode(AVFrame frame) throws FFmpegException {
         double position = FFmpeg.timestampToSeconds(stream.time_base(), frame.pkt_dts());
         setPosition(position);
         double time = 1D / videoFormat.getFramesPerSecond();
         double timestamp = parentStream.getCreatedTime() + position;
         parentStream.updatePacketTimestamp(timestamp);
 
-        put(new VideoFrame(
-                timestamp,
-                position,
-                time,
-                pixelFormat,
-                stream.codecpar().width(),
-                stream.codecpar().height(),
-                pixelData
-        ));
+        if (nativeFrames)
+            put(decodeToNative(frame, timestamp, position, time));
+        else
+            put(decodeToHeap(frame, timestamp, position, time));
 
         totalDecoded ++;
 
@@ -163,6 +300,48 @@ public class FFmpegVideoSourceSubstream
         //setPosition((double)totalDecoded / videoFormat.getFramesPerSecond());
     }
 
+    public int getScalerThreads() {
+        return scalerThreads;
+    }
+
+    /**
+     * Sets how many threads convert each frame that needs converting to the output pixel format (see FFmpegScaler).
+     * @param scalerThreads number of threads; 1 (the default) converts frames on the decoding thread.
+     */
+    public void setScalerThreads(int scalerThreads) {
+        if (scalerThreads <= 0) throw new IllegalArgumentException("scalerThreads must be positive");
+        this.scalerThreads = scalerThreads;
+    }
+
+    public ScalerSettings getScalerSettings() {
+        return scalerSettings;
+    }
+
+    /**
+     * Sets the algorithm and options used to convert frames to the output pixel format and size.
+     * @param scalerSettings scaler settings; ScalerSettings.DEFAULT is bilinear.
+     */
+    public void setScalerSettings(ScalerSettings scalerSettings) {
+        if (scalerSettings == null) throw new NullPointerException("scalerSettings");
+        this.scalerSettings = scalerSettings;
+    }
+
+    /**
+     * Finds if decoded frames are kept in native memory (as FFmpegVideoFrame) instead of being copied into byte arrays.
+     */
+    public boolean isNativeFrames() {
+        return nativeFrames;
+    }
+
+    /**
+     * Sets whether decoded frames are kept in native memory.  When enabled, this substream produces FFmpegVideoFrame
+     * objects, which must be released by the consumer once they are no longer needed.
+     * @param nativeFrames true to produce native frames, false to produce heap (byte array) frames.
+     */
+    public void setNativeFrames(boolean nativeFrames) {
+        this.nativeFrames = nativeFrames;
+    }
+
     @Override
     public void close() throws Exception {
         synchronized (this) {
@@ -172,8 +351,11 @@ public class FFmpegVideoSourceSubstream
 
             Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegVideoSourceSubstream.close() called");
 
-            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "sws_freeContext(sws)...");
-            swscale.sws_freeContext(sws);
+            if (scaler != null) {
+                Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "scaler.close()...");
+                scaler.close();
+                scaler = null;
+            }
 
             Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_free(buffer)...");
             avutil.av_free(buffer);
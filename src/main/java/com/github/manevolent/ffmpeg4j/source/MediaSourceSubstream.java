@@ -1,9 +1,12 @@
 package com.github.manevolent.ffmpeg4j.source;
 
+import com.github.manevolent.ffmpeg4j.MediaFrame;
 import com.github.manevolent.ffmpeg4j.MediaStream;
 import com.github.manevolent.ffmpeg4j.MediaType;
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
 import com.github.manevolent.ffmpeg4j.stream.source.SourceStream;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -17,6 +20,7 @@ public abstract class MediaSourceSubstream<T> extends MediaStream {
     private volatile double lost;
     private final SourceStream parent;
     private boolean decoding = true;
+    private volatile FrameBufferPool frameBufferPool = FrameBufferPool.NONE;
 
     protected MediaSourceSubstream(SourceStream parent, MediaType mediaType) {
         this.parent = parent;
@@ -38,10 +42,26 @@ public abstract class MediaSourceSubstream<T> extends MediaStream {
     }
 
     /**
-     * Flushes the source stream, emptying all buffered data.
+     * Flushes the source stream, emptying all buffered data.  Buffered frames are released.
      */
-    public final void flush() {
-        frameQueue.clear();
+    public void flush() {
+        T o;
+        while ((o = tryNext()) != null)
+            if (o instanceof MediaFrame) ((MediaFrame) o).release();
+    }
+
+    public FrameBufferPool getFrameBufferPool() {
+        return frameBufferPool;
+    }
+
+    /**
+     * Sets the pool that decoded frames allocate their buffers from.  Buffers are returned to the pool when the frames
+     * are released, so callers that release every frame they read stop allocating once the stream is under way.
+     * @param frameBufferPool pool to use; FrameBufferPool.NONE (the default) always allocates new buffers.
+     */
+    public void setFrameBufferPool(FrameBufferPool frameBufferPool) {
+        if (frameBufferPool == null) throw new NullPointerException("frameBufferPool");
+        this.frameBufferPool = frameBufferPool;
     }
 
     /**
@@ -60,7 +80,7 @@ public abstract class MediaSourceSubstream<T> extends MediaStream {
         while (frameQueue.size() <= 0)
         {
             if (!isDecoding()) throw new IOException(new IllegalStateException("not decoding"));
-            read();
+            readOrDrained();
         }
 
         return tryNext();
@@ -68,11 +88,23 @@ public abstract class MediaSourceSubstream<T> extends MediaStream {
 
     public T peek() throws IOException  {
         while (frameQueue.size() <= 0)
-            read();
+            readOrDrained();
 
         return tryPeek();
     }
 
+    /**
+     * Reads, unless the end of the stream was reached while draining frames onto the buffer; those are returned
+     * before the EOFException is.
+     */
+    private void readOrDrained() throws IOException {
+        try {
+            read();
+        } catch (EOFException ex) {
+            if (frameQueue.size() <= 0) throw ex;
+        }
+    }
+
     public T tryNext() {
         return frameQueue.poll();
     }
@@ -0,0 +1,418 @@
+package com.github.manevolent.ffmpeg4j.stream.output;
+
+import com.github.manevolent.ffmpeg4j.FFmpegException;
+import com.github.manevolent.ffmpeg4j.FFmpegIO;
+import com.github.manevolent.ffmpeg4j.Logging;
+import com.github.manevolent.ffmpeg4j.output.FFmpegCopyTargetSubstream;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avformat.*;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Cuts a target stream's packets into segments of about the same duration, each muxed into a file (or OutputStream)
+ * of its own, and keeps an HLS playlist of the latest segments up to date, so a live stream can be served straight
+ * from wherever the segments are stored.
+ *
+ * The target stream itself is never written to: it only holds the encoders' streams, whose codec parameters (and
+ * extradata) each segment is opened with, and its format is the one segments are muxed in.  Open it on null I/O:
+ *
+ *   FFmpegIO.createNullIO().asOutput().open("mpegts", new FFmpegSegmentOutput(FFmpegSegmentOutput.directory(path)))
+ *
+ * Segments start on a keyframe of the first video stream (or of the first stream, if there is no video) once the
+ * segment duration has passed, so they are only as regular as the encoder's keyframes.  Timestamps carry on from one
+ * segment to the next.
+ */
+public class FFmpegSegmentOutput implements FFmpegTargetStream.FFmpegPacketOutput {
+    /**
+     * Default segment duration, in seconds.
+     */
+    public static final double DEFAULT_SEGMENT_DURATION = 6D;
+
+    /**
+     * Default number of segments kept, and listed in the playlist.
+     */
+    public static final int DEFAULT_RETENTION = 5;
+
+    /**
+     * Where segments and the playlist are written.
+     */
+    public interface Storage {
+        /**
+         * Opens a new segment for writing.  The stream is closed once the segment is complete.
+         */
+        OutputStream openSegment(String name) throws IOException;
+
+        /**
+         * Deletes a segment that fell out of the retention window.
+         */
+        void deleteSegment(String name) throws IOException;
+
+        /**
+         * Replaces the playlist.  Readers should never see a partly written playlist.
+         */
+        void writePlaylist(String name, byte[] content) throws IOException;
+    }
+
+    /**
+     * A complete segment.
+     */
+    public static final class Segment {
+        private final int index;
+        private final String name;
+        private final double startTime;
+        private final double duration;
+
+        private Segment(int index, String name, double startTime, double duration) {
+            this.index = index;
+            this.name = name;
+            this.startTime = startTime;
+            this.duration = duration;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the time the segment starts at in the stream, in seconds.
+         */
+        public double getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Gets the duration of the segment, in seconds.
+         */
+        public double getDuration() {
+            return duration;
+        }
+    }
+
+    private final Storage storage;
+
+    private volatile double segmentDuration = DEFAULT_SEGMENT_DURATION;
+    private volatile int retention = DEFAULT_RETENTION;
+    private volatile String segmentName = "segment%d.ts";
+    private volatile String playlistName = "playlist.m3u8";
+
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private int targetDuration = 0;
+
+    // The segment being written
+    private FFmpegTargetStream segment;
+    private FFmpegCopyTargetSubstream[] segmentSubstreams;
+    private int segmentIndex = -1;
+    private double segmentStart, segmentEnd;
+
+    private int referenceStream = -1;
+    private Map<String, String> muxerOptions = Collections.emptyMap();
+
+    public FFmpegSegmentOutput(Storage storage) {
+        if (storage == null) throw new NullPointerException("storage");
+        this.storage = storage;
+    }
+
+    /**
+     * Stores segments and the playlist as files in a directory.
+     */
+    public static Storage directory(Path directory) {
+        return new Storage() {
+            @Override
+            public OutputStream openSegment(String name) throws IOException {
+                return Files.newOutputStream(directory.resolve(name));
+            }
+
+            @Override
+            public void deleteSegment(String name) throws IOException {
+                Files.deleteIfExists(directory.resolve(name));
+            }
+
+            @Override
+            public void writePlaylist(String name, byte[] content) throws IOException {
+                Path temporary = Files.createTempFile(directory, name, ".tmp");
+                try {
+                    Files.write(temporary, content);
+
+                    try {
+                        Files.move(temporary, directory.resolve(name),
+                                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException ex) {
+                        Files.move(temporary, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+        };
+    }
+
+    public double getSegmentDuration() {
+        return segmentDuration;
+    }
+
+    /**
+     * Sets how long segments should be; a segment ends at the first keyframe after this.
+     * @param segmentDuration duration, in seconds.
+     */
+    public void setSegmentDuration(double segmentDuration) {
+        if (segmentDuration <= 0D) throw new IllegalArgumentException("segmentDuration <= 0: " + segmentDuration);
+        this.segmentDuration = segmentDuration;
+    }
+
+    public int getRetention() {
+        return retention;
+    }
+
+    /**
+     * Sets how many complete segments are kept; older ones are deleted once they drop out of the playlist.
+     * @param retention number of segments, or 0 to keep every segment.
+     */
+    public void setRetention(int retention) {
+        if (retention < 0) throw new IllegalArgumentException("retention < 0: " + retention);
+        this.retention = retention;
+    }
+
+    public String getSegmentName() {
+        return segmentName;
+    }
+
+    /**
+     * Sets how segments are named.
+     * @param segmentName format string (see String.format) given the segment's index, i.e. "segment%d.ts".
+     */
+    public void setSegmentName(String segmentName) {
+        if (segmentName == null) throw new NullPointerException("segmentName");
+        this.segmentName = segmentName;
+    }
+
+    public String getPlaylistName() {
+        return playlistName;
+    }
+
+    /**
+     * Sets the name of the playlist.
+     * @param playlistName name, or null to not write a playlist.
+     */
+    public void setPlaylistName(String playlistName) {
+        this.playlistName = playlistName;
+    }
+
+    /**
+     * Gets the complete segments still kept, oldest first.
+     */
+    public List<Segment> getSegments() {
+        synchronized (segments) {
+            return Collections.unmodifiableList(new ArrayList<>(segments));
+        }
+    }
+
+    @Override
+    public void writeHeader(AVFormatContext formatContext, Map<String, String> options) throws FFmpegException {
+        this.muxerOptions = options;
+
+        // Segments get headers of their own, as they are opened
+        FFmpegTargetStream.setDefaultTimeBases(formatContext);
+
+        for (int i = 0; i < formatContext.nb_streams(); i++) {
+            if (formatContext.streams(i).codecpar().codec_type() == avutil.AVMEDIA_TYPE_VIDEO) {
+                referenceStream = i;
+                break;
+            }
+        }
+
+        if (referenceStream < 0) referenceStream = 0;
+    }
+
+    @Override
+    public boolean writePacket(AVFormatContext formatContext, AVPacket packet) throws FFmpegException, EOFException {
+        if (packet.size() == 0) return false; // Skip packet.
+
+        AVStream stream = formatContext.streams(packet.stream_index());
+        long timestamp = packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+        double time = timestamp * avutil.av_q2d(stream.time_base());
+
+        if (segment == null) {
+            openSegment(formatContext, time);
+        } else if (packet.stream_index() == referenceStream &&
+                (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0 &&
+                time - segmentStart >= segmentDuration) {
+            closeSegment(time);
+            openSegment(formatContext, time);
+        }
+
+        segmentEnd = Math.max(segmentEnd, (timestamp + packet.duration()) * avutil.av_q2d(stream.time_base()));
+
+        try {
+            segmentSubstreams[packet.stream_index()].write(packet);
+        } catch (IOException e) {
+            throw new FFmpegException(e);
+        }
+
+        return true;
+    }
+
+    private void openSegment(AVFormatContext formatContext, double time) throws FFmpegException {
+        int index = segmentIndex + 1;
+        String name = String.format(Locale.ROOT, segmentName, index);
+
+        OutputStream outputStream;
+        try {
+            outputStream = storage.openSegment(name);
+        } catch (IOException e) {
+            throw new FFmpegException(e);
+        }
+
+        FFmpegTargetStream segment = FFmpegIO.openOutputStream(outputStream).open(formatContext.oformat());
+        FFmpegCopyTargetSubstream[] substreams = new FFmpegCopyTargetSubstream[formatContext.nb_streams()];
+
+        try {
+            for (int i = 0; i < substreams.length; i++) {
+                AVStream stream = formatContext.streams(i);
+                substreams[i] = segment.registerCopySubstream(stream.codecpar(), stream.time_base());
+            }
+
+            for (Map.Entry<String, String> option : muxerOptions.entrySet())
+                segment.setMuxerOption(option.getKey(), option.getValue());
+
+            segment.writeFFmpegHeader();
+        } catch (FFmpegException ex) {
+            try {
+                segment.close();
+            } catch (Exception closeException) {
+                ex.addSuppressed(closeException);
+            }
+
+            throw ex;
+        }
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegSegmentOutput: opened segment " + name);
+
+        this.segment = segment;
+        this.segmentSubstreams = substreams;
+        this.segmentIndex = index;
+        this.segmentStart = this.segmentEnd = time;
+    }
+
+    /**
+     * Completes the segment being written, and lists it in the playlist.
+     * @param endTime time the segment ends at, in seconds.
+     */
+    private void closeSegment(double endTime) throws FFmpegException {
+        FFmpegTargetStream segment = this.segment;
+        this.segment = null;
+        this.segmentSubstreams = null;
+
+        try {
+            segment.close();
+        } catch (FFmpegException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new FFmpegException(ex);
+        }
+
+        Segment complete = new Segment(
+                segmentIndex,
+                String.format(Locale.ROOT, segmentName, segmentIndex),
+                segmentStart,
+                endTime - segmentStart
+        );
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegSegmentOutput: closed segment " + complete.getName() +
+                " (" + complete.getDuration() + "s)");
+
+        List<Segment> expired = new ArrayList<>();
+        synchronized (segments) {
+            segments.add(complete);
+            while (retention > 0 && segments.size() > retention)
+                expired.add(segments.removeFirst());
+        }
+
+        targetDuration = Math.max(targetDuration, (int) Math.ceil(complete.getDuration()));
+
+        writePlaylist(false);
+
+        // Only once they are out of the playlist
+        for (Segment expiredSegment : expired) {
+            try {
+                storage.deleteSegment(expiredSegment.getName());
+            } catch (IOException ex) {
+                Logging.LOGGER.log(Level.WARNING, "FFmpegSegmentOutput: problem deleting segment " +
+                        expiredSegment.getName(), ex);
+            }
+        }
+    }
+
+    private void writePlaylist(boolean end) throws FFmpegException {
+        String playlistName = this.playlistName;
+        if (playlistName == null) return;
+
+        List<Segment> segments = getSegments();
+
+        StringBuilder playlist = new StringBuilder();
+        playlist.append("#EXTM3U\n");
+        playlist.append("#EXT-X-VERSION:3\n");
+        playlist.append("#EXT-X-TARGETDURATION:")
+                .append(Math.max(targetDuration, (int) Math.ceil(segmentDuration))).append('\n');
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:")
+                .append(segments.isEmpty() ? 0 : segments.get(0).getIndex()).append('\n');
+
+        for (Segment segment : segments) {
+            playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", segment.getDuration()));
+            playlist.append(segment.getName()).append('\n');
+        }
+
+        if (end) playlist.append("#EXT-X-ENDLIST\n");
+
+        try {
+            storage.writePlaylist(playlistName, playlist.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new FFmpegException(e);
+        }
+    }
+
+    @Override
+    public void flush(AVFormatContext formatContext) throws FFmpegException {
+        if (segment != null) segment.flush();
+    }
+
+    @Override
+    public void writeTrailer(AVFormatContext formatContext) throws FFmpegException {
+        // Completes the last segment, and ends the playlist
+        if (segment != null) closeSegment(segmentEnd);
+        writePlaylist(true);
+    }
+
+    @Override
+    public void close() throws Exception {
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegSegmentOutput.close() called");
+
+        // Only if the target stream failed before its trailer
+        if (segment != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "segment.close()...");
+            segment.close();
+            segment = null;
+        }
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegSegmentOutput.close() completed");
+    }
+}
@@ -2,9 +2,14 @@ package com.github.manevolent.ffmpeg4j.stream.output;
 
 import com.github.manevolent.ffmpeg4j.*;
 import com.github.manevolent.ffmpeg4j.math.Rational;
+import com.github.manevolent.ffmpeg4j.output.EncoderProfile;
+import com.github.manevolent.ffmpeg4j.output.EncoderStatistics;
+import com.github.manevolent.ffmpeg4j.output.FFmpegEncoderContext;
 import com.github.manevolent.ffmpeg4j.output.FFmpegAudioTargetSubstream;
+import com.github.manevolent.ffmpeg4j.output.FFmpegCopyTargetSubstream;
 import com.github.manevolent.ffmpeg4j.output.FFmpegVideoTargetSubstream;
 import com.github.manevolent.ffmpeg4j.output.MediaTargetSubstream;
+import com.github.manevolent.ffmpeg4j.scale.ScalerSettings;
 import com.github.manevolent.ffmpeg4j.stream.FFmpegFormatContext;
 import org.bytedeco.ffmpeg.avcodec.*;
 import org.bytedeco.ffmpeg.avformat.*;
@@ -13,10 +18,8 @@ import org.bytedeco.ffmpeg.global.*;
 import org.bytedeco.javacpp.*;
 
 import java.io.EOFException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.logging.Level;
 
 public class FFmpegTargetStream extends TargetStream implements FFmpegFormatContext {
     private final AVFormatContext formatContext;
@@ -26,10 +29,19 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
 
     private final Object closeLock = new Object();
 
+    // Substreams encoding asynchronously (see EncoderQueue) write packets from their own threads
+    private final Object writeLock = new Object();
+
     private int pixelFormat = org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_RGB24;
+    private int scalerThreads = 1;
+    private ScalerSettings scalerSettings = ScalerSettings.DEFAULT;
+    private final Map<String, String> muxerOptions = new LinkedHashMap<>();
 
     private boolean closed;
 
+    // Until then, there is nothing to flush or end with a trailer
+    private volatile boolean headerWritten;
+
     public FFmpegTargetStream(AVFormatContext formatContext, FFmpegIO io, FFmpegPacketOutput packetOutput) {
         this.io = io;
         this.formatContext = formatContext;
@@ -115,10 +127,17 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
     public void writeFFmpegHeader() throws FFmpegException {
         //avformat.av_dump_format(formatContext, 0, (String) null, 1);
 
-        FFmpegError.checkError(
-                "avformat_write_header",
-                avformat.avformat_write_header(formatContext, (AVDictionary) null)
-        );
+        packetOutput.writeHeader(formatContext, getMuxerOptions());
+        headerWritten = true;
+    }
+
+    /**
+     * Writes the header with the given muxer options, on top of those already set (see setMuxerOption).
+     * @param muxerOptions options passed to avformat_write_header(), i.e. "movflags".
+     */
+    public void writeHeader(Map<String, String> muxerOptions) {
+        this.muxerOptions.putAll(muxerOptions);
+        writeHeader();
     }
 
     @Override
@@ -135,9 +154,17 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
     public FFmpegVideoTargetSubstream registerVideoSubstream(String codecName,
                                                              VideoFormat format,
                                                              Map<String, String> options) throws FFmpegException {
+        return registerVideoSubstream(codecName, format, EncoderProfile.DEFAULT, options);
+    }
+
+    public FFmpegVideoTargetSubstream registerVideoSubstream(String codecName,
+                                                             VideoFormat format,
+                                                             EncoderProfile profile,
+                                                             Map<String, String> options) throws FFmpegException {
         return registerVideoSubstream(
                 codecName,
                 format.getWidth(), format.getHeight(), format.getFramesPerSecond(),
+                profile,
                 options
         );
     }
@@ -145,14 +172,34 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
     public FFmpegVideoTargetSubstream registerVideoSubstream(String codecName,
                                                              int width, int height, double fps,
                                                              Map<String, String> options) throws FFmpegException {
+        return registerVideoSubstream(codecName, width, height, fps, EncoderProfile.DEFAULT, options);
+    }
+
+    public FFmpegVideoTargetSubstream registerVideoSubstream(String codecName,
+                                                             int width, int height, double fps,
+                                                             EncoderProfile profile,
+                                                             Map<String, String> options) throws FFmpegException {
         AVCodec codec = org.bytedeco.ffmpeg.global.avcodec.avcodec_find_encoder_by_name(codecName);
         if (codec == null) throw new FFmpegException("unrecognized video codec: " + codecName);
 
-        return registerVideoSubstream(codec, width, height, fps, options);
+        return registerVideoSubstream(codec, width, height, fps, profile, options);
+    }
+
+    public FFmpegVideoTargetSubstream registerVideoSubstream(AVCodec codec,
+                                                             int width, int height, double fps,
+                                                             Map<String, String> options) throws FFmpegException {
+        return registerVideoSubstream(codec, width, height, fps, EncoderProfile.DEFAULT, options);
     }
 
+    /**
+     * Registers a video substream.
+     * @param profile encoder settings, applied and checked against the codec before it is opened.
+     * @param options raw codec options, passed to avcodec_open2().  Options the codec doesn't use are logged, and
+     *                left out of the substream's getEncoderOptions().
+     */
     public FFmpegVideoTargetSubstream registerVideoSubstream(AVCodec codec,
                                                              int width, int height, double fps,
+                                                             EncoderProfile profile,
                                                              Map<String, String> options) throws FFmpegException {
         if (codec.type() != avutil.AVMEDIA_TYPE_VIDEO)
             throw new FFmpegException("codec is not video: " + codec.name().getString());
@@ -160,72 +207,80 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
         codec = avcodec.avcodec_find_encoder(codec.id());
         if (codec == null) throw new FFmpegException("video codec does not have encoder");
 
-        AVStream stream = avformat.avformat_new_stream(formatContext, codec);
-        if (stream == null) throw new FFmpegException("could not create video substream");
+        AVCodecContext codecContext = avcodec.avcodec_alloc_context3(codec);
+        if (codecContext == null) throw new OutOfMemoryError("avcodec_alloc_context3");
 
-        // Assign a stream ID to this encoder.
-        stream.id(formatContext.nb_streams() - 1);
+        try {
+            // Set up appropriate pixel format target
+            Collection<Integer> supported_formats = FFmpeg.readPointer(codec.pix_fmts());
+            boolean is_pixel_format_supported = supported_formats.contains(getPixelFormat());
+            int best_pix_fmt = is_pixel_format_supported ?
+                    getPixelFormat() :
+                    VideoFormat.getBestPixelFormat(codec, getPixelFormat());
+            if (best_pix_fmt < 0) throw new FFmpegException("couldn't find comparable pixel format for encoder");
+            codecContext.pix_fmt(best_pix_fmt);
 
-        AVCodecContext codecContext = avcodec.avcodec_alloc_context3(codec);
+            codecContext.width(width);
+            codecContext.height(height);
 
-        // Set up appropriate pixel format target
-        Collection<Integer> supported_formats = FFmpeg.readPointer(codec.pix_fmts());
-        boolean is_pixel_format_supported = supported_formats.contains(getPixelFormat());
-        int best_pix_fmt = is_pixel_format_supported ?
-                getPixelFormat() :
-                VideoFormat.getBestPixelFormat(codec, getPixelFormat());
-        if (best_pix_fmt < 0) throw new FFmpegException("couldn't find comparable pixel format for encoder");
-        codecContext.pix_fmt(best_pix_fmt);
+            Rational timeBase = Rational.toRational(1D/fps);
+            codecContext.time_base(avutil.av_make_q((int) timeBase.getNumerator(), (int) timeBase.getDenominator()));
+            Rational framerate = Rational.toRational(fps);
+            codecContext.framerate(avutil.av_make_q((int) framerate.getNumerator(), (int) framerate.getDenominator()));
 
-        codecContext.width(width);
-        codecContext.height(height);
+            // some formats want stream headers to be separate
+            if ((formatContext.oformat().flags() & avformat.AVFMT_GLOBALHEADER) == avformat.AVFMT_GLOBALHEADER)
+                codecContext.flags(codecContext.flags() | avcodec.AV_CODEC_FLAG_GLOBAL_HEADER);
 
-        stream.codecpar().codec_id(codec.id());
-        stream.codecpar().width(width);
-        stream.codecpar().height(height);
-        stream.codecpar().format(best_pix_fmt);
+            Map<String, String> encoderOptions = openEncoder(codecContext, codec, profile, options);
 
-        Rational timeBase = Rational.toRational(1D/fps);
-        codecContext.time_base(avutil.av_make_q((int) timeBase.getNumerator(), (int) timeBase.getDenominator()));
-        Rational framerate = Rational.toRational(fps);
-        codecContext.framerate(avutil.av_make_q((int) framerate.getNumerator(), (int) framerate.getDenominator()));
+            // Only once the encoder has accepted its settings, so that a rejected one leaves no empty stream behind
+            AVStream stream = avformat.avformat_new_stream(formatContext, codec);
+            if (stream == null) throw new FFmpegException("could not create video substream");
 
-        // some formats want stream headers to be separate
-        if ((formatContext.oformat().flags() & avformat.AVFMT_GLOBALHEADER) == avformat.AVFMT_GLOBALHEADER)
-            codecContext.flags(codecContext.flags() | avcodec.AV_CODEC_FLAG_GLOBAL_HEADER);
+            // Assign a stream ID to this encoder.
+            stream.id(formatContext.nb_streams() - 1);
 
-        // pull in options
-        AVDictionary optionDictionary = new AVDictionary();
-        for (Map.Entry<String,String> option : options.entrySet()) {
+            // Copy the opened encoder's parameters (codec type, extradata, etc.) to the stream for the muxer
             FFmpegError.checkError(
-                    "av_dict_set/" + option.getKey(),
-                    avutil.av_dict_set(optionDictionary, option.getKey(), option.getValue(), 0)
+                    "avcodec_parameters_from_context",
+                    avcodec.avcodec_parameters_from_context(stream.codecpar(), codecContext)
             );
-        }
 
-        FFmpegError.checkError(
-                "avcodec_open2",
-                avcodec.avcodec_open2(codecContext, codec, optionDictionary)
-        );
+            FFmpegVideoTargetSubstream videoTargetSubstream = new FFmpegVideoTargetSubstream(
+                    this,
+                    stream,
+                    codecContext,
+                    fps,
+                    encoderOptions
+            );
 
-        FFmpegVideoTargetSubstream videoTargetSubstream = new FFmpegVideoTargetSubstream(
-                this,
-                stream,
-                codecContext,
-                fps
-        );
+            videoTargetSubstream.setScalerThreads(getScalerThreads());
+            videoTargetSubstream.setScalerSettings(getScalerSettings());
 
-        substreams.add(videoTargetSubstream);
+            substreams.add(videoTargetSubstream);
 
-        return videoTargetSubstream;
+            return videoTargetSubstream;
+        } catch (FFmpegException | RuntimeException ex) {
+            avcodec.avcodec_free_context(codecContext);
+            throw ex;
+        }
     }
 
     public FFmpegAudioTargetSubstream registerAudioSubstream(String codecName,
                                                              AudioFormat audioFormat,
                                                              Map<String, String> options) throws FFmpegException {
+        return registerAudioSubstream(codecName, audioFormat, EncoderProfile.DEFAULT, options);
+    }
+
+    public FFmpegAudioTargetSubstream registerAudioSubstream(String codecName,
+                                                             AudioFormat audioFormat,
+                                                             EncoderProfile profile,
+                                                             Map<String, String> options) throws FFmpegException {
         return registerAudioSubstream(
                 codecName,
                 audioFormat.getSampleRate(), audioFormat.getChannels(), audioFormat.getChannelLayout(),
+                profile,
                 options
         );
     }
@@ -234,12 +289,20 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
     public FFmpegAudioTargetSubstream registerAudioSubstream(String codecName,
                                                              int sample_rate, int channels, long channel_layout,
                                                              Map<String, String> options) throws FFmpegException {
+        return registerAudioSubstream(codecName, sample_rate, channels, channel_layout, EncoderProfile.DEFAULT, options);
+    }
+
+    public FFmpegAudioTargetSubstream registerAudioSubstream(String codecName,
+                                                             int sample_rate, int channels, long channel_layout,
+                                                             EncoderProfile profile,
+                                                             Map<String, String> options) throws FFmpegException {
         AVCodec codec = avcodec.avcodec_find_encoder_by_name(codecName);
         if (codec == null) throw new FFmpegException("unrecognized audio codec: " + codecName);
 
         return registerAudioSubstream(
                 codec,
                 sample_rate, channels, channel_layout,
+                profile,
                 options
         );
     }
@@ -247,97 +310,176 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
     public FFmpegAudioTargetSubstream registerAudioSubstream(AVCodec codec,
                                                              int sample_rate, int channels, long channel_layout,
                                                              Map<String, String> options) throws FFmpegException {
+        return registerAudioSubstream(codec, sample_rate, channels, channel_layout, EncoderProfile.DEFAULT, options);
+    }
+
+    /**
+     * Registers an audio substream.
+     * @param profile encoder settings, applied and checked against the codec before it is opened.
+     * @param options raw codec options, passed to avcodec_open2().  Options the codec doesn't use are logged, and
+     *                left out of the substream's getEncoderOptions().
+     */
+    public FFmpegAudioTargetSubstream registerAudioSubstream(AVCodec codec,
+                                                             int sample_rate, int channels, long channel_layout,
+                                                             EncoderProfile profile,
+                                                             Map<String, String> options) throws FFmpegException {
         if (codec.type() != avutil.AVMEDIA_TYPE_AUDIO)
             throw new FFmpegException("codec is not audio: " + codec.name().getString());
 
         codec = avcodec.avcodec_find_encoder(codec.id());
         if (codec == null) throw new FFmpegException("audio codec does not have encoder");
 
-        AVStream stream = avformat.avformat_new_stream(formatContext, codec);
-        if (stream == null) throw new RuntimeException("could not create audio substream");
-
-        stream.id(formatContext.nb_streams() - 1);
-
         AVCodecContext codecContext = avcodec.avcodec_alloc_context3(codec);
+        if (codecContext == null) throw new OutOfMemoryError("avcodec_alloc_context3");
 
-        int sampleFormat = -1;
-        for (int i = 0; ; i ++) {
-            int newSampleFormatId = codec.sample_fmts().get(i);
-            if (newSampleFormatId < 0) break;
-            sampleFormat = newSampleFormatId;
-        }
-        if (sampleFormat < 0) throw new FFmpegException("could not pick audio sample format for codec");
-
-        if (codecContext.codec().supported_samplerates() != null &&
-                !codecContext.codec().supported_samplerates().isNull()) {
-            boolean sampleRateSupported = false;
-            for (int i = 0; !sampleRateSupported; i++) {
-                int sampleRate = codecContext.codec().supported_samplerates().get(i);
-                if (sampleRate == sample_rate)
-                    sampleRateSupported = true;
-                else if (sampleRate <= 0)
-                    break;
+        try {
+            int sampleFormat = -1;
+            for (int i = 0; ; i ++) {
+                int newSampleFormatId = codec.sample_fmts().get(i);
+                if (newSampleFormatId < 0) break;
+                sampleFormat = newSampleFormatId;
+            }
+            if (sampleFormat < 0) throw new FFmpegException("could not pick audio sample format for codec");
+
+            if (codecContext.codec().supported_samplerates() != null &&
+                    !codecContext.codec().supported_samplerates().isNull()) {
+                boolean sampleRateSupported = false;
+                for (int i = 0; !sampleRateSupported; i++) {
+                    int sampleRate = codecContext.codec().supported_samplerates().get(i);
+                    if (sampleRate == sample_rate)
+                        sampleRateSupported = true;
+                    else if (sampleRate <= 0)
+                        break;
+                }
+                if (!sampleRateSupported)
+                    throw new FFmpegException("codec does not support sample rate: " + sample_rate);
             }
-            if (!sampleRateSupported)
-                throw new FFmpegException("codec does not support sample rate: " + sample_rate);
-        }
 
-        if (codecContext.codec().channel_layouts() != null && !codecContext.codec().channel_layouts().isNull()) {
-            boolean channelLayoutSupported = false;
-            for (int i = 0; !channelLayoutSupported; i++) {
-                long channelLayout = codecContext.codec().channel_layouts().get(i);
-                if (channelLayout == channel_layout)
-                    channelLayoutSupported = true;
-                else if (channelLayout <= 0)
-                    break;
+            if (codecContext.codec().channel_layouts() != null && !codecContext.codec().channel_layouts().isNull()) {
+                boolean channelLayoutSupported = false;
+                for (int i = 0; !channelLayoutSupported; i++) {
+                    long channelLayout = codecContext.codec().channel_layouts().get(i);
+                    if (channelLayout == channel_layout)
+                        channelLayoutSupported = true;
+                    else if (channelLayout <= 0)
+                        break;
+                }
+                if (!channelLayoutSupported)
+                    throw new FFmpegException("codec does not support channel layout: " + channel_layout);
             }
-            if (!channelLayoutSupported)
-                throw new FFmpegException("codec does not support channel layout: " + channel_layout);
-        }
 
-        codecContext.sample_fmt(sampleFormat);
-        codecContext.sample_rate(sample_rate);
-        codecContext.channels(channels);
-        codecContext.codec_type(codec.type());
-        codecContext.channel_layout(channel_layout);
-        codecContext.frame_size();
+            codecContext.sample_fmt(sampleFormat);
+            codecContext.sample_rate(sample_rate);
+            codecContext.channels(channels);
+            codecContext.codec_type(codec.type());
+            codecContext.channel_layout(channel_layout);
+            codecContext.frame_size();
 
-        // some formats want stream headers to be separate
-        if ((formatContext.oformat().flags() & avformat.AVFMT_GLOBALHEADER) == avformat.AVFMT_GLOBALHEADER)
-            codecContext.flags(codecContext.flags() | avcodec.AV_CODEC_FLAG_GLOBAL_HEADER);
+            // some formats want stream headers to be separate
+            if ((formatContext.oformat().flags() & avformat.AVFMT_GLOBALHEADER) == avformat.AVFMT_GLOBALHEADER)
+                codecContext.flags(codecContext.flags() | avcodec.AV_CODEC_FLAG_GLOBAL_HEADER);
 
+            Map<String, String> encoderOptions = openEncoder(codecContext, codec, profile, options);
 
-        // pull in options
-        AVDictionary optionDictionary = new AVDictionary();
-        for (Map.Entry<String,String> option : options.entrySet()) {
+            // Only once the encoder has accepted its settings, so that a rejected one leaves no empty stream behind
+            AVStream stream = avformat.avformat_new_stream(formatContext, codec);
+            if (stream == null) throw new FFmpegException("could not create audio substream");
+
+            stream.id(formatContext.nb_streams() - 1);
+
+            // Includes extradata (i.e. the AudioSpecificConfig AAC needs in most containers) and the encoder's padding
             FFmpegError.checkError(
-                    "av_dict_set/" + option.getKey(),
-                    avutil.av_dict_set(optionDictionary, option.getKey(), option.getValue(), 0)
+                    "avcodec_parameters_from_context",
+                    avcodec.avcodec_parameters_from_context(stream.codecpar(), codecContext)
             );
+
+            FFmpegAudioTargetSubstream audioTargetSubstream = new FFmpegAudioTargetSubstream(
+                    this,
+                    stream,
+                    codecContext,
+                    encoderOptions
+            );
+
+            substreams.add(audioTargetSubstream);
+
+            return audioTargetSubstream;
+        } catch (FFmpegException | RuntimeException ex) {
+            avcodec.avcodec_free_context(codecContext);
+            throw ex;
         }
+    }
+
+    /**
+     * Registers a substream that muxes already encoded packets without re-encoding them (stream copy).
+     * @param parameters codec parameters of the packets, i.e. those of the stream they were read from.
+     * @param timeBase time base of the packets' timestamps.
+     */
+    public FFmpegCopyTargetSubstream registerCopySubstream(AVCodecParameters parameters, AVRational timeBase)
+            throws FFmpegException {
+        AVStream stream = avformat.avformat_new_stream(formatContext, null);
+        if (stream == null) throw new FFmpegException("could not create copy substream");
+
+        stream.id(formatContext.nb_streams() - 1);
 
         FFmpegError.checkError(
-                "avcodec_open2",
-                avcodec.avcodec_open2(codecContext, codec, optionDictionary)
+                "avcodec_parameters_copy",
+                avcodec.avcodec_parameters_copy(stream.codecpar(), parameters)
         );
 
-        stream.codecpar().codec_id(codec.id());
-        stream.codecpar().format(sampleFormat);
-        stream.codecpar().sample_rate(sample_rate);
-        stream.codecpar().channels(channels);
-        stream.codecpar().channel_layout(channel_layout);
-        stream.codecpar().codec_type(codec.type());
-        stream.codecpar().frame_size(codecContext.frame_size());
-
-        FFmpegAudioTargetSubstream audioTargetSubstream = new FFmpegAudioTargetSubstream(
-                this,
-                stream,
-                codecContext
-        );
+        // The source container's codec tag may mean nothing (or something else) in this one
+        stream.codecpar().codec_tag(0);
+        stream.time_base(timeBase);
+
+        FFmpegCopyTargetSubstream copyTargetSubstream = new FFmpegCopyTargetSubstream(this, stream, timeBase);
 
-        substreams.add(audioTargetSubstream);
+        substreams.add(copyTargetSubstream);
 
-        return audioTargetSubstream;
+        return copyTargetSubstream;
+    }
+
+    /**
+     * Applies an encoder profile and raw options to a codec context, and opens it.  The codec context is left to the
+     * caller to free if this fails.
+     * @return every option the encoder consumed: the profile's, then the raw options avcodec_open2() used.
+     */
+    private static Map<String, String> openEncoder(AVCodecContext codecContext, AVCodec codec,
+                                                   EncoderProfile profile,
+                                                   Map<String, String> options) throws FFmpegException {
+        Map<String, String> encoderOptions = new LinkedHashMap<>(profile.apply(codecContext));
+
+        // pull in options
+        AVDictionary optionDictionary = new AVDictionary();
+        try {
+            for (Map.Entry<String,String> option : options.entrySet()) {
+                FFmpegError.checkError(
+                        "av_dict_set/" + option.getKey(),
+                        avutil.av_dict_set(optionDictionary, option.getKey(), option.getValue(), 0)
+                );
+            }
+
+            FFmpegError.checkError(
+                    "avcodec_open2",
+                    avcodec.avcodec_open2(codecContext, codec, optionDictionary)
+            );
+
+            // avcodec_open2 leaves behind the options nothing consumed
+            Set<String> unused = new HashSet<>();
+            AVDictionaryEntry entry = null;
+            while ((entry = avutil.av_dict_get(optionDictionary, "", entry, avutil.AV_DICT_IGNORE_SUFFIX)) != null) {
+                String key = entry.key().getString();
+                unused.add(key);
+                Logging.LOGGER.log(Level.WARNING, "option not used by " + codec.name().getString() + " encoder: " +
+                        key + "=" + entry.value().getString());
+            }
+
+            for (Map.Entry<String,String> option : options.entrySet())
+                if (!unused.contains(option.getKey()))
+                    encoderOptions.put(option.getKey(), option.getValue());
+        } finally {
+            avutil.av_dict_free(optionDictionary);
+        }
+
+        return Collections.unmodifiableMap(encoderOptions);
     }
 
     @Override
@@ -347,21 +489,24 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
         synchronized (closeLock) {
             if (!closed) {
                 try {
-                    // Flush underlying streams
-                    for (MediaTargetSubstream targetSubstream : substreams) {
-                        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "flushing MediaTargetSubstream: " +
-                                targetSubstream.toString() + "...");
-                        targetSubstream.flush();
+                    // A stream closed before its header (i.e. a substream failed to register) was never started
+                    if (headerWritten) {
+                        // Flush underlying streams
+                        for (MediaTargetSubstream targetSubstream : substreams) {
+                            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "flushing MediaTargetSubstream: " +
+                                    targetSubstream.toString() + "...");
+                            targetSubstream.flush();
+                        }
+
+                        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "packetOutput.flush(formatContext)...");
+                        // Flush packet buffer (I/O done at this point)
+                        packetOutput.flush(formatContext);
+
+                        // Write trailer to file
+                        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "packetOutput.writeTrailer(formatContext)...");
+                        packetOutput.writeTrailer(formatContext);
                     }
 
-                    Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "packetOutput.flush(formatContext)...");
-                    // Flush packet buffer (I/O done at this point)
-                    packetOutput.flush(formatContext);
-
-                    // Write trailer to file
-                    Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_write_trailer...");
-                    avformat.av_write_trailer(getFormatContext());
-
                     // Close output connection/file (may do nothing)
                     Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "packetOutput.close()...");
                     packetOutput.close();
@@ -400,6 +545,19 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
         return substreams;
     }
 
+    /**
+     * Gets the live statistics of every encoding substream (see EncoderStatistics), in the order they were
+     * registered.  Substreams that don't encode (i.e. stream copies) have none.
+     */
+    public List<EncoderStatistics> getEncoderStatistics() {
+        List<EncoderStatistics> statistics = new ArrayList<>();
+        for (MediaTargetSubstream substream : substreams)
+            if (substream instanceof FFmpegEncoderContext)
+                statistics.add(((FFmpegEncoderContext) substream).getStatistics());
+
+        return Collections.unmodifiableList(statistics);
+    }
+
     public void writePacket(AVPacket packet) throws FFmpegException, EOFException {
         if (packet == null || packet.isNull())
         {
@@ -410,15 +568,16 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
         else if ((packet.flags() & avcodec.AV_PKT_FLAG_CORRUPT) == avcodec.AV_PKT_FLAG_CORRUPT)
             throw new FFmpegException("failed to write packet: corrupt flag is set");
 
-        if (!packetOutput.writePacket(formatContext, packet))
-            return; // Packet wasn't written.
-
-        // Calculate duration and stream position, etc
-        getFormatContext().duration((int) Math.max(getFormatContext().duration(), packet.pts() + packet.duration()));
+        // The muxer works out the duration of the file itself
+        synchronized (writeLock) {
+            packetOutput.writePacket(formatContext, packet);
+        }
     }
 
     public void flush() throws FFmpegException {
-        packetOutput.flush(formatContext);
+        synchronized (writeLock) {
+            packetOutput.flush(formatContext);
+        }
     }
 
     public int getPixelFormat() {
@@ -429,9 +588,113 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
         this.pixelFormat = pixelFormat;
     }
 
+    /**
+     * Gets the options passed to the muxer when the header is written.
+     */
+    public Map<String, String> getMuxerOptions() {
+        return Collections.unmodifiableMap(muxerOptions);
+    }
+
+    /**
+     * Sets an option passed to the muxer (avformat_write_header()) when the header is written, i.e. "movflags" for
+     * mp4.  Options the muxer doesn't use are logged.
+     * @param key option name.
+     * @param value option value, or null to remove the option.
+     */
+    public void setMuxerOption(String key, String value) {
+        if (value == null) muxerOptions.remove(key);
+        else muxerOptions.put(key, value);
+    }
+
+    public int getScalerThreads() {
+        return scalerThreads;
+    }
+
+    /**
+     * Sets how many threads video substreams registered after this call use to convert frames to the encoder's pixel
+     * format (see FFmpegVideoTargetSubstream.setScalerThreads).
+     * @param scalerThreads number of threads.
+     */
+    public void setScalerThreads(int scalerThreads) {
+        if (scalerThreads <= 0) throw new IllegalArgumentException("scalerThreads must be positive");
+        this.scalerThreads = scalerThreads;
+    }
+
+    public ScalerSettings getScalerSettings() {
+        return scalerSettings;
+    }
+
+    /**
+     * Sets the algorithm and options video substreams registered after this call use to convert frames to the
+     * encoder's pixel format (see FFmpegVideoTargetSubstream.setScalerSettings).
+     * @param scalerSettings scaler settings; ScalerSettings.DEFAULT is bilinear.
+     */
+    public void setScalerSettings(ScalerSettings scalerSettings) {
+        if (scalerSettings == null) throw new NullPointerException("scalerSettings");
+        this.scalerSettings = scalerSettings;
+    }
+
+    /**
+     * Gives streams without a time base the one avformat_write_header() would have, for packet outputs that mux
+     * somewhere else and never write this stream's header (see FFmpegSegmentOutput); substreams rescale their packets
+     * to it.
+     */
+    static void setDefaultTimeBases(AVFormatContext formatContext) {
+        for (int i = 0; i < formatContext.nb_streams(); i++) {
+            AVStream stream = formatContext.streams(i);
+            AVCodecParameters parameters = stream.codecpar();
+
+            if (stream.time_base().num() != 0) continue;
+
+            if (parameters.codec_type() == avutil.AVMEDIA_TYPE_AUDIO && parameters.sample_rate() > 0)
+                stream.time_base(avutil.av_make_q(1, parameters.sample_rate()));
+            else
+                stream.time_base(avutil.av_make_q(1, 90000));
+        }
+    }
+
     public interface FFmpegPacketOutput extends AutoCloseable {
+        /**
+         * Called once every substream is registered, before the first packet is written.  Writes the container's
+         * header by default; outputs that mux somewhere else (see FFmpegSegmentOutput) don't.
+         * @param options muxer options (see setMuxerOption).
+         */
+        default void writeHeader(AVFormatContext formatContext, Map<String, String> options) throws FFmpegException {
+            AVDictionary optionDictionary = new AVDictionary();
+            try {
+                for (Map.Entry<String,String> option : options.entrySet()) {
+                    FFmpegError.checkError(
+                            "av_dict_set/" + option.getKey(),
+                            avutil.av_dict_set(optionDictionary, option.getKey(), option.getValue(), 0)
+                    );
+                }
+
+                FFmpegError.checkError(
+                        "avformat_write_header",
+                        avformat.avformat_write_header(formatContext, optionDictionary)
+                );
+
+                // avformat_write_header leaves behind the options nothing consumed
+                AVDictionaryEntry entry = null;
+                while ((entry = avutil.av_dict_get(optionDictionary, "", entry, avutil.AV_DICT_IGNORE_SUFFIX)) != null)
+                    Logging.LOGGER.log(Level.WARNING, "option not used by " +
+                            formatContext.oformat().name().getString() + " muxer: " +
+                            entry.key().getString() + "=" + entry.value().getString());
+            } finally {
+                avutil.av_dict_free(optionDictionary);
+            }
+        }
+
         boolean writePacket(AVFormatContext formatContext, AVPacket packet) throws FFmpegException, EOFException;
 
+        /**
+         * Called when the stream is closed, after every substream and this output have been flushed.  Writes the
+         * container's trailer by default.
+         */
+        default void writeTrailer(AVFormatContext formatContext) throws FFmpegException {
+            avformat.av_write_trailer(formatContext);
+        }
+
         default void flush(AVFormatContext formatContext) throws FFmpegException {
             // Do nothing
         }
@@ -447,8 +710,6 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
                 throws FFmpegException, EOFException {
             if (packet.size() == 0) return false; // Skip packet.
 
-            if (packet.dts() < 0) packet.dts(0);
-
             int ret = avformat.av_interleaved_write_frame(formatContext, packet);
             if (ret == -31) // Broken pipe
                 throw new EOFException();
@@ -466,4 +727,193 @@ public class FFmpegTargetStream extends TargetStream implements FFmpegFormatCont
             );
         }
     }
+
+    /**
+     * Writes packets straight to the muxer with av_write_frame(), as they come, without av_interleaved_write_frame()'s
+     * buffering and sorting.  Only for outputs with a single stream (i.e. audio-only), whose packets are already in
+     * order; use FFmpegNativeOutput, or FFmpegBatchedOutput, to interleave several streams.
+     */
+    public static class FFmpegDirectOutput implements FFmpegPacketOutput {
+        @Override
+        public boolean writePacket(AVFormatContext formatContext, AVPacket packet)
+                throws FFmpegException, EOFException {
+            if (packet.size() == 0) return false; // Skip packet.
+
+            if (formatContext.nb_streams() != 1)
+                throw new FFmpegException("direct output needs a single stream, but there are " +
+                        formatContext.nb_streams());
+
+            int ret = avformat.av_write_frame(formatContext, packet);
+            if (ret == -31) // Broken pipe
+                throw new EOFException();
+
+            FFmpegError.checkError("av_write_frame(formatContext, packet)", ret);
+
+            return true;
+        }
+
+        @Override
+        public void flush(AVFormatContext formatContext) throws FFmpegException {
+            if (formatContext.pb() != null) avformat.avio_flush(formatContext.pb());
+        }
+    }
+
+    /**
+     * Holds packets back until they span a flush interval (in stream time), then writes them all at once with
+     * av_write_frame(), sorted by decoding time, and flushes the I/O once for the whole batch instead of after every
+     * packet.  Packets are only interleaved within a batch, so each stream's packets must still be written in order,
+     * and streams shouldn't drift apart by more than the interval.
+     */
+    public static class FFmpegBatchedOutput implements FFmpegPacketOutput {
+        /**
+         * Default flush interval, in seconds.
+         */
+        public static final double DEFAULT_INTERVAL = 0.5D;
+
+        /**
+         * Default maximum number of packets held back, whatever the interval.
+         */
+        public static final int DEFAULT_MAXIMUM_PACKETS = 1024;
+
+        private final double interval;
+        private final int maximumPackets;
+
+        // Packets are referenced into these, which are allocated once and reused for every batch
+        private final List<BatchedPacket> packets = new ArrayList<>();
+        private int batchSize = 0;
+        private double batchStart;
+        private long batches = 0L;
+
+        // Time of the last packet of each stream, which a packet without a dts is ordered by
+        private double[] streamTimes;
+
+        private AVFormatContext formatContext;
+
+        public FFmpegBatchedOutput() {
+            this(DEFAULT_INTERVAL, DEFAULT_MAXIMUM_PACKETS);
+        }
+
+        /**
+         * @param interval stream time, in seconds, a batch spans before it is written.
+         * @param maximumPackets number of packets a batch holds before it is written, however short it is.
+         */
+        public FFmpegBatchedOutput(double interval, int maximumPackets) {
+            if (interval < 0D) throw new IllegalArgumentException("interval < 0: " + interval);
+            if (maximumPackets <= 0) throw new IllegalArgumentException("maximumPackets <= 0: " + maximumPackets);
+
+            this.interval = interval;
+            this.maximumPackets = maximumPackets;
+        }
+
+        public double getInterval() {
+            return interval;
+        }
+
+        public int getMaximumPackets() {
+            return maximumPackets;
+        }
+
+        /**
+         * Gets the number of batches written so far.
+         */
+        public long getBatches() {
+            return batches;
+        }
+
+        @Override
+        public boolean writePacket(AVFormatContext formatContext, AVPacket packet)
+                throws FFmpegException, EOFException {
+            if (packet.size() == 0) return false; // Skip packet.
+
+            if (this.formatContext == null) {
+                this.formatContext = formatContext;
+                this.streamTimes = new double[formatContext.nb_streams()];
+
+                // The I/O is flushed once per batch instead
+                formatContext.flush_packets(0);
+            }
+
+            // A packet without a dts, e.g. one copied from a source without them, stays right after the last one of its stream
+            int streamIndex = packet.stream_index();
+            double time = packet.dts() == avutil.AV_NOPTS_VALUE ? streamTimes[streamIndex] :
+                    packet.dts() * avutil.av_q2d(formatContext.streams(streamIndex).time_base());
+            streamTimes[streamIndex] = time;
+
+            if (batchSize == 0) batchStart = time;
+
+            if (batchSize == packets.size()) {
+                AVPacket batchPacket = avcodec.av_packet_alloc();
+                if (batchPacket == null) throw new OutOfMemoryError("av_packet_alloc");
+                packets.add(new BatchedPacket(batchPacket));
+            }
+
+            BatchedPacket batchedPacket = packets.get(batchSize);
+            FFmpegError.checkError("av_packet_ref", avcodec.av_packet_ref(batchedPacket.packet, packet));
+            batchedPacket.time = time;
+            batchSize++;
+
+            if (batchSize >= maximumPackets || time - batchStart >= interval)
+                writeBatch(formatContext);
+
+            return true;
+        }
+
+        private void writeBatch(AVFormatContext formatContext) throws FFmpegException, EOFException {
+            if (batchSize == 0) return;
+
+            List<BatchedPacket> batch = packets.subList(0, batchSize);
+            try {
+                // Stable, so packets of the same stream keep their order
+                batch.sort(DECODING_ORDER);
+
+                for (BatchedPacket batchedPacket : batch) {
+                    int ret = avformat.av_write_frame(formatContext, batchedPacket.packet);
+                    if (ret == -31) // Broken pipe
+                        throw new EOFException();
+
+                    FFmpegError.checkError("av_write_frame(formatContext, packet)", ret);
+                }
+            } finally {
+                for (BatchedPacket batchedPacket : batch)
+                    avcodec.av_packet_unref(batchedPacket.packet);
+
+                batchSize = 0;
+            }
+
+            if (formatContext.pb() != null) avformat.avio_flush(formatContext.pb());
+
+            batches++;
+        }
+
+        @Override
+        public void flush(AVFormatContext formatContext) throws FFmpegException {
+            try {
+                writeBatch(formatContext);
+            } catch (EOFException e) {
+                throw new FFmpegException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            for (BatchedPacket batchedPacket : packets)
+                avcodec.av_packet_free(batchedPacket.packet);
+
+            packets.clear();
+        }
+
+        private static final Comparator<BatchedPacket> DECODING_ORDER = Comparator.comparingDouble(p -> p.time);
+
+        /**
+         * A packet held back in a batch, with the time it is written in order of.
+         */
+        private static final class BatchedPacket {
+            private final AVPacket packet;
+            private double time;
+
+            private BatchedPacket(AVPacket packet) {
+                this.packet = packet;
+            }
+        }
+    }
 }
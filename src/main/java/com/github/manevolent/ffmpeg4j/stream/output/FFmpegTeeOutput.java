@@ -0,0 +1,233 @@
+package com.github.manevolent.ffmpeg4j.stream.output;
+
+import com.github.manevolent.ffmpeg4j.FFmpegError;
+import com.github.manevolent.ffmpeg4j.FFmpegException;
+import com.github.manevolent.ffmpeg4j.Logging;
+import com.github.manevolent.ffmpeg4j.output.FFmpegCopyTargetSubstream;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avformat.*;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Writes a target stream's packets to several sinks (i.e. an archive file and a live stream), each muxed on its own by
+ * a target stream with its own format and I/O.  Packets are encoded once and handed to every sink by reference
+ * (av_packet_ref), without copying their data.
+ *
+ * The target stream itself is never written to: it only holds the encoders' streams, which each sink is opened with.
+ * Open it on null I/O, in a format that wants the same headers from encoders as the sinks' formats do (i.e. mp4,
+ * matroska or nut if any sink needs global headers):
+ *
+ *   FFmpegTeeOutput tee = new FFmpegTeeOutput();
+ *   tee.addSink(FFmpegIO.openChannel(archive).asOutput().open("nut"));
+ *   tee.addSink(FFmpegIO.openOutputStream(client).openFragmentedMp4());
+ *   FFmpegTargetStream targetStream = FFmpegIO.createNullIO().asOutput().open("nut", tee);
+ *
+ * A sink that fails is closed and dropped, and the others carry on; only once every sink has failed does writing
+ * fail.
+ */
+public class FFmpegTeeOutput implements FFmpegTargetStream.FFmpegPacketOutput {
+    /**
+     * One of the streams packets are written to.
+     */
+    public static final class Sink {
+        private final FFmpegTargetStream targetStream;
+        private FFmpegCopyTargetSubstream[] substreams;
+        private volatile Throwable error;
+        private volatile long writtenPackets = 0L;
+        private boolean closed;
+
+        private Sink(FFmpegTargetStream targetStream) {
+            this.targetStream = targetStream;
+        }
+
+        public FFmpegTargetStream getTargetStream() {
+            return targetStream;
+        }
+
+        /**
+         * Gets what made this sink fail, or null if it hasn't.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        /**
+         * Gets the number of packets written to this sink so far.
+         */
+        public long getWrittenPackets() {
+            return writtenPackets;
+        }
+    }
+
+    private final List<Sink> sinks = new ArrayList<>();
+
+    // Each sink gets its own reference to a packet through this
+    private AVPacket packet;
+
+    private boolean started;
+
+    /**
+     * Adds a sink.  Sinks are opened with the target stream's streams as its header is written, so they must be added
+     * before then, and have no substreams of their own.
+     * @param targetStream target stream to write packets to; it is closed by this output.
+     * @return the sink.
+     */
+    public Sink addSink(FFmpegTargetStream targetStream) {
+        if (targetStream == null) throw new NullPointerException("targetStream");
+        if (started) throw new IllegalStateException("header already written");
+        if (!targetStream.getSubstreams().isEmpty()) throw new IllegalArgumentException("sink already has substreams");
+
+        Sink sink = new Sink(targetStream);
+        sinks.add(sink);
+        return sink;
+    }
+
+    public List<Sink> getSinks() {
+        return Collections.unmodifiableList(sinks);
+    }
+
+    private void fail(Sink sink, Throwable error) {
+        Logging.LOGGER.log(Level.WARNING, "FFmpegTeeOutput: sink " + sinks.indexOf(sink) + " failed", error);
+        sink.error = error;
+        closeSink(sink);
+    }
+
+    private void closeSink(Sink sink) {
+        if (sink.closed) return;
+        sink.closed = true;
+
+        try {
+            sink.targetStream.close();
+        } catch (Exception ex) {
+            if (sink.error == null) {
+                Logging.LOGGER.log(Level.WARNING, "FFmpegTeeOutput: sink " + sinks.indexOf(sink) + " failed", ex);
+                sink.error = ex;
+            } else {
+                Logging.LOGGER.log(Level.WARNING, "FFmpegTeeOutput: problem closing failed sink " +
+                        sinks.indexOf(sink), ex);
+            }
+        }
+    }
+
+    private void checkAlive() throws FFmpegException {
+        for (Sink sink : sinks)
+            if (!sink.isFailed()) return;
+
+        FFmpegException ex = new FFmpegException("every sink failed");
+        for (Sink sink : sinks)
+            ex.addSuppressed(sink.getError());
+        throw ex;
+    }
+
+    @Override
+    public void writeHeader(AVFormatContext formatContext, Map<String, String> options) throws FFmpegException {
+        if (sinks.isEmpty()) throw new FFmpegException("no sinks");
+        started = true;
+
+        packet = avcodec.av_packet_alloc();
+        if (packet == null) throw new OutOfMemoryError("av_packet_alloc");
+
+        // Sinks get headers of their own
+        FFmpegTargetStream.setDefaultTimeBases(formatContext);
+
+        for (Sink sink : sinks) {
+            try {
+                sink.substreams = new FFmpegCopyTargetSubstream[formatContext.nb_streams()];
+                for (int i = 0; i < sink.substreams.length; i++) {
+                    AVStream stream = formatContext.streams(i);
+                    sink.substreams[i] = sink.targetStream.registerCopySubstream(stream.codecpar(), stream.time_base());
+                }
+
+                // The sink's own muxer options take precedence
+                for (Map.Entry<String, String> option : options.entrySet())
+                    if (!sink.targetStream.getMuxerOptions().containsKey(option.getKey()))
+                        sink.targetStream.setMuxerOption(option.getKey(), option.getValue());
+
+                sink.targetStream.writeFFmpegHeader();
+            } catch (Exception ex) {
+                fail(sink, ex);
+            }
+        }
+
+        checkAlive();
+    }
+
+    @Override
+    public boolean writePacket(AVFormatContext formatContext, AVPacket packet) throws FFmpegException, EOFException {
+        if (packet.size() == 0) return false; // Skip packet.
+
+        boolean written = false;
+
+        for (Sink sink : sinks) {
+            if (sink.isFailed()) continue;
+
+            try {
+                FFmpegError.checkError("av_packet_ref", avcodec.av_packet_ref(this.packet, packet));
+                sink.substreams[packet.stream_index()].write(this.packet);
+                sink.writtenPackets++;
+                written = true;
+            } catch (Exception ex) {
+                fail(sink, ex);
+            } finally {
+                // The muxer may have taken the reference already
+                avcodec.av_packet_unref(this.packet);
+            }
+        }
+
+        if (!written) checkAlive();
+
+        return written;
+    }
+
+    @Override
+    public void flush(AVFormatContext formatContext) throws FFmpegException {
+        for (Sink sink : sinks) {
+            if (sink.isFailed()) continue;
+
+            try {
+                sink.targetStream.flush();
+            } catch (Exception ex) {
+                fail(sink, ex);
+            }
+        }
+
+        checkAlive();
+    }
+
+    @Override
+    public void writeTrailer(AVFormatContext formatContext) throws FFmpegException {
+        // Closing a sink writes its trailer
+        for (Sink sink : sinks)
+            closeSink(sink);
+
+        checkAlive();
+    }
+
+    @Override
+    public void close() throws Exception {
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegTeeOutput.close() called");
+
+        // Only if the target stream failed before its trailer
+        for (Sink sink : sinks)
+            closeSink(sink);
+
+        if (packet != null) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_packet_free(packet)...");
+            avcodec.av_packet_free(packet);
+            packet = null;
+        }
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegTeeOutput.close() completed");
+    }
+}
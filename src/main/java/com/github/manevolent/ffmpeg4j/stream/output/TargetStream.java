@@ -1,6 +1,5 @@
 package com.github.manevolent.ffmpeg4j.stream.output;
 
-import com.github.manevolent.ffmpeg4j.MediaType;
 import com.github.manevolent.ffmpeg4j.output.AudioTargetSubstream;
 import com.github.manevolent.ffmpeg4j.output.MediaTargetSubstream;
 import com.github.manevolent.ffmpeg4j.output.VideoTargetSubstream;
@@ -24,14 +23,14 @@ public abstract class TargetStream extends Stream<MediaTargetSubstream> {
     public AudioTargetSubstream getAudioTargetStream() {
         return (AudioTargetSubstream)
                 getSubstreams().stream()
-                        .filter(x -> x.getType() == MediaType.AUDIO)
+                        .filter(x -> x instanceof AudioTargetSubstream)
                         .findFirst().orElse(null);
     }
 
     public VideoTargetSubstream getVideoTargetStream() {
         return (VideoTargetSubstream)
                 getSubstreams().stream()
-                        .filter(x -> x.getType() == MediaType.VIDEO)
+                        .filter(x -> x instanceof VideoTargetSubstream)
                         .findFirst().orElse(null);
     }
 }
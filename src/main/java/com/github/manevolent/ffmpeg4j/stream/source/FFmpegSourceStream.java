@@ -2,6 +2,8 @@ package com.github.manevolent.ffmpeg4j.stream.source;
 
 import com.github.manevolent.ffmpeg4j.*;
 import com.github.manevolent.ffmpeg4j.output.MediaTargetSubstream;
+import com.github.manevolent.ffmpeg4j.pool.FrameBufferPool;
+import com.github.manevolent.ffmpeg4j.scale.ScalerSettings;
 import com.github.manevolent.ffmpeg4j.source.FFmpegAudioSourceSubstream;
 import com.github.manevolent.ffmpeg4j.source.FFmpegDecoderContext;
 import com.github.manevolent.ffmpeg4j.source.FFmpegVideoSourceSubstream;
@@ -29,12 +31,19 @@ public class FFmpegSourceStream extends SourceStream implements FFmpegFormatCont
     private final Object readLock = new Object();
 
     private boolean registered = false;
+    private boolean drained = false;
     private volatile boolean closed = false;
     private final Object closeLock = new Object();
 
     private double position = -1D;
 
     private int pixelFormat = avutil.AV_PIX_FMT_RGB24;
+    private boolean nativeFrames = false;
+    private int outputWidth = 0, outputHeight = 0;
+    private AudioFormat audioOutputFormat = null;
+    private int scalerThreads = 1;
+    private ScalerSettings scalerSettings = ScalerSettings.DEFAULT;
+    private FrameBufferPool frameBufferPool = FrameBufferPool.NONE;
 
     private final AVCodecContext.Get_format_AVCodecContext_IntPointer get_format_callback =
             new AVCodecContext.Get_format_AVCodecContext_IntPointer() {
@@ -197,6 +206,84 @@ public class FFmpegSourceStream extends SourceStream implements FFmpegFormatCont
         throw new EOFException();
     }
 
+    /**
+     * Finds if the underlying I/O context supports random access (i.e. it was opened with FFmpegIO.openInputChannel).
+     * @return true if seekToKeyframe() can be used, false otherwise.
+     */
+    public boolean isSeekable() {
+        AVIOContext pb = getFormatContext().pb();
+        return pb != null && !pb.isNull() && (pb.seekable() & avformat.AVIO_SEEKABLE_NORMAL) != 0;
+    }
+
+    /**
+     * Seeks the container to the nearest keyframe at or before the specified position.  Unlike seek(), this can
+     * move backwards, but it requires a seekable input.  All decoders are flushed and any buffered frames are
+     * discarded.
+     * @param position position to seek to, in seconds.
+     * @throws IOException
+     */
+    public void seekToKeyframe(double position) throws IOException {
+        if (!isSeekable())
+            throw new IOException("input is not seekable");
+
+        synchronized (readLock) {
+            try {
+                if (!registered) registerStreams();
+
+                long timestamp = (long) (position * (double) avutil.AV_TIME_BASE);
+                FFmpegError.checkError(
+                        "av_seek_frame",
+                        avformat.av_seek_frame(input.getContext(), -1, timestamp, avformat.AVSEEK_FLAG_BACKWARD)
+                );
+            } catch (FFmpegException ex) {
+                throw new IOException(ex);
+            }
+
+            try {
+                for (FFmpegDecoderContext substream : substreams) {
+                    if (substream == null) continue;
+                    substream.resetDecoder();
+                }
+            } catch (FFmpegException ex) {
+                throw new IOException(ex);
+            }
+
+            drained = false;
+
+            for (MediaSourceSubstream substream : substreamList)
+                substream.flush();
+
+            this.position = position;
+        }
+    }
+
+    /**
+     * Reads the next packet from the container without decoding it.  This is the fastest way to walk a file, as no
+     * decoders are involved.
+     * @param packet Packet to read into.  The caller must unreference it (av_packet_unref) when finished.
+     * @return true if a packet was read, false if the end of the stream was reached.
+     * @throws FFmpegException
+     */
+    public boolean readRawPacket(AVPacket packet) throws FFmpegException {
+        int result;
+
+        synchronized (readLock) {
+            for (;;) {
+                result = avformat.av_read_frame(input.getContext(), packet);
+                if (result != avutil.AVERROR_EAGAIN()) {
+                    break;
+                }
+            }
+        }
+
+        if (result == avutil.AVERROR_EOF) return false;
+        else if (result == avutil.AVERROR_ENOMEM()) throw new OutOfMemoryError();
+
+        FFmpegError.checkError("av_read_frame", result);
+
+        return true;
+    }
+
     @Override
     public void setCreatedTime(double createdTimeInSeconds) {
         input.getContext().start_time_realtime((long) (createdTimeInSeconds * 1000000D));
@@ -212,6 +299,117 @@ public class FFmpegSourceStream extends SourceStream implements FFmpegFormatCont
         this.pixelFormat = pixelFormat;
     }
 
+    /**
+     * Gets the width video substreams scale decoded frames to, or 0 to keep each stream's own width.
+     */
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    /**
+     * Gets the height video substreams scale decoded frames to, or 0 to keep each stream's own height.
+     */
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * Sets the size video substreams produce frames at.  Decoded frames are scaled in the same pass that converts
+     * them to the output pixel format, which is cheaper than decoding at full size and rescaling afterwards (i.e.
+     * with FFmpegVideoRescaleFilter).
+     * @param outputWidth output width, or 0 to keep each stream's own size.
+     * @param outputHeight output height, or 0 to keep each stream's own size.
+     */
+    public void setOutputSize(int outputWidth, int outputHeight) {
+        if (registered) throw new IllegalStateException("already registered substreams");
+        if (outputWidth < 0 || outputHeight < 0 || (outputWidth == 0) != (outputHeight == 0))
+            throw new IllegalArgumentException("invalid output size: " + outputWidth + "x" + outputHeight);
+
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+    }
+
+    /**
+     * Gets the format audio substreams convert decoded audio to, or null to keep each stream's own rate and layout.
+     */
+    public AudioFormat getAudioOutputFormat() {
+        return audioOutputFormat;
+    }
+
+    /**
+     * Sets the format audio substreams convert decoded audio to (see FFmpegAudioSourceSubstream).  The conversion is
+     * done by the resampler every decoder already has, which is cheaper than resampling afterwards (i.e. with
+     * FFmpegAudioResampleFilter).
+     * @param audioOutputFormat output format; a sample rate or channel layout of 0 keeps each stream's own.  Null (the
+     *                          default) keeps each stream's own rate and layout, in floats.
+     */
+    public void setAudioOutputFormat(AudioFormat audioOutputFormat) {
+        if (registered) throw new IllegalStateException("already registered substreams");
+
+        this.audioOutputFormat = audioOutputFormat;
+    }
+
+    public boolean isNativeFrames() {
+        return nativeFrames;
+    }
+
+    /**
+     * Sets whether video substreams keep decoded frames in native memory (see FFmpegVideoFrame) instead of copying
+     * them into byte arrays.
+     * @param nativeFrames true to decode into native frames.
+     */
+    public void setNativeFrames(boolean nativeFrames) {
+        if (registered) throw new IllegalStateException("already registered substreams");
+
+        this.nativeFrames = nativeFrames;
+    }
+
+    public int getScalerThreads() {
+        return scalerThreads;
+    }
+
+    /**
+     * Sets how many threads video substreams use to convert decoded frames to the output pixel format (see
+     * FFmpegVideoSourceSubstream.setScalerThreads).
+     * @param scalerThreads number of threads.
+     */
+    public void setScalerThreads(int scalerThreads) {
+        if (registered) throw new IllegalStateException("already registered substreams");
+        if (scalerThreads <= 0) throw new IllegalArgumentException("scalerThreads must be positive");
+
+        this.scalerThreads = scalerThreads;
+    }
+
+    public ScalerSettings getScalerSettings() {
+        return scalerSettings;
+    }
+
+    /**
+     * Sets the algorithm and options video substreams use to convert decoded frames to the output pixel format
+     * (see FFmpegVideoSourceSubstream.setScalerSettings).
+     * @param scalerSettings scaler settings; ScalerSettings.DEFAULT is bilinear.
+     */
+    public void setScalerSettings(ScalerSettings scalerSettings) {
+        if (registered) throw new IllegalStateException("already registered substreams");
+        if (scalerSettings == null) throw new NullPointerException("scalerSettings");
+        this.scalerSettings = scalerSettings;
+    }
+
+    public FrameBufferPool getFrameBufferPool() {
+        return frameBufferPool;
+    }
+
+    /**
+     * Sets the pool that substreams allocate decoded frame buffers from (see MediaSourceSubstream.setFrameBufferPool).
+     * @param frameBufferPool pool to use.
+     */
+    public void setFrameBufferPool(FrameBufferPool frameBufferPool) {
+        if (registered) throw new IllegalStateException("already registered substreams");
+        if (frameBufferPool == null) throw new NullPointerException("frameBufferPool");
+
+        this.frameBufferPool = frameBufferPool;
+    }
+
     @Override
     public Packet readPacket() throws IOException {
         try {
@@ -233,7 +431,10 @@ public class FFmpegSourceStream extends SourceStream implements FFmpegFormatCont
 
                 try {
                     // Manual EOF checking here because an EOF is very important to the upper layers.
-                    if (result == avutil.AVERROR_EOF) throw new EOFException("pos: " + getPosition() + "s");
+                    if (result == avutil.AVERROR_EOF) {
+                        drainDecoders();
+                        throw new EOFException("pos: " + getPosition() + "s");
+                    }
                     else if (result == avutil.AVERROR_ENOMEM()) throw new OutOfMemoryError();
 
                     FFmpegError.checkError("av_read_frame", result);
@@ -279,6 +480,20 @@ public class FFmpegSourceStream extends SourceStream implements FFmpegFormatCont
         }
     }
 
+    /**
+     * Drains every decoder once the end of the stream is reached, so that the frames they hold back (and the samples
+     * audio resamplers hold back) are queued on their substreams before EOF is reported.
+     */
+    private void drainDecoders() throws FFmpegException {
+        if (drained) return;
+        drained = true;
+
+        for (FFmpegDecoderContext substream : substreams) {
+            if (substream == null || !substream.isDecoding()) continue;
+            substream.drainDecoder();
+        }
+    }
+
     private static AVCodecContext newCodecContext(AVCodec codec, AVCodecParameters parameters) throws FFmpegException {
         AVCodecContext context = avcodec.avcodec_alloc_context3(codec);
         if (context == null) {
@@ -306,9 +521,16 @@ public class FFmpegSourceStream extends SourceStream implements FFmpegFormatCont
                         this,
                         stream,
                         newCodecContext(codec, stream.codecpar()),
-                        getPixelFormat()
+                        getPixelFormat(),
+                        outputWidth > 0 ? outputWidth : stream.codecpar().width(),
+                        outputHeight > 0 ? outputHeight : stream.codecpar().height()
                 );
 
+                videoSourceStream.setNativeFrames(isNativeFrames());
+                videoSourceStream.setFrameBufferPool(getFrameBufferPool());
+                videoSourceStream.setScalerThreads(getScalerThreads());
+                videoSourceStream.setScalerSettings(getScalerSettings());
+
                 substreamList.add(videoSourceStream);
                 decoderContext = videoSourceStream;
                 break;
@@ -316,9 +538,12 @@ public class FFmpegSourceStream extends SourceStream implements FFmpegFormatCont
                 FFmpegAudioSourceSubstream audioSourceStream = new FFmpegAudioSourceSubstream(
                         this,
                         stream,
-                        newCodecContext(codec, stream.codecpar())
+                        newCodecContext(codec, stream.codecpar()),
+                        getAudioOutputFormat()
                 );
 
+                audioSourceStream.setFrameBufferPool(getFrameBufferPool());
+
                 substreamList.add(audioSourceStream);
                 decoderContext = audioSourceStream;
                 break;
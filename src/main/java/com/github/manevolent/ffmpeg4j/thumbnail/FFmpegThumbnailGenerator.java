@@ -0,0 +1,444 @@
+package com.github.manevolent.ffmpeg4j.thumbnail;
+
+import com.github.manevolent.ffmpeg4j.FFmpeg;
+import com.github.manevolent.ffmpeg4j.FFmpegError;
+import com.github.manevolent.ffmpeg4j.FFmpegException;
+import com.github.manevolent.ffmpeg4j.Logging;
+import com.github.manevolent.ffmpeg4j.source.FFmpegVideoSourceSubstream;
+import com.github.manevolent.ffmpeg4j.source.MediaSourceSubstream;
+import com.github.manevolent.ffmpeg4j.stream.source.FFmpegSourceStream;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avformat.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+import org.bytedeco.ffmpeg.swscale.*;
+import org.bytedeco.javacpp.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Generates poster frames and sprite sheets from a video source stream.  Only keyframes are decoded: on seekable
+ * inputs the generator seeks directly to each requested position, otherwise it scans the container for the
+ * keyframes nearest to each position.  Each decoded frame is scaled straight into its tile of the sprite sheet in a
+ * single sws_scale pass, and the sheet is then encoded with an FFmpeg image encoder (mjpeg, png, etc.)
+ *
+ * The source stream is consumed by the generator; it should not be read from afterwards.
+ */
+public class FFmpegThumbnailGenerator implements AutoCloseable {
+    /**
+     * Area averaging is the best trade-off for large downscaling ratios, which is the typical thumbnail case.
+     */
+    private static final int SCALE_FLAGS = swscale.SWS_AREA;
+
+    private final FFmpegSourceStream sourceStream;
+    private final FFmpegVideoSourceSubstream substream;
+
+    private final AVPacket packet;
+    private final AVPacket previousPacket;
+    private final AVFrame decodedFrame;
+    private final PointerPointer tilePointers;
+
+    private SwsContext sws;
+    private double decodedPosition = Double.NaN;
+
+    private boolean closed = false;
+
+    public FFmpegThumbnailGenerator(FFmpegSourceStream sourceStream) throws FFmpegException {
+        this.sourceStream = sourceStream;
+
+        FFmpegVideoSourceSubstream videoSubstream = null;
+        for (MediaSourceSubstream substream : sourceStream.registerStreams()) {
+            if (substream instanceof FFmpegVideoSourceSubstream) {
+                videoSubstream = (FFmpegVideoSourceSubstream) substream;
+                break;
+            }
+        }
+
+        if (videoSubstream == null)
+            throw new FFmpegException("source stream has no video substream");
+
+        this.substream = videoSubstream;
+
+        this.packet = avcodec.av_packet_alloc();
+        if (packet == null) throw new NullPointerException("av_packet_alloc");
+        this.previousPacket = avcodec.av_packet_alloc();
+        if (previousPacket == null) throw new NullPointerException("av_packet_alloc");
+        this.decodedFrame = avutil.av_frame_alloc();
+        if (decodedFrame == null) throw new NullPointerException("av_frame_alloc");
+
+        this.tilePointers = new PointerPointer(AVFrame.AV_NUM_DATA_POINTERS);
+    }
+
+    /**
+     * Generates a single poster frame from the middle of the video.
+     * @param width poster width, in pixels.
+     * @param height poster height, in pixels, or -1 to preserve the aspect ratio of the video.
+     * @param codecName image encoder name ("mjpeg", "png", etc.)
+     * @return encoded poster image.
+     */
+    public SpriteSheet generatePoster(int width, int height, String codecName)
+            throws FFmpegException, IOException {
+        return generate(1, 1, width, height, codecName);
+    }
+
+    /**
+     * Generates a sprite sheet of thumbnails taken at evenly spaced positions throughout the video.
+     * @param count number of thumbnails to generate.
+     * @param columns number of thumbnails per row of the sheet.
+     * @param tileWidth thumbnail width, in pixels.
+     * @param tileHeight thumbnail height, in pixels, or -1 to preserve the aspect ratio of the video.
+     * @param codecName image encoder name ("mjpeg", "png", etc.)
+     * @return encoded sprite sheet.
+     */
+    public SpriteSheet generate(int count, int columns, int tileWidth, int tileHeight, String codecName)
+            throws FFmpegException, IOException {
+        if (count <= 0) throw new IllegalArgumentException("count <= 0: " + count);
+        if (columns <= 0) throw new IllegalArgumentException("columns <= 0: " + columns);
+        if (tileWidth <= 0) throw new IllegalArgumentException("tileWidth <= 0: " + tileWidth);
+
+        AVCodec codec = avcodec.avcodec_find_encoder_by_name(codecName);
+        if (codec == null) throw new FFmpegException("unrecognized image codec: " + codecName);
+        if (codec.pix_fmts() == null || codec.pix_fmts().isNull())
+            throw new FFmpegException("codec does not declare any pixel formats: " + codecName);
+
+        // The first pixel format listed is the encoder's preferred format (i.e. yuvj420p for mjpeg)
+        int pixelFormat = codec.pix_fmts().get(0);
+
+        if (tileHeight <= 0) {
+            AVCodecParameters codecParameters = substream.getStream().codecpar();
+            tileHeight = (int) Math.round(
+                    (double) tileWidth * (double) codecParameters.height() / (double) codecParameters.width()
+            );
+        }
+
+        // Tiles must land on chroma sample boundaries so they can be addressed in subsampled planes.
+        AVPixFmtDescriptor descriptor = avutil.av_pix_fmt_desc_get(pixelFormat);
+        tileWidth = align(tileWidth, 1 << descriptor.log2_chroma_w());
+        tileHeight = align(tileHeight, 1 << descriptor.log2_chroma_h());
+
+        int rows = (count + columns - 1) / columns;
+        if (count < columns) columns = count;
+
+        double duration = getDuration();
+        double[] targets = new double[count];
+        for (int i = 0; i < count; i++)
+            targets[i] = duration * ((double) i + 0.5D) / (double) count;
+
+        double[] positions = new double[count];
+
+        AVFrame sheet = avutil.av_frame_alloc();
+        if (sheet == null) throw new NullPointerException("av_frame_alloc");
+
+        try {
+            sheet.format(pixelFormat);
+            sheet.width(columns * tileWidth);
+            sheet.height(rows * tileHeight);
+            FFmpegError.checkError("av_frame_get_buffer", avutil.av_frame_get_buffer(sheet, 0));
+            fillBlack(sheet);
+
+            AVFormatContext formatContext = sourceStream.getFormatContext();
+            int videoIndex = substream.getStream().index();
+            int[] discard = new int[formatContext.nb_streams()];
+            AVCodecContext codecContext = substream.getCodecContext();
+            int skipFrame = codecContext.skip_frame();
+
+            try {
+                // Only keyframes are wanted, so let the demuxer and decoder skip everything else.
+                for (int i = 0; i < discard.length; i++) {
+                    AVStream stream = formatContext.streams(i);
+                    discard[i] = stream.discard();
+                    stream.discard(i == videoIndex ? avcodec.AVDISCARD_NONKEY : avcodec.AVDISCARD_ALL);
+                }
+
+                codecContext.skip_frame(avcodec.AVDISCARD_NONKEY);
+
+                if (sourceStream.isSeekable())
+                    seekTiles(sheet, targets, positions, columns, tileWidth, tileHeight);
+                else
+                    scanTiles(sheet, targets, positions, columns, tileWidth, tileHeight);
+            } finally {
+                for (int i = 0; i < discard.length; i++)
+                    formatContext.streams(i).discard(discard[i]);
+
+                codecContext.skip_frame(skipFrame);
+                avcodec.avcodec_flush_buffers(codecContext);
+                avutil.av_frame_unref(decodedFrame);
+                avcodec.av_packet_unref(previousPacket);
+                decodedPosition = Double.NaN;
+            }
+
+            byte[] data = encode(codec, sheet);
+
+            return new SpriteSheet(data, codecName, columns, rows, tileWidth, tileHeight, positions);
+        } finally {
+            avutil.av_frame_free(sheet);
+        }
+    }
+
+    /**
+     * Seeks directly to the keyframe at or before each target position.  Used for seekable inputs.
+     */
+    private void seekTiles(AVFrame sheet, double[] targets, double[] positions,
+                           int columns, int tileWidth, int tileHeight) throws FFmpegException, IOException {
+        double startTime = getStartTime();
+
+        for (int i = 0; i < targets.length; i++) {
+            sourceStream.seekToKeyframe(startTime + targets[i]);
+
+            while (sourceStream.readRawPacket(packet)) {
+                try {
+                    if (!isVideoKeyframe(packet)) continue;
+
+                    decodeKeyframe(packet);
+                    break;
+                } finally {
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+
+            // At the end of the stream, the last keyframe decoded (if any) is the nearest one.
+            if (!Double.isNaN(decodedPosition)) {
+                drawTile(sheet, i, columns, tileWidth, tileHeight);
+                positions[i] = decodedPosition;
+            }
+        }
+    }
+
+    /**
+     * Scans the container once, front to back, decoding the keyframe nearest to each target position.  Used for
+     * non-seekable inputs, such as InputStreams.
+     */
+    private void scanTiles(AVFrame sheet, double[] targets, double[] positions,
+                           int columns, int tileWidth, int tileHeight) throws FFmpegException {
+        double previousPosition = Double.NaN;
+        int next = 0;
+
+        while (next < targets.length && sourceStream.readRawPacket(packet)) {
+            try {
+                if (!isVideoKeyframe(packet)) continue;
+
+                double position = getPosition(packet);
+
+                while (next < targets.length && targets[next] <= position) {
+                    boolean usePrevious = !Double.isNaN(previousPosition) &&
+                            targets[next] - previousPosition < position - targets[next];
+
+                    if (usePrevious) {
+                        if (decodedPosition != previousPosition) decodeKeyframe(previousPacket);
+                    } else if (decodedPosition != position) {
+                        decodeKeyframe(packet);
+                    }
+
+                    drawTile(sheet, next, columns, tileWidth, tileHeight);
+                    positions[next] = decodedPosition;
+                    next++;
+                }
+
+                // Hold a reference to this keyframe; the next target may be closer to it than to the next keyframe.
+                avcodec.av_packet_unref(previousPacket);
+                FFmpegError.checkError("av_packet_ref", avcodec.av_packet_ref(previousPacket, packet));
+                previousPosition = position;
+            } finally {
+                avcodec.av_packet_unref(packet);
+            }
+        }
+
+        // Targets beyond the last keyframe use the last keyframe
+        if (next < targets.length && !Double.isNaN(previousPosition)) {
+            if (decodedPosition != previousPosition) decodeKeyframe(previousPacket);
+
+            for (; next < targets.length; next++) {
+                drawTile(sheet, next, columns, tileWidth, tileHeight);
+                positions[next] = decodedPosition;
+            }
+        }
+    }
+
+    private boolean isVideoKeyframe(AVPacket packet) {
+        return packet.stream_index() == substream.getStream().index() &&
+                (packet.flags() & avcodec.AV_PKT_FLAG_KEY) == avcodec.AV_PKT_FLAG_KEY &&
+                packet.size() > 0;
+    }
+
+    /**
+     * Decodes a single keyframe packet in isolation into decodedFrame.
+     * @param packet keyframe packet.
+     */
+    private void decodeKeyframe(AVPacket packet) throws FFmpegException {
+        AVCodecContext codecContext = substream.getCodecContext();
+
+        avcodec.avcodec_flush_buffers(codecContext);
+        avutil.av_frame_unref(decodedFrame);
+        decodedPosition = Double.NaN;
+
+        FFmpegError.checkError("avcodec_send_packet", avcodec.avcodec_send_packet(codecContext, packet));
+
+        // Enter draining mode so that decoders with reordering delay give up the frame immediately.
+        FFmpegError.checkError("avcodec_send_packet", avcodec.avcodec_send_packet(codecContext, (AVPacket) null));
+
+        int ret = avcodec.avcodec_receive_frame(codecContext, decodedFrame);
+        if (ret == avutil.AVERROR_EOF || ret == avutil.AVERROR_EAGAIN()) {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "keyframe did not produce a picture; skipping");
+            return;
+        }
+
+        FFmpegError.checkError("avcodec_receive_frame", ret);
+
+        decodedPosition = getPosition(packet);
+    }
+
+    /**
+     * Scales decodedFrame directly into its tile in the sprite sheet.
+     */
+    private void drawTile(AVFrame sheet, int index, int columns, int tileWidth, int tileHeight)
+            throws FFmpegException {
+        sws = swscale.sws_getCachedContext(
+                sws,
+                decodedFrame.width(), decodedFrame.height(), decodedFrame.format(), // source
+                tileWidth, tileHeight, sheet.format(), // destination
+                SCALE_FLAGS,
+                null, null, (DoublePointer) null // filters, params
+        );
+
+        if (sws == null) throw new FFmpegException("failed to allocate scaling context");
+
+        int x = (index % columns) * tileWidth;
+        int y = (index / columns) * tileHeight;
+
+        // Byte offset of the tile's left edge in each plane
+        int[] offsets = new int[4];
+        FFmpegError.checkError("av_image_fill_linesizes", avutil.av_image_fill_linesizes(offsets, sheet.format(), x));
+
+        int chromaShift = avutil.av_pix_fmt_desc_get(sheet.format()).log2_chroma_h();
+        int planes = avutil.av_pix_fmt_count_planes(sheet.format());
+        for (int plane = 0; plane < planes; plane++) {
+            int row = (plane == 1 || plane == 2) ? y >> chromaShift : y;
+            tilePointers.put(plane, new BytePointer(sheet.data(plane))
+                    .position((long) row * sheet.linesize(plane) + offsets[plane]));
+        }
+
+        FFmpegError.checkError("sws_scale", swscale.sws_scale(
+                sws,
+                decodedFrame.data(), decodedFrame.linesize(),
+                0, decodedFrame.height(),
+                tilePointers, sheet.linesize()
+        ));
+    }
+
+    private static void fillBlack(AVFrame frame) throws FFmpegException {
+        SizeTPointer linesizes = new SizeTPointer(AVFrame.AV_NUM_DATA_POINTERS);
+
+        try {
+            for (int plane = 0; plane < AVFrame.AV_NUM_DATA_POINTERS; plane++)
+                linesizes.put(plane, frame.linesize(plane));
+
+            FFmpegError.checkError("av_image_fill_black", avutil.av_image_fill_black(
+                    frame.data(), linesizes,
+                    frame.format(), avutil.AVCOL_RANGE_JPEG,
+                    frame.width(), frame.height()
+            ));
+        } finally {
+            linesizes.deallocate();
+        }
+    }
+
+    private static byte[] encode(AVCodec codec, AVFrame image) throws FFmpegException {
+        AVCodecContext codecContext = avcodec.avcodec_alloc_context3(codec);
+        if (codecContext == null) throw new FFmpegException("Failed to allocate AVCodecContext");
+
+        AVPacket packet = avcodec.av_packet_alloc();
+        if (packet == null) throw new NullPointerException("av_packet_alloc");
+
+        try {
+            codecContext.width(image.width());
+            codecContext.height(image.height());
+            codecContext.pix_fmt(image.format());
+            codecContext.time_base(avutil.av_make_q(1, 1));
+
+            FFmpegError.checkError(
+                    "avcodec_open2",
+                    avcodec.avcodec_open2(codecContext, codec, (AVDictionary) null)
+            );
+
+            image.pts(0);
+            FFmpegError.checkError("avcodec_send_frame", avcodec.avcodec_send_frame(codecContext, image));
+            FFmpegError.checkError("avcodec_send_frame", avcodec.avcodec_send_frame(codecContext, null));
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[0];
+
+            while (true) {
+                int ret = avcodec.avcodec_receive_packet(codecContext, packet);
+                if (ret == avutil.AVERROR_EOF) break;
+                FFmpegError.checkError("avcodec_receive_packet", ret);
+
+                try {
+                    if (buffer.length < packet.size()) buffer = new byte[packet.size()];
+                    packet.data().position(0).get(buffer, 0, packet.size());
+                    outputStream.write(buffer, 0, packet.size());
+                } finally {
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+
+            return outputStream.toByteArray();
+        } finally {
+            avcodec.av_packet_free(packet);
+            avcodec.avcodec_free_context(codecContext);
+        }
+    }
+
+    private double getPosition(AVPacket packet) {
+        AVStream stream = substream.getStream();
+        long timestamp = packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+        return FFmpeg.timestampToSeconds(stream.time_base(), timestamp) - getStartTime();
+    }
+
+    private double getStartTime() {
+        AVStream stream = substream.getStream();
+        if (stream.start_time() == avutil.AV_NOPTS_VALUE) return 0D;
+        return FFmpeg.timestampToSeconds(stream.time_base(), stream.start_time());
+    }
+
+    private double getDuration() throws FFmpegException {
+        AVStream stream = substream.getStream();
+        if (stream.duration() != avutil.AV_NOPTS_VALUE && stream.duration() > 0)
+            return FFmpeg.timestampToSeconds(stream.time_base(), stream.duration());
+
+        long duration = sourceStream.getFormatContext().duration();
+        if (duration != avutil.AV_NOPTS_VALUE && duration > 0)
+            return (double) duration / (double) avutil.AV_TIME_BASE;
+
+        throw new FFmpegException("stream duration is unknown");
+    }
+
+    private static int align(int value, int alignment) {
+        return Math.max(alignment, (value + alignment - 1) / alignment * alignment);
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("already closed");
+            }
+
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegThumbnailGenerator.close() called");
+
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "sws_freeContext(sws)...");
+            swscale.sws_freeContext(sws);
+
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_frame_free(decodedFrame)...");
+            avutil.av_frame_free(decodedFrame);
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "av_packet_free(packet)...");
+            avcodec.av_packet_free(packet);
+            avcodec.av_packet_free(previousPacket);
+
+            tilePointers.deallocate();
+
+            closed = true;
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "FFmpegThumbnailGenerator.close() completed");
+        }
+    }
+}
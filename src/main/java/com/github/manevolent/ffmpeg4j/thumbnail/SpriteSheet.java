@@ -0,0 +1,88 @@
+package com.github.manevolent.ffmpeg4j.thumbnail;
+
+/**
+ * Represents an encoded image made up of a grid of equally sized thumbnails (tiles), read left-to-right and
+ * top-to-bottom.
+ */
+public class SpriteSheet {
+    private final byte[] data;
+    private final String codecName;
+    private final int columns, rows;
+    private final int tileWidth, tileHeight;
+    private final double[] positions;
+
+    public SpriteSheet(byte[] data, String codecName,
+                       int columns, int rows,
+                       int tileWidth, int tileHeight,
+                       double[] positions) {
+        this.data = data;
+        this.codecName = codecName;
+        this.columns = columns;
+        this.rows = rows;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.positions = positions;
+    }
+
+    /**
+     * Gets the encoded image data (i.e. a JPEG or PNG file).
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Gets the name of the FFmpeg encoder used to produce the image ("mjpeg", "png", etc.)
+     */
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getWidth() {
+        return columns * tileWidth;
+    }
+
+    public int getHeight() {
+        return rows * tileHeight;
+    }
+
+    /**
+     * Gets the number of thumbnails in the sheet.
+     */
+    public int getCount() {
+        return positions.length;
+    }
+
+    /**
+     * Gets the position of the frame that was used for a given tile.
+     * @param index tile index (0-indexed)
+     * @return position in the stream, in seconds.
+     */
+    public double getPosition(int index) {
+        return positions[index];
+    }
+
+    public int getTileX(int index) {
+        return (index % columns) * tileWidth;
+    }
+
+    public int getTileY(int index) {
+        return (index / columns) * tileHeight;
+    }
+}
@@ -0,0 +1,377 @@
+package com.github.manevolent.ffmpeg4j.transcoder;
+
+import com.github.manevolent.ffmpeg4j.AudioFrame;
+import com.github.manevolent.ffmpeg4j.Logging;
+import com.github.manevolent.ffmpeg4j.MediaFrame;
+import com.github.manevolent.ffmpeg4j.VideoFrame;
+import com.github.manevolent.ffmpeg4j.filter.audio.AudioFilter;
+import com.github.manevolent.ffmpeg4j.filter.audio.AudioFilterNone;
+import com.github.manevolent.ffmpeg4j.filter.video.VideoFilter;
+import com.github.manevolent.ffmpeg4j.filter.video.VideoFilterNone;
+import com.github.manevolent.ffmpeg4j.output.AudioTargetSubstream;
+import com.github.manevolent.ffmpeg4j.output.VideoTargetSubstream;
+import com.github.manevolent.ffmpeg4j.source.MediaSourceSubstream;
+import com.github.manevolent.ffmpeg4j.stream.output.TargetStream;
+import com.github.manevolent.ffmpeg4j.stream.source.SourceStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+
+/**
+ * Transcodes one source stream to several target streams (i.e. the renditions of an adaptive stream), decoding the
+ * source only once.
+ *
+ * The calling thread decodes; each output gets a thread of its own that filters (i.e. scales) and encodes.  Decoded
+ * frames are shared between outputs by reference, not copied: each output's queue holds a reference to the frame,
+ * which the output releases once it is done with it.  Filters only ever read the frames they are given, so frames
+ * must not be modified once decoded.
+ *
+ * Each output has its own bounded queue.  A slow output only holds up decoding once its queue is full, so the queue
+ * size is how far outputs can drift apart; outputs with room in their queues keep encoding in the meantime.  An
+ * output that fails stops encoding and discards its frames, without holding up the others, and transcode() throws
+ * once every output has finished.
+ */
+public class MultiTranscoder {
+    /**
+     * Default number of frames queued for each output.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 32;
+
+    // Marks the end of an output's queue
+    private static final MediaFrame END = new MediaFrame(0D, 0D, 0D) { };
+
+    private final SourceStream sourceStream;
+    private final int queueSize;
+    private final List<Output> outputs = new ArrayList<>();
+
+    private boolean started;
+
+    public MultiTranscoder(SourceStream sourceStream) {
+        this(sourceStream, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param queueSize number of frames queued for each output before decoding waits for it.
+     */
+    public MultiTranscoder(SourceStream sourceStream, int queueSize) {
+        if (queueSize <= 0) throw new IllegalArgumentException("queueSize <= 0: " + queueSize);
+
+        this.sourceStream = sourceStream;
+        this.queueSize = queueSize;
+    }
+
+    public Output addOutput(TargetStream targetStream) {
+        return addOutput(targetStream, new AudioFilterNone(), new VideoFilterNone());
+    }
+
+    /**
+     * Adds an output.  Its filters are only used by the output's own thread, so every output needs filters of its
+     * own.  The target stream and filters are closed once transcoding finishes.
+     */
+    public Output addOutput(TargetStream targetStream, AudioFilter audioFilter, VideoFilter videoFilter) {
+        synchronized (outputs) {
+            if (started) throw new IllegalStateException("already transcoding");
+
+            Output output = new Output(outputs.size(), targetStream, audioFilter, videoFilter, queueSize);
+            outputs.add(output);
+            return output;
+        }
+    }
+
+    public List<Output> getOutputs() {
+        synchronized (outputs) {
+            return Collections.unmodifiableList(new ArrayList<>(outputs));
+        }
+    }
+
+    public void transcode() throws Exception {
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "MultiTranscoder.transcode() called");
+
+        synchronized (outputs) {
+            if (started) throw new IllegalStateException("already transcoding");
+            if (outputs.isEmpty()) throw new IllegalStateException("no outputs");
+            started = true;
+        }
+
+        Exception decodeException = null;
+
+        try {
+            for (Output output : outputs) {
+                output.audioTargetStream = output.targetStream.getAudioTargetStream();
+                output.videoTargetStream = output.targetStream.getVideoTargetStream();
+                output.thread.start();
+            }
+
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "MultiTranscoder: decoding...");
+            while (!isFailed()) {
+                SourceStream.Packet packet;
+
+                try {
+                    packet = sourceStream.readPacket();
+                } catch (EOFException ex) {
+                    // Decoders are drained at the end of the stream; pass on the frames they still held
+                    for (MediaSourceSubstream<?> remaining : sourceStream.getSubstreams())
+                        dispatch(remaining);
+
+                    break;
+                }
+
+                if (packet != null) dispatch(packet.getSourceStream());
+            }
+
+            for (Output output : outputs)
+                output.queue.put(END);
+        } catch (Exception ex) {
+            decodeException = ex;
+
+            // Outputs may be stuck on a frame that will never come; stop them where they are
+            for (Output output : outputs)
+                output.thread.interrupt();
+        } finally {
+            for (Output output : outputs) {
+                boolean interrupted = false;
+
+                while (output.thread.isAlive()) {
+                    try {
+                        output.thread.join();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                        output.thread.interrupt();
+                    }
+                }
+
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+
+            try {
+                Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "MultiTranscoder: closing source stream...");
+                sourceStream.close();
+            } catch (Exception ex) {
+                Logging.LOGGER.log(Level.WARNING, "Problem closing sourceStream", ex);
+            }
+        }
+
+        Exception exception = decodeException;
+        for (Output output : outputs) {
+            Throwable error = output.getError();
+            if (error == null || error instanceof InterruptedException) continue;
+
+            if (exception == null)
+                exception = new IOException("output " + output.getIndex() + " failed", error);
+            else
+                exception.addSuppressed(error);
+        }
+
+        if (exception != null) throw exception;
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "MultiTranscoder.transcode() completed");
+    }
+
+    private boolean isFailed() {
+        for (Output output : outputs)
+            if (output.getError() == null) return false;
+
+        return true;
+    }
+
+    /**
+     * Hands every frame a substream has decoded to each output that takes its media type.  Outputs get a reference
+     * of their own; this thread's reference is released once every output has one.
+     */
+    private void dispatch(MediaSourceSubstream<?> substream) throws InterruptedException, IOException {
+        for (Object decoded : substream.drain()) {
+            MediaFrame frame = (MediaFrame) decoded;
+            try {
+                for (Output output : outputs) {
+                    if (output.getError() != null || !output.accepts(frame)) continue;
+
+                    frame.retain();
+                    try {
+                        output.queue.put(frame);
+                    } catch (InterruptedException ex) {
+                        frame.release();
+                        throw ex;
+                    }
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * One target stream, with its own filters, queue and thread.
+     */
+    public static final class Output implements Runnable {
+        private final int index;
+        private final TargetStream targetStream;
+        private final AudioFilter audioFilter;
+        private final VideoFilter videoFilter;
+        private final BlockingQueue<MediaFrame> queue;
+        private final Thread thread;
+
+        private AudioTargetSubstream audioTargetStream;
+        private VideoTargetSubstream videoTargetStream;
+
+        private volatile Throwable error;
+        private volatile long writtenFrames = 0L;
+
+        private Output(int index, TargetStream targetStream, AudioFilter audioFilter, VideoFilter videoFilter,
+                       int queueSize) {
+            this.index = index;
+            this.targetStream = targetStream;
+            this.audioFilter = audioFilter;
+            this.videoFilter = videoFilter;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.thread = new Thread(this, "MultiTranscoder-output-" + index);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public TargetStream getTargetStream() {
+            return targetStream;
+        }
+
+        /**
+         * Gets the number of frames written to the target stream so far.
+         */
+        public long getWrittenFrames() {
+            return writtenFrames;
+        }
+
+        /**
+         * Gets the number of decoded frames waiting for this output.
+         */
+        public int getQueuedFrames() {
+            return queue.size();
+        }
+
+        /**
+         * Gets what made this output fail, or null if it hasn't.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        private boolean accepts(MediaFrame frame) {
+            if (frame instanceof AudioFrame) return audioTargetStream != null;
+            if (frame instanceof VideoFrame) return videoTargetStream != null;
+            return false;
+        }
+
+        private void fail(Throwable ex) {
+            Logging.LOGGER.log(Level.WARNING, "MultiTranscoder: output " + index + " failed", ex);
+            if (error == null) error = ex;
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    targetStream.writeHeader();
+                } catch (Throwable ex) {
+                    fail(ex);
+                }
+
+                // A failed output keeps taking frames until the end, so decoding is never held up by its queue
+                MediaFrame frame;
+                while ((frame = queue.take()) != END) {
+                    try {
+                        if (error == null) write(frame);
+                    } catch (Throwable ex) {
+                        fail(ex);
+                    } finally {
+                        frame.release();
+                    }
+                }
+
+                if (error == null) {
+                    Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "MultiTranscoder: flushing output " + index + "...");
+                    flush();
+                }
+            } catch (InterruptedException ex) {
+                // Decoding failed; the transcoder reports that
+                if (error == null) error = ex;
+            } catch (Throwable ex) {
+                fail(ex);
+            } finally {
+                // Frames left behind when this output was interrupted
+                List<MediaFrame> remaining = new ArrayList<>();
+                queue.drainTo(remaining);
+                for (MediaFrame frame : remaining)
+                    if (frame != END) frame.release();
+
+                close();
+            }
+        }
+
+        private void write(MediaFrame frame) throws IOException {
+            if (frame instanceof AudioFrame) {
+                for (AudioFrame filteredFrame : audioFilter.apply((AudioFrame) frame)) {
+                    try {
+                        audioTargetStream.write(filteredFrame);
+                        writtenFrames++;
+                    } finally {
+                        filteredFrame.release();
+                    }
+                }
+            } else if (frame instanceof VideoFrame) {
+                for (VideoFrame filteredFrame : videoFilter.apply((VideoFrame) frame)) {
+                    try {
+                        videoTargetStream.write(filteredFrame);
+                        writtenFrames++;
+                    } finally {
+                        filteredFrame.release();
+                    }
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            for (AudioFrame audioFrame : audioFilter.flush()) {
+                try {
+                    if (audioTargetStream != null) audioTargetStream.write(audioFrame);
+                } finally {
+                    audioFrame.release();
+                }
+            }
+
+            for (VideoFrame videoFrame : videoFilter.flush()) {
+                try {
+                    if (videoTargetStream != null) videoTargetStream.write(videoFrame);
+                } finally {
+                    videoFrame.release();
+                }
+            }
+        }
+
+        private void close() {
+            try {
+                Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "MultiTranscoder: closing output " + index + "...");
+                targetStream.close();
+            } catch (Exception ex) {
+                Logging.LOGGER.log(Level.WARNING, "Problem closing targetStream", ex);
+            }
+
+            try {
+                audioFilter.close();
+            } catch (Exception ex) {
+                Logging.LOGGER.log(Level.WARNING, "Problem closing audioFilter", ex);
+            }
+
+            try {
+                videoFilter.close();
+            } catch (Exception ex) {
+                Logging.LOGGER.log(Level.WARNING, "Problem closing videoFilter", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,727 @@
+package com.github.manevolent.ffmpeg4j.transcoder;
+
+import com.github.manevolent.ffmpeg4j.FFmpegException;
+import com.github.manevolent.ffmpeg4j.FFmpegIO;
+import com.github.manevolent.ffmpeg4j.Logging;
+import com.github.manevolent.ffmpeg4j.MediaFrame;
+import com.github.manevolent.ffmpeg4j.filter.MediaFilter;
+import com.github.manevolent.ffmpeg4j.filter.audio.AudioFilter;
+import com.github.manevolent.ffmpeg4j.filter.audio.AudioFilterNone;
+import com.github.manevolent.ffmpeg4j.filter.video.VideoFilter;
+import com.github.manevolent.ffmpeg4j.filter.video.VideoFilterNone;
+import com.github.manevolent.ffmpeg4j.output.FFmpegCopyTargetSubstream;
+import com.github.manevolent.ffmpeg4j.output.FFmpegEncoderContext;
+import com.github.manevolent.ffmpeg4j.output.MediaTargetSubstream;
+import com.github.manevolent.ffmpeg4j.source.MediaSourceSubstream;
+import com.github.manevolent.ffmpeg4j.stream.output.FFmpegTargetStream;
+import com.github.manevolent.ffmpeg4j.stream.source.FFmpegSourceStream;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avformat.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Transcodes a single seekable file on several cores, by splitting its video into segments at keyframes.
+ *
+ * The source is first walked without decoding to find its keyframes.  Each segment (a run of GOPs roughly
+ * getSegmentDuration() long) is then transcoded on its own worker thread, with its own source stream seeked to the
+ * segment's first keyframe and its own encoder, into a temporary NUT file.  Audio is cheap next to video, so it is
+ * transcoded in one piece alongside the segments.  Finally the encoded segments are concatenated into the target
+ * stream by stream copy, with their timestamps shifted to follow each other, and interleaved with the audio.
+ *
+ * Segments are cut by frame count: a segment holds the frames decoded from its first keyframe up to the next
+ * segment's.  That is exact for closed GOPs (the usual case; i.e. x264's default); with open GOPs, the frames that
+ * reference across a cut come out wrong.  Every segment must be encoded with the same settings, so the substream
+ * converter and filter factories must return equivalent encoders and filters each time they are called.
+ */
+public class SegmentTranscoder {
+    /**
+     * Default target length of each segment, in seconds.
+     */
+    public static final double DEFAULT_SEGMENT_DURATION = 10D;
+
+    private static final String SEGMENT_FORMAT = "nut";
+
+    /**
+     * Opens the source.  Called once to find keyframes and once for each job, so every call must open the same
+     * content, configured the same way (i.e. pixel format).  Sources must be seekable (see
+     * FFmpegSourceStream.isSeekable()), i.e. opened with FFmpegIO.openInputChannel().
+     */
+    public interface SourceFactory {
+        FFmpegSourceStream open() throws IOException, FFmpegException;
+    }
+
+    private final SourceFactory sourceFactory;
+    private final FFmpegSourceStream.SubstreamConverter converter;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double segmentDuration = DEFAULT_SEGMENT_DURATION;
+    private Supplier<AudioFilter> audioFilterFactory = AudioFilterNone::new;
+    private Supplier<VideoFilter> videoFilterFactory = VideoFilterNone::new;
+    private Path temporaryDirectory;
+    private boolean audioEnabled = true;
+
+    private volatile List<Segment> segments = Collections.emptyList();
+
+    /**
+     * @param sourceFactory opens the source, once for each job.
+     * @param converter registers an encoder for a source substream on a target stream (see
+     *                  FFmpegSourceStream.copyToTargetStream()).  It is called for the video substream of each
+     *                  segment and for the audio substream, and must register an encoder for both; use
+     *                  setAudioEnabled(false) to leave audio out.
+     */
+    public SegmentTranscoder(SourceFactory sourceFactory, FFmpegSourceStream.SubstreamConverter converter) {
+        this.sourceFactory = sourceFactory;
+        this.converter = converter;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets how many segments are transcoded at once; by default, one per core.
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be positive");
+        this.threads = threads;
+    }
+
+    public double getSegmentDuration() {
+        return segmentDuration;
+    }
+
+    /**
+     * Sets the minimum length of a segment, in seconds.  Segments are cut at the first keyframe after this long, so
+     * they are longer when keyframes are far apart.  Shorter segments spread better over many cores; longer ones
+     * spend less time seeking and restarting encoders.
+     */
+    public void setSegmentDuration(double segmentDuration) {
+        if (segmentDuration <= 0D) throw new IllegalArgumentException("segmentDuration must be positive");
+        this.segmentDuration = segmentDuration;
+    }
+
+    /**
+     * Sets what creates the audio filter for the audio job.
+     */
+    public void setAudioFilterFactory(Supplier<AudioFilter> audioFilterFactory) {
+        if (audioFilterFactory == null) throw new NullPointerException("audioFilterFactory");
+        this.audioFilterFactory = audioFilterFactory;
+    }
+
+    /**
+     * Sets what creates the video filter of each segment (i.e. a rescale filter).  Every segment gets its own.
+     */
+    public void setVideoFilterFactory(Supplier<VideoFilter> videoFilterFactory) {
+        if (videoFilterFactory == null) throw new NullPointerException("videoFilterFactory");
+        this.videoFilterFactory = videoFilterFactory;
+    }
+
+    public Path getTemporaryDirectory() {
+        return temporaryDirectory;
+    }
+
+    /**
+     * Sets where encoded segments are kept until they are concatenated; by default, the system's temporary directory.
+     */
+    public void setTemporaryDirectory(Path temporaryDirectory) {
+        this.temporaryDirectory = temporaryDirectory;
+    }
+
+    public boolean isAudioEnabled() {
+        return audioEnabled;
+    }
+
+    /**
+     * Sets whether the source's audio is transcoded along with its video; by default, it is.
+     */
+    public void setAudioEnabled(boolean audioEnabled) {
+        this.audioEnabled = audioEnabled;
+    }
+
+    /**
+     * Gets the segments of the last transcode().
+     */
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Transcodes the source into a target stream.  The target stream must not have any substreams yet: one stream
+     * copy substream is registered for video and one for audio.  It is closed once transcoding finishes.
+     */
+    public void transcode(FFmpegTargetStream targetStream) throws Exception {
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder.transcode() called");
+
+        if (!targetStream.getSubstreams().isEmpty())
+            throw new IllegalStateException("target stream already has substreams");
+
+        Path directory = temporaryDirectory != null ?
+                Files.createTempDirectory(temporaryDirectory, "segments") :
+                Files.createTempDirectory("segments");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Path> files = new ArrayList<>();
+        Exception failure = null;
+
+        try {
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder: finding keyframes...");
+            Probe probe = probe();
+
+            segments = Collections.unmodifiableList(probe.segments);
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder: " + segments.size() + " segments");
+
+            List<Future<?>> futures = new ArrayList<>();
+
+            Path audioFile = null;
+            if (audioEnabled && probe.audioIndex >= 0) {
+                audioFile = directory.resolve("audio." + SEGMENT_FORMAT);
+                files.add(audioFile);
+                Path file = audioFile;
+                futures.add(executor.submit(() -> {
+                    transcodeAudio(probe.audioIndex, file);
+                    return null;
+                }));
+            }
+
+            for (Segment segment : probe.segments) {
+                Path file = directory.resolve("video-" + segment.getIndex() + "." + SEGMENT_FORMAT);
+                files.add(file);
+                futures.add(executor.submit(() -> {
+                    transcodeSegment(probe.videoIndex, segment, file);
+                    return null;
+                }));
+            }
+
+            try {
+                for (Future<?> future : futures)
+                    future.get();
+            } catch (ExecutionException ex) {
+                for (Future<?> future : futures)
+                    future.cancel(true);
+
+                Throwable cause = ex.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                throw ex;
+            }
+
+            Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder: concatenating segments...");
+            concatenate(targetStream, audioFile, files.subList(audioFile != null ? 1 : 0, files.size()));
+        } catch (Exception ex) {
+            failure = ex;
+            throw ex;
+        } finally {
+            // Segments still being written (i.e. after another one failed) can't be deleted until their workers stop
+            executor.shutdownNow();
+            boolean terminated = awaitTermination(executor, failure);
+
+            try {
+                Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder: closing target stream...");
+                targetStream.close();
+            } catch (Exception ex) {
+                Logging.LOGGER.log(Level.WARNING, "Problem closing targetStream", ex);
+            }
+
+            if (terminated) {
+                for (Path file : files)
+                    delete(file, failure);
+                delete(directory, failure);
+            } else {
+                Logging.LOGGER.log(Level.WARNING, "SegmentTranscoder: leaving segments behind in " + directory);
+            }
+        }
+
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder.transcode() completed");
+    }
+
+    /**
+     * Waits for the workers to stop.
+     * @param failure what transcoding failed with, if it did; an interruption is added to it.
+     * @return true if every worker has stopped, false if waiting was interrupted.
+     */
+    private static boolean awaitTermination(ExecutorService executor, Exception failure) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+                Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder: waiting for workers to stop...");
+
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            if (failure != null) failure.addSuppressed(ex);
+            else Logging.LOGGER.log(Level.WARNING, "Interrupted waiting for SegmentTranscoder workers", ex);
+
+            return false;
+        }
+    }
+
+    /**
+     * Deletes a temporary file or directory.  A problem doing so doesn't fail the transcode: it is added to what
+     * transcoding failed with, if it did, or logged.
+     */
+    private static void delete(Path path, Exception failure) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            if (failure != null) failure.addSuppressed(ex);
+            else Logging.LOGGER.log(Level.WARNING, "Problem deleting " + path, ex);
+        }
+    }
+
+    /**
+     * Walks the source's packets, without decoding them, and cuts its video into segments.
+     */
+    private Probe probe() throws Exception {
+        Probe probe = new Probe();
+
+        try (FFmpegSourceStream sourceStream = sourceFactory.open()) {
+            if (!sourceStream.isSeekable())
+                throw new IOException("source is not seekable");
+
+            AVFormatContext formatContext = sourceStream.getFormatContext();
+            probe.videoIndex = avformat.av_find_best_stream(formatContext, avutil.AVMEDIA_TYPE_VIDEO, -1, -1,
+                    (AVCodec) null, 0);
+            probe.audioIndex = avformat.av_find_best_stream(formatContext, avutil.AVMEDIA_TYPE_AUDIO, -1, -1,
+                    (AVCodec) null, 0);
+
+            if (probe.videoIndex < 0) return probe;
+
+            for (int i = 0; i < formatContext.nb_streams(); i++)
+                if (i != probe.videoIndex) formatContext.streams(i).discard(avcodec.AVDISCARD_ALL);
+
+            AVRational timeBase = formatContext.streams(probe.videoIndex).time_base();
+            AVPacket packet = avcodec.av_packet_alloc();
+            if (packet == null) throw new OutOfMemoryError("av_packet_alloc");
+
+            try {
+                long frames = 0L;
+                Segment segment = null;
+                boolean seekPending = false;
+
+                while (sourceStream.readRawPacket(packet)) {
+                    try {
+                        if (packet.stream_index() != probe.videoIndex) continue;
+
+                        long dts = packet.dts() != avutil.AV_NOPTS_VALUE ? packet.dts() : packet.pts();
+                        double time = dts == avutil.AV_NOPTS_VALUE ? 0D : dts * avutil.av_q2d(timeBase);
+
+                        if (seekPending) {
+                            // Seek half a frame past the keyframe, so that rounding can't land the seek on the
+                            // keyframe before
+                            segment.seekPosition += (time - segment.startTime) / 2D;
+                            seekPending = false;
+                        }
+
+                        boolean keyframe = (packet.flags() & avcodec.AV_PKT_FLAG_KEY) == avcodec.AV_PKT_FLAG_KEY;
+                        if (segment == null || (keyframe && time >= segment.startTime + segmentDuration)) {
+                            if (segment != null) segment.frameCount = frames - segment.startFrame;
+
+                            segment = new Segment(probe.segments.size(), time, frames);
+                            // Demuxers seek by presentation time, which is later than the decoding time when
+                            // frames are reordered
+                            segment.seekPosition = packet.pts() != avutil.AV_NOPTS_VALUE ?
+                                    packet.pts() * avutil.av_q2d(timeBase) : time;
+                            seekPending = true;
+                            probe.segments.add(segment);
+                        }
+
+                        frames++;
+                    } finally {
+                        avcodec.av_packet_unref(packet);
+                    }
+                }
+
+                // The last segment runs to the end of the stream
+                if (segment != null) segment.frameCount = frames - segment.startFrame;
+            } finally {
+                avcodec.av_packet_free(packet);
+            }
+        }
+
+        return probe;
+    }
+
+    private void transcodeSegment(int videoIndex, Segment segment, Path file) throws Exception {
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder: transcoding " + segment + "...");
+
+        boolean last = segment.getIndex() == segments.size() - 1;
+
+        try (FFmpegSourceStream sourceStream = openSource(videoIndex)) {
+            // The first segment starts at the start of the stream, wherever its first keyframe is
+            if (segment.getIndex() > 0) sourceStream.seekToKeyframe(segment.seekPosition);
+
+            segment.encodedFrames = transcode(
+                    sourceStream, (MediaSourceSubstream<?>) sourceStream.getSubstream(videoIndex),
+                    file, videoFilterFactory.get(),
+                    last ? Long.MAX_VALUE : segment.getFrameCount(),
+                    segment
+            );
+        }
+    }
+
+    private void transcodeAudio(int audioIndex, Path file) throws Exception {
+        Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "SegmentTranscoder: transcoding audio...");
+
+        try (FFmpegSourceStream sourceStream = openSource(audioIndex)) {
+            transcode(
+                    sourceStream, (MediaSourceSubstream<?>) sourceStream.getSubstream(audioIndex),
+                    file, audioFilterFactory.get(),
+                    Long.MAX_VALUE,
+                    null
+            );
+        }
+    }
+
+    /**
+     * Opens the source, with every stream but one discarded so that nothing else is read or decoded.
+     */
+    private FFmpegSourceStream openSource(int streamIndex) throws IOException, FFmpegException {
+        FFmpegSourceStream sourceStream = sourceFactory.open();
+
+        try {
+            sourceStream.registerStreams();
+
+            AVFormatContext formatContext = sourceStream.getFormatContext();
+            for (int i = 0; i < formatContext.nb_streams(); i++)
+                if (i != streamIndex) formatContext.streams(i).discard(avcodec.AVDISCARD_ALL);
+
+            if (sourceStream.getSubstream(streamIndex) == null)
+                throw new FFmpegException("could not open decoder for stream " + streamIndex);
+
+            return sourceStream;
+        } catch (Throwable ex) {
+            try {
+                sourceStream.close();
+            } catch (Exception closeException) {
+                ex.addSuppressed(closeException);
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Transcodes frames of one substream to a new file.
+     * @param frameLimit number of decoded frames to transcode.
+     * @param segment segment to record the encoder's time base in, or null.
+     * @return number of frames written to the encoder.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends MediaFrame> long transcode(FFmpegSourceStream sourceStream, MediaSourceSubstream<?> substream,
+                                                  Path file, MediaFilter<T> filter, long frameLimit, Segment segment)
+            throws Exception {
+        long decodedFrames = 0L, encodedFrames = 0L;
+
+        FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+                .asOutput().open(SEGMENT_FORMAT);
+
+        try {
+            targetStream.setPixelFormat(sourceStream.getPixelFormat());
+
+            MediaTargetSubstream<T> targetSubstream = (MediaTargetSubstream<T>) converter.convert(substream, targetStream);
+            if (targetSubstream == null)
+                throw new FFmpegException("no encoder registered for " + substream.getMediaType().name().toLowerCase());
+
+            if (segment != null && targetSubstream instanceof FFmpegEncoderContext) {
+                AVRational codecTimeBase = ((FFmpegEncoderContext) targetSubstream).getCodecContext().time_base();
+                segment.codecTimeBase = avutil.av_make_q(codecTimeBase.num(), codecTimeBase.den());
+            }
+
+            targetStream.writeHeader();
+
+            boolean eof = false;
+            while (!eof && decodedFrames < frameLimit) {
+                if (Thread.interrupted()) throw new InterruptedException();
+
+                try {
+                    sourceStream.readPacket();
+                } catch (EOFException ex) {
+                    eof = true; // Drained decoders still queue their last frames
+                }
+
+                for (Object decoded : substream.drain()) {
+                    T frame = (T) decoded;
+                    try {
+                        if (decodedFrames++ >= frameLimit) continue; // The next segment's
+
+                        for (T filteredFrame : filter.apply(frame)) {
+                            try {
+                                targetSubstream.write(filteredFrame);
+                                encodedFrames++;
+                            } finally {
+                                filteredFrame.release();
+                            }
+                        }
+                    } finally {
+                        frame.release();
+                    }
+                }
+            }
+
+            for (T filteredFrame : filter.flush()) {
+                try {
+                    targetSubstream.write(filteredFrame);
+                    encodedFrames++;
+                } finally {
+                    filteredFrame.release();
+                }
+            }
+        } finally {
+            try {
+                targetStream.close();
+            } finally {
+                filter.close();
+            }
+        }
+
+        if (segment != null && segment.codecTimeBase == null)
+            throw new FFmpegException("segments must be encoded by FFmpeg encoders");
+
+        return encodedFrames;
+    }
+
+    /**
+     * Muxes the encoded segments one after the other, interleaved with the audio, into the target stream.
+     */
+    private void concatenate(FFmpegTargetStream targetStream, Path audioFile, List<Path> segmentFiles)
+            throws Exception {
+        List<PacketReader> readers = new ArrayList<>();
+
+        try {
+            if (!segmentFiles.isEmpty()) {
+                PacketReader videoReader = new PacketReader(segmentFiles, segments);
+                videoReader.substream = targetStream.registerCopySubstream(
+                        videoReader.getParameters(), videoReader.getTimeBase());
+                readers.add(videoReader);
+            }
+
+            if (audioFile != null) {
+                PacketReader audioReader = new PacketReader(Collections.singletonList(audioFile), null);
+                audioReader.substream = targetStream.registerCopySubstream(
+                        audioReader.getParameters(), audioReader.getTimeBase());
+                readers.add(audioReader);
+            }
+
+            targetStream.writeHeader();
+
+            for (PacketReader reader : readers)
+                reader.read();
+
+            // Write whichever stream is behind, so the muxer gets packets in the order they are played
+            while (true) {
+                PacketReader next = null;
+                for (PacketReader reader : readers)
+                    if (reader.hasPacket() && (next == null || reader.getTime() < next.getTime()))
+                        next = reader;
+
+                if (next == null) break;
+
+                next.write();
+                next.read();
+            }
+        } finally {
+            for (PacketReader reader : readers)
+                reader.close();
+        }
+    }
+
+    public static final class Segment {
+        private final int index;
+        private final double startTime;
+        private final long startFrame;
+
+        private double seekPosition;
+        private long frameCount;
+        private volatile long encodedFrames;
+        private volatile AVRational codecTimeBase;
+
+        private Segment(int index, double startTime, long startFrame) {
+            this.index = index;
+            this.startTime = startTime;
+            this.startFrame = startFrame;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Gets the decoding time of the segment's first keyframe, in seconds.
+         */
+        public double getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Gets the number of video frames in the source before this segment.
+         */
+        public long getStartFrame() {
+            return startFrame;
+        }
+
+        /**
+         * Gets the number of video frames this segment takes from the source.
+         */
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Gets the number of frames the segment's encoder was given, after filtering.
+         */
+        public long getEncodedFrames() {
+            return encodedFrames;
+        }
+
+        @Override
+        public String toString() {
+            return "segment " + index + " (" + startTime + "s, " + frameCount + " frames)";
+        }
+    }
+
+    private static final class Probe {
+        private int videoIndex = -1;
+        private int audioIndex = -1;
+        private final List<Segment> segments = new ArrayList<>();
+    }
+
+    /**
+     * Reads the packets of one stream from a sequence of files, shifting each file's timestamps to follow the last.
+     */
+    private static final class PacketReader implements AutoCloseable {
+        private final List<Path> files;
+        private final List<Segment> segments;
+        private final AVPacket packet;
+
+        private FFmpegCopyTargetSubstream substream;
+        private FFmpegSourceStream sourceStream;
+        private int fileIndex = -1;
+        private long encodedFrames = 0L; // frames in the files before this one
+        private long offset; // in the current file's time base
+        private AVRational fileTimeBase;
+        private AVRational timeBase; // of the first file, which all packets are rescaled to
+        private boolean hasPacket;
+        private long lastDts = avutil.AV_NOPTS_VALUE;
+
+        private PacketReader(List<Path> files, List<Segment> segments) throws IOException, FFmpegException {
+            this.files = files;
+            this.segments = segments;
+            this.packet = avcodec.av_packet_alloc();
+            if (packet == null) throw new OutOfMemoryError("av_packet_alloc");
+
+            nextFile();
+            this.timeBase = fileTimeBase;
+        }
+
+        private AVCodecParameters getParameters() {
+            return sourceStream.getFormatContext().streams(0).codecpar();
+        }
+
+        private AVRational getTimeBase() {
+            return timeBase;
+        }
+
+        private boolean nextFile() throws IOException, FFmpegException {
+            if (sourceStream != null) {
+                try {
+                    sourceStream.close();
+                } catch (Exception ex) {
+                    throw new IOException(ex);
+                }
+
+                sourceStream = null;
+
+                if (segments != null) {
+                    // Encoders count frames from 0 in every segment, one codec time base unit apart
+                    Segment segment = segments.get(fileIndex);
+                    encodedFrames += segment.getEncodedFrames();
+                }
+            }
+
+            if (++fileIndex >= files.size()) return false;
+
+            sourceStream = FFmpegIO.openInputChannel(Files.newByteChannel(files.get(fileIndex))).open(SEGMENT_FORMAT);
+
+            AVRational streamTimeBase = sourceStream.getFormatContext().streams(0).time_base();
+            fileTimeBase = avutil.av_make_q(streamTimeBase.num(), streamTimeBase.den());
+
+            offset = segments != null ?
+                    avutil.av_rescale_q(encodedFrames, segments.get(fileIndex).codecTimeBase, fileTimeBase) :
+                    0L;
+
+            return true;
+        }
+
+        private void read() throws IOException, FFmpegException {
+            while (!sourceStream.readRawPacket(packet)) {
+                if (!nextFile()) {
+                    hasPacket = false;
+                    return;
+                }
+            }
+
+            if (packet.pts() != avutil.AV_NOPTS_VALUE)
+                packet.pts(avutil.av_rescale_q(packet.pts() + offset, fileTimeBase, timeBase));
+            if (packet.dts() != avutil.AV_NOPTS_VALUE)
+                packet.dts(avutil.av_rescale_q(packet.dts() + offset, fileTimeBase, timeBase));
+            packet.duration(avutil.av_rescale_q(packet.duration(), fileTimeBase, timeBase));
+
+            // Muxers want strictly increasing dts, which rounding at the cuts (or an encoder's last packets) can break
+            if (packet.dts() != avutil.AV_NOPTS_VALUE) {
+                if (lastDts != avutil.AV_NOPTS_VALUE && packet.dts() <= lastDts) {
+                    packet.dts(lastDts + 1);
+                    if (packet.pts() != avutil.AV_NOPTS_VALUE && packet.pts() < packet.dts()) packet.pts(packet.dts());
+                }
+
+                lastDts = packet.dts();
+            }
+
+            hasPacket = true;
+        }
+
+        private boolean hasPacket() {
+            return hasPacket;
+        }
+
+        /**
+         * Gets the time the current packet is decoded at, in seconds.
+         */
+        private double getTime() {
+            long ts = packet.dts() != avutil.AV_NOPTS_VALUE ? packet.dts() : packet.pts();
+            return ts == avutil.AV_NOPTS_VALUE ? 0D : ts * avutil.av_q2d(timeBase);
+        }
+
+        private void write() throws IOException {
+            try {
+                substream.write(packet);
+            } finally {
+                avcodec.av_packet_unref(packet);
+                hasPacket = false;
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            avcodec.av_packet_free(packet);
+
+            if (sourceStream != null) sourceStream.close();
+        }
+    }
+}
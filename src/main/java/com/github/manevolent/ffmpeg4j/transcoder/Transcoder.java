@@ -59,6 +59,10 @@ public class Transcoder {
                 try {
                     substream = handlePacket(sourceStream.readPacket());
                 } catch (EOFException ex) {
+                    // Decoders are drained at the end of the stream; pass on the frames they still held
+                    for (MediaSourceSubstream remaining : sourceStream.getSubstreams())
+                        handleSubstream(remaining);
+
                     break;
                 }
 
@@ -75,12 +79,22 @@ public class Transcoder {
             }
 
             Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "Transcoder: flushing audio filters...");
-            for (AudioFrame audioFrame : audioFilter.flush())
-                targetStream.getAudioTargetStream().write(audioFrame);
+            for (AudioFrame audioFrame : audioFilter.flush()) {
+                try {
+                    targetStream.getAudioTargetStream().write(audioFrame);
+                } finally {
+                    audioFrame.release();
+                }
+            }
 
             Logging.LOGGER.log(Logging.DEBUG_LOG_LEVEL, "Transcoder: flushing video filters...");
-            for (VideoFrame videoFrame : videoFilter.flush())
-                targetStream.getVideoTargetStream().write(videoFrame);
+            for (VideoFrame videoFrame : videoFilter.flush()) {
+                try {
+                    targetStream.getVideoTargetStream().write(videoFrame);
+                } finally {
+                    videoFrame.release();
+                }
+            }
         } finally {
             // Close files
             try {
@@ -120,8 +134,12 @@ public class Transcoder {
         if (packet == null) return null;
 
         MediaSourceSubstream substream = packet.getSourceStream();
+        handleSubstream(substream);
+        return substream;
+    }
 
-        switch (packet.getSourceStream().getMediaType()) {
+    private void handleSubstream(MediaSourceSubstream substream) throws IOException {
+        switch (substream.getMediaType()) {
             case AUDIO:
                 handleSubstream((AudioSourceSubstream) substream);
                 break;
@@ -129,24 +147,42 @@ public class Transcoder {
                 handleSubstream((VideoSourceSubstream) substream);
                 break;
         }
-
-        return substream;
     }
 
     private void handleSubstream(AudioSourceSubstream substream) throws IOException {
         Collection<AudioFrame> audioFrames = substream.drain();
-        if (targetStream.getAudioTargetStream() != null)
-            for (AudioFrame frame : audioFrames)
-                for (AudioFrame filteredFrame : audioFilter.apply(frame))
-                    targetStream.getAudioTargetStream().write(filteredFrame);
+        for (AudioFrame frame : audioFrames) {
+            try {
+                if (targetStream.getAudioTargetStream() != null)
+                    for (AudioFrame filteredFrame : audioFilter.apply(frame)) {
+                        try {
+                            targetStream.getAudioTargetStream().write(filteredFrame);
+                        } finally {
+                            filteredFrame.release();
+                        }
+                    }
+            } finally {
+                frame.release();
+            }
+        }
     }
 
     private void handleSubstream(VideoSourceSubstream substream) throws IOException {
         Collection<VideoFrame> videoFrames = substream.drain();
-        if (targetStream.getVideoTargetStream() != null)
-            for (VideoFrame frame : videoFrames)
-                for (VideoFrame filteredFrame : videoFilter.apply(frame))
-                    targetStream.getVideoTargetStream().write(filteredFrame);
+        for (VideoFrame frame : videoFrames) {
+            try {
+                if (targetStream.getVideoTargetStream() != null)
+                    for (VideoFrame filteredFrame : videoFilter.apply(frame)) {
+                        try {
+                            targetStream.getVideoTargetStream().write(filteredFrame);
+                        } finally {
+                            filteredFrame.release();
+                        }
+                    }
+            } finally {
+                frame.release();
+            }
+        }
     }
 
     public static void convert(SourceStream sourceStream, TargetStream targetStream,
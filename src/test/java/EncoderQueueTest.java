@@ -0,0 +1,191 @@
+import com.github.manevolent.ffmpeg4j.AudioFormat;
+import com.github.manevolent.ffmpeg4j.AudioFrame;
+import com.github.manevolent.ffmpeg4j.output.EncoderQueue;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EncoderQueueTest {
+    private static final AudioFormat FORMAT = new AudioFormat(48000, 1, 0L);
+
+    /**
+     * Encoder that records the frames it encodes, and holds on to the first one until it is let go.
+     */
+    private static class BlockingEncoder implements EncoderQueue.Encoder<AudioFrame> {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch proceed = new CountDownLatch(1);
+        private final List<AudioFrame> encoded = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean flushed;
+
+        @Override
+        public void encode(AudioFrame frame) throws IOException {
+            assertTrue(frame.getReferenceCount() > 0);
+
+            started.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+
+            encoded.add(frame);
+        }
+
+        @Override
+        public void flush() {
+            flushed = true;
+        }
+
+        private void awaitStarted() throws InterruptedException {
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static AudioFrame frame(int index) {
+        return new AudioFrame(index, index, 1D, new float[1], FORMAT);
+    }
+
+    /**
+     * Submits frames the way a substream's writer does: the writer releases its own reference after each write.
+     */
+    private static List<AudioFrame> submit(EncoderQueue<AudioFrame> queue, int count) throws IOException {
+        List<AudioFrame> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            AudioFrame frame = frame(i);
+            frames.add(frame);
+            queue.submit(frame);
+            frame.release();
+        }
+        return frames;
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        BlockingEncoder encoder = new BlockingEncoder();
+        EncoderQueue<AudioFrame> queue = new EncoderQueue<>("test", 2, EncoderQueue.OverflowPolicy.BLOCK, encoder);
+
+        // The first frame is taken by the encoder, which then waits; two more fill the queue
+        List<AudioFrame> frames = submit(queue, 3);
+        encoder.awaitStarted();
+        assertEquals(2, queue.getQueuedFrames());
+
+        Thread writer = new Thread(() -> {
+            try {
+                submit(queue, 1);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+        writer.join(200);
+        assertTrue("writer should be blocked on a full queue", writer.isAlive());
+
+        encoder.proceed.countDown();
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+
+        queue.flush();
+        queue.close();
+
+        assertTrue(encoder.flushed);
+        assertEquals(4, encoder.encoded.size());
+        assertEquals(4, queue.getEncodedFrames());
+        assertEquals(0, queue.getDroppedFrames());
+        assertEquals(frames.subList(0, 3), encoder.encoded.subList(0, 3));
+        for (AudioFrame frame : frames)
+            assertEquals(0, frame.getReferenceCount());
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        BlockingEncoder encoder = new BlockingEncoder();
+        EncoderQueue<AudioFrame> queue = new EncoderQueue<>("test", 2, EncoderQueue.OverflowPolicy.DROP_NEWEST, encoder);
+
+        List<AudioFrame> frames = new ArrayList<>(submit(queue, 1));
+        encoder.awaitStarted();
+        frames.addAll(submit(queue, 4));
+
+        // The encoder is holding frame 0, frames 1 and 2 are queued, and frames 3 and 4 were dropped
+        assertEquals(2, queue.getQueuedFrames());
+        assertEquals(2, queue.getDroppedFrames());
+        assertEquals(0, frames.get(3).getReferenceCount());
+        assertEquals(0, frames.get(4).getReferenceCount());
+
+        encoder.proceed.countDown();
+        queue.flush();
+        queue.close();
+
+        assertEquals(frames.subList(0, 3), encoder.encoded);
+        for (AudioFrame frame : frames)
+            assertEquals(0, frame.getReferenceCount());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        BlockingEncoder encoder = new BlockingEncoder();
+        EncoderQueue<AudioFrame> queue = new EncoderQueue<>("test", 2, EncoderQueue.OverflowPolicy.DROP_OLDEST, encoder);
+
+        List<AudioFrame> frames = new ArrayList<>(submit(queue, 1));
+        encoder.awaitStarted();
+        frames.addAll(submit(queue, 4));
+
+        // The encoder is holding frame 0, frames 1 and 2 made room for frames 3 and 4
+        assertEquals(2, queue.getQueuedFrames());
+        assertEquals(2, queue.getDroppedFrames());
+        assertEquals(0, frames.get(1).getReferenceCount());
+        assertEquals(0, frames.get(2).getReferenceCount());
+
+        encoder.proceed.countDown();
+        queue.flush();
+        queue.close();
+
+        assertEquals(Collections.singletonList(frames.get(0)), encoder.encoded.subList(0, 1));
+        assertEquals(frames.subList(3, 5), encoder.encoded.subList(1, 3));
+        for (AudioFrame frame : frames)
+            assertEquals(0, frame.getReferenceCount());
+    }
+
+    @Test
+    public void testError() throws Exception {
+        EncoderQueue<AudioFrame> queue = new EncoderQueue<>("test", 4, EncoderQueue.OverflowPolicy.BLOCK,
+                new EncoderQueue.Encoder<AudioFrame>() {
+                    @Override
+                    public void encode(AudioFrame frame) throws IOException {
+                        throw new IOException("encoder failed");
+                    }
+
+                    @Override
+                    public void flush() {
+                        fail("a failed queue should not be flushed");
+                    }
+                });
+
+        AudioFrame frame = frame(0);
+        queue.submit(frame);
+        frame.release();
+
+        try {
+            queue.flush();
+            fail("flush() should have thrown");
+        } catch (IOException e) {
+            assertEquals("encoder failed", e.getCause().getMessage());
+        }
+
+        try {
+            submit(queue, 1);
+            fail("submit() should have thrown");
+        } catch (IOException e) {
+            assertNotNull(queue.getError());
+        }
+
+        queue.close();
+        assertEquals(0, frame.getReferenceCount());
+    }
+}
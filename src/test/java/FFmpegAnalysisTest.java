@@ -0,0 +1,145 @@
+import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.analysis.*;
+import com.github.manevolent.ffmpeg4j.output.*;
+import com.github.manevolent.ffmpeg4j.stream.output.*;
+import com.github.manevolent.ffmpeg4j.stream.source.*;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+import org.junit.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.logging.*;
+
+import static org.junit.Assert.*;
+
+public class FFmpegAnalysisTest {
+
+    @BeforeClass
+    public static void setupLogLevel() {
+        Logging.DEBUG_LOG_LEVEL = Level.INFO;
+    }
+
+    private static MediaReport analyze(String resourceName, String format) throws Exception {
+        InputStream resource = FFmpegAnalysisTest.class.getResourceAsStream(resourceName);
+        try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(resource).open(format)) {
+            return new FFmpegPacketAnalyzer(sourceStream).analyze();
+        }
+    }
+
+    @Test
+    public void testAnalyze() throws Exception {
+        MediaReport report = analyze("/sample-mp4-file-small.mp4", "mp4");
+
+        assertEquals(2, report.getStreams().size());
+        assertTrue(report.getDuration() > 29D && report.getDuration() < 32D);
+        assertEquals(report.getContainerDuration(), report.getDuration(), 1D);
+
+        StreamReport video = report.getStreams().stream()
+                .filter(stream -> stream.getMediaType() == MediaType.VIDEO)
+                .findFirst().orElseThrow(() -> new AssertionError("No video stream, but was expected"));
+
+        assertEquals("h264", video.getCodecName());
+        assertTrue(video.getPacketCount() > 0);
+        assertTrue(video.getKeyframeCount() > 0);
+
+        // Every video packet belongs to exactly one GOP
+        long gopPackets = 0;
+        for (int length : video.getGopLengths()) gopPackets += length;
+        assertEquals(video.getKeyframeCount(), video.getGopLengths().length);
+        assertEquals(video.getPacketCount(), gopPackets);
+
+        // Every packet is counted once in the size histogram, and once in the bitrate buckets
+        long histogramPackets = 0;
+        for (long count : video.getPacketSizeHistogram()) histogramPackets += count;
+        assertEquals(video.getPacketCount(), histogramPackets);
+
+        double bucketBytes = 0D;
+        for (double bitrate : video.getBitrates()) bucketBytes += bitrate * video.getBucketDuration() / 8D;
+        assertEquals((double) video.getTotalBytes(), bucketBytes, 1D);
+        assertEquals(Math.ceil(video.getDuration()), video.getBitrates().length, 1D);
+
+        assertTrue(video.getMinimumPacketSize() <= video.getAveragePacketSize());
+        assertTrue(video.getMaximumPacketSize() >= video.getAveragePacketSize());
+        assertTrue(video.getPeakBitrate() >= video.getAverageBitrate());
+
+        // A well-formed file has monotonic timestamps with no gaps
+        assertEquals(0, report.getDiscontinuities().size());
+    }
+
+    @Test
+    public void testAnalyze_Ogg() throws Exception {
+        MediaReport report = analyze("/example.ogg", "ogg");
+
+        StreamReport audio = report.getStreams().stream()
+                .filter(stream -> stream.getMediaType() == MediaType.AUDIO)
+                .findFirst().orElseThrow(() -> new AssertionError("No audio stream, but was expected"));
+
+        assertTrue(audio.getPacketCount() > 0);
+        assertTrue(audio.getAverageBitrate() > 0D);
+        assertEquals(0, audio.getGopLengths().length);
+    }
+
+    @Test
+    public void testAnalyze_Gap() throws Exception {
+        // 20ms PCM packets, the second half of which have a broken pts, far past the first half
+        int sampleRate = 48_000, frameSize = 960, packets = 100;
+        long jump = 1L << 50;
+
+        Path tempFile = Files.createTempFile("temp-audio", null);
+        AVCodecParameters parameters = avcodec.avcodec_parameters_alloc();
+        AVPacket packet = avcodec.av_packet_alloc();
+        try {
+            parameters.codec_type(avutil.AVMEDIA_TYPE_AUDIO);
+            parameters.codec_id(avcodec.AV_CODEC_ID_PCM_S16LE);
+            parameters.format(avutil.AV_SAMPLE_FMT_S16);
+            parameters.sample_rate(sampleRate);
+            parameters.channels(2);
+            parameters.channel_layout(avutil.AV_CH_LAYOUT_STEREO);
+            parameters.block_align(4);
+
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            FFmpegCopyTargetSubstream substream = targetStream.registerCopySubstream(parameters, avutil.av_make_q(1, sampleRate));
+            targetStream.writeHeader();
+
+            for (int i = 0; i < packets; i++) {
+                FFmpegError.checkError("av_new_packet", avcodec.av_new_packet(packet, frameSize * 4));
+                packet.flags(avcodec.AV_PKT_FLAG_KEY);
+                packet.duration(frameSize);
+                packet.pts((long) i * frameSize + (i >= packets / 2 ? jump : 0L));
+                packet.dts(packet.pts());
+
+                substream.write(packet);
+                avcodec.av_packet_unref(packet);
+            }
+
+            targetStream.close();
+
+            MediaReport report;
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("nut")) {
+                report = new FFmpegPacketAnalyzer(sourceStream).analyze();
+            }
+
+            // The jump is reported where it happened
+            assertEquals(1, report.getDiscontinuities().size());
+            TimestampDiscontinuity discontinuity = report.getDiscontinuities().get(0);
+            assertEquals(TimestampDiscontinuity.Type.GAP, discontinuity.getType());
+            assertEquals(packets / 2, discontinuity.getPacketNumber());
+            assertEquals((double) jump / sampleRate, discontinuity.getDelta(), 1D);
+
+            // ... and the bitrates carry on across it, covering the 2 seconds the stream plays for
+            StreamReport audio = report.getStreams().get(0);
+            assertEquals(packets, audio.getPacketCount());
+            assertEquals(2, audio.getBitrates().length);
+
+            double bucketBytes = 0D;
+            for (double bitrate : audio.getBitrates()) bucketBytes += bitrate * audio.getBucketDuration() / 8D;
+            assertEquals((double) audio.getTotalBytes(), bucketBytes, 1D);
+        } finally {
+            avcodec.av_packet_free(packet);
+            avcodec.avcodec_parameters_free(parameters);
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
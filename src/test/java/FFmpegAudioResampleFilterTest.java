@@ -0,0 +1,113 @@
+import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.filter.audio.*;
+import org.bytedeco.ffmpeg.global.*;
+import org.junit.*;
+
+import java.util.*;
+import java.util.logging.*;
+
+import static org.junit.Assert.*;
+
+public class FFmpegAudioResampleFilterTest {
+
+    @BeforeClass
+    public static void setupLogLevel() {
+        Logging.DEBUG_LOG_LEVEL = Level.INFO;
+    }
+
+    @Test
+    public void testResample_LargeFramesAndFlush() throws Exception {
+        AudioFormat input = new AudioFormat(8_000, 2, avutil.AV_CH_LAYOUT_STEREO);
+        AudioFormat output = new AudioFormat(48_000, 2, avutil.AV_CH_LAYOUT_STEREO);
+
+        // A small initial buffer, fed frames much larger than it and upsampled by 6x
+        int frameSamples = 8_000, frames = 3;
+        long resampled = 0;
+
+        try (FFmpegAudioResampleFilter filter = new FFmpegAudioResampleFilter(input, output, 256)) {
+            for (int i = 0; i < frames; i++) {
+                float[] samples = new float[frameSamples * 2];
+                for (int j = 0; j < frameSamples; j++)
+                    samples[j * 2] = samples[j * 2 + 1] = (float) Math.sin(j * 2D * Math.PI * 440D / 8_000D);
+
+                AudioFrame source = new AudioFrame(i, i, 1D, samples, input);
+                for (AudioFrame frame : filter.apply(source)) {
+                    assertEquals(output, frame.getFormat());
+                    resampled += frame.getLength() / 2;
+                    frame.release();
+                }
+            }
+
+            // Nothing is lost: the resampler's delay comes out when it is flushed
+            long beforeFlush = resampled;
+            for (AudioFrame frame : filter.flush()) {
+                assertEquals((frame.getLength() / 2) / 48_000D, frame.getTime(), 1e-9);
+                resampled += frame.getLength() / 2;
+                frame.release();
+            }
+
+            assertTrue(resampled > beforeFlush);
+            assertEquals(frames * frameSamples * 6, resampled, 1);
+
+            // Flushing again has nothing left to give
+            assertTrue(filter.flush().isEmpty());
+        }
+    }
+
+    @Test
+    public void testResample_Planar() throws Exception {
+        int samples = 4_000;
+        float[] interleaved = new float[samples * 2];
+        float[][] planes = new float[2][samples];
+        for (int i = 0; i < samples; i++) {
+            interleaved[i * 2] = planes[0][i] = (float) Math.sin(i * 2D * Math.PI * 440D / 8_000D);
+            interleaved[i * 2 + 1] = planes[1][i] = (float) Math.cos(i * 2D * Math.PI * 220D / 8_000D);
+        }
+
+        AudioFormat packedInput = new AudioFormat(8_000, 2, avutil.AV_CH_LAYOUT_STEREO);
+        AudioFormat planarInput = new AudioFormat(8_000, 2, avutil.AV_CH_LAYOUT_STEREO, avutil.AV_SAMPLE_FMT_FLTP);
+        AudioFormat packedOutput = new AudioFormat(48_000, 2, avutil.AV_CH_LAYOUT_STEREO);
+        AudioFormat planarOutput = new AudioFormat(48_000, 2, avutil.AV_CH_LAYOUT_STEREO, avutil.AV_SAMPLE_FMT_FLTP);
+
+        float[] expected = resampleAll(new FFmpegAudioResampleFilter(packedInput, packedOutput, 1024),
+                new AudioFrame(0D, 0D, 0.5D, interleaved, packedInput));
+
+        // Planar in, planar out, and each mixed with interleaved: all the same samples
+        assertArrayEquals(expected, resampleAll(new FFmpegAudioResampleFilter(planarInput, planarOutput, 1024),
+                new PlanarAudioFrame(0D, 0D, 0.5D, planes, samples, planarInput)), 1e-6F);
+        assertArrayEquals(expected, resampleAll(new FFmpegAudioResampleFilter(planarInput, packedOutput, 1024),
+                new PlanarAudioFrame(0D, 0D, 0.5D, planes, samples, planarInput)), 1e-6F);
+        assertArrayEquals(expected, resampleAll(new FFmpegAudioResampleFilter(packedInput, planarOutput, 1024),
+                new AudioFrame(0D, 0D, 0.5D, interleaved, packedInput)), 1e-6F);
+    }
+
+    /**
+     * Resamples a frame and flushes the filter, returning every sample produced, interleaved.
+     */
+    private static float[] resampleAll(FFmpegAudioResampleFilter filter, AudioFrame source) throws Exception {
+        List<AudioFrame> frames = new ArrayList<>();
+        try {
+            frames.addAll(filter.apply(source));
+            frames.addAll(filter.flush());
+        } finally {
+            filter.close();
+        }
+
+        int length = 0;
+        for (AudioFrame frame : frames) {
+            assertEquals(filter.getOutputFormat(), frame.getFormat());
+            assertEquals(filter.getOutputFormat().getSampleFormat() == avutil.AV_SAMPLE_FMT_FLTP,
+                    frame instanceof PlanarAudioFrame);
+            length += frame.getLength();
+        }
+
+        float[] samples = new float[length];
+        int position = 0;
+        for (AudioFrame frame : frames) {
+            System.arraycopy(frame.getSamples(), 0, samples, position, frame.getLength());
+            position += frame.getLength();
+        }
+
+        return samples;
+    }
+}
@@ -1,9 +1,11 @@
 import com.github.manevolent.ffmpeg4j.*;
 import com.github.manevolent.ffmpeg4j.source.*;
 import com.github.manevolent.ffmpeg4j.stream.source.*;
+import org.bytedeco.ffmpeg.global.*;
 import org.junit.*;
 
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 import java.util.logging.*;
 
@@ -101,6 +103,304 @@ public class FFmpegInputTest {
     }
 
 
+    @Test
+    public void testVideoFrame_Passthrough() throws Exception {
+        withSampleFile(sourceStream -> {
+            // The sample is already YUV420P, so frames are copied straight out of the decoder
+            sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            sourceStream.registerStreams();
+
+            VideoSourceSubstream vss = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class).stream().findFirst()
+                            .orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+
+            VideoFrame frame = vss.next();
+
+            assertNotNull(frame);
+            assertEquals(avutil.AV_PIX_FMT_YUV420P, frame.getFormat());
+
+            // Y plane, followed by quarter-size U and V planes
+            int lumaSize = frame.getWidth() * frame.getHeight();
+            assertEquals(lumaSize + (lumaSize / 2), frame.getData().length);
+
+            // Every plane should have been copied, not just the first one
+            boolean chromaWritten = false;
+            for (int i = lumaSize; i < frame.getData().length && !chromaWritten; i++)
+                chromaWritten = frame.getData()[i] != 0;
+            assertTrue("Chroma planes should have been copied", chromaWritten);
+        });
+    }
+
+    private static VideoFrame readFirstVideoFrame(int pixelFormat, boolean nativeFrames) throws Exception {
+        return readFirstVideoFrame(pixelFormat, nativeFrames, 0, 0);
+    }
+
+    private static VideoFrame readFirstVideoFrame(int pixelFormat, boolean nativeFrames,
+                                                  int outputWidth, int outputHeight) throws Exception {
+        List<VideoFrame> frames = new ArrayList<>();
+
+        withSampleFile(sourceStream -> {
+            sourceStream.setPixelFormat(pixelFormat);
+            sourceStream.setNativeFrames(nativeFrames);
+            sourceStream.setOutputSize(outputWidth, outputHeight);
+            sourceStream.registerStreams();
+
+            VideoSourceSubstream vss = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class).stream().findFirst()
+                            .orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+
+            frames.add(vss.next());
+        });
+
+        return frames.get(0);
+    }
+
+    @Test
+    public void testVideoFrame_Native() throws Exception {
+        for (int pixelFormat : new int[] { avutil.AV_PIX_FMT_YUV420P, avutil.AV_PIX_FMT_RGB24 }) {
+            VideoFrame heapFrame = readFirstVideoFrame(pixelFormat, false);
+            VideoFrame frame = readFirstVideoFrame(pixelFormat, true);
+
+            assertTrue(frame instanceof FFmpegVideoFrame);
+
+            try (FFmpegVideoFrame nativeFrame = (FFmpegVideoFrame) frame) {
+                assertEquals(pixelFormat, nativeFrame.getFormat());
+                assertEquals(avutil.av_pix_fmt_count_planes(pixelFormat), nativeFrame.getPlaneCount());
+                assertTrue(nativeFrame.getNativePlane(0).isDirect());
+                assertEquals((long) nativeFrame.getNativeLineSize(0) * nativeFrame.getHeight(), nativeFrame.getNativePlane(0).capacity());
+
+                // Copying to the heap should produce exactly what heap decoding produces, laid out the same way
+                assertArrayEquals(heapFrame.getData(), nativeFrame.getData());
+                for (int plane = 0; plane < nativeFrame.getPlaneCount(); plane++) {
+                    assertEquals(heapFrame.getLineSize(plane), nativeFrame.getLineSize(plane));
+                    assertEquals(heapFrame.getPlaneOffset(plane), nativeFrame.getPlaneOffset(plane));
+                    assertEquals(heapFrame.getPlane(plane), nativeFrame.getPlane(plane));
+                }
+
+                // References share buffers, and outlive the frame they were made from
+                FFmpegVideoFrame reference = nativeFrame.ref();
+                assertFalse(nativeFrame.isWritable());
+                nativeFrame.release();
+                assertTrue(nativeFrame.isReleased());
+                assertEquals(heapFrame.getData()[0], reference.getNativePlane(0).get(0));
+                reference.release();
+
+                assertThrows(IllegalStateException.class, () -> nativeFrame.getNativePlane(0));
+            } // Releasing twice (close) has no effect
+        }
+    }
+
+    @Test
+    public void testVideoFrame_OutputSize() throws Exception {
+        withSampleFile(sourceStream -> {
+            sourceStream.setOutputSize(160, 120);
+            sourceStream.registerStreams();
+
+            VideoSourceSubstream vss = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class).stream().findFirst()
+                            .orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+
+            assertEquals(160, vss.getFormat().getWidth());
+            assertEquals(120, vss.getFormat().getHeight());
+
+            assertThrows(IllegalStateException.class, () -> sourceStream.setOutputSize(0, 0));
+        });
+
+        for (int pixelFormat : new int[] { avutil.AV_PIX_FMT_YUV420P, avutil.AV_PIX_FMT_RGB24 }) {
+            // The decoder's own format no longer means the frame can be copied as-is
+            VideoFrame heapFrame = readFirstVideoFrame(pixelFormat, false, 160, 120);
+            assertEquals(pixelFormat, heapFrame.getFormat());
+            assertEquals(160, heapFrame.getWidth());
+            assertEquals(120, heapFrame.getHeight());
+            assertEquals(avutil.av_image_get_buffer_size(pixelFormat, 160, 120, 1), heapFrame.getData().length);
+
+            try (FFmpegVideoFrame nativeFrame = (FFmpegVideoFrame) readFirstVideoFrame(pixelFormat, true, 160, 120)) {
+                assertEquals(160, nativeFrame.getWidth());
+                assertEquals(120, nativeFrame.getHeight());
+                assertArrayEquals(heapFrame.getData(), nativeFrame.getData());
+            }
+        }
+    }
+
+    @Test
+    public void testAudioFrame_OutputFormat() throws Exception {
+        // The sample is 48 kHz 5.1; ask the decoder for what a voice client would want
+        AudioFormat outputFormat = new AudioFormat(
+                44_100, 2, avutil.AV_CH_LAYOUT_STEREO, avutil.AV_SAMPLE_FMT_S16);
+
+        withSampleFile(sourceStream -> {
+            sourceStream.setAudioOutputFormat(outputFormat);
+            sourceStream.registerStreams();
+
+            AudioSourceSubstream audioStream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class).stream().findFirst()
+                            .orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+            assertEquals(outputFormat, audioStream.getFormat());
+            assertEquals(avutil.AV_CH_LAYOUT_STEREO, audioStream.getFormat().getChannelLayout());
+
+            long samples = 0;
+            boolean nonZero = false;
+            for (int i = 0; i < 20; i++) {
+                AudioFrame frame = audioStream.next();
+                assertTrue(frame instanceof ShortAudioFrame);
+                assertEquals(outputFormat, frame.getFormat());
+                assertEquals(0, frame.getLength() % 2);
+
+                // The frame lasts as long as the samples it holds, at the output rate
+                assertEquals(frame.getLength() / 2 / 44_100D, frame.getTime(), 1e-9);
+
+                // Float samples are still available, converted from the shorts
+                short[] shorts = ((ShortAudioFrame) frame).getShortSamples();
+                float[] floats = frame.getSamples();
+                for (int j = 0; j < frame.getLength(); j++) {
+                    assertEquals(shorts[j] / 32768F, floats[j], 0F);
+                    nonZero |= shorts[j] != 0;
+                }
+
+                samples += frame.getLength() / 2;
+            }
+
+            assertTrue("Audio should not be silent", nonZero);
+
+            // 20 AAC frames at 48 kHz are 20 * 1024 samples; resampled to 44.1 kHz, less the resampler's delay
+            assertTrue(samples > 20 * 1024 * 44_100 / 48_000 - 256);
+            assertTrue(samples <= 20 * 1024 * 44_100 / 48_000 + 1);
+        });
+    }
+
+    /**
+     * Creates a 16-bit PCM WAV file at 48 kHz.  A plain WAV header has a channel count, but no channel layout.
+     */
+    private static byte[] createWav(int channels, int samples) {
+        java.nio.ByteBuffer wav = java.nio.ByteBuffer.allocate(44 + samples * channels * 2)
+                .order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes()).putInt(wav.capacity() - 8).put("WAVE".getBytes());
+        wav.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(48_000).putInt(48_000 * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        wav.put("data".getBytes()).putInt(samples * channels * 2);
+        for (int i = 0; i < samples * channels; i++)
+            wav.putShort((short) (i % channels == 0 ? 16384 : -16384));
+        return wav.array();
+    }
+
+    @Test
+    public void testAudioFrame_Wav() throws Exception {
+        int channels = 6;
+
+        try (FFmpegSourceStream sourceStream =
+                     FFmpegIO.openInputStream(new ByteArrayInputStream(createWav(channels, 4800))).open("wav")) {
+            sourceStream.registerStreams();
+
+            AudioSourceSubstream audioStream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class).stream().findFirst()
+                            .orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+            assertEquals(channels, audioStream.getFormat().getChannels());
+            assertEquals(avutil.av_get_default_channel_layout(channels), audioStream.getFormat().getChannelLayout());
+
+            AudioFrame frame = audioStream.next();
+            assertEquals(0, frame.getLength() % channels);
+            for (int i = 0; i < frame.getLength(); i++)
+                assertEquals(i % channels == 0 ? 0.5F : -0.5F, frame.getSamples()[i], 0F);
+        }
+    }
+
+    @Test
+    public void testAudioFrame_ResamplerDrained() throws Exception {
+        // 48 kHz to 44.1 kHz; the resampler holds back some samples, which must come out at the end of the stream
+        int samples = 48_000;
+        long decoded = 0;
+
+        try (FFmpegSourceStream sourceStream =
+                     FFmpegIO.openInputStream(new ByteArrayInputStream(createWav(2, samples))).open("wav")) {
+            sourceStream.setAudioOutputFormat(new AudioFormat(44_100, 2, avutil.AV_CH_LAYOUT_STEREO));
+            sourceStream.registerStreams();
+
+            AudioSourceSubstream audioStream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class).stream().findFirst()
+                            .orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+            while (true) {
+                AudioFrame frame;
+                try {
+                    frame = audioStream.next();
+                } catch (EOFException ex) {
+                    break;
+                }
+
+                decoded += frame.getLength() / 2;
+                frame.release();
+            }
+        }
+
+        assertEquals(44_100, decoded, 1);
+    }
+
+    @Test
+    public void testAudioFrame_Planar() throws Exception {
+        try (FFmpegSourceStream sourceStream =
+                     FFmpegIO.openInputStream(new ByteArrayInputStream(createWav(2, 4800))).open("wav")) {
+            sourceStream.setAudioOutputFormat(new AudioFormat(0, 2, 0L, avutil.AV_SAMPLE_FMT_FLTP));
+            sourceStream.registerStreams();
+
+            AudioSourceSubstream audioStream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class).stream().findFirst()
+                            .orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+            assertEquals(avutil.AV_SAMPLE_FMT_FLTP, audioStream.getFormat().getSampleFormat());
+
+            PlanarAudioFrame frame = (PlanarAudioFrame) audioStream.next();
+            assertEquals(2, frame.getPlanes().length);
+            assertEquals(frame.getSamplesPerChannel() * 2, frame.getLength());
+
+            for (int i = 0; i < frame.getSamplesPerChannel(); i++) {
+                assertEquals(0.5F, frame.getPlane(0)[i], 0F);
+                assertEquals(-0.5F, frame.getPlane(1)[i], 0F);
+            }
+
+            // Interleaved on demand
+            for (int i = 0; i < frame.getLength(); i++)
+                assertEquals(i % 2 == 0 ? 0.5F : -0.5F, frame.getSamples()[i], 0F);
+        }
+    }
+
+    @Test
+    public void testAudioRead() throws Exception {
+        int samples = 10_000, chunk = 960 * 2; // doesn't line up with WAV frames, or the end of the file
+
+        try (FFmpegSourceStream sourceStream =
+                     FFmpegIO.openInputStream(new ByteArrayInputStream(createWav(2, samples))).open("wav")) {
+            sourceStream.registerStreams();
+
+            AudioSourceSubstream audioStream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class).stream().findFirst()
+                            .orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+            float[] buffer = new float[chunk + 2];
+            FloatBuffer floatBuffer = FloatBuffer.allocate(chunk);
+            long total = 0;
+
+            for (int i = 0; ; i++) {
+                int read;
+                if (i % 2 == 0) {
+                    read = audioStream.read(buffer, 2, chunk);
+                } else {
+                    floatBuffer.clear();
+                    read = audioStream.read(floatBuffer);
+                    assertEquals(Math.max(read, 0), floatBuffer.position());
+                    floatBuffer.flip();
+                    floatBuffer.get(buffer, 2, floatBuffer.remaining());
+                }
+
+                if (read < 0) break;
+
+                // Only the last read comes up short
+                if (read < chunk) assertEquals(samples * 2 - total, read);
+
+                for (int j = 0; j < read; j++)
+                    assertEquals(j % 2 == 0 ? 0.5F : -0.5F, buffer[2 + j], 0F);
+
+                total += read;
+            }
+
+            assertEquals(samples * 2, total);
+            assertEquals(-1, audioStream.read(buffer, 0, chunk));
+            assertEquals(0, audioStream.read(buffer, 0, 0));
+        }
+    }
+
     @Test
     public void testAudioFrame() throws Exception {
         withSampleFile(sourceStream -> {
@@ -0,0 +1,172 @@
+import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.output.*;
+import com.github.manevolent.ffmpeg4j.stream.output.*;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.util.function.Supplier;
+
+/**
+ * Measures the per-packet cost of muxing with each FFmpegPacketOutput.  Not a unit test; run it by hand:
+ *
+ *   FFmpegPacketOutputBenchmark [seconds]
+ *
+ * Already encoded PCM packets (20ms each, as from a voice or music stream) are written through copy substreams into a
+ * nut file, so the time reported is that of the packet output, the muxer and the I/O, with no encoding.  Outputs with
+ * one stream compare av_interleaved_write_frame (FFmpegNativeOutput) with av_write_frame (FFmpegDirectOutput) and
+ * batching; outputs with two streams can't be written directly.  Writes counts the calls made to the channel.
+ */
+public class FFmpegPacketOutputBenchmark {
+    private static final int SAMPLE_RATE = 48_000;
+    private static final int FRAME_SIZE = 960;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+
+        run("native", 1, seconds, FFmpegTargetStream.FFmpegNativeOutput::new);
+        run("direct", 1, seconds, FFmpegTargetStream.FFmpegDirectOutput::new);
+        run("batched 0.5s", 1, seconds, FFmpegTargetStream.FFmpegBatchedOutput::new);
+
+        run("native", 2, seconds, FFmpegTargetStream.FFmpegNativeOutput::new);
+        run("batched 0.5s", 2, seconds, FFmpegTargetStream.FFmpegBatchedOutput::new);
+        run("batched 2s", 2, seconds, () -> new FFmpegTargetStream.FFmpegBatchedOutput(2D, 4096));
+    }
+
+    private static void run(String name, int streams, int seconds,
+                            Supplier<FFmpegTargetStream.FFmpegPacketOutput> packetOutput) throws Exception {
+        // Warm up
+        mux(streams, seconds, packetOutput.get());
+
+        long packets = 0, nanos = 0, writes = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long[] result = mux(streams, seconds, packetOutput.get());
+            packets += result[0];
+            nanos += result[1];
+            writes += result[2];
+        }
+
+        System.out.println(String.format("%-14s %d stream(s): %d packets, %.2f us/packet, %d writes/run",
+                name, streams, packets / RUNS, nanos / 1000D / packets, writes / RUNS));
+    }
+
+    /**
+     * @return packets written, nanoseconds spent writing them (and closing the stream), and channel writes.
+     */
+    private static long[] mux(int streams, int seconds, FFmpegTargetStream.FFmpegPacketOutput packetOutput)
+            throws Exception {
+        Path tempFile = Files.createTempFile("benchmark-mux", null);
+        AVCodecParameters parameters = avcodec.avcodec_parameters_alloc();
+        AVRational timeBase = avutil.av_make_q(1, SAMPLE_RATE);
+        AVPacket template = avcodec.av_packet_alloc();
+        AVPacket packet = avcodec.av_packet_alloc();
+
+        try (CountingChannel channel = new CountingChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE))) {
+            parameters.codec_type(avutil.AVMEDIA_TYPE_AUDIO);
+            parameters.codec_id(avcodec.AV_CODEC_ID_PCM_S16LE);
+            parameters.format(avutil.AV_SAMPLE_FMT_S16);
+            parameters.sample_rate(SAMPLE_RATE);
+            parameters.channels(2);
+            parameters.channel_layout(avutil.AV_CH_LAYOUT_STEREO);
+            parameters.block_align(4);
+
+            FFmpegError.checkError("av_new_packet", avcodec.av_new_packet(template, FRAME_SIZE * 4));
+            template.flags(avcodec.AV_PKT_FLAG_KEY);
+            template.duration(FRAME_SIZE);
+
+            FFmpegTargetStream targetStream = new FFmpegTargetStream("nut", FFmpegIO.openChannel(channel), packetOutput);
+
+            FFmpegCopyTargetSubstream[] substreams = new FFmpegCopyTargetSubstream[streams];
+            for (int i = 0; i < streams; i++)
+                substreams[i] = targetStream.registerCopySubstream(parameters, timeBase);
+
+            targetStream.writeHeader();
+
+            long frames = (long) seconds * SAMPLE_RATE / FRAME_SIZE;
+            long start = System.nanoTime();
+
+            for (long i = 0; i < frames; i++) {
+                for (FFmpegCopyTargetSubstream substream : substreams) {
+                    // av_interleaved_write_frame() takes the packet's reference, so each write gets its own
+                    FFmpegError.checkError("av_packet_ref", avcodec.av_packet_ref(packet, template));
+                    packet.pts(i * FRAME_SIZE);
+                    packet.dts(i * FRAME_SIZE);
+
+                    substream.write(packet);
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+
+            targetStream.close();
+
+            long nanos = System.nanoTime() - start;
+
+            return new long[] { frames * streams, nanos, channel.writes };
+        } finally {
+            avcodec.av_packet_free(packet);
+            avcodec.av_packet_free(template);
+            avcodec.avcodec_parameters_free(parameters);
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Counts the writes made to a channel.
+     */
+    private static class CountingChannel implements SeekableByteChannel {
+        private final SeekableByteChannel channel;
+        private long writes = 0;
+
+        private CountingChannel(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            writes++;
+            return channel.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
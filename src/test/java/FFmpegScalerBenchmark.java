@@ -0,0 +1,78 @@
+import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.scale.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Measures FFmpegScaler throughput at 4K, single-threaded against banded.  Not a unit test; run it by hand:
+ *
+ *   FFmpegScalerBenchmark [frames]
+ *
+ * Each conversion is run with 1, 2, 4, ... threads up to the number of available processors, on a dedicated
+ * ForkJoinPool.  Banded output is identical to single-threaded output (see FFmpegScalerTest), so only speed is
+ * compared.
+ */
+public class FFmpegScalerBenchmark {
+    private static final int WIDTH = 3840, HEIGHT = 2160;
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        int[][] conversions = {
+                // source format, destination format, destination width, destination height
+                { avutil.AV_PIX_FMT_YUV420P, avutil.AV_PIX_FMT_RGB24, WIDTH, HEIGHT },
+                { avutil.AV_PIX_FMT_RGB24, avutil.AV_PIX_FMT_YUV420P, WIDTH, HEIGHT },
+                { avutil.AV_PIX_FMT_YUV420P, avutil.AV_PIX_FMT_YUV420P, WIDTH / 2, HEIGHT / 2 },
+        };
+
+        System.out.println(processors + " processors, " + frames + " frames per run");
+
+        for (int[] conversion : conversions) {
+            AVFrame source = allocate(conversion[0], WIDTH, HEIGHT);
+            AVFrame destination = allocate(conversion[1], conversion[2], conversion[3]);
+
+            double baseline = 0D;
+
+            for (int threads = 1; threads <= Math.max(1, processors); threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+
+                try (FFmpegScaler scaler = new FFmpegScaler(
+                        WIDTH, HEIGHT, conversion[0],
+                        conversion[2], conversion[3], conversion[1],
+                        swscale.SWS_BILINEAR, threads, pool)) {
+                    // Warm up
+                    for (int i = 0; i < 5; i++) scaler.scale(source, destination);
+
+                    long start = System.nanoTime();
+                    for (int i = 0; i < frames; i++) scaler.scale(source, destination);
+                    double seconds = (System.nanoTime() - start) / 1_000_000_000D;
+
+                    double fps = frames / seconds;
+                    if (threads == 1) baseline = fps;
+
+                    System.out.println(String.format("%s %dx%d -> %s %dx%d, %d thread(s): %.1f fps (%.2fx)",
+                            avutil.av_get_pix_fmt_name(conversion[0]).getString(), WIDTH, HEIGHT,
+                            avutil.av_get_pix_fmt_name(conversion[1]).getString(), conversion[2], conversion[3],
+                            threads, fps, fps / baseline));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+
+            avutil.av_frame_free(source);
+            avutil.av_frame_free(destination);
+        }
+    }
+
+    private static AVFrame allocate(int format, int width, int height) throws FFmpegException {
+        AVFrame frame = avutil.av_frame_alloc();
+        frame.format(format);
+        frame.width(width);
+        frame.height(height);
+        FFmpegError.checkError("av_frame_get_buffer", avutil.av_frame_get_buffer(frame, 0));
+        return frame;
+    }
+}
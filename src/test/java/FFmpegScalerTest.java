@@ -0,0 +1,197 @@
+import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.scale.*;
+import com.github.manevolent.ffmpeg4j.source.*;
+import com.github.manevolent.ffmpeg4j.stream.source.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.ffmpeg.global.*;
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import static org.junit.Assert.*;
+
+public class FFmpegScalerTest {
+
+    @BeforeClass
+    public static void setupLogLevel() {
+        Logging.DEBUG_LOG_LEVEL = Level.INFO;
+    }
+
+    private static AVFrame allocateFrame(int format, int width, int height) throws FFmpegException {
+        AVFrame frame = avutil.av_frame_alloc();
+        frame.format(format);
+        frame.width(width);
+        frame.height(height);
+        FFmpegError.checkError("av_frame_get_buffer", avutil.av_frame_get_buffer(frame, 0));
+        return frame;
+    }
+
+    private static byte[] toArray(AVFrame frame) {
+        int size = avutil.av_image_get_buffer_size(frame.format(), frame.width(), frame.height(), 1);
+        byte[] data = new byte[size];
+        org.bytedeco.javacpp.BytePointer buffer = new org.bytedeco.javacpp.BytePointer(size);
+        avutil.av_image_copy_to_buffer(buffer, size, frame.data(), frame.linesize(),
+                frame.format(), frame.width(), frame.height(), 1);
+        buffer.get(data);
+        buffer.deallocate();
+        return data;
+    }
+
+    @Test
+    public void testScale_Bands() throws Exception {
+        int sourceWidth = 640, sourceHeight = 480;
+
+        AVFrame source = allocateFrame(avutil.AV_PIX_FMT_YUV420P, sourceWidth, sourceHeight);
+        Random random = new Random(0);
+        for (int plane = 0; plane < 3; plane++) {
+            int planeHeight = plane == 0 ? sourceHeight : sourceHeight / 2;
+            byte[] line = new byte[source.linesize(plane)];
+            for (int y = 0; y < planeHeight; y++) {
+                random.nextBytes(line);
+                source.data(plane).position((long) y * line.length).put(line);
+            }
+        }
+
+        // Both a plain conversion and a downscale (where bands need source rows from their neighbours)
+        for (int[] size : new int[][] { { 640, 480 }, { 320, 180 } }) {
+            AVFrame single = allocateFrame(avutil.AV_PIX_FMT_RGB24, size[0], size[1]);
+            AVFrame banded = allocateFrame(avutil.AV_PIX_FMT_RGB24, size[0], size[1]);
+
+            try (FFmpegScaler scaler = new FFmpegScaler(
+                    sourceWidth, sourceHeight, avutil.AV_PIX_FMT_YUV420P,
+                    size[0], size[1], avutil.AV_PIX_FMT_RGB24,
+                    swscale.SWS_BILINEAR)) {
+                assertEquals(1, scaler.getBandCount());
+                scaler.scale(source, single);
+            }
+
+            try (FFmpegScaler scaler = new FFmpegScaler(
+                    sourceWidth, sourceHeight, avutil.AV_PIX_FMT_YUV420P,
+                    size[0], size[1], avutil.AV_PIX_FMT_RGB24,
+                    swscale.SWS_BILINEAR, 4, new ForkJoinPool(4))) {
+                assertEquals(4, scaler.getBandCount());
+
+                // The same scaler is re-used for every frame
+                for (int i = 0; i < 3; i++) {
+                    scaler.scale(source, banded);
+                    assertArrayEquals(toArray(single), toArray(banded));
+                }
+            }
+
+            avutil.av_frame_free(single);
+            avutil.av_frame_free(banded);
+        }
+
+        avutil.av_frame_free(source);
+    }
+
+    @Test
+    public void testScalerSettings_Flags() {
+        ScalerSettings settings = new ScalerSettings(
+                ScalerSettings.Algorithm.LANCZOS, true, true, ScalerSettings.Dither.AUTO);
+
+        assertEquals(swscale.SWS_LANCZOS | swscale.SWS_ACCURATE_RND |
+                swscale.SWS_FULL_CHR_H_INT | swscale.SWS_FULL_CHR_H_INP, settings.getFlags());
+        assertEquals(settings, ScalerSettings.fromFlags(settings.getFlags()));
+        assertEquals(ScalerSettings.DEFAULT, ScalerSettings.fromFlags(swscale.SWS_BILINEAR));
+
+        for (ScalerSettings.Algorithm algorithm : ScalerSettings.Algorithm.values())
+            assertEquals(algorithm, ScalerSettings.fromFlags(algorithm.getFlag()).getAlgorithm());
+    }
+
+    @Test
+    public void testScale_Settings() throws Exception {
+        int sourceWidth = 640, sourceHeight = 480;
+
+        // A gradient, so that dithering and rounding have something to work with
+        AVFrame source = allocateFrame(avutil.AV_PIX_FMT_RGB24, sourceWidth, sourceHeight);
+        byte[] line = new byte[source.linesize(0)];
+        for (int y = 0; y < sourceHeight; y++) {
+            for (int x = 0; x < sourceWidth * 3; x++)
+                line[x] = (byte) ((x / 3 + y * 7 + (x % 3) * 85) & 0xFF);
+            source.data(0).position((long) y * line.length).put(line);
+        }
+
+        ScalerSettings[] settings = {
+                ScalerSettings.DEFAULT,
+                ScalerSettings.DEFAULT.withAlgorithm(ScalerSettings.Algorithm.POINT),
+                ScalerSettings.DEFAULT.withAlgorithm(ScalerSettings.Algorithm.AREA),
+                ScalerSettings.DEFAULT.withAlgorithm(ScalerSettings.Algorithm.LANCZOS)
+                        .withAccurateRounding(true).withFullChromaInterpolation(true),
+                // swscale only honours the dithering mode on its full chroma RGB output path
+                ScalerSettings.DEFAULT.withFullChromaInterpolation(true),
+                ScalerSettings.DEFAULT.withFullChromaInterpolation(true).withDither(ScalerSettings.Dither.NONE),
+                ScalerSettings.DEFAULT.withFullChromaInterpolation(true)
+                        .withDither(ScalerSettings.Dither.ARITHMETIC_ADD),
+                ScalerSettings.DEFAULT.withFullChromaInterpolation(true)
+                        .withDither(ScalerSettings.Dither.ARITHMETIC_XOR),
+        };
+
+        Set<String> distinct = new HashSet<>();
+        for (ScalerSettings setting : settings) {
+            AVFrame single = allocateFrame(avutil.AV_PIX_FMT_RGB8, 320, 180);
+            AVFrame banded = allocateFrame(avutil.AV_PIX_FMT_RGB8, 320, 180);
+
+            try (FFmpegScaler scaler = new FFmpegScaler(
+                    sourceWidth, sourceHeight, avutil.AV_PIX_FMT_RGB24,
+                    320, 180, avutil.AV_PIX_FMT_RGB8,
+                    setting, 1, ForkJoinPool.commonPool())) {
+                assertEquals(setting, scaler.getSettings());
+                scaler.scale(source, single);
+            }
+
+            // Dithered formats are never split into bands, so threads make no difference to the output
+            try (FFmpegScaler scaler = new FFmpegScaler(
+                    sourceWidth, sourceHeight, avutil.AV_PIX_FMT_RGB24,
+                    320, 180, avutil.AV_PIX_FMT_RGB8,
+                    setting, 4, new ForkJoinPool(4))) {
+                assertEquals(1, scaler.getBandCount());
+                scaler.scale(source, banded);
+                assertArrayEquals(setting.toString(), toArray(single), toArray(banded));
+            }
+
+            distinct.add(Arrays.toString(toArray(single)));
+
+            avutil.av_frame_free(single);
+            avutil.av_frame_free(banded);
+        }
+
+        // Every setting changes the output
+        assertEquals(settings.length, distinct.size());
+
+        avutil.av_frame_free(source);
+    }
+
+    @Test
+    public void testDecode_ScalerThreads() throws Exception {
+        // RGB24 output means every decoded frame is converted
+        List<byte[]> single = decode(1);
+        List<byte[]> banded = decode(3);
+
+        assertEquals(single.size(), banded.size());
+        for (int i = 0; i < single.size(); i++)
+            assertArrayEquals(single.get(i), banded.get(i));
+    }
+
+    private static List<byte[]> decode(int scalerThreads) throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+
+        InputStream resource = FFmpegScalerTest.class.getResourceAsStream("/sample-mp4-file-small.mp4");
+        try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(resource).open("mp4")) {
+            sourceStream.setPixelFormat(avutil.AV_PIX_FMT_RGB24);
+            sourceStream.setScalerThreads(scalerThreads);
+            sourceStream.registerStreams();
+
+            VideoSourceSubstream vss = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class).stream().findFirst()
+                    .orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+
+            for (int i = 0; i < 5; i++)
+                frames.add(vss.next().getData());
+        }
+
+        return frames;
+    }
+}
@@ -0,0 +1,76 @@
+import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.stream.source.*;
+import com.github.manevolent.ffmpeg4j.thumbnail.*;
+import org.junit.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.logging.*;
+
+import static org.junit.Assert.*;
+
+public class FFmpegThumbnailTest {
+
+    @BeforeClass
+    public static void setupLogLevel() {
+        Logging.DEBUG_LOG_LEVEL = Level.INFO;
+    }
+
+    private static void assertSpriteSheet(SpriteSheet sheet, int count, int columns) {
+        assertEquals(count, sheet.getCount());
+        assertEquals(columns, sheet.getColumns());
+        assertEquals((count + columns - 1) / columns, sheet.getRows());
+
+        // 320x240 source, so 160 wide tiles should be 120 high
+        assertEquals(160, sheet.getTileWidth());
+        assertEquals(120, sheet.getTileHeight());
+
+        // Positions should be evenly spread across the 30 second sample, and in order
+        for (int i = 1; i < sheet.getCount(); i++)
+            assertTrue("Positions should be increasing", sheet.getPosition(i) >= sheet.getPosition(i - 1));
+
+        assertTrue(sheet.getPosition(sheet.getCount() - 1) > 20D);
+    }
+
+    @Test
+    public void testSpriteSheet_Scan() throws Exception {
+        InputStream resource = FFmpegThumbnailTest.class.getResourceAsStream("/sample-mp4-file-small.mp4");
+        try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(resource).open("mp4");
+             FFmpegThumbnailGenerator generator = new FFmpegThumbnailGenerator(sourceStream)) {
+            assertFalse(sourceStream.isSeekable());
+
+            SpriteSheet sheet = generator.generate(10, 5, 160, -1, "mjpeg");
+            assertSpriteSheet(sheet, 10, 5);
+
+            // JPEG SOI marker
+            assertEquals((byte) 0xFF, sheet.getData()[0]);
+            assertEquals((byte) 0xD8, sheet.getData()[1]);
+        }
+    }
+
+    @Test
+    public void testSpriteSheet_Seek() throws Exception {
+        Path tempFile = Files.createTempFile("sample", ".mp4");
+        try {
+            try (InputStream resource = FFmpegThumbnailTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")) {
+                Files.copy(resource, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            SeekableByteChannel channel = Files.newByteChannel(tempFile, StandardOpenOption.READ);
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputChannel(channel).open("mp4");
+                 FFmpegThumbnailGenerator generator = new FFmpegThumbnailGenerator(sourceStream)) {
+                assertTrue(sourceStream.isSeekable());
+
+                SpriteSheet sheet = generator.generate(7, 4, 160, -1, "png");
+                assertSpriteSheet(sheet, 7, 4);
+
+                // PNG signature
+                assertEquals((byte) 0x89, sheet.getData()[0]);
+                assertEquals((byte) 'P', sheet.getData()[1]);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
@@ -1,16 +1,58 @@
 import com.github.manevolent.ffmpeg4j.AudioFormat;
+import com.github.manevolent.ffmpeg4j.AudioFrame;
+import com.github.manevolent.ffmpeg4j.FFmpegError;
+import com.github.manevolent.ffmpeg4j.FFmpegException;
 import com.github.manevolent.ffmpeg4j.FFmpegIO;
+import com.github.manevolent.ffmpeg4j.FFmpegOutput;
+import com.github.manevolent.ffmpeg4j.MediaType;
+import com.github.manevolent.ffmpeg4j.PlanarAudioFrame;
+import com.github.manevolent.ffmpeg4j.VideoFormat;
+import com.github.manevolent.ffmpeg4j.VideoFrame;
+import com.github.manevolent.ffmpeg4j.filter.audio.AudioFilterNone;
+import com.github.manevolent.ffmpeg4j.filter.video.FFmpegVideoRescaleFilter;
+import com.github.manevolent.ffmpeg4j.filter.video.VideoFilterNone;
+import com.github.manevolent.ffmpeg4j.output.EncoderProfile;
+import com.github.manevolent.ffmpeg4j.output.EncoderQueue;
+import com.github.manevolent.ffmpeg4j.output.EncoderStatistics;
+import com.github.manevolent.ffmpeg4j.output.FFmpegAudioTargetSubstream;
+import com.github.manevolent.ffmpeg4j.output.FFmpegCopyTargetSubstream;
+import com.github.manevolent.ffmpeg4j.output.FFmpegVideoTargetSubstream;
 import com.github.manevolent.ffmpeg4j.source.AudioSourceSubstream;
+import com.github.manevolent.ffmpeg4j.source.MediaSourceSubstream;
+import com.github.manevolent.ffmpeg4j.source.VideoSourceSubstream;
+import com.github.manevolent.ffmpeg4j.stream.output.FFmpegSegmentOutput;
 import com.github.manevolent.ffmpeg4j.stream.output.FFmpegTargetStream;
+import com.github.manevolent.ffmpeg4j.stream.output.FFmpegTeeOutput;
 import com.github.manevolent.ffmpeg4j.stream.source.FFmpegSourceStream;
+import com.github.manevolent.ffmpeg4j.transcoder.MultiTranscoder;
+import com.github.manevolent.ffmpeg4j.transcoder.SegmentTranscoder;
 import com.github.manevolent.ffmpeg4j.transcoder.Transcoder;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
 import org.junit.Test;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
 
 public class FFmpegTranscodeTest {
     @Test
@@ -30,4 +72,1168 @@ public class FFmpegTranscodeTest {
             Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
         }
     }
+
+    @Test
+    public void testTranscode_VideoPassthrough() throws Exception {
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            // YUV420P end to end: no sws_scale on either the decoder or the encoder side
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                VideoFormat videoFormat = videoSourceSubstream.getFormat();
+
+                FFmpegVideoTargetSubstream videoTargetSubstream =
+                        targetStream.registerVideoSubstream("mpeg4", videoFormat, new HashMap<>());
+                assertEquals(avutil.AV_PIX_FMT_YUV420P, videoTargetSubstream.getCodecContext().pix_fmt());
+
+                Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
+            }
+
+            assertTrue(Files.size(tempFile) > 0);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_NativeFrames() throws Exception {
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                // Decoded frames stay in native memory, are scaled natively and are then sent to the encoder as-is
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.setNativeFrames(true);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                VideoFormat inputFormat = videoSourceSubstream.getFormat();
+                VideoFormat outputFormat = new VideoFormat(
+                        inputFormat.getWidth() / 2, inputFormat.getHeight() / 2,
+                        inputFormat.getFramesPerSecond()
+                );
+
+                targetStream.registerVideoSubstream("mpeg4", outputFormat, new HashMap<>());
+
+                Transcoder.convert(sourceStream, targetStream,
+                        new AudioFilterNone(),
+                        new FFmpegVideoRescaleFilter(inputFormat, outputFormat, avutil.AV_PIX_FMT_YUV420P),
+                        Double.MAX_VALUE);
+            }
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("nut")) {
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                assertEquals(160, videoSourceSubstream.getFormat().getWidth());
+                assertEquals(120, videoSourceSubstream.getFormat().getHeight());
+                assertNotNull(videoSourceSubstream.next());
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_Async() throws Exception {
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+            FFmpegVideoTargetSubstream videoTargetSubstream;
+            FFmpegAudioTargetSubstream audioTargetSubstream;
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                // Native frames are sent to the encoder by reference from its own thread, after the decoder let go
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.setNativeFrames(true);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                AudioSourceSubstream audioSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+                videoTargetSubstream = targetStream.registerVideoSubstream("mpeg4", videoSourceSubstream.getFormat(), new HashMap<>());
+                videoTargetSubstream.setAsync(8, EncoderQueue.OverflowPolicy.BLOCK);
+                audioTargetSubstream = targetStream.registerAudioSubstream("aac", audioSourceSubstream.getFormat(), new HashMap<>());
+                audioTargetSubstream.setAsync(32, EncoderQueue.OverflowPolicy.BLOCK);
+
+                AVFrame nativeFrame = avutil.av_frame_alloc();
+                try {
+                    videoTargetSubstream.write(nativeFrame);
+                    fail("native frames can't be queued");
+                } catch (IllegalStateException expected) {
+                    // expected
+                } finally {
+                    avutil.av_frame_free(nativeFrame);
+                }
+
+                Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
+            }
+
+            EncoderQueue<VideoFrame> videoQueue = videoTargetSubstream.getEncoderQueue();
+            assertNull(videoQueue.getError());
+            assertEquals(0, videoQueue.getDroppedFrames());
+            assertTrue(videoQueue.getEncodedFrames() > 0);
+            assertNull(audioTargetSubstream.getEncoderQueue().getError());
+            assertEquals(0, audioTargetSubstream.getEncoderQueue().getDroppedFrames());
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("nut")) {
+                sourceStream.registerStreams();
+                assertFalse(sourceStream.getSubstreams(AudioSourceSubstream.class).isEmpty());
+
+                long frames = 0L;
+                while (true) {
+                    try {
+                        sourceStream.readPacket();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+
+                    for (MediaSourceSubstream<?> substream : sourceStream.getSubstreams(VideoSourceSubstream.class)) {
+                        for (Object decoded : substream.drain()) {
+                            frames++;
+                            ((VideoFrame) decoded).release();
+                        }
+                    }
+                }
+
+                // Every queued frame was encoded and muxed
+                assertEquals(videoQueue.getEncodedFrames(), frames);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_Statistics() throws Exception {
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            double duration;
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                AudioSourceSubstream audioSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+                duration = (double) sourceStream.getFormatContext().duration() / avutil.AV_TIME_BASE;
+
+                targetStream.registerVideoSubstream("mpeg4", videoSourceSubstream.getFormat(), new HashMap<>());
+                targetStream.registerAudioSubstream("aac", audioSourceSubstream.getFormat(), new HashMap<>());
+
+                Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
+            }
+
+            List<EncoderStatistics> statistics = targetStream.getEncoderStatistics();
+            assertEquals(2, statistics.size());
+
+            EncoderStatistics video = statistics.get(0);
+            assertEquals(MediaType.VIDEO, video.getMediaType());
+            assertEquals(video.getFrames(), video.getPackets());
+            assertTrue(video.getKeyframes() > 1);
+            assertTrue(video.getKeyframeInterval() > 0);
+            assertEquals(duration, video.getDuration(), 0.5D);
+            assertTrue(video.getBitrate() > 0D);
+            assertTrue(video.getAverageBitrate() > 0D);
+            assertTrue(video.getLatency() >= 0L);
+            assertTrue(video.getMaximumLatency() >= video.getLatency());
+            assertTrue(video.getSpeed() > 0D);
+            assertEquals(0, video.getQueuedFrames());
+
+            EncoderStatistics audio = statistics.get(1);
+            assertEquals(MediaType.AUDIO, audio.getMediaType());
+            assertTrue(audio.getPackets() > 0);
+            assertEquals(duration, audio.getDuration(), 0.5D);
+            assertTrue(audio.getAverageBitrate() > 0D);
+
+            // Every byte encoded ended up in the file, along with the container's own
+            assertTrue(video.getBytes() + audio.getBytes() < Files.size(tempFile));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_DirectOutput() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("strict", "experimental");
+        Path tempFile = Files.createTempFile("temp-audio", null);
+        try {
+            // One stream, so there is nothing to interleave
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput()
+                    .open("nut", new FFmpegTargetStream.FFmpegDirectOutput());
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/example.ogg")).open("ogg")) {
+                sourceStream.registerStreams();
+
+                AudioSourceSubstream mediaSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams().get(0);
+                targetStream.registerAudioSubstream("libmp3lame", mediaSourceSubstream.getFormat(), options);
+
+                Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
+            }
+
+            assertEquals(targetStream.getEncoderStatistics().get(0).getPackets(), countPackets(tempFile));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_BatchedOutput() throws Exception {
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTargetStream.FFmpegBatchedOutput packetOutput = new FFmpegTargetStream.FFmpegBatchedOutput(0.5D, 64);
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput()
+                    .open("nut", packetOutput);
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                AudioSourceSubstream audioSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+                targetStream.registerVideoSubstream("mpeg4", videoSourceSubstream.getFormat(), new HashMap<>());
+                targetStream.registerAudioSubstream("aac", audioSourceSubstream.getFormat(), new HashMap<>());
+
+                Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
+            }
+
+            assertTrue(packetOutput.getBatches() > 1);
+
+            // Every packet held back was written out, the last batch when the stream was closed
+            long packets = 0L;
+            for (EncoderStatistics statistics : targetStream.getEncoderStatistics())
+                packets += statistics.getPackets();
+            assertEquals(packets, countPackets(tempFile));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_BatchedOutputCopy() throws Exception {
+        // Two interleaved 20ms PCM streams, copied as-is; every fourth packet of the first has no dts
+        int sampleRate = 48_000, frameSize = 960, packets = 100;
+
+        Path tempFile = Files.createTempFile("temp-audio", null);
+        AVCodecParameters parameters = avcodec.avcodec_parameters_alloc();
+        AVPacket packet = avcodec.av_packet_alloc();
+        try {
+            parameters.codec_type(avutil.AVMEDIA_TYPE_AUDIO);
+            parameters.codec_id(avcodec.AV_CODEC_ID_PCM_S16LE);
+            parameters.format(avutil.AV_SAMPLE_FMT_S16);
+            parameters.sample_rate(sampleRate);
+            parameters.channels(2);
+            parameters.channel_layout(avutil.AV_CH_LAYOUT_STEREO);
+            parameters.block_align(4);
+
+            FFmpegTargetStream.FFmpegBatchedOutput packetOutput = new FFmpegTargetStream.FFmpegBatchedOutput(0.1D, 64);
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput()
+                    .open("nut", packetOutput);
+            List<FFmpegCopyTargetSubstream> substreams = Arrays.asList(
+                    targetStream.registerCopySubstream(parameters, avutil.av_make_q(1, sampleRate)),
+                    targetStream.registerCopySubstream(parameters, avutil.av_make_q(1, sampleRate))
+            );
+            targetStream.writeHeader();
+
+            for (int i = 0; i < packets; i++) {
+                for (FFmpegCopyTargetSubstream substream : substreams) {
+                    FFmpegError.checkError("av_new_packet", avcodec.av_new_packet(packet, frameSize * 4));
+                    packet.flags(avcodec.AV_PKT_FLAG_KEY);
+                    packet.duration(frameSize);
+                    packet.pts((long) i * frameSize);
+                    packet.dts(substream == substreams.get(0) && i % 4 == 3 ? avutil.AV_NOPTS_VALUE : packet.pts());
+
+                    substream.write(packet);
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+
+            targetStream.close();
+            assertTrue(packetOutput.getBatches() > 1);
+
+            // Every packet made it out, each stream's in the order it was written
+            long[] lastPts = new long[] { -1L, -1L };
+            int read = 0;
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("nut")) {
+                while (sourceStream.readRawPacket(packet)) {
+                    assertTrue(packet.pts() > lastPts[packet.stream_index()]);
+                    lastPts[packet.stream_index()] = packet.pts();
+                    read++;
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+
+            assertEquals(packets * 2, read);
+        } finally {
+            avcodec.av_packet_free(packet);
+            avcodec.avcodec_parameters_free(parameters);
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_SegmentOutput() throws Exception {
+        Path directory = Files.createTempDirectory("temp-segments");
+        try {
+            FFmpegSegmentOutput segmentOutput = new FFmpegSegmentOutput(FFmpegSegmentOutput.directory(directory));
+            segmentOutput.setSegmentDuration(2D);
+            segmentOutput.setRetention(3);
+
+            // Segments are muxed as mpegts; the target stream itself is never written to
+            FFmpegTargetStream targetStream = FFmpegIO.createNullIO().asOutput().open("mpegts", segmentOutput);
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                AudioSourceSubstream audioSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+                targetStream.registerVideoSubstream("mpeg4", videoSourceSubstream.getFormat(), new HashMap<>());
+                targetStream.registerAudioSubstream("aac", audioSourceSubstream.getFormat(), new HashMap<>());
+
+                Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
+            }
+
+            // Only the last 3 segments are kept, and listed, after the stream ended
+            List<FFmpegSegmentOutput.Segment> segments = segmentOutput.getSegments();
+            assertEquals(3, segments.size());
+            assertTrue(segments.get(0).getIndex() > 0);
+            assertFalse(Files.exists(directory.resolve("segment0.ts")));
+
+            List<String> playlist = Files.readAllLines(directory.resolve("playlist.m3u8"));
+            assertEquals("#EXTM3U", playlist.get(0));
+            assertTrue(playlist.contains("#EXT-X-MEDIA-SEQUENCE:" + segments.get(0).getIndex()));
+            assertEquals("#EXT-X-ENDLIST", playlist.get(playlist.size() - 1));
+
+            double startTime = segments.get(0).getStartTime();
+            for (FFmpegSegmentOutput.Segment segment : segments) {
+                assertTrue(playlist.contains(segment.getName()));
+                assertEquals(startTime, segment.getStartTime(), 0.001D);
+                startTime += segment.getDuration();
+
+                // Each segment plays on its own, starting with a keyframe
+                try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(directory.resolve(segment.getName()))).open("mpegts")) {
+                    sourceStream.registerStreams();
+
+                    VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                            .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                    assertEquals(320, videoSourceSubstream.getFormat().getWidth());
+                    assertFalse(sourceStream.getSubstreams(AudioSourceSubstream.class).isEmpty());
+
+                    VideoFrame frame = videoSourceSubstream.next();
+                    assertNotNull(frame);
+                    assertEquals(segment.getStartTime(), frame.getPosition(), 0.1D);
+                    frame.release();
+                }
+            }
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testTranscode_FragmentedMp4() throws Exception {
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            // An OutputStream can't seek, which plain mp4 needs to go back and write the moov
+            FFmpegTargetStream targetStream = FFmpegIO.openOutputStream(Files.newOutputStream(tempFile)).openFragmentedMp4(2D);
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            assertEquals(FFmpegOutput.FRAGMENTED_MP4_FLAGS, targetStream.getMuxerOptions().get("movflags"));
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                AudioSourceSubstream audioSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+                targetStream.registerVideoSubstream("mpeg4", videoSourceSubstream.getFormat(), new HashMap<>());
+                targetStream.registerAudioSubstream("aac", audioSourceSubstream.getFormat(), new HashMap<>());
+
+                Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
+            }
+
+            // The moov comes first, then fragments of at least 2 seconds each
+            String boxes = new String(Files.readAllBytes(tempFile), StandardCharsets.ISO_8859_1);
+            int moov = boxes.indexOf("moov"), moof = boxes.indexOf("moof");
+            assertTrue(moov >= 0 && moof > moov);
+            int fragments = 0;
+            for (int i = moof; i >= 0; i = boxes.indexOf("moof", i + 1))
+                fragments++;
+            double duration = targetStream.getEncoderStatistics().get(0).getDuration();
+            assertTrue(fragments > 1);
+            assertTrue(fragments <= duration / 2D + 1);
+
+            // ... and it plays back whole
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputChannel(Files.newByteChannel(tempFile)).open("mp4")) {
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                assertFalse(sourceStream.getSubstreams(AudioSourceSubstream.class).isEmpty());
+
+                long frames = 0L;
+                while (true) {
+                    try {
+                        sourceStream.readPacket();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+
+                    for (Object decoded : videoSourceSubstream.drain()) {
+                        frames++;
+                        ((VideoFrame) decoded).release();
+                    }
+                }
+
+                assertEquals(targetStream.getEncoderStatistics().get(0).getFrames(), frames);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_TeeOutput() throws Exception {
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTeeOutput teeOutput = new FFmpegTeeOutput();
+            FFmpegTeeOutput.Sink file = teeOutput.addSink(FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut"));
+
+            // A client that goes away partway through
+            FFmpegTeeOutput.Sink client = teeOutput.addSink(FFmpegIO.openOutputStream(new OutputStream() {
+                private long written = 0L;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if ((written += len) > 64 * 1024) throw new IOException("connection reset");
+                }
+            }).open("nut"));
+
+            FFmpegTargetStream targetStream = FFmpegIO.createNullIO().asOutput().open("nut", teeOutput);
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                AudioSourceSubstream audioSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+                targetStream.registerVideoSubstream("mpeg4", videoSourceSubstream.getFormat(), new HashMap<>());
+                targetStream.registerAudioSubstream("aac", audioSourceSubstream.getFormat(), new HashMap<>());
+
+                Transcoder.convert(sourceStream, targetStream, Double.MAX_VALUE);
+            }
+
+            long packets = 0L;
+            for (EncoderStatistics statistics : targetStream.getEncoderStatistics())
+                packets += statistics.getPackets();
+
+            // The client failing didn't stop the file from getting every packet
+            assertTrue(client.isFailed());
+            assertNotNull(client.getError());
+            assertTrue(client.getWrittenPackets() < packets);
+
+            assertFalse(file.isFailed());
+            assertEquals(packets, file.getWrittenPackets());
+            assertEquals(packets, countPackets(tempFile));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static long countPackets(Path file) throws Exception {
+        long packets = 0L;
+        AVPacket packet = avcodec.av_packet_alloc();
+        try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(file)).open("nut")) {
+            while (sourceStream.readRawPacket(packet)) {
+                packets++;
+                avcodec.av_packet_unref(packet);
+            }
+        } finally {
+            avcodec.av_packet_free(packet);
+        }
+        return packets;
+    }
+
+    @Test
+    public void testTranscode_PaddedPlanes() throws Exception {
+        int width = 320, height = 240, padding = 64;
+        byte[] planeValues = { (byte) 200, (byte) 64, (byte) 192 };
+
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            targetStream.registerVideoSubstream("mpeg4", new VideoFormat(width, height, 15D), new HashMap<>());
+            targetStream.writeHeader();
+
+            // YUV420P with padded lines: each line has some bytes after the visible pixels, which must be skipped
+            int[] lineSizes = { width + padding, width / 2 + padding, width / 2 + padding };
+            int[] offsets = { 0, lineSizes[0] * height, lineSizes[0] * height + lineSizes[1] * height / 2 };
+            byte[] data = new byte[offsets[2] + lineSizes[2] * height / 2];
+
+            for (int plane = 0; plane < 3; plane++)
+                for (int y = 0; y < (plane == 0 ? height : height / 2); y++)
+                    for (int x = 0; x < (plane == 0 ? width : width / 2); x++)
+                        data[offsets[plane] + y * lineSizes[plane] + x] = planeValues[plane];
+
+            for (int i = 0; i < 15; i++) {
+                VideoFrame frame = new VideoFrame(0D, i / 15D, 1D / 15D,
+                        avutil.AV_PIX_FMT_YUV420P, width, height, data, lineSizes, offsets, null);
+
+                assertEquals(3, frame.getPlaneCount());
+                assertEquals(lineSizes[1] * height / 2, frame.getPlane(1).remaining());
+
+                targetStream.getVideoTargetStream().write(frame);
+            }
+
+            targetStream.close();
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("nut")) {
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                VideoFrame frame = videoSourceSubstream.next();
+
+                // Decoded frames are packed
+                assertEquals(3, frame.getPlaneCount());
+                assertEquals(width, frame.getLineSize(0));
+                assertEquals(width / 2, frame.getLineSize(1));
+                assertEquals(width * height, frame.getPlaneOffset(1));
+                assertEquals(width * height + (width / 2) * (height / 2), frame.getPlaneOffset(2));
+
+                // Every plane should come back with the value it was encoded with (give or take compression)
+                for (int plane = 0; plane < 3; plane++) {
+                    ByteBuffer buffer = frame.getPlane(plane);
+                    int center = (frame.getPlaneHeight(plane) / 2) * frame.getLineSize(plane) + frame.getLineSize(plane) / 2;
+                    assertEquals("plane " + plane, planeValues[plane] & 0xFF, buffer.get(center) & 0xFF, 4);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testEncode_PlanarAudio() throws Exception {
+        int samples = 1000;
+        AudioFormat format = new AudioFormat(48_000, 2, avutil.AV_CH_LAYOUT_STEREO);
+
+        Path tempFile = Files.createTempFile("temp-audio", null);
+        try {
+            // PCM codecs take any frame size
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("wav");
+            targetStream.registerAudioSubstream("pcm_s16le", format, new HashMap<>());
+            targetStream.writeHeader();
+
+            // Planar and interleaved frames can be mixed; the right channel is out of range, and clipped
+            float[][] planes = new float[2][samples];
+            Arrays.fill(planes[0], 0.5F);
+            Arrays.fill(planes[1], 1.5F);
+            float[] interleaved = new float[samples * 2];
+            for (int i = 0; i < samples; i++) {
+                interleaved[i * 2] = 0.5F;
+                interleaved[i * 2 + 1] = 1.5F;
+            }
+
+            for (int i = 0; i < 3; i++)
+                targetStream.getAudioTargetStream().write(
+                        new PlanarAudioFrame(0D, i * samples / 48_000D, samples / 48_000D, planes, samples, format));
+            targetStream.getAudioTargetStream().write(
+                    new AudioFrame(0D, 3 * samples / 48_000D, samples / 48_000D, interleaved, format));
+
+            targetStream.close();
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("wav")) {
+                sourceStream.setAudioOutputFormat(new AudioFormat(0, 0, 0L, avutil.AV_SAMPLE_FMT_FLTP));
+                sourceStream.registerStreams();
+
+                AudioSourceSubstream audioSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+                int decoded = 0;
+                while (true) {
+                    PlanarAudioFrame frame;
+                    try {
+                        frame = (PlanarAudioFrame) audioSourceSubstream.next();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+
+                    for (int i = 0; i < frame.getSamplesPerChannel(); i++) {
+                        assertEquals(0.5F, frame.getPlane(0)[i], 1e-4F);
+                        assertEquals(1F, frame.getPlane(1)[i], 1e-4F);
+                    }
+
+                    decoded += frame.getSamplesPerChannel();
+                }
+
+                assertEquals(4 * samples, decoded);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testEncode_Aac() throws Exception {
+        // AAC takes planar floats, so samples go straight into the encoder's frames; it also holds frames back, which
+        // must come out when the stream is closed
+        int samples = 48_000, chunk = 700;
+        AudioFormat format = new AudioFormat(48_000, 2, avutil.AV_CH_LAYOUT_STEREO);
+
+        Path tempFile = Files.createTempFile("temp-audio", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("matroska");
+            targetStream.registerAudioSubstream("aac", format, new HashMap<>());
+            targetStream.writeHeader();
+
+            for (int position = 0; position < samples; position += chunk) {
+                int length = Math.min(chunk, samples - position);
+                float[] interleaved = new float[length * 2];
+                for (int i = 0; i < length; i++)
+                    interleaved[i * 2] = interleaved[i * 2 + 1] =
+                            0.5F * (float) Math.sin((position + i) * 2D * Math.PI * 440D / 48_000D);
+
+                targetStream.getAudioTargetStream().write(
+                        new AudioFrame(0D, position / 48_000D, length / 48_000D, interleaved, format));
+            }
+
+            targetStream.close();
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("matroska")) {
+                sourceStream.registerStreams();
+
+                AudioSourceSubstream audioSourceSubstream = (AudioSourceSubstream) sourceStream.getSubstreams(AudioSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No audio substream, but was expected"));
+
+                long decoded = 0;
+                double sumOfSquares = 0D;
+                while (true) {
+                    AudioFrame frame;
+                    try {
+                        frame = audioSourceSubstream.next();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+
+                    for (int i = 0; i < frame.getLength(); i += 2)
+                        sumOfSquares += frame.getSamples()[i] * frame.getSamples()[i];
+
+                    decoded += frame.getLength() / 2;
+                }
+
+                // Every sample written (plus the encoder's priming samples), at the amplitude it was written with
+                assertTrue("decoded " + decoded, decoded >= samples);
+                assertEquals(0.5D / Math.sqrt(2D), Math.sqrt(sumOfSquares / samples), 0.05D);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testEncode_AacTimestamps() throws Exception {
+        // The packets AAC holds back come out as the encoder is drained, and must keep the encoder's timestamps
+        int samples = 48_000;
+        AudioFormat format = new AudioFormat(48_000, 2, avutil.AV_CH_LAYOUT_STEREO);
+
+        Path tempFile = Files.createTempFile("temp-audio", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.registerAudioSubstream("aac", format, new HashMap<>());
+            targetStream.writeHeader();
+
+            targetStream.getAudioTargetStream().write(new AudioFrame(0D, 0D, 1D, new float[samples * 2], format));
+            targetStream.close();
+
+            long packets = 0L, lastPts = Long.MIN_VALUE, lastDts = Long.MIN_VALUE;
+            AVPacket packet = avcodec.av_packet_alloc();
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("nut")) {
+                while (sourceStream.readRawPacket(packet)) {
+                    assertNotEquals(avutil.AV_NOPTS_VALUE, packet.pts());
+                    assertTrue("pts " + packet.pts() + " after " + lastPts, packet.pts() > lastPts);
+                    assertTrue("dts " + packet.dts() + " after " + lastDts, packet.dts() > lastDts);
+                    assertTrue(packet.pts() >= packet.dts());
+
+                    lastPts = packet.pts();
+                    lastDts = packet.dts();
+                    packets++;
+                    avcodec.av_packet_unref(packet);
+                }
+            } finally {
+                avcodec.av_packet_free(packet);
+            }
+
+            // The last packets are the ones drained at the end
+            assertEquals(targetStream.getEncoderStatistics().get(0).getPackets(), packets);
+            assertTrue(packets > samples / 1024);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testEncode_DirectBuffers() throws Exception {
+        int width = 320, height = 240, padding = 32, frames = 15;
+
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            // B-frames: the encoder holds on to frames, which must neither be overwritten nor lost at the end
+            Map<String, String> options = new HashMap<>();
+            options.put("bf", "2");
+
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            FFmpegVideoTargetSubstream videoTargetSubstream =
+                    targetStream.registerVideoSubstream("mpeg4", new VideoFormat(width, height, 15D), options);
+            targetStream.writeHeader();
+
+            // The same (padded, offset) direct buffers are overwritten for every frame
+            int[] lineSizes = { width + padding, width / 2 + padding, width / 2 + padding };
+            ByteBuffer[] planes = new ByteBuffer[3];
+            for (int plane = 0; plane < 3; plane++) {
+                planes[plane] = ByteBuffer.allocateDirect(16 + lineSizes[plane] * (plane == 0 ? height : height / 2));
+                planes[plane].position(16);
+            }
+
+            for (int i = 0; i < frames; i++) {
+                for (int plane = 0; plane < 3; plane++) {
+                    ByteBuffer buffer = planes[plane];
+                    for (int j = 16; j < buffer.capacity(); j++)
+                        buffer.put(j, plane == 0 ? (byte) (32 + i * 12) : (byte) 128);
+                }
+
+                videoTargetSubstream.write(avutil.AV_PIX_FMT_YUV420P, width, height, planes, lineSizes);
+            }
+
+            targetStream.close();
+
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("nut")) {
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+
+                int decoded = 0;
+                while (true) {
+                    VideoFrame frame;
+                    try {
+                        frame = videoSourceSubstream.next();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+
+                    ByteBuffer luma = frame.getPlane(0);
+                    int center = (height / 2) * frame.getLineSize(0) + width / 2;
+                    assertEquals("frame " + decoded, 32 + decoded * 12, luma.get(center) & 0xFF, 4);
+
+                    decoded++;
+                }
+
+                assertEquals(frames, decoded);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testEncode_Profile() throws Exception {
+        int width = 160, height = 120;
+
+        Map<String, String> options = new HashMap<>();
+        options.put("qmin", "3");
+        options.put("not_an_option", "1");
+
+        EncoderProfile profile = EncoderProfile.DEFAULT
+                .withThreads(2)
+                .withThreadType(EncoderProfile.ThreadType.SLICE)
+                .withConstantBitRate(400_000L)
+                .withGopSize(12)
+                .withMaxBFrames(2);
+
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            FFmpegVideoTargetSubstream substream =
+                    targetStream.registerVideoSubstream("mpeg4", new VideoFormat(width, height, 15D), profile, options);
+
+            AVCodecContext codecContext = substream.getCodecContext();
+            assertEquals(2, codecContext.thread_count());
+            assertEquals(AVCodecContext.FF_THREAD_SLICE, codecContext.thread_type());
+            assertEquals(400_000L, codecContext.bit_rate());
+            assertEquals(400_000L, codecContext.rc_min_rate());
+            assertEquals(400_000L, codecContext.rc_max_rate());
+            assertEquals(400_000, codecContext.rc_buffer_size());
+            assertEquals(12, codecContext.gop_size());
+            assertEquals(2, codecContext.max_b_frames());
+            assertEquals(3, codecContext.qmin());
+
+            // Profile options first, then the raw options the encoder used; unknown ones are left out
+            Map<String, String> encoderOptions = substream.getEncoderOptions();
+            assertEquals(Arrays.asList("threads", "thread_type", "b", "minrate", "maxrate", "bufsize", "g", "bf", "qmin"),
+                    new ArrayList<>(encoderOptions.keySet()));
+            assertEquals("12", encoderOptions.get("g"));
+
+            targetStream.writeHeader();
+
+            byte[] data = new byte[width * height * 3 / 2];
+            for (int i = 0; i < 15; i++)
+                substream.write(new VideoFrame(0D, i / 15D, 1D / 15D, avutil.AV_PIX_FMT_YUV420P, width, height, data));
+
+            targetStream.close();
+
+            assertTrue(Files.size(tempFile) > 0);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testEncode_ProfileLookahead() throws Exception {
+        EncoderProfile profile = EncoderProfile.DEFAULT.withCrf(30).withLookahead(8);
+
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            FFmpegVideoTargetSubstream substream =
+                    targetStream.registerVideoSubstream("libvpx", new VideoFormat(160, 120, 15D), profile, new HashMap<>());
+
+            // libvpx calls its lookahead lag-in-frames
+            Map<String, String> encoderOptions = substream.getEncoderOptions();
+            assertEquals("30.0", encoderOptions.get("crf"));
+            assertEquals("8", encoderOptions.get("lag-in-frames"));
+
+            targetStream.writeHeader();
+            targetStream.close();
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testEncode_ProfileUnsupported() throws Exception {
+        Path tempFile = Files.createTempFile("temp-video", null);
+        try {
+            FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+            // mpeg4 has neither presets nor constant rate factors; that is an error, not a silently ignored option
+            for (EncoderProfile profile : Arrays.asList(
+                    EncoderProfile.DEFAULT.withPreset("veryfast"),
+                    EncoderProfile.DEFAULT.withCrf(23),
+                    EncoderProfile.DEFAULT.withLookahead(8))) {
+                try {
+                    targetStream.registerVideoSubstream("mpeg4", new VideoFormat(160, 120, 15D), profile, new HashMap<>());
+                    fail("expected FFmpegException for " + profile);
+                } catch (FFmpegException expected) {
+                    // expected
+                }
+            }
+
+            // ... as is an option the encoder can't open with
+            Map<String, String> options = new HashMap<>();
+            options.put("b", "not a bitrate");
+            try {
+                targetStream.registerVideoSubstream("mpeg4", new VideoFormat(160, 120, 15D), options);
+                fail("expected FFmpegException for " + options);
+            } catch (FFmpegException expected) {
+                // expected
+            }
+
+            // Nothing rejected was left in the container, so the stream can still be written
+            assertEquals(0, targetStream.getFormatContext().nb_streams());
+            targetStream.registerVideoSubstream("mpeg4", new VideoFormat(160, 120, 15D), new HashMap<>());
+            assertEquals(1, targetStream.getFormatContext().nb_streams());
+            targetStream.writeHeader();
+            targetStream.close();
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_MultipleOutputs() throws Exception {
+        int[] divisors = { 1, 2, 4 };
+        List<Path> tempFiles = new ArrayList<>();
+
+        try {
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+                // Native frames are shared between the outputs' threads, and scaled by each of them
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                sourceStream.setNativeFrames(true);
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                VideoFormat inputFormat = videoSourceSubstream.getFormat();
+
+                MultiTranscoder transcoder = new MultiTranscoder(sourceStream, 4);
+
+                for (int divisor : divisors) {
+                    Path tempFile = Files.createTempFile("temp-video", null);
+                    tempFiles.add(tempFile);
+
+                    VideoFormat outputFormat = new VideoFormat(
+                            inputFormat.getWidth() / divisor, inputFormat.getHeight() / divisor,
+                            inputFormat.getFramesPerSecond()
+                    );
+
+                    FFmpegTargetStream targetStream = FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+                    targetStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                    targetStream.registerVideoSubstream("mpeg4", outputFormat, new HashMap<>());
+
+                    transcoder.addOutput(targetStream,
+                            new AudioFilterNone(),
+                            new FFmpegVideoRescaleFilter(inputFormat, outputFormat, avutil.AV_PIX_FMT_YUV420P));
+                }
+
+                transcoder.transcode();
+
+                long writtenFrames = transcoder.getOutputs().get(0).getWrittenFrames();
+                assertTrue(writtenFrames > 0);
+                for (MultiTranscoder.Output output : transcoder.getOutputs()) {
+                    assertNull(output.getError());
+                    assertEquals(writtenFrames, output.getWrittenFrames());
+                }
+            }
+
+            for (int i = 0; i < divisors.length; i++) {
+                try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFiles.get(i))).open("nut")) {
+                    sourceStream.registerStreams();
+
+                    VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                            .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                    assertEquals(320 / divisors[i], videoSourceSubstream.getFormat().getWidth());
+                    assertEquals(240 / divisors[i], videoSourceSubstream.getFormat().getHeight());
+                    assertNotNull(videoSourceSubstream.next());
+                }
+            }
+        } finally {
+            for (Path tempFile : tempFiles)
+                Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_MultipleOutputsWithFailure() throws Exception {
+        Path goodFile = Files.createTempFile("temp-video", null);
+        Path badFile = Files.createTempFile("temp-video", null);
+
+        try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4")).open("mp4")) {
+            sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            sourceStream.registerStreams();
+
+            VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                    .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+            VideoFormat format = videoSourceSubstream.getFormat();
+
+            MultiTranscoder transcoder = new MultiTranscoder(sourceStream, 2);
+
+            FFmpegTargetStream goodStream = FFmpegIO.openChannel(Files.newByteChannel(goodFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            goodStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            goodStream.registerVideoSubstream("mpeg4", format, new HashMap<>());
+            MultiTranscoder.Output good = transcoder.addOutput(goodStream);
+
+            FFmpegTargetStream badStream = FFmpegIO.openChannel(Files.newByteChannel(badFile, StandardOpenOption.WRITE)).asOutput().open("nut");
+            badStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            badStream.registerVideoSubstream("mpeg4", format, new HashMap<>());
+            MultiTranscoder.Output bad = transcoder.addOutput(badStream, new AudioFilterNone(), new VideoFilterNone() {
+                @Override
+                public Collection<VideoFrame> apply(VideoFrame source) {
+                    throw new IllegalStateException("filter failed");
+                }
+            });
+
+            try {
+                transcoder.transcode();
+                fail("expected the failing output to be reported");
+            } catch (IOException expected) {
+                assertTrue(expected.getCause() instanceof IllegalStateException);
+            }
+
+            // The failing output doesn't hold up the other one, which still gets every frame
+            assertNull(good.getError());
+            assertNotNull(bad.getError());
+            assertEquals(0, bad.getWrittenFrames());
+            assertTrue(good.getWrittenFrames() > 0);
+            assertEquals(0, good.getQueuedFrames());
+            assertEquals(0, bad.getQueuedFrames());
+        } finally {
+            Files.deleteIfExists(goodFile);
+            Files.deleteIfExists(badFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_Segments() throws Exception {
+        // Segments are transcoded from seeks into the source, so it has to be a file, not a stream
+        Path sourceFile = Files.createTempFile("temp-source", null);
+        Path tempFile = Files.createTempFile("temp-video", null);
+
+        try {
+            Files.copy(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4"), sourceFile,
+                    StandardCopyOption.REPLACE_EXISTING);
+
+            SegmentTranscoder transcoder = new SegmentTranscoder(() -> {
+                FFmpegSourceStream sourceStream = FFmpegIO.openInputChannel(Files.newByteChannel(sourceFile)).open("mp4");
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                return sourceStream;
+            }, (source, target) -> {
+                if (source instanceof VideoSourceSubstream)
+                    return target.registerVideoSubstream("mpeg4", ((VideoSourceSubstream) source).getFormat(), new HashMap<>());
+                else if (source instanceof AudioSourceSubstream)
+                    return target.registerAudioSubstream("aac", ((AudioSourceSubstream) source).getFormat(), new HashMap<>());
+                else
+                    return null;
+            });
+            transcoder.setThreads(2);
+            transcoder.setSegmentDuration(1D);
+
+            transcoder.transcode(FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut"));
+
+            List<SegmentTranscoder.Segment> segments = transcoder.getSegments();
+            assertTrue(segments.size() > 1);
+
+            long sourceFrames = 0L;
+            for (SegmentTranscoder.Segment segment : segments) {
+                assertEquals(sourceFrames, segment.getStartFrame());
+                assertEquals(segment.getFrameCount(), segment.getEncodedFrames());
+                sourceFrames += segment.getFrameCount();
+            }
+
+            // The concatenated segments play as one stream, with every frame of the source, in order
+            try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(Files.newInputStream(tempFile)).open("nut")) {
+                sourceStream.registerStreams();
+
+                VideoSourceSubstream videoSourceSubstream = (VideoSourceSubstream) sourceStream.getSubstreams(VideoSourceSubstream.class)
+                        .stream().findFirst().orElseThrow(() -> new AssertionError("No video substream, but was expected"));
+                assertEquals(320, videoSourceSubstream.getFormat().getWidth());
+                assertEquals(240, videoSourceSubstream.getFormat().getHeight());
+                assertFalse(sourceStream.getSubstreams(AudioSourceSubstream.class).isEmpty());
+
+                long frames = 0L;
+                double lastPosition = -1D;
+                while (true) {
+                    try {
+                        sourceStream.readPacket();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+
+                    for (MediaSourceSubstream<?> substream : sourceStream.getSubstreams(VideoSourceSubstream.class)) {
+                        for (Object decoded : substream.drain()) {
+                            VideoFrame frame = (VideoFrame) decoded;
+                            assertTrue(frame.getPosition() > lastPosition);
+                            lastPosition = frame.getPosition();
+                            frames++;
+                            frame.release();
+                        }
+                    }
+                }
+
+                assertEquals(sourceFrames, frames);
+            }
+        } finally {
+            Files.deleteIfExists(sourceFile);
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Test
+    public void testTranscode_SegmentsFailure() throws Exception {
+        Path sourceFile = Files.createTempFile("temp-source", null);
+        Path tempFile = Files.createTempFile("temp-video", null);
+        Path temporaryDirectory = Files.createTempDirectory("temp-segments");
+
+        try {
+            Files.copy(FFmpegTranscodeTest.class.getResourceAsStream("/sample-mp4-file-small.mp4"), sourceFile,
+                    StandardCopyOption.REPLACE_EXISTING);
+
+            // One segment fails while the others are still being written
+            AtomicInteger videoSegments = new AtomicInteger();
+            SegmentTranscoder transcoder = new SegmentTranscoder(() -> {
+                FFmpegSourceStream sourceStream = FFmpegIO.openInputChannel(Files.newByteChannel(sourceFile)).open("mp4");
+                sourceStream.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                return sourceStream;
+            }, (source, target) -> {
+                if (source instanceof VideoSourceSubstream) {
+                    if (videoSegments.incrementAndGet() == 3) throw new FFmpegException("segment failed");
+                    return target.registerVideoSubstream("mpeg4", ((VideoSourceSubstream) source).getFormat(), new HashMap<>());
+                } else if (source instanceof AudioSourceSubstream)
+                    return target.registerAudioSubstream("aac", ((AudioSourceSubstream) source).getFormat(), new HashMap<>());
+                else
+                    return null;
+            });
+            transcoder.setThreads(2);
+            transcoder.setSegmentDuration(1D);
+            transcoder.setTemporaryDirectory(temporaryDirectory);
+
+            try {
+                transcoder.transcode(FFmpegIO.openChannel(Files.newByteChannel(tempFile, StandardOpenOption.WRITE)).asOutput().open("nut"));
+                fail("expected FFmpegException");
+            } catch (FFmpegException expected) {
+                // The segment's own failure, not one from cleaning up after it
+                assertEquals("segment failed", expected.getMessage());
+                assertEquals(0, expected.getSuppressed().length);
+            }
+
+            // The workers stopped before their segments were deleted
+            try (java.util.stream.Stream<Path> files = Files.list(temporaryDirectory)) {
+                assertEquals(0L, files.count());
+            }
+        } finally {
+            Files.deleteIfExists(sourceFile);
+            Files.deleteIfExists(tempFile);
+            Files.deleteIfExists(temporaryDirectory);
+        }
+    }
 }
@@ -0,0 +1,155 @@
+import com.github.manevolent.ffmpeg4j.*;
+import com.github.manevolent.ffmpeg4j.pool.*;
+import com.github.manevolent.ffmpeg4j.source.*;
+import com.github.manevolent.ffmpeg4j.stream.source.*;
+import org.junit.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.logging.*;
+
+import static org.junit.Assert.*;
+
+public class FrameBufferPoolTest {
+
+    @BeforeClass
+    public static void setupLogLevel() {
+        Logging.DEBUG_LOG_LEVEL = Level.INFO;
+    }
+
+    @Test
+    public void testRecycle() {
+        RecyclingFrameBufferPool pool = new RecyclingFrameBufferPool(1, 1);
+
+        byte[] first = pool.allocateBytes(1024);
+        byte[] second = pool.allocateBytes(1024);
+        byte[] third = pool.allocateBytes(1024);
+        assertEquals(3, pool.getStatistics().getAllocated());
+        assertEquals(3 * 1024, pool.getStatistics().getAllocatedBytes());
+
+        // One goes to the thread cache, one to the shared queue, and the last one is left to the garbage collector
+        pool.recycle(first);
+        pool.recycle(second);
+        pool.recycle(third);
+        assertEquals(2, pool.getStatistics().getRecycled());
+        assertEquals(1, pool.getStatistics().getDiscarded());
+
+        // Arrays are only handed out again for the exact same length
+        assertEquals(512, pool.allocateBytes(512).length);
+        assertSame(first, pool.allocateBytes(1024));
+        assertSame(second, pool.allocateBytes(1024));
+        assertEquals(2, pool.getStatistics().getReused());
+
+        // Floats and shorts are pooled separately
+        float[] floats = pool.allocateFloats(1024);
+        pool.recycle(floats);
+        assertSame(floats, pool.allocateFloats(1024));
+
+        short[] shorts = pool.allocateShorts(1024);
+        pool.recycle(shorts);
+        assertSame(shorts, pool.allocateShorts(1024));
+    }
+
+    @Test
+    public void testRecycle_ManySizeClasses() {
+        RecyclingFrameBufferPool pool = new RecyclingFrameBufferPool(1, 1);
+
+        // Lengths that are multiples of a large power of two, like plane sizes tend to be
+        byte[][] threadCached = new byte[64][], shared = new byte[64][];
+        for (int i = 0; i < 64; i++) {
+            threadCached[i] = pool.allocateBytes((i + 1) * 4096);
+            shared[i] = pool.allocateBytes((i + 1) * 4096);
+        }
+
+        for (int i = 0; i < 64; i++) {
+            pool.recycle(threadCached[i]);
+            pool.recycle(shared[i]);
+        }
+
+        for (int i = 0; i < 64; i++) {
+            assertSame(threadCached[i], pool.allocateBytes((i + 1) * 4096));
+            assertSame(shared[i], pool.allocateBytes((i + 1) * 4096));
+        }
+
+        assertEquals(128, pool.getStatistics().getReused());
+    }
+
+    @Test
+    public void testRecycle_NoAllocation() {
+        RecyclingFrameBufferPool pool = new RecyclingFrameBufferPool();
+
+        // Once warmed up, handing out and taking back the same arrays allocates nothing at all
+        for (int i = 0; i < 100_000; i++) cycle(pool);
+
+        long allocatedBytes = getAllocatedBytes();
+        for (int i = 0; i < 100_000; i++) cycle(pool);
+        assertTrue(getAllocatedBytes() - allocatedBytes < 1024);
+    }
+
+    private static void cycle(FrameBufferPool pool) {
+        byte[] bytes = pool.allocateBytes(1920 * 1080);
+        float[] floats = pool.allocateFloats(2048);
+        pool.recycle(bytes);
+        pool.recycle(floats);
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0L;
+    }
+
+    @Test
+    public void testFrameRelease() {
+        RecyclingFrameBufferPool pool = new RecyclingFrameBufferPool();
+
+        float[] samples = pool.allocateFloats(256);
+        AudioFrame frame = new AudioFrame(0D, 0D, 0D, samples, samples.length, null, pool);
+
+        // Buffers are only recycled once the last reference is released
+        assertSame(frame, frame.retain());
+        assertFalse(frame.release());
+        assertEquals(0, pool.getStatistics().getRecycled());
+        assertTrue(frame.release());
+        assertEquals(1, pool.getStatistics().getRecycled());
+
+        assertThrows(IllegalStateException.class, frame::release);
+        assertThrows(IllegalStateException.class, frame::retain);
+
+        assertSame(samples, pool.allocateFloats(256));
+    }
+
+    @Test
+    public void testDecode_SteadyState() throws Exception {
+        RecyclingFrameBufferPool pool = new RecyclingFrameBufferPool();
+        long frames = 0;
+
+        InputStream resource = FrameBufferPoolTest.class.getResourceAsStream("/sample-mp4-file-small.mp4");
+        try (FFmpegSourceStream sourceStream = FFmpegIO.openInputStream(resource).open("mp4")) {
+            sourceStream.setFrameBufferPool(pool);
+            sourceStream.registerStreams();
+
+            boolean eof = false;
+            while (!eof) {
+                try {
+                    sourceStream.readPacket();
+                } catch (EOFException ex) {
+                    eof = true; // Drained decoders still queue their last frames
+                }
+
+                for (MediaSourceSubstream<?> substream : sourceStream.getSubstreams())
+                    for (Object frame : substream.drain()) {
+                        ((MediaFrame) frame).release();
+                        frames++;
+                    }
+            }
+        }
+
+        // Once the first frame of each size has been released, every buffer after that is a re-used one
+        FrameBufferPoolStatistics statistics = pool.getStatistics();
+        assertTrue(frames > 100);
+        assertTrue(statistics.toString(), statistics.getAllocated() < 16);
+        assertEquals(frames, statistics.getAllocated() + statistics.getReused());
+    }
+}